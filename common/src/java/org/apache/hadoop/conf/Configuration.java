@@ -19,8 +19,11 @@
 package org.apache.hadoop.conf;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -38,12 +41,14 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
@@ -53,6 +58,10 @@ import java.util.regex.PatternSyntaxException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -87,7 +96,8 @@ import org.xml.sax.SAXException;
  * <h4 id="Resources">Resources</h4>
  *
  * <p>Configurations are specified by resources. A resource contains a set of
- * name/value pairs as XML data. Each resource is named by either a 
+ * name/value pairs as XML data, or in the binary format written by
+ * {@link #writeBinary(OutputStream)}. Each resource is named by either a 
  * <code>String</code> or by a {@link Path}. If named by a <code>String</code>, 
  * then the classpath is examined for a file with that name.  If named by a 
  * <code>Path</code>, then the local filesystem is examined directly, without 
@@ -373,6 +383,8 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
   private Properties properties;
   private Properties overlay;
   private ClassLoader classLoader;
+  /** The lookup table of a frozen configuration, null until it is frozen. */
+  private volatile FrozenProperties frozen;
   {
     classLoader = Thread.currentThread().getContextClassLoader();
     if (classLoader == null) {
@@ -438,7 +450,7 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
     if(!defaultResources.contains(name)) {
       defaultResources.add(name);
       for(Configuration conf : REGISTRY.keySet()) {
-        if(conf.loadDefaults) {
+        if(conf.loadDefaults && !conf.isFrozen()) {
           conf.reloadConfiguration();
         }
       }
@@ -508,11 +520,13 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    * via set methods will overlay values read from the resources.
    */
   public synchronized void reloadConfiguration() {
+    checkNotFrozen();
     properties = null;                            // trigger reload
     finalParameters.clear();                      // clear site-limits
   }
   
   private synchronized void addResourceObject(Object resource) {
+    checkNotFrozen();
     resources.add(resource);                      // add to resources
     reloadConfiguration();
   }
@@ -565,6 +579,11 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    *         or null if no such property exists.
    */
   public String get(String name) {
+    FrozenProperties frozen = this.frozen;
+    if (frozen != null) {
+      FrozenProperties.Entry entry = getFrozenEntry(frozen, name);
+      return entry == null ? null : entry.value;
+    }
     name = handleDeprecation(name);
     return substituteVars(getProps().getProperty(name));
   }
@@ -583,6 +602,11 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    *         or null if no such property exists.
    */
   public String getTrimmed(String name) {
+    FrozenProperties frozen = this.frozen;
+    if (frozen != null) {
+      FrozenProperties.Entry entry = getFrozenEntry(frozen, name);
+      return entry == null ? null : entry.trimmed;
+    }
     String value = get(name);
     
     if (null == value) {
@@ -603,6 +627,11 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    *         its replacing property and null if no such property exists.
    */
   public String getRaw(String name) {
+    FrozenProperties frozen = this.frozen;
+    if (frozen != null) {
+      FrozenProperties.Entry entry = lookupFrozen(frozen, name);
+      return entry == null ? null : entry.raw;
+    }
     name = handleDeprecation(name);
     return getProps().getProperty(name);
   }
@@ -616,6 +645,7 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    * @param value property value.
    */
   public void set(String name, String value) {
+    checkNotFrozen();
     if (deprecatedKeyMap.isEmpty()) {
       getProps();
     }
@@ -638,6 +668,7 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    * Unset a previously set property.
    */
   public synchronized void unset(String name) {
+    checkNotFrozen();
     name = handleDeprecation(name);
 
     getOverlay().remove(name);
@@ -650,6 +681,7 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    * @param value the new value
    */
   public synchronized void setIfUnset(String name, String value) {
+    checkNotFrozen();
     if (get(name) == null) {
       set(name, value);
     }
@@ -675,6 +707,11 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    *         doesn't exist.                    
    */
   public String get(String name, String defaultValue) {
+    FrozenProperties frozen = this.frozen;
+    if (frozen != null) {
+      FrozenProperties.Entry entry = getFrozenEntry(frozen, name);
+      return entry == null ? substituteVars(defaultValue) : entry.value;
+    }
     name = handleDeprecation(name);
     return substituteVars(getProps().getProperty(name, defaultValue));
   }
@@ -691,20 +728,29 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    *         or <code>defaultValue</code>. 
    */
   public int getInt(String name, int defaultValue) {
+    FrozenProperties frozen = this.frozen;
+    if (frozen != null) {
+      FrozenProperties.Entry entry = getFrozenEntry(frozen, name);
+      return entry == null ? defaultValue : entry.getInt(defaultValue);
+    }
     String valueString = getTrimmed(name);
     if (valueString == null)
       return defaultValue;
     try {
-      String hexString = getHexDigits(valueString);
-      if (hexString != null) {
-        return Integer.parseInt(hexString, 16);
-      }
-      return Integer.parseInt(valueString);
+      return parseInt(valueString);
     } catch (NumberFormatException e) {
       return defaultValue;
     }
   }
 
+  private static int parseInt(String value) {
+    String hexString = getHexDigits(value);
+    if (hexString != null) {
+      return Integer.parseInt(hexString, 16);
+    }
+    return Integer.parseInt(value);
+  }
+
   /** 
    * Set the value of the <code>name</code> property to an <code>int</code>.
    * 
@@ -727,21 +773,30 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    *         or <code>defaultValue</code>. 
    */
   public long getLong(String name, long defaultValue) {
+    FrozenProperties frozen = this.frozen;
+    if (frozen != null) {
+      FrozenProperties.Entry entry = getFrozenEntry(frozen, name);
+      return entry == null ? defaultValue : entry.getLong(defaultValue);
+    }
     String valueString = getTrimmed(name);
     if (valueString == null)
       return defaultValue;
     try {
-      String hexString = getHexDigits(valueString);
-      if (hexString != null) {
-        return Long.parseLong(hexString, 16);
-      }
-      return Long.parseLong(valueString);
+      return parseLong(valueString);
     } catch (NumberFormatException e) {
       return defaultValue;
     }
   }
 
-  private String getHexDigits(String value) {
+  private static long parseLong(String value) {
+    String hexString = getHexDigits(value);
+    if (hexString != null) {
+      return Long.parseLong(hexString, 16);
+    }
+    return Long.parseLong(value);
+  }
+
+  private static String getHexDigits(String value) {
     boolean negative = false;
     String str = value;
     String hexString = null;
@@ -780,6 +835,11 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    *         or <code>defaultValue</code>. 
    */
   public float getFloat(String name, float defaultValue) {
+    FrozenProperties frozen = this.frozen;
+    if (frozen != null) {
+      FrozenProperties.Entry entry = getFrozenEntry(frozen, name);
+      return entry == null ? defaultValue : entry.getFloat(defaultValue);
+    }
     String valueString = getTrimmed(name);
     if (valueString == null)
       return defaultValue;
@@ -1176,6 +1236,24 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    *         or <code>defaultValue</code>. 
    */
   public Class<?> getClass(String name, Class<?> defaultValue) {
+    FrozenProperties frozen = this.frozen;
+    if (frozen != null) {
+      FrozenProperties.Entry entry = getFrozenEntry(frozen, name);
+      if (entry == null)
+        return defaultValue;
+      ClassLoader loader = classLoader;
+      FrozenProperties.LoadedClass loaded = entry.loadedClass;
+      if (loaded == null || loaded.loader != loader) {
+        try {
+          loaded = new FrozenProperties.LoadedClass(loader,
+              getClassByName(entry.trimmed));
+        } catch (ClassNotFoundException e) {
+          throw new RuntimeException(e);
+        }
+        entry.loadedClass = loaded;
+      }
+      return loaded.theClass;
+    }
     String valueString = getTrimmed(name);
     if (valueString == null)
       return defaultValue;
@@ -1402,6 +1480,7 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
    * Clears all keys from the configuration.
    */
   public void clear() {
+    checkNotFrozen();
     getProps().clear();
     getOverlay().clear();
   }
@@ -1427,6 +1506,258 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
     return result.entrySet().iterator();
   }
 
+  /**
+   * Freeze the configuration, making it read-only.
+   *
+   * The properties are loaded, their <a href="#VariableExpansion">variables
+   * are expanded</a> and the keys of deprecated properties are resolved once,
+   * into a lookup table that is never modified. Afterwards, lookups take no
+   * lock and allocate nothing, and the values that the typed getters such as
+   * {@link #getInt(String, int)} and {@link #getClass(String, Class)} parse
+   * are remembered, so hot paths may query the configuration freely.
+   *
+   * Any attempt to change a frozen configuration, by setting or unsetting a
+   * property, adding a resource or reloading it, throws an
+   * <code>UnsupportedOperationException</code>. Variables refer to the system
+   * properties as they were when the configuration was frozen. A copy made
+   * with {@link #Configuration(Configuration)} is not frozen.
+   */
+  public synchronized void freeze() {
+    if (frozen != null) {
+      return;
+    }
+    Properties props = getProps();
+    // Pick up the values set through deprecated keys, as the first lookup
+    // of each replacing key would.
+    for (String newKey : new ArrayList<String>(
+        reverseDeprecatedKeyMap.keySet())) {
+      handleDeprecation(newKey);
+    }
+    Map<String, FrozenProperties.Entry> entries =
+      new HashMap<String, FrozenProperties.Entry>(props.size() * 2);
+    for (Map.Entry<Object, Object> item : props.entrySet()) {
+      if (item.getKey() instanceof String &&
+          item.getValue() instanceof String) {
+        String raw = (String) item.getValue();
+        String value;
+        try {
+          value = substituteVars(raw);
+        } catch (IllegalStateException e) {
+          value = null;           // expanded again, and failing, when read
+        }
+        entries.put((String) item.getKey(),
+                    new FrozenProperties.Entry(raw, value, null));
+      }
+    }
+    // A deprecated key reads the value of the key that replaces it.
+    for (Map.Entry<String, DeprecatedKeyInfo> item :
+         new ArrayList<Map.Entry<String, DeprecatedKeyInfo>>(
+             deprecatedKeyMap.entrySet())) {
+      DeprecatedKeyInfo keyInfo = item.getValue();
+      FrozenProperties.Entry entry = null;
+      for (String newKey : keyInfo.newKeys) {
+        if (newKey != null) {
+          entry = entries.get(newKey);
+          break;
+        }
+      }
+      if (entry == null) {
+        entries.remove(item.getKey());
+      } else {
+        entries.put(item.getKey(), new FrozenProperties.Entry(entry.raw,
+                                                             entry.value,
+                                                             keyInfo));
+      }
+    }
+    frozen = new FrozenProperties(entries);
+  }
+
+  /**
+   * @return <code>true</code> if the configuration was {@link #freeze()
+   *         frozen}, <code>false</code> otherwise.
+   */
+  public boolean isFrozen() {
+    return frozen != null;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen != null) {
+      throw new UnsupportedOperationException("Configuration is frozen");
+    }
+  }
+
+  /**
+   * Look a property up in the table of a frozen configuration, warning
+   * about the use of a deprecated key like {@link #handleDeprecation(String)}.
+   */
+  private static FrozenProperties.Entry lookupFrozen(FrozenProperties frozen,
+                                                     String name) {
+    FrozenProperties.Entry entry = frozen.get(name);
+    if (entry != null && entry.deprecation != null &&
+        !entry.deprecation.accessed) {
+      LOG.warn(entry.deprecation.getWarningMessage(name));
+    }
+    return entry;
+  }
+
+  /**
+   * Look a property up in the table of a frozen configuration, for a getter
+   * returning its expanded value.
+   */
+  private FrozenProperties.Entry getFrozenEntry(FrozenProperties frozen,
+                                                String name) {
+    FrozenProperties.Entry entry = lookupFrozen(frozen, name);
+    if (entry != null && entry.value == null) {
+      substituteVars(entry.raw);  // throws, as the expansion failed on freeze
+    }
+    return entry;
+  }
+
+  /**
+   * The read-only lookup table of a frozen configuration.
+   *
+   * An open-addressing hash table with linear probing, kept at most half
+   * full. Both arrays are written only by the constructor, so any thread
+   * that sees the table sees it whole.
+   */
+  private static class FrozenProperties {
+    /** Marks a value that is not a valid number. */
+    private static final Object NOT_A_NUMBER = new Object();
+
+    private final String[] keys;
+    private final Entry[] entries;
+    private final int mask;
+
+    FrozenProperties(Map<String, Entry> map) {
+      int capacity = 2;
+      while (capacity < map.size() * 2) {
+        capacity <<= 1;
+      }
+      keys = new String[capacity];
+      entries = new Entry[capacity];
+      mask = capacity - 1;
+      for (Map.Entry<String, Entry> item : map.entrySet()) {
+        int i = index(item.getKey());
+        while (keys[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = item.getKey();
+        entries[i] = item.getValue();
+      }
+    }
+
+    private int index(String key) {
+      int h = key.hashCode();
+      return (h ^ (h >>> 16)) & mask;
+    }
+
+    Entry get(String key) {
+      for (int i = index(key); ; i = (i + 1) & mask) {
+        String k = keys[i];
+        if (k == null) {
+          return null;
+        }
+        if (k == key || k.equals(key)) {
+          return entries[i];
+        }
+      }
+    }
+
+    /**
+     * A property of a frozen configuration.
+     *
+     * The parsed values are computed on first use. Two threads may both
+     * compute one, which is harmless: they compute the same immutable value.
+     */
+    static class Entry {
+      final String raw;
+      final String value;
+      final String trimmed;
+      /** The key deprecation, for an entry looked up by a deprecated key. */
+      final DeprecatedKeyInfo deprecation;
+
+      private Object intValue;
+      private Object longValue;
+      private Object floatValue;
+      LoadedClass loadedClass;
+
+      Entry(String raw, String value, DeprecatedKeyInfo deprecation) {
+        this.raw = raw;
+        this.value = value;
+        this.trimmed = value == null ? null : value.trim();
+        this.deprecation = deprecation;
+      }
+
+      int getInt(int defaultValue) {
+        Object parsed = intValue;
+        if (parsed == null) {
+          try {
+            parsed = Integer.valueOf(parseInt(trimmed));
+          } catch (NumberFormatException e) {
+            parsed = NOT_A_NUMBER;
+          }
+          intValue = parsed;
+        }
+        return parsed == NOT_A_NUMBER ? defaultValue : (Integer) parsed;
+      }
+
+      long getLong(long defaultValue) {
+        Object parsed = longValue;
+        if (parsed == null) {
+          try {
+            parsed = Long.valueOf(parseLong(trimmed));
+          } catch (NumberFormatException e) {
+            parsed = NOT_A_NUMBER;
+          }
+          longValue = parsed;
+        }
+        return parsed == NOT_A_NUMBER ? defaultValue : (Long) parsed;
+      }
+
+      float getFloat(float defaultValue) {
+        Object parsed = floatValue;
+        if (parsed == null) {
+          try {
+            parsed = Float.valueOf(trimmed);
+          } catch (NumberFormatException e) {
+            parsed = NOT_A_NUMBER;
+          }
+          floatValue = parsed;
+        }
+        return parsed == NOT_A_NUMBER ? defaultValue : (Float) parsed;
+      }
+    }
+
+    /** A class loaded from the value of a property, by a class loader. */
+    static class LoadedClass {
+      final ClassLoader loader;
+      final Class<?> theClass;
+
+      LoadedClass(ClassLoader loader, Class<?> theClass) {
+        this.loader = loader;
+        this.theClass = theClass;
+      }
+    }
+  }
+
+  /** The header of a resource in the binary format. */
+  private static final byte[] BINARY_MAGIC = { 'H', 'C', 'F', 'G' };
+  /** The version of the binary format that is written. */
+  private static final int BINARY_VERSION = 1;
+
+  private static final String XINCLUDE_NS =
+    "http://www.w3.org/2001/XInclude";
+  /** XMLInputFactory is not guaranteed to be thread safe, so one per thread. */
+  private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY =
+    new ThreadLocal<XMLInputFactory>() {
+      @Override
+      protected XMLInputFactory initialValue() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+      }
+    };
+
   private void loadResources(Properties properties,
                              ArrayList resources,
                              boolean quiet) {
@@ -1448,71 +1779,43 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
   
   private void loadResource(Properties properties, Object name, boolean quiet) {
     try {
-      DocumentBuilderFactory docBuilderFactory 
-        = DocumentBuilderFactory.newInstance();
-      //ignore all comments inside the xml file
-      docBuilderFactory.setIgnoringComments(true);
-
-      //allow includes in the xml file
-      docBuilderFactory.setNamespaceAware(true);
-      try {
-          docBuilderFactory.setXIncludeAware(true);
-      } catch (UnsupportedOperationException e) {
-        LOG.error("Failed to set setXIncludeAware(true) for parser "
-                + docBuilderFactory
-                + ":" + e,
-                e);
-      }
-      DocumentBuilder builder = docBuilderFactory.newDocumentBuilder();
       Document doc = null;
       Element root = null;
 
-      if (name instanceof URL) {                  // an URL resource
-        URL url = (URL)name;
-        if (url != null) {
-          if (!quiet) {
-            LOG.info("parsing " + url);
-          }
-          doc = builder.parse(url.toString());
+      if (name instanceof Element) {
+        root = (Element)name;
+      } else {
+        InputStream in = openResource(name, quiet);
+        if (in == null) {
+          if (quiet)
+            return;
+          throw new RuntimeException(name + " not found");
         }
-      } else if (name instanceof String) {        // a CLASSPATH resource
-        URL url = getResource((String)name);
-        if (url != null) {
-          if (!quiet) {
-            LOG.info("parsing " + url);
+        try {
+          in.mark(BINARY_MAGIC.length);
+          if (readBinaryMagic(in)) {
+            loadBinaryResource(properties, name, new DataInputStream(in));
+            return;
           }
-          doc = builder.parse(url.toString());
-        }
-      } else if (name instanceof Path) {          // a file resource
-        // Can't use FileSystem API or we get an infinite loop
-        // since FileSystem uses Configuration API.  Use java.io.File instead.
-        File file = new File(((Path)name).toUri().getPath())
-          .getAbsoluteFile();
-        if (file.exists()) {
-          if (!quiet) {
-            LOG.info("parsing " + file);
+          in.reset();
+          if (name instanceof InputStream) {
+            // keep what is read, to parse it again if it has to be
+            in.mark(Integer.MAX_VALUE);
           }
-          InputStream in = new BufferedInputStream(new FileInputStream(file));
-          try {
-            doc = builder.parse(in);
-          } finally {
-            in.close();
+          if (loadStreamedResource(properties, name, in)) {
+            return;
+          }
+          // The resource includes others, which only the DOM parser can do
+          if (name instanceof InputStream) {
+            in.reset();
+            doc = newDocumentBuilder().parse(in);
           }
-        }
-      } else if (name instanceof InputStream) {
-        try {
-          doc = builder.parse((InputStream)name);
         } finally {
-          ((InputStream)name).close();
+          in.close();
+        }
+        if (doc == null) {
+          doc = parseResource(name);
         }
-      } else if (name instanceof Element) {
-        root = (Element)name;
-      }
-
-      if (doc == null && root == null) {
-        if (quiet)
-          return;
-        throw new RuntimeException(name + " not found");
       }
 
       if (root == null) {
@@ -1549,20 +1852,7 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
             finalParameter = "true".equals(((Text)field.getFirstChild()).getData());
         }
         
-        // Ignore this parameter if it has already been marked as 'final'
-        if (attr != null) {
-          if (deprecatedKeyMap.containsKey(attr)) {
-            DeprecatedKeyInfo keyInfo = deprecatedKeyMap.get(attr);
-            keyInfo.accessed = false;
-            for (String key:keyInfo.newKeys) {
-              // update new keys with deprecated key's value 
-              loadProperty(properties, name, key, value, finalParameter);
-            }
-          }
-          else {
-            loadProperty(properties, name, attr, value, finalParameter);
-          }
-        }
+        loadDeprecatedProperty(properties, name, attr, value, finalParameter);
       }
         
     } catch (IOException e) {
@@ -1577,6 +1867,217 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
     } catch (ParserConfigurationException e) {
       LOG.fatal("error parsing conf file: " + e);
       throw new RuntimeException(e);
+    } catch (XMLStreamException e) {
+      LOG.fatal("error parsing conf file: " + e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Open a resource named by a URL, a CLASSPATH name, a local file or an
+   * input stream.
+   * @return the buffered content of the resource, or null if not found.
+   */
+  private InputStream openResource(Object name, boolean quiet)
+    throws IOException {
+    if (name instanceof URL || name instanceof String) {
+      URL url = name instanceof URL ? (URL)name : getResource((String)name);
+      if (url == null) {
+        return null;
+      }
+      if (!quiet) {
+        LOG.info("parsing " + url);
+      }
+      return new BufferedInputStream(url.openStream());
+    } else if (name instanceof Path) {          // a file resource
+      // Can't use FileSystem API or we get an infinite loop
+      // since FileSystem uses Configuration API.  Use java.io.File instead.
+      File file = new File(((Path)name).toUri().getPath())
+        .getAbsoluteFile();
+      if (!file.exists()) {
+        return null;
+      }
+      if (!quiet) {
+        LOG.info("parsing " + file);
+      }
+      return new BufferedInputStream(new FileInputStream(file));
+    } else if (name instanceof InputStream) {
+      return new BufferedInputStream((InputStream)name);
+    }
+    return null;
+  }
+
+  private static DocumentBuilder newDocumentBuilder()
+    throws ParserConfigurationException {
+    DocumentBuilderFactory docBuilderFactory 
+      = DocumentBuilderFactory.newInstance();
+    //ignore all comments inside the xml file
+    docBuilderFactory.setIgnoringComments(true);
+
+    //allow includes in the xml file
+    docBuilderFactory.setNamespaceAware(true);
+    try {
+        docBuilderFactory.setXIncludeAware(true);
+    } catch (UnsupportedOperationException e) {
+      LOG.error("Failed to set setXIncludeAware(true) for parser "
+              + docBuilderFactory
+              + ":" + e,
+              e);
+    }
+    return docBuilderFactory.newDocumentBuilder();
+  }
+
+  /**
+   * Parse a resource named by a URL, a CLASSPATH name or a local file with
+   * the DOM parser, which resolves the included resources.
+   */
+  private Document parseResource(Object name)
+    throws IOException, SAXException, ParserConfigurationException {
+    DocumentBuilder builder = newDocumentBuilder();
+    if (name instanceof URL) {
+      return builder.parse(name.toString());
+    } else if (name instanceof String) {
+      return builder.parse(getResource((String)name).toString());
+    }
+    InputStream in = openResource(name, true);
+    try {
+      return builder.parse(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Load an XML resource with the streaming parser, which needs neither a
+   * document tree nor a pass over one. The properties are loaded only if the
+   * whole resource is read.
+   * @return false if the resource includes others, which the streaming
+   *         parser cannot resolve, true otherwise.
+   */
+  private boolean loadStreamedResource(Properties properties, Object name,
+                                       InputStream in)
+    throws XMLStreamException {
+    XMLStreamReader reader = XML_INPUT_FACTORY.get().createXMLStreamReader(in);
+    try {
+      List<LoadedProperty> loaded = new ArrayList<LoadedProperty>();
+      boolean topLevel = true;
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        if (XINCLUDE_NS.equals(reader.getNamespaceURI())) {
+          return false;
+        }
+        String tag = reader.getLocalName();
+        if (topLevel) {
+          if (!"configuration".equals(tag))
+            LOG.fatal("bad conf file: top-level element not <configuration>");
+          topLevel = false;
+          continue;
+        }
+        if ("configuration".equals(tag)) {
+          continue;                   // its properties follow
+        }
+        if (!"property".equals(tag))
+          LOG.warn("bad conf file: element not <property>");
+        LoadedProperty prop = new LoadedProperty();
+        for (int depth = 1; depth > 0; ) {
+          int event = reader.next();
+          if (event == XMLStreamConstants.END_ELEMENT) {
+            depth--;
+          } else if (event == XMLStreamConstants.START_ELEMENT) {
+            if (XINCLUDE_NS.equals(reader.getNamespaceURI())) {
+              return false;
+            }
+            String field = reader.getLocalName();
+            if (depth == 1 && ("name".equals(field) ||
+                               "value".equals(field) ||
+                               "final".equals(field))) {
+              String text = reader.getElementText();
+              if (text.length() == 0)
+                continue;
+              if ("name".equals(field))
+                prop.attr = text.trim();
+              else if ("value".equals(field))
+                prop.value = text;
+              else
+                prop.finalParameter = "true".equals(text);
+            } else {
+              depth++;
+            }
+          }
+        }
+        loaded.add(prop);
+      }
+      for (LoadedProperty prop : loaded) {
+        loadDeprecatedProperty(properties, name, prop.attr, prop.value,
+                               prop.finalParameter);
+      }
+      return true;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** A property read from a resource, not loaded yet. */
+  private static class LoadedProperty {
+    String attr;
+    String value;
+    boolean finalParameter;
+  }
+
+  private static boolean readBinaryMagic(InputStream in) throws IOException {
+    for (byte b : BINARY_MAGIC) {
+      if (in.read() != b) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Load a resource in the format written by {@link #writeBinary}. The
+   * source of each property is the resource it was loaded from when it was
+   * written.
+   */
+  private void loadBinaryResource(Properties properties, Object name,
+                                  DataInputStream in) throws IOException {
+    int version = in.readUnsignedByte();
+    if (version != BINARY_VERSION) {
+      throw new IOException(name + ": unsupported configuration version "
+                            + version);
+    }
+    String[] strings = new String[WritableUtils.readVInt(in)];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = org.apache.hadoop.io.Text.readString(in);
+    }
+    int size = WritableUtils.readVInt(in);
+    String attr = "";
+    for (int i = 0; i < size; i++) {
+      int shared = WritableUtils.readVInt(in);
+      attr = attr.substring(0, shared)
+        + org.apache.hadoop.io.Text.readString(in);
+      String value = strings[WritableUtils.readVInt(in)];
+      String source = strings[WritableUtils.readVInt(in)];
+      loadDeprecatedProperty(properties, source, attr, value, false);
+    }
+  }
+
+  private void loadDeprecatedProperty(Properties properties, Object name,
+      String attr, String value, boolean finalParameter) {
+    // Ignore this parameter if it has already been marked as 'final'
+    if (attr != null) {
+      if (deprecatedKeyMap.containsKey(attr)) {
+        DeprecatedKeyInfo keyInfo = deprecatedKeyMap.get(attr);
+        keyInfo.accessed = false;
+        for (String key:keyInfo.newKeys) {
+          // update new keys with deprecated key's value 
+          loadProperty(properties, name, key, value, finalParameter);
+        }
+      }
+      else {
+        loadProperty(properties, name, attr, value, finalParameter);
+      }
     }
   }
 
@@ -1630,6 +2131,76 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
     }
   }
 
+  /**
+   * Write out the properties in this configuration in a compact binary
+   * format, to the given {@link OutputStream}.
+   *
+   * The output starts with a header giving the version of the format.
+   * Properties are sorted, and each key is written as the part that differs
+   * from the key before it. Values and the resources they were loaded from
+   * are written once each, however many properties share them. The output
+   * is read back as any other resource, e.g. with
+   * {@link #addResource(Path)}, which is much cheaper than parsing XML.
+   *
+   * @param out the output stream to write to.
+   */
+  public void writeBinary(OutputStream out) throws IOException {
+    // Write out of the lock, like writeXml does
+    Map<String, String> values = new TreeMap<String, String>();
+    Map<String, String> sources = new HashMap<String, String>();
+    synchronized (this) {
+      for (Map.Entry<Object, Object> item : getProps().entrySet()) {
+        if (item.getKey() instanceof String &&
+            item.getValue() instanceof String) {
+          String key = (String) item.getKey();
+          values.put(key, (String) item.getValue());
+          String source = updatingResource.get(key);
+          sources.put(key, source == null ? UNKNOWN_RESOURCE : source);
+        }
+      }
+    }
+    Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    for (Map.Entry<String, String> item : values.entrySet()) {
+      addString(strings, item.getValue());
+      addString(strings, sources.get(item.getKey()));
+    }
+
+    DataOutputStream data =
+      new DataOutputStream(new BufferedOutputStream(out));
+    data.write(BINARY_MAGIC);
+    data.writeByte(BINARY_VERSION);
+    WritableUtils.writeVInt(data, strings.size());
+    for (String s : strings.keySet()) {
+      org.apache.hadoop.io.Text.writeString(data, s);
+    }
+    WritableUtils.writeVInt(data, values.size());
+    String previous = "";
+    for (Map.Entry<String, String> item : values.entrySet()) {
+      String key = item.getKey();
+      int shared = 0;
+      int max = Math.min(key.length(), previous.length());
+      while (shared < max && key.charAt(shared) == previous.charAt(shared)) {
+        shared++;
+      }
+      // Never split a surrogate pair, the suffix must be valid UTF-16
+      if (shared > 0 && Character.isHighSurrogate(key.charAt(shared - 1))) {
+        shared--;
+      }
+      WritableUtils.writeVInt(data, shared);
+      org.apache.hadoop.io.Text.writeString(data, key.substring(shared));
+      WritableUtils.writeVInt(data, strings.get(item.getValue()));
+      WritableUtils.writeVInt(data, strings.get(sources.get(key)));
+      previous = key;
+    }
+    data.flush();
+  }
+
+  private static void addString(Map<String, Integer> strings, String s) {
+    if (!strings.containsKey(s)) {
+      strings.put(s, strings.size());
+    }
+  }
+
   /**
    * Return the XML DOM corresponding to this Configuration.
    */
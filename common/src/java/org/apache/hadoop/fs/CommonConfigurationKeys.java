@@ -56,6 +56,11 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   public static final String  IPC_CLIENT_PING_KEY = "ipc.client.ping";
   /** Default value of IPC_CLIENT_PING_KEY */
   public static final boolean IPC_CLIENT_PING_DEFAULT = true;
+  /** Share one connection per server among protocols and users */
+  public static final String  IPC_CLIENT_CONNECTION_MULTIPLEXED_KEY =
+    "ipc.client.connection.multiplexed";
+  /** Default value of IPC_CLIENT_CONNECTION_MULTIPLEXED_KEY */
+  public static final boolean IPC_CLIENT_CONNECTION_MULTIPLEXED_DEFAULT = false;
   /** Responses larger than this will be logged */
   public static final String  IPC_SERVER_RPC_MAX_RESPONSE_SIZE_KEY =
     "ipc.server.max.response.size";
@@ -73,6 +78,32 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
     "ipc.server.handler.queue.size";
   /** Default value for IPC_SERVER_HANDLER_QUEUE_SIZE_KEY */
   public static final int     IPC_SERVER_HANDLER_QUEUE_SIZE_DEFAULT = 100;
+  /** Largest request or response held in a pooled direct buffer */
+  public static final String  IPC_SERVER_BUFFER_POOL_MAX_BUFFER_SIZE_KEY =
+    "ipc.server.buffer.pool.max.buffer.size";
+  /** Default value for IPC_SERVER_BUFFER_POOL_MAX_BUFFER_SIZE_KEY */
+  public static final int     IPC_SERVER_BUFFER_POOL_MAX_BUFFER_SIZE_DEFAULT =
+    1024*1024;
+  /** Total size of the direct buffers kept for reuse, 0 to disable them */
+  public static final String  IPC_SERVER_BUFFER_POOL_CAPACITY_KEY =
+    "ipc.server.buffer.pool.capacity";
+  /** Default value for IPC_SERVER_BUFFER_POOL_CAPACITY_KEY */
+  public static final long    IPC_SERVER_BUFFER_POOL_CAPACITY_DEFAULT =
+    32*1024*1024;
+  /** Calls per second allowed for each user, 0 for no limit */
+  public static final String  IPC_SERVER_USER_CALLS_PER_SECOND_KEY =
+    "ipc.server.user.calls.per.second";
+  /** Default value for IPC_SERVER_USER_CALLS_PER_SECOND_KEY */
+  public static final float   IPC_SERVER_USER_CALLS_PER_SECOND_DEFAULT = 0;
+  /** Calls per second allowed for each client host, 0 for no limit */
+  public static final String  IPC_SERVER_HOST_CALLS_PER_SECOND_KEY =
+    "ipc.server.host.calls.per.second";
+  /** Default value for IPC_SERVER_HOST_CALLS_PER_SECOND_KEY */
+  public static final float   IPC_SERVER_HOST_CALLS_PER_SECOND_DEFAULT = 0;
+  /** Prefix of the per port call queue keys, ipc.[port].* */
+  public static final String  IPC_CALLQUEUE_NAMESPACE = "ipc";
+  /** Class of the call queue of the server on a port, ipc.[port].callqueue.impl */
+  public static final String  IPC_CALLQUEUE_IMPL_KEY = "callqueue.impl";
 
   /** Internal buffer size for Lzo compressor/decompressors */
   public static final String  IO_COMPRESSION_CODEC_LZO_BUFFERSIZE_KEY =
@@ -93,5 +124,35 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   /** Default value for IO_COMPRESSION_CODEC_SNAPPY_BUFFERSIZE_KEY */
   public static final int IO_COMPRESSION_CODEC_SNAPPY_BUFFERSIZE_DEFAULT =
       256 * 1024;
+
+  /** Codecs whose output streams compress on several threads */
+  public static final String  IO_COMPRESSION_CODEC_PARALLEL_CODECS_KEY =
+    "io.compression.codec.parallel.codecs";
+  /** Number of threads compressing each parallel output stream */
+  public static final String  IO_COMPRESSION_CODEC_PARALLEL_THREADS_KEY =
+    "io.compression.codec.parallel.threads";
+  /** Default value for IO_COMPRESSION_CODEC_PARALLEL_THREADS_KEY */
+  public static final int     IO_COMPRESSION_CODEC_PARALLEL_THREADS_DEFAULT = 4;
+  /** Bytes compressed independently by each thread of a parallel stream */
+  public static final String  IO_COMPRESSION_CODEC_PARALLEL_BLOCKSIZE_KEY =
+    "io.compression.codec.parallel.blocksize";
+  /** Default value for IO_COMPRESSION_CODEC_PARALLEL_BLOCKSIZE_KEY */
+  public static final int     IO_COMPRESSION_CODEC_PARALLEL_BLOCKSIZE_DEFAULT =
+    128 * 1024;
+  /**
+   * Uncompressed bytes between the checkpoints of the gzip files written by
+   * the text output formats, 0 not to index them
+   */
+  public static final String  IO_COMPRESSION_CODEC_GZIP_INDEX_INTERVAL_KEY =
+    "io.compression.codec.gzip.index.interval";
+  /** Default value for IO_COMPRESSION_CODEC_GZIP_INDEX_INTERVAL_KEY */
+  public static final long    IO_COMPRESSION_CODEC_GZIP_INDEX_INTERVAL_DEFAULT =
+    0;
+
+  /** Threads sorting runs and merging segments in SequenceFile.Sorter */
+  public static final String  IO_SEQFILE_SORT_THREADS_KEY =
+    "io.seqfile.sort.threads";
+  /** Default value for IO_SEQFILE_SORT_THREADS_KEY */
+  public static final int     IO_SEQFILE_SORT_THREADS_DEFAULT = 1;
 }
 
@@ -20,6 +20,7 @@ package org.apache.hadoop.fs;
 import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
@@ -35,8 +36,8 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -180,6 +181,7 @@ public abstract class FileSystem extends Configured implements Closeable {
    */
   public void initialize(URI name, Configuration conf) throws IOException {
     statistics = getStatistics(name.getScheme(), getClass());    
+    FileSystemMetrics.register();
   }
 
   /** Returns a URI whose scheme and authority identify this FileSystem.*/
@@ -2097,16 +2099,129 @@ public abstract class FileSystem extends Configured implements Closeable {
     }
   }
   
+  /**
+   * Tracks statistics about how many bytes are read, written, and so forth.
+   * <p>
+   * Each thread updates counts of its own, so that the threads of a task
+   * reading and writing through the same file system do not contend for the
+   * same counters. The counts of all the threads are summed up when they are
+   * read, and may not yet include the latest updates of the running threads.
+   */
   public static final class Statistics {
+    /**
+     * The file system operations whose latencies are tracked.
+     * 
+     * @see Statistics#addOperationTime(Operation, long)
+     */
+    public static enum Operation {
+      OPEN, CREATE, LIST_STATUS, GET_FILE_STATUS
+    }
+
+    /**
+     * The number of buckets of the operation latency histograms. Bucket 0
+     * counts the operations that took less than a microsecond, bucket i the
+     * ones that took [2^(i-1), 2^i) microseconds, and the last bucket all the
+     * longer ones.
+     */
+    public static final int LATENCY_BUCKETS = 32;
+
+    // per operation: count, total time and the latency histogram
+    private static final int OP_STRIDE = 2 + LATENCY_BUCKETS;
+
+    // indexes of the counts of a thread
+    private static final int BYTES_READ = 0;
+    private static final int BYTES_WRITTEN = 1;
+    private static final int READ_OPS = 2;
+    private static final int LARGE_READ_OPS = 3;
+    private static final int WRITE_OPS = 4;
+    private static final int COUNTS = 5;
+
+    private static final int MIN_PRUNE_THRESHOLD = 16;
+
+    /**
+     * The counts of one thread, only updated by that thread. The updates are
+     * ordered writes, which are cheaper than volatile ones and still seen by
+     * the threads that aggregate the counts.
+     */
+    private static class StatisticsData {
+      private final WeakReference<Thread> owner;
+      private final AtomicLongArray counts = new AtomicLongArray(COUNTS);
+      // allocated by the first operation time added
+      private volatile AtomicLongArray opStats;
+
+      StatisticsData(Thread owner) {
+        this.owner = (owner == null) ? null : new WeakReference<Thread>(owner);
+      }
+
+      boolean isOwnerAlive() {
+        Thread thread = (owner == null) ? null : owner.get();
+        return thread != null && thread.isAlive();
+      }
+
+      long get(int count) {
+        return counts.get(count);
+      }
+
+      void increment(int count, long delta) {
+        counts.lazySet(count, counts.get(count) + delta);
+      }
+
+      long getOpStat(int index) {
+        AtomicLongArray stats = opStats;
+        return (stats == null) ? 0 : stats.get(index);
+      }
+
+      private AtomicLongArray getOpStats() {
+        AtomicLongArray stats = opStats;
+        if (stats == null) {
+          stats = new AtomicLongArray(Operation.values().length * OP_STRIDE);
+          opStats = stats;
+        }
+        return stats;
+      }
+
+      private static void increment(AtomicLongArray stats, int index,
+          long delta) {
+        stats.lazySet(index, stats.get(index) + delta);
+      }
+
+      void addOperationTime(int op, long micros) {
+        AtomicLongArray stats = getOpStats();
+        int base = op * OP_STRIDE;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        increment(stats, base, 1);
+        increment(stats, base + 1, micros);
+        increment(stats, base + 2 + Math.min(bucket, LATENCY_BUCKETS - 1), 1);
+      }
+
+      void add(StatisticsData other) {
+        for (int i = 0; i < COUNTS; i++) {
+          increment(i, other.get(i));
+        }
+        AtomicLongArray otherOpStats = other.opStats;
+        if (otherOpStats != null) {
+          AtomicLongArray stats = getOpStats();
+          for (int i = 0; i < stats.length(); i++) {
+            increment(stats, i, otherOpStats.get(i));
+          }
+        }
+      }
+    }
+
     private final String scheme;
-    private AtomicLong bytesRead = new AtomicLong();
-    private AtomicLong bytesWritten = new AtomicLong();
-    private AtomicInteger readOps = new AtomicInteger();
-    private AtomicInteger largeReadOps = new AtomicInteger();
-    private AtomicInteger writeOps = new AtomicInteger();
+    // counts of the threads that have exited, and the adjustments of reset()
+    private final StatisticsData rootData;
+    // counts of the live threads, guarded by this
+    private final List<StatisticsData> allData;
+    // the size of allData at which the threads that exited are pruned
+    private int pruneThreshold = MIN_PRUNE_THRESHOLD;
+    private final ThreadLocal<StatisticsData> threadData;
     
     public Statistics(String scheme) {
       this.scheme = scheme;
+      this.rootData = new StatisticsData(null);
+      this.allData = new ArrayList<StatisticsData>();
+      this.threadData = new ThreadLocal<StatisticsData>();
     }
 
     /**
@@ -2116,9 +2231,77 @@ public abstract class FileSystem extends Configured implements Closeable {
      *          The input Statistics object which is cloned.
      */
     public Statistics(Statistics st) {
-      this.scheme = st.scheme;
-      this.bytesRead = new AtomicLong(st.bytesRead.longValue());
-      this.bytesWritten = new AtomicLong(st.bytesWritten.longValue());
+      this(st.scheme);
+      StatisticsData total = st.aggregate();
+      rootData.increment(BYTES_READ, total.get(BYTES_READ));
+      rootData.increment(BYTES_WRITTEN, total.get(BYTES_WRITTEN));
+    }
+
+    /**
+     * Get the counts of the current thread, registering them on first use.
+     */
+    private StatisticsData getThreadData() {
+      StatisticsData data = threadData.get();
+      if (data == null) {
+        data = new StatisticsData(Thread.currentThread());
+        threadData.set(data);
+        synchronized (this) {
+          allData.add(data);
+          // so that many short lived threads do not pile up between two
+          // aggregations, while keeping registration amortized O(1)
+          if (allData.size() >= pruneThreshold) {
+            prune();
+            pruneThreshold =
+              Math.max(MIN_PRUNE_THRESHOLD, 2 * allData.size());
+          }
+        }
+      }
+      return data;
+    }
+
+    /**
+     * Fold the counts of the threads that have exited into the root counts.
+     */
+    private synchronized void prune() {
+      for (Iterator<StatisticsData> it = allData.iterator(); it.hasNext();) {
+        StatisticsData data = it.next();
+        if (!data.isOwnerAlive()) {
+          rootData.add(data);
+          it.remove();
+        }
+      }
+    }
+
+    /**
+     * Sum up the counts of all the threads. The counts of the threads that
+     * have exited are folded into the root counts on the way.
+     */
+    private synchronized StatisticsData aggregate() {
+      prune();
+      StatisticsData total = new StatisticsData(null);
+      total.add(rootData);
+      for (StatisticsData data : allData) {
+        total.add(data);
+      }
+      return total;
+    }
+
+    /**
+     * Get the number of threads whose counts are not folded into the root
+     * counts yet. For testing.
+     */
+    synchronized int getThreadCount() {
+      return allData.size();
+    }
+
+    /**
+     * Get a copy of the current counts, which is cheaper to query for many
+     * counts than this object, whose every getter sums up all the threads.
+     */
+    Statistics snapshot() {
+      Statistics copy = new Statistics(scheme);
+      copy.rootData.add(aggregate());
+      return copy;
     }
 
     /**
@@ -2126,7 +2309,7 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @param newBytes the additional bytes read
      */
     public void incrementBytesRead(long newBytes) {
-      bytesRead.getAndAdd(newBytes);
+      getThreadData().increment(BYTES_READ, newBytes);
     }
     
     /**
@@ -2134,7 +2317,7 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @param newBytes the additional bytes written
      */
     public void incrementBytesWritten(long newBytes) {
-      bytesWritten.getAndAdd(newBytes);
+      getThreadData().increment(BYTES_WRITTEN, newBytes);
     }
     
     /**
@@ -2142,7 +2325,7 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @param count number of read operations
      */
     public void incrementReadOps(int count) {
-      readOps.getAndAdd(count);
+      getThreadData().increment(READ_OPS, count);
     }
 
     /**
@@ -2150,7 +2333,7 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @param count number of large read operations
      */
     public void incrementLargeReadOps(int count) {
-      largeReadOps.getAndAdd(count);
+      getThreadData().increment(LARGE_READ_OPS, count);
     }
 
     /**
@@ -2158,7 +2341,16 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @param count number of write operations
      */
     public void incrementWriteOps(int count) {
-      writeOps.getAndAdd(count);
+      getThreadData().increment(WRITE_OPS, count);
+    }
+
+    /**
+     * Record the time an operation took.
+     * @param op the operation
+     * @param nanos the time it took, in nanoseconds
+     */
+    public void addOperationTime(Operation op, long nanos) {
+      getThreadData().addOperationTime(op.ordinal(), Math.max(nanos, 0) / 1000);
     }
 
     /**
@@ -2166,7 +2358,7 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @return the number of bytes
      */
     public long getBytesRead() {
-      return bytesRead.get();
+      return aggregate().get(BYTES_READ);
     }
     
     /**
@@ -2174,7 +2366,7 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @return the number of bytes
      */
     public long getBytesWritten() {
-      return bytesWritten.get();
+      return aggregate().get(BYTES_WRITTEN);
     }
     
     /**
@@ -2182,7 +2374,8 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @return number of read operations
      */
     public int getReadOps() {
-      return readOps.get() + largeReadOps.get();
+      StatisticsData total = aggregate();
+      return (int) (total.get(READ_OPS) + total.get(LARGE_READ_OPS));
     }
 
     /**
@@ -2191,7 +2384,7 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @return number of large read operations
      */
     public int getLargeReadOps() {
-      return largeReadOps.get();
+      return (int) aggregate().get(LARGE_READ_OPS);
     }
 
     /**
@@ -2200,21 +2393,58 @@ public abstract class FileSystem extends Configured implements Closeable {
      * @return number of write operations
      */
     public int getWriteOps() {
-      return writeOps.get();
+      return (int) aggregate().get(WRITE_OPS);
+    }
+
+    /**
+     * Get the number of times an operation was timed
+     * @param op the operation
+     * @return number of operations
+     */
+    public long getOperationCount(Operation op) {
+      return aggregate().getOpStat(op.ordinal() * OP_STRIDE);
+    }
+
+    /**
+     * Get the total time spent in an operation
+     * @param op the operation
+     * @return the time in microseconds
+     */
+    public long getOperationTime(Operation op) {
+      return aggregate().getOpStat(op.ordinal() * OP_STRIDE + 1);
+    }
+
+    /**
+     * Get the latency histogram of an operation
+     * @param op the operation
+     * @return the number of operations in each of the
+     *         {@link #LATENCY_BUCKETS} buckets
+     */
+    public long[] getOperationLatencies(Operation op) {
+      StatisticsData total = aggregate();
+      long[] ret = new long[LATENCY_BUCKETS];
+      for (int i = 0; i < LATENCY_BUCKETS; i++) {
+        ret[i] = total.getOpStat(op.ordinal() * OP_STRIDE + 2 + i);
+      }
+      return ret;
     }
 
     public String toString() {
-      return bytesRead + " bytes read, " + bytesWritten + " bytes written, "
-          + readOps + " read ops, " + largeReadOps + " large read ops, "
-          + writeOps + " write ops";
+      StatisticsData total = aggregate();
+      return total.get(BYTES_READ) + " bytes read, "
+          + total.get(BYTES_WRITTEN) + " bytes written, "
+          + total.get(READ_OPS) + " read ops, "
+          + total.get(LARGE_READ_OPS) + " large read ops, "
+          + total.get(WRITE_OPS) + " write ops";
     }
     
     /**
      * Reset the counts of bytes to 0.
      */
-    public void reset() {
-      bytesWritten.set(0);
-      bytesRead.set(0);
+    public synchronized void reset() {
+      StatisticsData total = aggregate();
+      rootData.increment(BYTES_READ, -total.get(BYTES_READ));
+      rootData.increment(BYTES_WRITTEN, -total.get(BYTES_WRITTEN));
     }
     
     /**
@@ -2262,6 +2492,15 @@ public abstract class FileSystem extends Configured implements Closeable {
     return result;
   }
   
+  /**
+   * Get the statistics of all file systems, by FileSystem class.
+   */
+  static synchronized
+  Map<Class<? extends FileSystem>, Statistics> getStatisticsByClass() {
+    return new IdentityHashMap<Class<? extends FileSystem>, Statistics>(
+        statisticsTable);
+  }
+
   /**
    * Reset all statistics for all file systems
    */
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.FileSystem.Statistics;
+import org.apache.hadoop.fs.FileSystem.Statistics.Operation;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+
+import static org.apache.hadoop.metrics2.lib.Interns.info;
+
+/**
+ * Publishes the {@link FileSystem.Statistics} of all the file systems through
+ * the metrics system, one record per FileSystem class.
+ */
+@InterfaceAudience.Private
+class FileSystemMetrics implements MetricsSource {
+  static final String NAME = "FileSystemStatistics";
+  static final int[] PERCENTILES = { 50, 90, 99 };
+
+  static final MetricsInfo RECORD_INFO =
+      info(NAME, "File system statistics");
+  static final MetricsInfo SCHEME = info("Scheme", "File system scheme");
+  static final MetricsInfo FS_CLASS =
+      info("FileSystemClass", "File system class");
+  static final MetricsInfo BYTES_READ = info("BytesRead", "Bytes read");
+  static final MetricsInfo BYTES_WRITTEN =
+      info("BytesWritten", "Bytes written");
+  static final MetricsInfo READ_OPS =
+      info("ReadOps", "Read operations, including the large ones");
+  static final MetricsInfo LARGE_READ_OPS =
+      info("LargeReadOps", "Large read operations");
+  static final MetricsInfo WRITE_OPS = info("WriteOps", "Write operations");
+
+  private static boolean registered = false;
+
+  // per operation: number of ops, average time and the percentiles
+  private final MetricsInfo[][] opInfos;
+
+  FileSystemMetrics() {
+    Operation[] ops = Operation.values();
+    opInfos = new MetricsInfo[ops.length][];
+    for (Operation op : ops) {
+      String name = opName(op);
+      MetricsInfo[] infos = new MetricsInfo[2 + PERCENTILES.length];
+      infos[0] = info(name + "NumOps", "Number of " + name + " operations");
+      infos[1] = info(name + "AvgTimeMicros",
+          "Average time of " + name + " operations in microseconds");
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        infos[2 + i] = info(name + PERCENTILES[i] + "thPercentileMicros",
+            "Upper bound of the " + PERCENTILES[i] + "th percentile time of "
+            + name + " operations in microseconds");
+      }
+      opInfos[op.ordinal()] = infos;
+    }
+  }
+
+  /**
+   * Register the source with the default metrics system, once.
+   */
+  static synchronized void register() {
+    if (!registered) {
+      DefaultMetricsSystem.instance().register(NAME, RECORD_INFO.description(),
+          new FileSystemMetrics());
+      registered = true;
+    }
+  }
+
+  /** @return the operation name in camel case, e.g. ListStatus */
+  static String opName(Operation op) {
+    StringBuilder sb = new StringBuilder();
+    for (String word : op.name().split("_")) {
+      sb.append(word.charAt(0)).append(word.substring(1).toLowerCase());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Estimate a percentile from a latency histogram.
+   * @param latencies the histogram, see {@link Statistics#LATENCY_BUCKETS}
+   * @param count the number of operations in the histogram
+   * @param percentile the percentile
+   * @return the upper bound in microseconds of the bucket holding the
+   *         percentile, or 0 if the histogram is empty
+   */
+  static long percentile(long[] latencies, long count, int percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (count * percentile + 99) / 100;
+    long seen = 0;
+    int bucket = 0;
+    for (; bucket < latencies.length - 1; bucket++) {
+      seen += latencies[bucket];
+      if (seen >= rank) {
+        break;
+      }
+    }
+    return 1L << bucket;
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    for (Map.Entry<Class<? extends FileSystem>, Statistics> entry :
+         FileSystem.getStatisticsByClass().entrySet()) {
+      // sum up the counts of all the threads once, not once per metric
+      Statistics stats = entry.getValue().snapshot();
+      MetricsRecordBuilder rb = collector.addRecord(RECORD_INFO)
+          .setContext("fs")
+          .tag(SCHEME, stats.getScheme())
+          .tag(FS_CLASS, entry.getKey().getSimpleName())
+          .addCounter(BYTES_READ, stats.getBytesRead())
+          .addCounter(BYTES_WRITTEN, stats.getBytesWritten())
+          .addCounter(READ_OPS, stats.getReadOps())
+          .addCounter(LARGE_READ_OPS, stats.getLargeReadOps())
+          .addCounter(WRITE_OPS, stats.getWriteOps());
+      for (Operation op : Operation.values()) {
+        MetricsInfo[] infos = opInfos[op.ordinal()];
+        long count = stats.getOperationCount(op);
+        long time = stats.getOperationTime(op);
+        long[] latencies = stats.getOperationLatencies(op);
+        rb.addCounter(infos[0], count)
+          .addGauge(infos[1], count == 0 ? 0.0 : (double) time / count);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+          rb.addGauge(infos[2 + i], percentile(latencies, count,
+              PERCENTILES[i]));
+        }
+      }
+    }
+  }
+}
@@ -185,11 +185,18 @@ public class RawLocalFileSystem extends FileSystem {
   }
   
   public FSDataInputStream open(Path f, int bufferSize) throws IOException {
-    if (!exists(f)) {
-      throw new FileNotFoundException(f.toString());
+    long startTime = System.nanoTime();
+    try {
+      // not exists(), which would time a getFileStatus as well
+      if (!pathToFile(f).exists()) {
+        throw new FileNotFoundException(f.toString());
+      }
+      return new FSDataInputStream(new BufferedFSInputStream(
+          new LocalFSFileInputStream(f), bufferSize));
+    } finally {
+      statistics.addOperationTime(Statistics.Operation.OPEN,
+          System.nanoTime() - startTime);
     }
-    return new FSDataInputStream(new BufferedFSInputStream(
-        new LocalFSFileInputStream(f), bufferSize));
   }
   
   /*********************************************************
@@ -241,15 +248,21 @@ public class RawLocalFileSystem extends FileSystem {
   public FSDataOutputStream create(Path f, boolean overwrite, int bufferSize,
     short replication, long blockSize, Progressable progress)
     throws IOException {
-    if (exists(f) && !overwrite) {
-      throw new IOException("File already exists:"+f);
-    }
-    Path parent = f.getParent();
-    if (parent != null && !mkdirs(parent)) {
-      throw new IOException("Mkdirs failed to create " + parent.toString());
+    long startTime = System.nanoTime();
+    try {
+      if (pathToFile(f).exists() && !overwrite) {
+        throw new IOException("File already exists:"+f);
+      }
+      Path parent = f.getParent();
+      if (parent != null && !mkdirs(parent)) {
+        throw new IOException("Mkdirs failed to create " + parent.toString());
+      }
+      return new FSDataOutputStream(new BufferedOutputStream(
+          new LocalFSFileOutputStream(f, false), bufferSize), statistics);
+    } finally {
+      statistics.addOperationTime(Statistics.Operation.CREATE,
+          System.nanoTime() - startTime);
     }
-    return new FSDataOutputStream(new BufferedOutputStream(
-        new LocalFSFileOutputStream(f, false), bufferSize), statistics);
   }
 
   /** {@inheritDoc} */
@@ -283,6 +296,16 @@ public class RawLocalFileSystem extends FileSystem {
   }
  
   public FileStatus[] listStatus(Path f) throws IOException {
+    long startTime = System.nanoTime();
+    try {
+      return listStatusInternal(f);
+    } finally {
+      statistics.addOperationTime(Statistics.Operation.LIST_STATUS,
+          System.nanoTime() - startTime);
+    }
+  }
+
+  private FileStatus[] listStatusInternal(Path f) throws IOException {
     File localf = pathToFile(f);
     FileStatus[] results;
 
@@ -302,7 +325,7 @@ public class RawLocalFileSystem extends FileSystem {
     int j = 0;
     for (int i = 0; i < names.length; i++) {
       try {
-        results[j] = getFileStatus(new Path(f, names[i]));
+        results[j] = getFileStatusInternal(new Path(f, names[i]));
         j++;
       } catch (FileNotFoundException e) {
         // ignore the files not found since the dir list may have have changed
@@ -417,9 +440,20 @@ public class RawLocalFileSystem extends FileSystem {
   }
   
   public FileStatus getFileStatus(Path f) throws IOException {
+    long startTime = System.nanoTime();
+    try {
+      return getFileStatusInternal(f);
+    } finally {
+      statistics.addOperationTime(Statistics.Operation.GET_FILE_STATUS,
+          System.nanoTime() - startTime);
+    }
+  }
+
+  private FileStatus getFileStatusInternal(Path f) throws IOException {
     File path = pathToFile(f);
     if (path.exists()) {
-      return new RawLocalFileStatus(pathToFile(f), getDefaultBlockSize(), this);
+      return new RawLocalFileStatus(pathToFile(f), getDefaultBlockSize(),
+          this);
     } else {
       throw new FileNotFoundException("File " + f + " does not exist.");
     }
@@ -27,18 +27,43 @@ import java.util.List;
 public class DataInputByteBuffer extends DataInputStream {
 
   private static class Buffer extends InputStream {
-    private final byte[] scratch = new byte[1];
     ByteBuffer[] buffers = new ByteBuffer[0];
     int bidx, pos, length;
     @Override
     public int read() {
-      if (-1 == read(scratch, 0, 1)) {
+      while (bidx < buffers.length && !buffers[bidx].hasRemaining()) {
+        ++bidx;                               // skip the consumed buffers
+      }
+      if (bidx >= buffers.length) {
         return -1;
       }
-      return scratch[0] & 0xFF;
+      ++pos;
+      return buffers[bidx].get() & 0xFF;
+    }
+    @Override
+    public long skip(long n) {
+      long skipped = 0;
+      while (skipped < n && bidx < buffers.length) {
+        ByteBuffer b = buffers[bidx];
+        int rem = (int) Math.min(n - skipped, b.remaining());
+        b.position(b.position() + rem);
+        skipped += rem;
+        if (!b.hasRemaining()) {
+          ++bidx;
+        }
+      }
+      pos += skipped;
+      return skipped;
+    }
+    @Override
+    public int available() {
+      return length - pos;
     }
     @Override
     public int read(byte[] b, int off, int len) {
+      while (bidx < buffers.length && !buffers[bidx].hasRemaining()) {
+        ++bidx;                               // skip the consumed buffers
+      }
       if (bidx >= buffers.length) {
         return -1;
       }
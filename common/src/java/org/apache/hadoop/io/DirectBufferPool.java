@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * A thread-safe pool of direct {@link ByteBuffer}s.
+ *
+ * Buffers are handed out from size classes that are powers of two, from
+ * {@link #MIN_BUFFER_SIZE} up to the maximum buffer size of the pool, so a
+ * returned buffer can serve any later request of its class.  Direct buffers
+ * are expensive to allocate and are only reclaimed by a full GC, so reusing
+ * them keeps I/O paths both fast and free of garbage.
+ *
+ * Requests larger than the maximum buffer size, or all requests when the
+ * capacity of the pool is zero, are served with heap buffers that are not
+ * pooled.  Returned buffers are retained only while the pool holds less than
+ * its capacity; the others are left to the garbage collector.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
+@InterfaceStability.Unstable
+public class DirectBufferPool {
+  /** The size of the smallest size class. */
+  public static final int MIN_BUFFER_SIZE = 1024;
+  private static final int MIN_SHIFT =
+    Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+  private final int maxBufferSize;
+  private final long capacity;
+  private final Queue<ByteBuffer>[] classes;
+  private final AtomicLong pooledBytes = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Create a pool.
+   * @param maxBufferSize largest size served from the pool; it is rounded up
+   *                      to a power of two
+   * @param capacity maximum total size of the buffers kept in the pool
+   */
+  @SuppressWarnings("unchecked")
+  public DirectBufferPool(int maxBufferSize, long capacity) {
+    if (maxBufferSize < 0 || capacity < 0) {
+      throw new IllegalArgumentException("Negative max buffer size "
+          + maxBufferSize + " or capacity " + capacity);
+    }
+    int numClasses = capacity == 0 ? 0 : getSizeClass(maxBufferSize) + 1;
+    this.maxBufferSize = numClasses == 0 ? 0 : getClassSize(numClasses - 1);
+    this.capacity = capacity;
+    this.classes = new Queue[numClasses];
+    for (int i = 0; i < numClasses; i++) {
+      classes[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+  }
+
+  private static int getSizeClass(int size) {
+    if (size <= MIN_BUFFER_SIZE) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  private static int getClassSize(int sizeClass) {
+    return 1 << (sizeClass + MIN_SHIFT);
+  }
+
+  /**
+   * Get a buffer of at least the given size.  The buffer is cleared and its
+   * limit is set to <code>size</code>.
+   * @param size number of bytes needed
+   * @return a direct buffer from the pool, or a heap buffer if the size is
+   *         beyond the maximum buffer size of the pool
+   */
+  public ByteBuffer getBuffer(int size) {
+    if (size > maxBufferSize) {
+      return ByteBuffer.allocate(size);
+    }
+    int sizeClass = getSizeClass(size);
+    ByteBuffer buf = classes[sizeClass].poll();
+    if (buf != null) {
+      pooledBytes.addAndGet(-buf.capacity());
+      hits.incrementAndGet();
+      buf.clear();
+    } else {
+      misses.incrementAndGet();
+      buf = ByteBuffer.allocateDirect(getClassSize(sizeClass));
+    }
+    buf.limit(size);
+    return buf;
+  }
+
+  /**
+   * Give a buffer back to the pool.  Heap buffers and buffers that were not
+   * obtained from this pool are ignored.  The buffer must not be used by the
+   * caller afterwards.
+   * @param buf the buffer to return
+   */
+  public void returnBuffer(ByteBuffer buf) {
+    if (buf == null || !buf.isDirect()) {
+      return;
+    }
+    int size = buf.capacity();
+    if (size > maxBufferSize || Integer.bitCount(size) != 1 ||
+        size < MIN_BUFFER_SIZE) {
+      return;
+    }
+    if (pooledBytes.addAndGet(size) > capacity) {
+      pooledBytes.addAndGet(-size);           // full, let the GC have it
+      return;
+    }
+    classes[getSizeClass(size)].offer(buf);
+  }
+
+  /** @return the largest buffer size served from the pool */
+  public int getMaxBufferSize() {
+    return maxBufferSize;
+  }
+
+  /** @return the total size of the buffers currently kept in the pool */
+  public long getPooledBytes() {
+    return pooledBytes.get();
+  }
+
+  /** @return the number of requests served with a pooled buffer */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** @return the number of requests that needed a new direct buffer */
+  public long getMisses() {
+    return misses.get();
+  }
+}
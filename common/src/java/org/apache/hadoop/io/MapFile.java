@@ -45,7 +45,10 @@ import org.apache.hadoop.io.compress.DefaultCodec;
  * {@link Writer#getIndexInterval()}.
  *
  * <p>The index file is read entirely into memory.  Thus key implementations
- * should try to keep themselves small.
+ * should try to keep themselves small.  The exception is a local map read
+ * with {@link SequenceFile.Reader#memoryMapped(boolean)} whose index was
+ * written uncompressed (see {@link Writer#setIndexCompressed}): its index is
+ * searched in the mapped file instead.
  *
  * <p>Map files are created by adding entries in-order.  To maintain a large
  * database, perform updates by copying the previous version of a database and
@@ -73,6 +76,7 @@ public class MapFile {
 
     final private static String INDEX_INTERVAL = "io.map.index.interval";
     private int indexInterval = 128;
+    final private static String INDEX_COMPRESS = "io.map.index.compress";
 
     private long size;
     private LongWritable position = new LongWritable();
@@ -273,11 +277,13 @@ public class MapFile {
                                SequenceFile.Writer.keyClass(keyClass));
       this.data = SequenceFile.createWriter(conf, dataOptions);
 
+      CompressionType indexCompression = conf.getBoolean(INDEX_COMPRESS, true)
+        ? CompressionType.BLOCK : CompressionType.NONE;
       SequenceFile.Writer.Option[] indexOptions =
         Options.prependOptions(opts, SequenceFile.Writer.file(indexFile),
             SequenceFile.Writer.keyClass(keyClass),
             SequenceFile.Writer.valueClass(LongWritable.class),
-            SequenceFile.Writer.compression(CompressionType.BLOCK));
+            SequenceFile.Writer.compression(indexCompression));
       this.index = SequenceFile.createWriter(conf, indexOptions);      
     }
 
@@ -296,6 +302,15 @@ public class MapFile {
       conf.setInt(INDEX_INTERVAL, interval);
     }
 
+    /** Sets whether the index is block-compressed and stores it in conf.
+     * An uncompressed index can be searched without being read into memory
+     * when the map is memory-mapped.
+     */
+    public static void setIndexCompressed(Configuration conf, 
+                                          boolean compressed) {
+      conf.setBoolean(INDEX_COMPRESS, compressed);
+    }
+
     /** Close the map. */
     public synchronized void close() throws IOException {
       data.close();
@@ -365,6 +380,14 @@ public class MapFile {
     private WritableComparable[] keys;
     private long[] positions;
 
+    // the index, when it is searched in the mapped file
+    private boolean mappedIndex;
+    private long indexStart;
+    private long indexEnd;
+    private WritableComparable indexKey;
+    private WritableComparable nextIndexKey;
+    private LongWritable indexPosition;
+
     /** Returns the class of keys in this file. */
     public Class<?> getKeyClass() { return data.getKeyClass(); }
 
@@ -438,6 +461,16 @@ public class MapFile {
       SequenceFile.Reader.Option[] indexOptions =
         Options.prependOptions(options, SequenceFile.Reader.file(indexFile));
       this.index = new SequenceFile.Reader(conf, indexOptions);
+
+      // an uncompressed mapped index is searched in place
+      if (index.isMemoryMapped() && !index.isCompressed()) {
+        this.mappedIndex = true;
+        this.indexStart = index.getPosition();
+        this.indexEnd = indexFile.getFileSystem(conf)
+                          .getFileStatus(indexFile).getLen();
+        this.indexKey = this.comparator.newKey();
+        this.indexPosition = new LongWritable();
+      }
     }
 
     /**
@@ -455,7 +488,7 @@ public class MapFile {
 
     private void readIndex() throws IOException {
       // read the index entirely into memory
-      if (this.keys != null)
+      if (this.keys != null || mappedIndex)
         return;
       this.count = 0;
       this.positions = new long[1024];
@@ -520,6 +553,9 @@ public class MapFile {
     public synchronized WritableComparable midKey() throws IOException {
 
       readIndex();
+      if (mappedIndex) {
+        return mappedMidKey();
+      }
       if (count == 0) {
         return null;
       }
@@ -537,7 +573,10 @@ public class MapFile {
       long originalPosition = data.getPosition(); // save position
       try {
         readIndex();                              // make sure index is valid
-        if (count > 0) {
+        long lastPosition = mappedIndex ? searchMappedIndex(null) : -1;
+        if (lastPosition >= 0) {
+          data.seek(lastPosition);                // skip to last indexed entry
+        } else if (count > 0) {
           data.seek(positions[count-1]);          // skip to last indexed entry
         } else {
           reset();                                // start at the beginning
@@ -587,7 +626,19 @@ public class MapFile {
       throws IOException {
       readIndex();                                // make sure index is read
 
-      if (seekIndex != -1                         // seeked before
+      if (mappedIndex) {
+        if (seekIndex == -1                       // not seeked before
+            || nextIndexKey == null               // in the last index block
+            || comparator.compare(key, nextIndexKey) >= 0
+            || comparator.compare(key, nextKey) < 0) {
+          seekPosition = searchMappedIndex(key);
+          // 0 just means an index entry was found; there is no array
+          seekIndex = seekPosition == -1 ? -1 : 0;
+          if (seekIndex == -1) {
+            seekPosition = firstPosition;         // use beginning of file
+          }
+        }
+      } else if (seekIndex != -1                  // seeked before
           && seekIndex+1 < count           
           && comparator.compare(key, keys[seekIndex+1])<0 // before next indexed
           && comparator.compare(key, nextKey)
@@ -643,6 +694,71 @@ public class MapFile {
       return 1;
     }
 
+    /**
+     * Finds the last sync mark of the mapped index that is before
+     * <code>limit</code> and followed by an entry not after <code>key</code>,
+     * or by any entry if <code>key</code> is null. Each step of the binary
+     * search seeks to a sync mark and reads a single entry.
+     * @return the position of the sync mark, or the start of the index
+     */
+    private long findMappedIndexBlock(WritableComparable key, long limit)
+      throws IOException {
+      long low = indexStart;
+      long high = limit;
+      long block = indexStart;
+      while (low < high) {
+        long mid = low + (high - low) / 2;
+        index.sync(mid);
+        long sync = index.getPosition();
+        if (sync >= high || !index.next(indexKey, indexPosition)) {
+          high = mid;                             // no entries in [mid, high)
+        } else if (key == null || comparator.compare(indexKey, key) <= 0) {
+          block = sync;
+          low = sync + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return block;
+    }
+
+    /**
+     * Searches the mapped index for the last entry not after
+     * <code>key</code>, or the last entry if <code>key</code> is null, and
+     * remembers the key of the entry that follows it.
+     * @return the data position of the entry, or -1 if there is none
+     */
+    private long searchMappedIndex(WritableComparable key)
+      throws IOException {
+      index.seek(findMappedIndexBlock(key, indexEnd));
+      long position = -1;
+      while (index.next(indexKey, indexPosition)) {
+        if (key != null && comparator.compare(indexKey, key) > 0) {
+          WritableComparable spare = nextIndexKey;
+          nextIndexKey = indexKey;
+          indexKey = spare == null ? comparator.newKey() : spare;
+          return position;
+        }
+        position = indexPosition.get();
+      }
+      nextIndexKey = null;
+      return position;
+    }
+
+    /** Returns the key of the index entry at the middle of the mapped index. */
+    private WritableComparable mappedMidKey() throws IOException {
+      long middle = indexStart + (indexEnd - indexStart) / 2;
+      index.seek(findMappedIndexBlock(null, middle));
+      WritableComparable midKey = null;
+      while (index.getPosition() <= middle && 
+             index.next(indexKey, indexPosition)) {
+        WritableComparable spare = midKey;
+        midKey = indexKey;
+        indexKey = spare == null ? comparator.newKey() : spare;
+      }
+      return midKey;
+    }
+
     private int binarySearch(WritableComparable key) {
       int low = 0;
       int high = count-1;
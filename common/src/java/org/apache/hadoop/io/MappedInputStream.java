@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.fs.FSInputStream;
+
+/**
+ * A seekable stream over a local file that reads through a memory-mapped
+ * window instead of copying the file through a buffer.
+ *
+ * <p>A read-only window of at most <code>windowSize</code> bytes is mapped
+ * at a time and moved as the stream is read, so files larger than 2GB can be
+ * read too. {@link #view(long, int)} returns the bytes of a range of the file
+ * without copying them whenever the range fits in a window.
+ */
+class MappedInputStream extends FSInputStream {
+  /** The largest window mapped by default. */
+  static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long length;
+  private final int windowSize;
+
+  private MappedByteBuffer window;
+  private long windowStart;
+  private long pos;
+
+  MappedInputStream(File file) throws IOException {
+    this(file, DEFAULT_WINDOW_SIZE);
+  }
+
+  MappedInputStream(File file, int windowSize) throws IOException {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("Bad window size " + windowSize);
+    }
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.length = channel.size();
+    this.windowSize = windowSize;
+  }
+
+  /** The length of the mapped file. */
+  long getLength() {
+    return length;
+  }
+
+  /**
+   * Makes sure the window holds <code>[position, position + len)</code>,
+   * mapping a new window that starts at <code>position</code> if it does not.
+   * @return the offset of <code>position</code> in the window
+   */
+  private int map(long position, int len) throws IOException {
+    if (window == null || position < windowStart ||
+        position + len > windowStart + window.capacity()) {
+      windowStart = position;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                           Math.min(windowSize, length - position));
+    }
+    return (int)(position - windowStart);
+  }
+
+  /**
+   * Returns the bytes in <code>[position, position + len)</code>. The buffer
+   * shares the mapped memory unless the range is larger than the window, in
+   * which case it is copied to the heap. It must not be used after the
+   * stream is closed.
+   */
+  ByteBuffer view(long position, int len) throws IOException {
+    if (len < 0 || position < 0 || position + len > length) {
+      throw new EOFException("Cannot read " + len + " bytes at " + position + 
+                             " from a file of " + length + " bytes");
+    }
+    if (len > windowSize) {
+      byte[] copy = new byte[len];
+      readFully(position, copy, 0, len);
+      return ByteBuffer.wrap(copy);
+    }
+    int offset = map(position, len);
+    ByteBuffer view = window.duplicate();
+    view.limit(offset + len);
+    view.position(offset);
+    return view.slice();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (pos >= length) {
+      return -1;
+    }
+    int offset = map(pos, 1);
+    pos++;
+    return window.get(offset) & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (pos >= length) {
+      return -1;
+    }
+    len = (int)Math.min(len, length - pos);
+    int n = 0;
+    while (n < len) {
+      int offset = map(pos, 1);
+      int chunk = Math.min(len - n, window.capacity() - offset);
+      ByteBuffer src = window.duplicate();
+      src.position(offset);
+      src.get(b, off + n, chunk);
+      pos += chunk;
+      n += chunk;
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = Math.max(0, Math.min(n, length - pos));
+    pos += skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int)Math.min(Integer.MAX_VALUE, length - pos);
+  }
+
+  @Override
+  public void seek(long position) throws IOException {
+    if (position < 0) {
+      throw new IOException("Cannot seek to negative offset " + position);
+    }
+    pos = position;
+  }
+
+  @Override
+  public long getPos() throws IOException {
+    return pos;
+  }
+
+  @Override
+  public boolean seekToNewSource(long targetPos) throws IOException {
+    return false;
+  }
+
+  /**
+   * Closes the file. The mapped window stays valid until it is garbage
+   * collected, as Java offers no way to unmap it.
+   */
+  @Override
+  public void close() throws IOException {
+    window = null;
+    file.close();
+  }
+}
@@ -20,8 +20,19 @@ package org.apache.hadoop.io;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.rmi.server.UID;
 import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.logging.*;
 import org.apache.hadoop.util.Options;
 import org.apache.hadoop.fs.*;
@@ -1540,6 +1551,17 @@ public class SequenceFile {
       return new BufferSizeOption(value);
     }
 
+    /**
+     * Create an option to memory-map the file rather than reading it through
+     * a buffered stream. It only applies to files on the local file system,
+     * whose checksums are then not verified; other files are read as usual.
+     * @param value whether to map the file
+     * @return a new option
+     */
+    public static Option memoryMapped(boolean value) {
+      return new MemoryMappedOption(value);
+    }
+
     private static class FileOption extends Options.PathOption 
                                     implements Option {
       private FileOption(Path value) {
@@ -1576,6 +1598,13 @@ public class SequenceFile {
       }
     }
 
+    private static class MemoryMappedOption extends Options.BooleanOption
+                                            implements Option {
+      private MemoryMappedOption(boolean value) {
+        super(value);
+      }
+    }
+
     // only used directly
     private static class OnlyHeaderOption extends Options.BooleanOption 
                                           implements Option {
@@ -1592,6 +1621,8 @@ public class SequenceFile {
       StartOption startOpt = Options.getOption(StartOption.class, opts);
       LengthOption lenOpt = Options.getOption(LengthOption.class, opts);
       BufferSizeOption bufOpt = Options.getOption(BufferSizeOption.class,opts);
+      MemoryMappedOption mappedOpt = 
+        Options.getOption(MemoryMappedOption.class, opts);
       OnlyHeaderOption headerOnly = 
         Options.getOption(OnlyHeaderOption.class, opts);
       // check for consistency
@@ -1614,7 +1645,13 @@ public class SequenceFile {
         len = null == lenOpt
           ? fs.getFileStatus(filename).getLen()
           : lenOpt.getValue();
-        file = openFile(fs, filename, bufSize, len);
+        file = null;
+        if (mappedOpt != null && mappedOpt.getValue()) {
+          file = openMappedFile(fs, filename);
+        }
+        if (file == null) {
+          file = openFile(fs, filename, bufSize, len);
+        }
       } else {
         len = null == lenOpt ? Long.MAX_VALUE : lenOpt.getValue();
         file = streamOpt.getValue();
@@ -1697,6 +1734,25 @@ public class SequenceFile {
         int bufferSize, long length) throws IOException {
       return fs.open(file, bufferSize);
     }
+
+    /** Maps a local file, or returns null if the file is not local. */
+    private static FSDataInputStream openMappedFile(FileSystem fs, Path file)
+      throws IOException {
+      File localFile;
+      if (fs instanceof LocalFileSystem) {
+        localFile = ((LocalFileSystem)fs).pathToFile(file);
+      } else if (fs instanceof RawLocalFileSystem) {
+        localFile = ((RawLocalFileSystem)fs).pathToFile(file);
+      } else {
+        return null;
+      }
+      return new FSDataInputStream(new MappedInputStream(localFile));
+    }
+
+    /** Returns true if the file is read through a memory mapping. */
+    public boolean isMemoryMapped() {
+      return in.getWrappedStream() instanceof MappedInputStream;
+    }
     
     /**
      * Initialize the {@link Reader}
@@ -2280,6 +2336,71 @@ public class SequenceFile {
       
     }
 
+    /**
+     * The key and value of a record as views of a memory-mapped file. The
+     * buffers are only valid until the next record is read or the reader is
+     * closed.
+     */
+    public static class RecordView {
+      private ByteBuffer key;
+      private ByteBuffer value;
+      private boolean valueCompressed;
+
+      /** The serialized key. */
+      public ByteBuffer getKey() {
+        return key;
+      }
+
+      /** The serialized value, compressed if {@link #isValueCompressed()}. */
+      public ByteBuffer getValue() {
+        return value;
+      }
+
+      /** Whether the value is compressed with the file's codec. */
+      public boolean isValueCompressed() {
+        return valueCompressed;
+      }
+    }
+
+    /**
+     * Read the next record without copying it. Only supported for files
+     * opened with {@link #memoryMapped(boolean)} that are not
+     * block-compressed.
+     * @param record - The view to point at the record
+     * @return Returns the total record length or -1 for end of file
+     * @throws IOException
+     */
+    public synchronized int nextRawView(RecordView record) 
+      throws IOException {
+      if (blockCompressed || !isMemoryMapped()) {
+        throw new IOException("Unsupported call for " + 
+                              (blockCompressed ? "block-compressed" 
+                                               : "unmapped") +
+                              " SequenceFiles - use SequenceFile.Reader" +
+                              ".nextRaw(DataOutputBuffer, ValueBytes)");
+      }
+      int length = readRecordLength();
+      if (length == -1) {
+        return -1;
+      }
+      int keyLength = in.readInt();
+      if (keyLength < 0 || keyLength > length) {
+        throw new IOException("Bad key length " + keyLength + 
+                              " for a record of " + length + " bytes");
+      }
+      long start = in.getPos();
+      ByteBuffer bytes = 
+        ((MappedInputStream)in.getWrappedStream()).view(start, length);
+      bytes.limit(keyLength);
+      record.key = bytes.slice();
+      bytes.limit(length);
+      bytes.position(keyLength);
+      record.value = bytes.slice();
+      record.valueCompressed = decompress;
+      in.seek(start + length);
+      return length;
+    }
+
     /**
      * Read 'raw' keys.
      * @param key - The buffer into which the key is read
@@ -2500,14 +2621,13 @@ public class SequenceFile {
 
     private RawComparator comparator;
 
-    private MergeSort mergeSort; //the implementation of merge sort
-    
     private Path[] inFiles;                     // when merging or sorting
 
     private Path outFile;
 
     private int memory; // bytes
     private int factor; // merged per pass
+    private int threads; // sorting and merging in parallel
 
     private FileSystem fs = null;
 
@@ -2540,6 +2660,9 @@ public class SequenceFile {
       this.valClass = valClass;
       this.memory = conf.getInt("io.sort.mb", 100) * 1024 * 1024;
       this.factor = conf.getInt("io.sort.factor", 100);
+      this.threads = conf.getInt(
+          CommonConfigurationKeys.IO_SEQFILE_SORT_THREADS_KEY,
+          CommonConfigurationKeys.IO_SEQFILE_SORT_THREADS_DEFAULT);
       this.conf = conf;
       this.metadata = metadata;
     }
@@ -2550,6 +2673,34 @@ public class SequenceFile {
     /** Get the number of streams to merge at once.*/
     public int getFactor() { return factor; }
 
+    /**
+     * Set the number of threads used to sort in-memory runs and to run
+     * intermediate merges. With more than one thread the next run is read
+     * while earlier ones are sorted and spilled.
+     */
+    public void setThreads(int threads) { this.threads = threads; }
+
+    /** Get the number of threads used to sort and merge.*/
+    public int getThreads() { return threads; }
+
+    /**
+     * Returns a comparator for the exclusive use of one sort or merge
+     * thread, or null if the comparator can't be copied. The generic
+     * {@link WritableComparator} deserializes keys into instances of its
+     * own, so one must not be shared between threads.
+     */
+    private RawComparator copyComparator() {
+      if (comparator.getClass() == WritableComparator.class) {
+        return new WritableComparator(
+            ((WritableComparator)comparator).getKeyClass(), true);
+      }
+      try {
+        return ReflectionUtils.newInstance(comparator.getClass(), conf);
+      } catch (RuntimeException e) {
+        return null;                              // no default constructor
+      }
+    }
+
     /** Set the total amount of buffer memory, in bytes.*/
     public void setMemory(int memory) { this.memory = memory; }
 
@@ -2626,7 +2777,6 @@ public class SequenceFile {
       }
       SortPass sortPass = new SortPass();         // make the SortPass
       sortPass.setProgressable(progressable);
-      mergeSort = new MergeSort(sortPass.new SeqFileComparator());
       try {
         return sortPass.run(deleteInput);         // run it
       } finally {
@@ -2635,17 +2785,15 @@ public class SequenceFile {
     }
 
     private class SortPass {
-      private int memoryLimit = memory/4;
       private int recordLimit = 1000000;
       
-      private DataOutputBuffer rawKeys = new DataOutputBuffer();
-      private byte[] rawBuffer;
-
-      private int[] keyOffsets = new int[1024];
-      private int[] pointers = new int[keyOffsets.length];
-      private int[] pointersCopy = new int[keyOffsets.length];
-      private int[] keyLengths = new int[keyOffsets.length];
-      private ValueBytes[] rawValues = new ValueBytes[keyOffsets.length];
+      /** The buffers records are read into; more than one when spilling in
+       * the background. */
+      private final SortRun[] runs;
+      private final BlockingQueue<SortRun> freeRuns;
+      private ExecutorService sortExecutor;
+      private ExecutorService spillExecutor;
+      private final LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
       
       private ArrayList segmentLengths = new ArrayList();
       
@@ -2656,6 +2804,28 @@ public class SequenceFile {
 
       private Progressable progressable = null;
 
+      SortPass() {
+        RawComparator copy = threads > 1 ? copyComparator() : null;
+        if (copy == null) {
+          runs = new SortRun[] { new SortRun(memory/4, comparator) };
+          freeRuns = null;
+        } else {
+          // one run is filled while the others are sorted or spilled; the
+          // runs share the memory a single run would have used
+          runs = new SortRun[threads + 1];
+          freeRuns = new ArrayBlockingQueue<SortRun>(runs.length);
+          for (int i = 0; i < runs.length; i++) {
+            runs[i] = new SortRun(memory/4/runs.length, copy);
+            freeRuns.add(runs[i]);
+            copy = copyComparator();
+          }
+          sortExecutor = Executors.newFixedThreadPool(threads,
+              new SortThreadFactory("sort"));
+          spillExecutor = Executors.newSingleThreadExecutor(
+              new SortThreadFactory("spill"));
+        }
+      }
+
       public int run(boolean deleteInput) throws IOException {
         int segments = 0;
         int currentFile = 0;
@@ -2672,72 +2842,170 @@ public class SequenceFile {
         compressionType = in.getCompressionType();
         codec = in.getCompressionCodec();
         
-        for (int i=0; i < rawValues.length; ++i) {
-          rawValues[i] = null;
-        }
-        
-        while (!atEof) {
-          int count = 0;
-          int bytesProcessed = 0;
-          rawKeys.reset();
-          while (!atEof && 
-                 bytesProcessed < memoryLimit && count < recordLimit) {
-
-            // Read a record into buffer
-            // Note: Attempt to re-use 'rawValue' as far as possible
-            int keyOffset = rawKeys.getLength();       
-            ValueBytes rawValue = 
-              (count == keyOffsets.length || rawValues[count] == null) ? 
-              in.createValueBytes() : 
-              rawValues[count];
-            int recordLength = in.nextRaw(rawKeys, rawValue);
-            if (recordLength == -1) {
-              in.close();
-              if (deleteInput) {
-                fs.delete(inFiles[currentFile], true);
-              }
-              currentFile += 1;
-              atEof = currentFile >= inFiles.length;
-              if (!atEof) {
-                in = new Reader(fs, inFiles[currentFile], conf);
-              } else {
-                in = null;
+        boolean succeeded = false;
+        try {
+          while (!atEof) {
+            SortRun run = nextRun();
+            int count = 0;
+            int bytesProcessed = 0;
+            run.rawKeys.reset();
+            while (!atEof && 
+                   bytesProcessed < run.memoryLimit && count < recordLimit) {
+
+              // Read a record into buffer
+              // Note: Attempt to re-use 'rawValue' as far as possible
+              int keyOffset = run.rawKeys.getLength();       
+              ValueBytes rawValue = 
+                (count == run.keyOffsets.length || 
+                 run.rawValues[count] == null) ? 
+                in.createValueBytes() : 
+                run.rawValues[count];
+              int recordLength = in.nextRaw(run.rawKeys, rawValue);
+              if (recordLength == -1) {
+                in.close();
+                if (deleteInput) {
+                  fs.delete(inFiles[currentFile], true);
+                }
+                currentFile += 1;
+                atEof = currentFile >= inFiles.length;
+                if (!atEof) {
+                  in = new Reader(fs, inFiles[currentFile], conf);
+                } else {
+                  in = null;
+                }
+                continue;
               }
-              continue;
-            }
 
-            int keyLength = rawKeys.getLength() - keyOffset;
+              int keyLength = run.rawKeys.getLength() - keyOffset;
 
-            if (count == keyOffsets.length)
-              grow();
+              if (count == run.keyOffsets.length)
+                run.grow();
 
-            keyOffsets[count] = keyOffset;                // update pointers
-            pointers[count] = count;
-            keyLengths[count] = keyLength;
-            rawValues[count] = rawValue;
+              run.keyOffsets[count] = keyOffset;          // update pointers
+              run.pointers[count] = count;
+              run.keyLengths[count] = keyLength;
+              run.rawValues[count] = rawValue;
 
-            bytesProcessed += recordLength; 
-            count++;
-          }
+              bytesProcessed += recordLength; 
+              count++;
+            }
 
-          // buffer is full -- sort & flush it
-          if(LOG.isDebugEnabled()) {
-            LOG.debug("flushing segment " + segments);
+            // buffer is full -- sort & flush it
+            if(LOG.isDebugEnabled()) {
+              LOG.debug("flushing segment " + segments);
+            }
+            run.rawBuffer = run.rawKeys.getData();
+            run.count = count;
+            boolean done = segments==0 && atEof;
+            if (freeRuns == null) {
+              run.sort();
+              // indicate we're making progress
+              if (progressable != null) {
+                progressable.progress();
+              }
+              flush(run, compressionType, codec, done);
+            } else {
+              sortAndSpill(run, compressionType, codec, done);
+              if (progressable != null) {
+                progressable.progress();
+              }
+            }
+            segments++;
+          }
+          while (!pending.isEmpty()) {
+            waitFor(pending.removeFirst());
           }
-          rawBuffer = rawKeys.getData();
-          sort(count);
-          // indicate we're making progress
-          if (progressable != null) {
-            progressable.progress();
+          succeeded = true;
+        } finally {
+          if (!succeeded) {
+            for (Future<?> f : pending) {
+              f.cancel(true);
+            }
           }
-          flush(count, bytesProcessed, compressionType, codec, 
-                segments==0 && atEof);
-          segments++;
         }
         return segments;
       }
 
+      /** Returns the run to read the next segment into. */
+      private SortRun nextRun() throws IOException {
+        if (freeRuns == null) {
+          return runs[0];
+        }
+        // fail early if a spill went wrong
+        while (!pending.isEmpty() && pending.getFirst().isDone()) {
+          waitFor(pending.removeFirst());
+        }
+        try {
+          return freeRuns.take();
+        } catch (InterruptedException e) {
+          throw (IOException)
+            new InterruptedIOException("interrupted in sort").initCause(e);
+        }
+      }
+
+      /**
+       * Sorts the run on the sort threads and has the spill thread write it
+       * out once sorted. Segments are written in the order they were read.
+       */
+      private void sortAndSpill(final SortRun run, 
+                                final CompressionType compressionType,
+                                final CompressionCodec codec,
+                                final boolean done) {
+        final Future<?> sorted = sortExecutor.submit(new Runnable() {
+          public void run() {
+            run.sort();
+          }
+        });
+        pending.add(spillExecutor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            try {
+              sorted.get();
+              flush(run, compressionType, codec, done);
+            } finally {
+              sorted.cancel(true);
+              freeRuns.add(run);
+            }
+            return null;
+          }
+        }));
+      }
+
+      private void waitFor(Future<?> spill) throws IOException {
+        try {
+          spill.get();
+        } catch (InterruptedException e) {
+          throw (IOException)
+            new InterruptedIOException("interrupted in sort").initCause(e);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof ExecutionException) {
+            cause = cause.getCause();           // the sort itself failed
+          }
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new IOException(cause);
+        }
+      }
+
       public void close() throws IOException {
+        if (sortExecutor != null) {
+          sortExecutor.shutdownNow();
+          spillExecutor.shutdownNow();
+          try {
+            // the spill thread may still be using the output streams
+            spillExecutor.awaitTermination(Long.MAX_VALUE, 
+                                           TimeUnit.MILLISECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
         if (in != null) {
           in.close();
         }
@@ -2749,31 +3017,7 @@ public class SequenceFile {
         }
       }
 
-      private void grow() {
-        int newLength = keyOffsets.length * 3 / 2;
-        keyOffsets = grow(keyOffsets, newLength);
-        pointers = grow(pointers, newLength);
-        pointersCopy = new int[newLength];
-        keyLengths = grow(keyLengths, newLength);
-        rawValues = grow(rawValues, newLength);
-      }
-
-      private int[] grow(int[] old, int newLength) {
-        int[] result = new int[newLength];
-        System.arraycopy(old, 0, result, 0, old.length);
-        return result;
-      }
-      
-      private ValueBytes[] grow(ValueBytes[] old, int newLength) {
-        ValueBytes[] result = new ValueBytes[newLength];
-        System.arraycopy(old, 0, result, 0, old.length);
-        for (int i=old.length; i < newLength; ++i) {
-          result[i] = null;
-        }
-        return result;
-      }
-
-      private void flush(int count, int bytesProcessed, 
+      private void flush(SortRun run, 
                          CompressionType compressionType, 
                          CompressionCodec codec, 
                          boolean done) throws IOException {
@@ -2795,9 +3039,10 @@ public class SequenceFile {
           writer.sync = null;                     // disable sync on temp files
         }
 
-        for (int i = 0; i < count; i++) {         // write in sorted order
-          int p = pointers[i];
-          writer.appendRaw(rawBuffer, keyOffsets[p], keyLengths[p], rawValues[p]);
+        for (int i = 0; i < run.count; i++) {     // write in sorted order
+          int p = run.pointers[i];
+          writer.appendRaw(run.rawBuffer, run.keyOffsets[p], 
+                           run.keyLengths[p], run.rawValues[p]);
         }
         writer.close();
         
@@ -2809,25 +3054,93 @@ public class SequenceFile {
         }
       }
 
-      private void sort(int count) {
+      /** set the progressable object in order to report progress */
+      public void setProgressable(Progressable progressable)
+      {
+        this.progressable = progressable;
+      }
+      
+    } // SequenceFile.Sorter.SortPass
+
+    /** The in-memory buffers for one sorted segment. */
+    private class SortRun {
+      private final int memoryLimit;
+      private final RawComparator runComparator;
+
+      private DataOutputBuffer rawKeys = new DataOutputBuffer();
+      private byte[] rawBuffer;
+      private int count;
+
+      private int[] keyOffsets = new int[1024];
+      private int[] pointers = new int[keyOffsets.length];
+      private int[] pointersCopy = new int[keyOffsets.length];
+      private int[] keyLengths = new int[keyOffsets.length];
+      private ValueBytes[] rawValues = new ValueBytes[keyOffsets.length];
+
+      // MergeSort keeps state between comparisons, so every run has its own
+      private final MergeSort mergeSort = 
+        new MergeSort(new SeqFileComparator());
+
+      SortRun(int memoryLimit, RawComparator runComparator) {
+        this.memoryLimit = memoryLimit;
+        this.runComparator = runComparator;
+      }
+
+      private void grow() {
+        int newLength = keyOffsets.length * 3 / 2;
+        keyOffsets = grow(keyOffsets, newLength);
+        pointers = grow(pointers, newLength);
+        pointersCopy = new int[newLength];
+        keyLengths = grow(keyLengths, newLength);
+        rawValues = grow(rawValues, newLength);
+      }
+
+      private int[] grow(int[] old, int newLength) {
+        int[] result = new int[newLength];
+        System.arraycopy(old, 0, result, 0, old.length);
+        return result;
+      }
+      
+      private ValueBytes[] grow(ValueBytes[] old, int newLength) {
+        ValueBytes[] result = new ValueBytes[newLength];
+        System.arraycopy(old, 0, result, 0, old.length);
+        for (int i=old.length; i < newLength; ++i) {
+          result[i] = null;
+        }
+        return result;
+      }
+
+      private void sort() {
         System.arraycopy(pointers, 0, pointersCopy, 0, count);
         mergeSort.mergeSort(pointersCopy, pointers, 0, count);
       }
+
       class SeqFileComparator implements Comparator<IntWritable> {
         public int compare(IntWritable I, IntWritable J) {
-          return comparator.compare(rawBuffer, keyOffsets[I.get()], 
-                                    keyLengths[I.get()], rawBuffer, 
-                                    keyOffsets[J.get()], keyLengths[J.get()]);
+          return runComparator.compare(rawBuffer, keyOffsets[I.get()], 
+                                       keyLengths[I.get()], rawBuffer, 
+                                       keyOffsets[J.get()], 
+                                       keyLengths[J.get()]);
         }
       }
-      
-      /** set the progressable object in order to report progress */
-      public void setProgressable(Progressable progressable)
-      {
-        this.progressable = progressable;
+    } // SequenceFile.Sorter.SortRun
+
+    /** Names the daemon threads of a parallel sort. */
+    private static class SortThreadFactory implements ThreadFactory {
+      private final String name;
+      private final AtomicInteger count = new AtomicInteger();
+
+      SortThreadFactory(String name) {
+        this.name = name;
       }
-      
-    } // SequenceFile.Sorter.SortPass
+
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "SequenceFile.Sorter " + name + " #" + 
+                              count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    }
 
     /** The interface to iterate over raw keys/values of SequenceFiles. */
     public static interface RawKeyValueIterator {
@@ -3059,6 +3372,8 @@ public class SequenceFile {
       //segment path name is used to break ties between segments of same sizes)
       private Map<SegmentDescriptor, Void> sortedSegmentSizes =
         new TreeMap<SegmentDescriptor, Void>();
+      //the comparator of a parallel merge group is not shared
+      private RawComparator keyComparator = comparator;
             
       @SuppressWarnings("unchecked")
       public void put(SegmentDescriptor stream) throws IOException {
@@ -3094,9 +3409,9 @@ public class SequenceFile {
         }
         SegmentDescriptor msa = (SegmentDescriptor)a;
         SegmentDescriptor msb = (SegmentDescriptor)b;
-        return comparator.compare(msa.getKey().getData(), 0, 
-                                  msa.getKey().getLength(), msb.getKey().getData(), 0, 
-                                  msb.getKey().getLength()) < 0;
+        return keyComparator.compare(msa.getKey().getData(), 0, 
+                                     msa.getKey().getLength(), msb.getKey().getData(), 0, 
+                                     msb.getKey().getLength()) < 0;
       }
       public void close() throws IOException {
         SegmentDescriptor ms;                           // close inputs
@@ -3171,16 +3486,23 @@ public class SequenceFile {
         //create the MergeStreams from the sorted map created in the constructor
         //and dump the final output to a file
         int numSegments = sortedSegmentSizes.size();
-        int origFactor = factor;
         int passNo = 1;
         LocalDirAllocator lDirAlloc = new LocalDirAllocator("io.seqfile.local.dir");
+        boolean parallel = threads > 1 && copyComparator() != null;
         do {
           //get the factor for this pass of merge
-          factor = getPassFactor(passNo, numSegments);
+          int passFactor = getPassFactor(passNo, numSegments);
+          if (parallel && numSegments > factor) {
+            //an intermediate pass; merge several groups at once
+            mergeParallel(passNo, passFactor, lDirAlloc);
+            numSegments = sortedSegmentSizes.size();
+            passNo++;
+            continue;
+          }
           List<SegmentDescriptor> segmentsToMerge =
             new ArrayList<SegmentDescriptor>();
           int segmentsConsidered = 0;
-          int numSegmentsToConsider = factor;
+          int numSegmentsToConsider = passFactor;
           while (true) {
             //extract the smallest 'factor' number of segment pointers from the 
             //TreeMap. Call cleanup on the empty segments (no key/value data)
@@ -3200,12 +3522,12 @@ public class SequenceFile {
             }
             //if we have the desired number of segments
             //or looked at all available segments, we break
-            if (segmentsConsidered == factor || 
+            if (segmentsConsidered == passFactor || 
                 sortedSegmentSizes.size() == 0) {
               break;
             }
               
-            numSegmentsToConsider = factor - segmentsConsidered;
+            numSegmentsToConsider = passFactor - segmentsConsidered;
           }
           //feed the streams to the priority queue
           initialize(segmentsToMerge.size()); clear();
@@ -3214,7 +3536,7 @@ public class SequenceFile {
           }
           //if we have lesser number of segments remaining, then just return the
           //iterator, else do another single level merge
-          if (numSegments <= factor) {
+          if (numSegments <= passFactor) {
             //calculate the length of the remaining segments. Required for 
             //calculating the merge progress
             long totalBytes = 0;
@@ -3223,8 +3545,6 @@ public class SequenceFile {
             }
             if (totalBytes != 0) //being paranoid
               progPerByte = 1.0f / (float)totalBytes;
-            //reset factor to what it originally was
-            factor = origFactor;
             return this;
           } else {
             //we want to spread the creation of temp files on multiple disks if 
@@ -3263,11 +3583,98 @@ public class SequenceFile {
             numSegments = sortedSegmentSizes.size();
             passNo++;
           }
-          //we are worried about only the first pass merge factor. So reset the 
-          //factor to what it originally was
-          factor = origFactor;
         } while(true);
       }
+
+      /**
+       * Runs one intermediate merge pass on up to <code>threads</code>
+       * threads. Each thread merges a group of the smallest segments into a
+       * temp file of its own; the merged segments are put back in the
+       * TreeMap.
+       */
+      private void mergeParallel(int passNo, int passFactor,
+                                 LocalDirAllocator lDirAlloc) 
+        throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            new SortThreadFactory("merge"));
+        try {
+          List<Future<SegmentDescriptor>> merges = 
+            new ArrayList<Future<SegmentDescriptor>>();
+          int numSegments = sortedSegmentSizes.size();
+          int groupFactor = passFactor;
+          for (int group = 0; group < threads && numSegments > factor; 
+               group++) {
+            final List<SegmentDescriptor> segments =
+              Arrays.asList(getSegmentDescriptors(groupFactor));
+            long approxOutputSize = 0; 
+            for (SegmentDescriptor s : segments) {
+              approxOutputSize += s.segmentLength + 
+                                  ChecksumFileSystem.getApproxChkSumLength(
+                                  s.segmentLength);
+            }
+            Path tmpFilename = new Path(tmpDir, "intermediate").suffix(
+                "." + passNo + "." + group);
+            final Path outputFile = lDirAlloc.getLocalPathForWrite(
+                tmpFilename.toString(), approxOutputSize, conf);
+            if(LOG.isDebugEnabled()) { 
+              LOG.debug("writing intermediate results to " + outputFile);
+            }
+            final RawComparator groupComparator = copyComparator();
+            merges.add(executor.submit(new Callable<SegmentDescriptor>() {
+              public SegmentDescriptor call() throws IOException {
+                return mergeGroup(segments, outputFile, groupComparator);
+              }
+            }));
+            numSegments -= segments.size() - 1;
+            //only the first merge of the first pass is cut short (Hadoop-591)
+            groupFactor = factor;
+          }
+          for (Future<SegmentDescriptor> merge : merges) {
+            try {
+              sortedSegmentSizes.put(merge.get(), null);
+            } catch (InterruptedException e) {
+              throw (IOException)new InterruptedIOException(
+                  "interrupted in merge").initCause(e);
+            } catch (ExecutionException e) {
+              Throwable cause = e.getCause();
+              if (cause instanceof IOException) {
+                throw (IOException) cause;
+              }
+              if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+              }
+              if (cause instanceof Error) {
+                throw (Error) cause;
+              }
+              throw new IOException(cause);
+            }
+          }
+        } finally {
+          executor.shutdownNow();
+        }
+      }
+
+      /** Merges a group of at most <code>factor</code> segments to a file. */
+      private SegmentDescriptor mergeGroup(List<SegmentDescriptor> segments,
+                                           Path outputFile,
+                                           RawComparator groupComparator) 
+        throws IOException {
+        //clone before merging, which deletes empty segments
+        Writer writer = cloneFileAttributes(
+            fs.makeQualified(segments.get(0).segmentPathName), 
+            fs.makeQualified(outputFile), null);
+        writer.sync = null; //disable sync for temp files
+        MergeQueue queue = new MergeQueue(segments, tmpDir, progress);
+        queue.keyComparator = groupComparator;
+        try {
+          writeFile(queue.merge(), writer);
+        } finally {
+          queue.close();
+        }
+        writer.close();
+        return new SegmentDescriptor(0, fs.getFileStatus(outputFile).getLen(),
+                                     outputFile);
+      }
   
       //Hadoop-591
       public int getPassFactor(int passNo, int numSegments) {
@@ -3497,7 +3904,7 @@ public class SequenceFile {
       public List <SegmentDescriptor> getSegmentList() {
         return segments;
       }
-      public void cleanup() throws IOException {
+      public synchronized void cleanup() throws IOException {
         numSegmentsCleanedUp++;
         if (numSegmentsCleanedUp == numSegmentsContained) {
           fs.delete(inName, true);
@@ -74,5 +74,28 @@ public class VIntWritable implements WritableComparable {
     return Integer.toString(value);
   }
 
-}
+  /** A Comparator optimized for VIntWritable. */
+  public static class Comparator extends WritableComparator {
+    public Comparator() {
+      super(VIntWritable.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+      int thisValue;
+      int thatValue;
+      try {
+        thisValue = readVInt(b1, s1);
+        thatValue = readVInt(b2, s2);
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+      return (thisValue<thatValue ? -1 : (thisValue==thatValue ? 0 : 1));
+    }
+  }
 
+  static {                                       // register default comparator
+    WritableComparator.define(VIntWritable.class, new Comparator());
+  }
+
+}
@@ -74,5 +74,28 @@ public class VLongWritable implements WritableComparable {
     return Long.toString(value);
   }
 
-}
+  /** A Comparator optimized for VLongWritable. */
+  public static class Comparator extends WritableComparator {
+    public Comparator() {
+      super(VLongWritable.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+      long thisValue;
+      long thatValue;
+      try {
+        thisValue = readVLong(b1, s1);
+        thatValue = readVLong(b2, s2);
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+      return (thisValue<thatValue ? -1 : (thisValue==thatValue ? 0 : 1));
+    }
+  }
 
+  static {                                       // register default comparator
+    WritableComparator.define(VLongWritable.class, new Comparator());
+  }
+
+}
@@ -17,79 +17,358 @@
  */
 package org.apache.hadoop.io.compress;
 
-import java.util.ArrayList;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.util.ReflectionUtils;
 
 /**
  * A global compressor/decompressor pool used to save and reuse 
  * (possibly native) compression/decompression codecs.
+ *
+ * Each thread keeps the last codec of each class it returned, so that a
+ * thread which repeatedly borrows and returns a codec does not share it with
+ * the others.  The other codecs are kept in bounded pools shared by all the
+ * threads, which do not lock.  Codecs returned to a full pool are ended,
+ * which frees their native memory at once.  The codecs kept by a thread that
+ * died are put back in the shared pools when a pool runs out.
+ *
+ * A sample of the codecs lent out is tracked.  Those collected without ever
+ * being returned are logged and counted, since they may hold native memory
+ * until the JVM exits.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Evolving
 public class CodecPool {
   private static final Log LOG = LogFactory.getLog(CodecPool.class);
-  
+
+  /** The largest number of codecs of a class kept in the shared pools */
+  static final int MAX_POOLED_CODECS = 64;
+  /** One in this many codecs lent out by a thread is tracked for leaks */
+  static final int LEAK_SAMPLE_INTERVAL = 64;
+
+  // The counters kept by each thread
+  private static final int LOCAL_HITS = 0;
+  private static final int SHARED_HITS = 1;
+  private static final int CREATED = 2;
+  private static final int DISCARDED = 3;
+  private static final int COUNTERS = 4;
+
+  @Metrics(about="Compressor and decompressor pool metrics", context="codec")
+  static class CodecPoolMetrics {
+    @Metric(value="Number of codecs reused from the cache of their thread",
+            type=Metric.Type.COUNTER)
+    public long localHits() {
+      return count(LOCAL_HITS);
+    }
+
+    @Metric(value="Number of codecs reused from the shared pools",
+            type=Metric.Type.COUNTER)
+    public long sharedHits() {
+      return count(SHARED_HITS);
+    }
+
+    @Metric(value="Number of codecs created because none was pooled",
+            type=Metric.Type.COUNTER)
+    public long created() {
+      return count(CREATED);
+    }
+
+    @Metric(value="Number of returned codecs ended because their pool was full",
+            type=Metric.Type.COUNTER)
+    public long discarded() {
+      return count(DISCARDED);
+    }
+
+    @Metric("Number of sampled codecs collected without being returned")
+    MutableCounterLong leaked;
+
+    private static long count(int counter) {
+      return compressorPool.count(counter) + decompressorPool.count(counter);
+    }
+
+    static CodecPoolMetrics create() {
+      return DefaultMetricsSystem.instance().register(new CodecPoolMetrics());
+    }
+  }
+
+  /** A bounded pool of the codecs of one class. */
+  private static class Pool<T> {
+    private final Queue<T> codecs = new ConcurrentLinkedQueue<T>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    T poll() {
+      T codec = codecs.poll();
+      if (codec != null) {
+        size.decrementAndGet();
+      }
+      return codec;
+    }
+
+    /** @return false if the pool is full */
+    boolean offer(T codec) {
+      if (size.incrementAndGet() > MAX_POOLED_CODECS) {
+        size.decrementAndGet();
+        return false;
+      }
+      codecs.offer(codec);
+      return true;
+    }
+  }
+
+  /**
+   * The codecs cached by a thread, and the counters of that thread.  The
+   * counters are only written by the thread, so they are updated without
+   * atomic instructions and only read when the metrics are sampled.
+   */
+  @SuppressWarnings("serial")
+  private static class Local<T> extends HashMap<Class<T>, T> {
+    private final WeakReference<Thread> owner =
+      new WeakReference<Thread>(Thread.currentThread());
+    private final AtomicLongArray counts = new AtomicLongArray(COUNTERS);
+    private int lent = 0;
+
+    void incr(int counter) {
+      counts.lazySet(counter, counts.get(counter) + 1);
+    }
+
+    boolean isDead() {
+      Thread thread = owner.get();
+      return thread == null || !thread.isAlive();
+    }
+  }
+
+  /** The codecs of a kind, cached by each thread and pooled by class. */
+  private static abstract class Cache<T> {
+    private final ConcurrentMap<Class<T>, Pool<T>> pools =
+      new ConcurrentHashMap<Class<T>, Pool<T>>();
+    /** The caches of all the threads, until they are reaped */
+    private final Queue<Local<T>> locals = new ConcurrentLinkedQueue<Local<T>>();
+    /** The counts of the threads that were reaped */
+    private final long[] reaped = new long[COUNTERS];
+    private final ThreadLocal<Local<T>> local =
+      new ThreadLocal<Local<T>>() {
+        @Override
+        protected Local<T> initialValue() {
+          Local<T> cache = new Local<T>();
+          locals.add(cache);
+          return cache;
+        }
+      };
+
+    /** Free the resources of a codec that is not pooled. */
+    abstract void end(T codec);
+
+    T borrow(Class<? extends T> codecClass) {
+      if (codecClass == null) {
+        return null;
+      }
+      Local<T> cache = local.get();
+      T codec = cache.remove(codecClass);
+      if (codec != null) {
+        cache.incr(LOCAL_HITS);
+        return codec;
+      }
+      codec = poll(codecClass);
+      if (codec == null) {
+        // a codec is about to be created, look for one left by a dead thread
+        reap();
+        codec = poll(codecClass);
+      }
+      if (codec != null) {
+        cache.incr(SHARED_HITS);
+      }
+      return codec;
+    }
+
+    void created() {
+      local.get().incr(CREATED);
+    }
+
+    private T poll(Class<? extends T> codecClass) {
+      Pool<T> pool = pools.get(codecClass);
+      return pool == null ? null : pool.poll();
+    }
+
+    /** @return true if the lease of the codec just lent should be tracked */
+    boolean sample() {
+      return local.get().lent++ % LEAK_SAMPLE_INTERVAL == 0;
+    }
+
+    /** @return false if the codec was not kept, and should be ended */
+    boolean payback(T codec) {
+      Local<T> cache = local.get();
+      Class<T> codecClass = ReflectionUtils.getClass(codec);
+      if (!cache.containsKey(codecClass)) {
+        cache.put(codecClass, codec);
+        return true;
+      }
+      if (!offer(codecClass, codec)) {
+        cache.incr(DISCARDED);
+        return false;
+      }
+      return true;
+    }
+
+    private boolean offer(Class<T> codecClass, T codec) {
+      Pool<T> pool = pools.get(codecClass);
+      if (pool == null) {
+        pool = new Pool<T>();
+        Pool<T> previous = pools.putIfAbsent(codecClass, pool);
+        if (previous != null) {
+          pool = previous;
+        }
+      }
+      return pool.offer(codec);
+    }
+
+    /**
+     * Move the codecs cached by the threads that died to the shared pools,
+     * ending those that do not fit, and keep the counts of those threads.
+     */
+    synchronized void reap() {
+      checkLeaks();
+      for (Iterator<Local<T>> i = locals.iterator(); i.hasNext();) {
+        Local<T> cache = i.next();
+        if (!cache.isDead()) {
+          continue;
+        }
+        i.remove();
+        for (int counter = 0; counter < COUNTERS; counter++) {
+          reaped[counter] += cache.counts.get(counter);
+        }
+        for (Map.Entry<Class<T>, T> entry : cache.entrySet()) {
+          if (!offer(entry.getKey(), entry.getValue())) {
+            reaped[DISCARDED]++;
+            end(entry.getValue());
+          }
+        }
+      }
+    }
+
+    /** @return the value of a counter, summed over all the threads */
+    synchronized long count(int counter) {
+      reap();
+      long count = reaped[counter];
+      for (Local<T> cache : locals) {
+        count += cache.counts.get(counter);
+      }
+      return count;
+    }
+  }
+
   /**
    * A global compressor pool used to save the expensive 
    * construction/destruction of (possibly native) decompression codecs.
    */
-  private static final Map<Class<Compressor>, List<Compressor>> compressorPool = 
-    new HashMap<Class<Compressor>, List<Compressor>>();
+  private static final Cache<Compressor> compressorPool =
+    new Cache<Compressor>() {
+      @Override
+      void end(Compressor codec) {
+        codec.end();
+      }
+    };
   
   /**
    * A global decompressor pool used to save the expensive 
    * construction/destruction of (possibly native) decompression codecs.
    */
-  private static final Map<Class<Decompressor>, List<Decompressor>> decompressorPool = 
-    new HashMap<Class<Decompressor>, List<Decompressor>>();
-
-  private static <T> T borrow(Map<Class<T>, List<T>> pool,
-                             Class<? extends T> codecClass) {
-    T codec = null;
-    
-    // Check if an appropriate codec is available
-    synchronized (pool) {
-      if (pool.containsKey(codecClass)) {
-        List<T> codecList = pool.get(codecClass);
-        
-        if (codecList != null) {
-          synchronized (codecList) {
-            if (!codecList.isEmpty()) {
-              codec = codecList.remove(codecList.size()-1);
-            }
-          }
-        }
+  private static final Cache<Decompressor> decompressorPool =
+    new Cache<Decompressor>() {
+      @Override
+      void end(Decompressor codec) {
+        codec.end();
+      }
+    };
+
+  static final CodecPoolMetrics metrics = CodecPoolMetrics.create();
+
+  /**
+   * A weak reference to a codec that was lent out.  Two references are
+   * equal if they refer to the same codec, so that the reference to a
+   * returned codec can be found.
+   */
+  private static class Lease extends WeakReference<Object> {
+    private final int hash;
+    private final String codecName;
+
+    Lease(Object codec, ReferenceQueue<Object> queue) {
+      super(codec, queue);
+      this.hash = System.identityHashCode(codec);
+      this.codecName = codec.getClass().getName();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Lease)) {
+        return false;
       }
+      Object codec = get();
+      return codec != null && codec == ((Lease) other).get();
     }
-    
-    return codec;
   }
 
-  private static <T> void payback(Map<Class<T>, List<T>> pool, T codec) {
-    if (codec != null) {
-      Class<T> codecClass = ReflectionUtils.getClass(codec);
-      synchronized (pool) {
-        if (!pool.containsKey(codecClass)) {
-          pool.put(codecClass, new ArrayList<T>());
-        }
+  /** The sampled codecs lent out and not returned yet */
+  private static final Set<Lease> leases =
+    Collections.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+  /** Where the leases of the codecs that were collected are queued */
+  private static final ReferenceQueue<Object> collected =
+    new ReferenceQueue<Object>();
 
-        List<T> codecList = pool.get(codecClass);
-        synchronized (codecList) {
-          codecList.add(codec);
-        }
+  private static void lend(Object codec) {
+    checkLeaks();
+    leases.add(new Lease(codec, collected));
+  }
+
+  private static void release(Object codec) {
+    // Only the sampled codecs are tracked
+    if (!leases.isEmpty()) {
+      checkLeaks();
+      leases.remove(new Lease(codec, null));
+    }
+  }
+
+  /** Report the codecs that were collected without being returned. */
+  private static void checkLeaks() {
+    Reference<?> ref;
+    while ((ref = collected.poll()) != null) {
+      if (leases.remove(ref)) {
+        metrics.leaked.incr();
+        LOG.warn("A " + ((Lease) ref).codecName + " was not returned to "
+            + "the CodecPool before being garbage collected");
       }
     }
   }
-  
+
   /**
    * Get a {@link Compressor} for the given {@link CompressionCodec} from the 
    * pool or a new one.
@@ -101,9 +380,13 @@ public class CodecPool {
    *         <code>CompressionCodec</code> from the pool or a new one
    */
   public static Compressor getCompressor(CompressionCodec codec, Configuration conf) {
-    Compressor compressor = borrow(compressorPool, codec.getCompressorType());
+    Compressor compressor = compressorPool.borrow(codec.getCompressorType());
     if (compressor == null) {
       compressor = codec.createCompressor();
+      if (compressor == null) {
+        return null;
+      }
+      compressorPool.created();
       LOG.info("Got brand-new compressor ["+codec.getDefaultExtension()+"]");
     } else {
       compressor.reinit(conf);
@@ -111,6 +394,9 @@ public class CodecPool {
         LOG.debug("Got recycled compressor");
       }
     }
+    if (compressorPool.sample()) {
+      lend(compressor);
+    }
     return compressor;
   }
   
@@ -128,15 +414,23 @@ public class CodecPool {
    *         <code>CompressionCodec</code> the pool or a new one
    */
   public static Decompressor getDecompressor(CompressionCodec codec) {
-    Decompressor decompressor = borrow(decompressorPool, codec.getDecompressorType());
+    Decompressor decompressor =
+      decompressorPool.borrow(codec.getDecompressorType());
     if (decompressor == null) {
       decompressor = codec.createDecompressor();
+      if (decompressor == null) {
+        return null;
+      }
+      decompressorPool.created();
       LOG.info("Got brand-new decompressor ["+codec.getDefaultExtension()+"]");
     } else {
       if(LOG.isDebugEnabled()) {
         LOG.debug("Got recycled decompressor");
       }
     }
+    if (decompressorPool.sample()) {
+      lend(decompressor);
+    }
     return decompressor;
   }
   
@@ -149,12 +443,15 @@ public class CodecPool {
     if (compressor == null) {
       return;
     }
+    release(compressor);
     // if the compressor can't be reused, don't pool it.
     if (compressor.getClass().isAnnotationPresent(DoNotPool.class)) {
       return;
     }
     compressor.reset();
-    payback(compressorPool, compressor);
+    if (!compressorPool.payback(compressor)) {
+      compressor.end();
+    }
   }
   
   /**
@@ -167,11 +464,14 @@ public class CodecPool {
     if (decompressor == null) {
       return;
     }
+    release(decompressor);
     // if the decompressor can't be reused, don't pool it.
     if (decompressor.getClass().isAnnotationPresent(DoNotPool.class)) {
       return;
     }
     decompressor.reset();
-    payback(decompressorPool, decompressor);
+    if (!decompressorPool.payback(decompressor)) {
+      decompressor.end();
+    }
   }
 }
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.io.compress;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 import org.apache.commons.logging.Log;
@@ -24,6 +26,8 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.ReflectionUtils;
 
@@ -255,6 +259,79 @@ public class CompressionCodecFactory {
       return codec.getClass();
     }
 
+  /**
+   * Whether the output streams of a codec compress on several threads.  The
+   * codecs are listed in io.compression.codec.parallel.codecs by class name
+   * or by alias, as understood by {@link #getCodecByName(String)}.
+   * @param codec the codec to check
+   * @param conf the configuration to look in
+   * @return true if the codec compresses on several threads
+   */
+  public static boolean isParallelCompression(CompressionCodec codec,
+                                              Configuration conf) {
+    String className = codec.getClass().getName();
+    String alias = codec.getClass().getSimpleName().toLowerCase();
+    for (String name : conf.getTrimmedStrings(
+        CommonConfigurationKeys.IO_COMPRESSION_CODEC_PARALLEL_CODECS_KEY)) {
+      if (name.equals(className) || name.equalsIgnoreCase(alias)
+          || (alias.endsWith("codec") && name.equalsIgnoreCase(
+              alias.substring(0, alias.length() - "codec".length())))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Create an output stream compressing with the given codec, on several
+   * threads if the codec is selected by
+   * {@link #isParallelCompression(CompressionCodec, Configuration)}.
+   * @param codec the codec to compress with
+   * @param out the stream the compressed data is written to
+   * @param conf the configuration to look in
+   * @return the compression output stream
+   */
+  public static CompressionOutputStream createOutputStream(
+      CompressionCodec codec, OutputStream out, Configuration conf)
+      throws IOException {
+    if (!isParallelCompression(codec, conf)) {
+      return codec.createOutputStream(out);
+    }
+    return new ParallelCompressorStream(out, codec, conf,
+        conf.getInt(
+            CommonConfigurationKeys.IO_COMPRESSION_CODEC_PARALLEL_THREADS_KEY,
+            CommonConfigurationKeys.IO_COMPRESSION_CODEC_PARALLEL_THREADS_DEFAULT),
+        conf.getInt(
+            CommonConfigurationKeys.IO_COMPRESSION_CODEC_PARALLEL_BLOCKSIZE_KEY,
+            CommonConfigurationKeys.IO_COMPRESSION_CODEC_PARALLEL_BLOCKSIZE_DEFAULT));
+  }
+
+  /**
+   * Create an output stream compressing a file with the given codec.  Gzip
+   * files are written with a {@link GzipIndex} next to them when
+   * io.compression.codec.gzip.index.interval is positive, the other files as
+   * by {@link #createOutputStream(CompressionCodec, OutputStream,
+   * Configuration)}.
+   * @param codec the codec to compress with
+   * @param fs the file system of the file
+   * @param file the file written
+   * @param out the stream writing the file
+   * @param conf the configuration to look in
+   * @return the compression output stream
+   */
+  public static CompressionOutputStream createOutputStream(
+      CompressionCodec codec, FileSystem fs, Path file, OutputStream out,
+      Configuration conf) throws IOException {
+    long indexInterval = conf.getLong(
+        CommonConfigurationKeys.IO_COMPRESSION_CODEC_GZIP_INDEX_INTERVAL_KEY,
+        CommonConfigurationKeys.IO_COMPRESSION_CODEC_GZIP_INDEX_INTERVAL_DEFAULT);
+    if (codec instanceof GzipCodec && indexInterval > 0) {
+      return ((GzipCodec) codec).createIndexedOutputStream(out, fs, file,
+          indexInterval);
+    }
+    return createOutputStream(codec, out, conf);
+  }
+
   /**
    * Removes a suffix from a filename, if it has it.
    * @param filename the filename to strip
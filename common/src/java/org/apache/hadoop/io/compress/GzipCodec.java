@@ -25,6 +25,8 @@ import java.util.zip.GZIPInputStream;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.io.compress.zlib.*;
 import org.apache.hadoop.io.compress.zlib.ZlibCompressor.CompressionLevel;
@@ -110,6 +112,38 @@ public class GzipCodec extends DefaultCodec {
                createOutputStream(out);
   }
 
+  /**
+   * Create an output stream starting a new gzip member every given number of
+   * uncompressed bytes, so that the file can be split at the start of the
+   * members.  The {@link GzipIndex} of the members is written to
+   * <code>indexOut</code> when the stream is closed; the index records the
+   * length of the file but not its modification time.
+   * @param out the stream the compressed data is written to
+   * @param indexOut the stream the index is written to, or null
+   * @param interval the number of uncompressed bytes of each member
+   * @return the compression output stream
+   */
+  public CompressionOutputStream createIndexedOutputStream(OutputStream out,
+      OutputStream indexOut, long interval) throws IOException {
+    return new IndexedGzipOutputStream(out, this, indexOut, interval);
+  }
+
+  /**
+   * Create an output stream starting a new gzip member every given number of
+   * uncompressed bytes, writing the {@link GzipIndex} of the members next to
+   * the file once the file is closed, so that the index records the final
+   * length and modification time of the file.
+   * @param out the stream writing the file
+   * @param fs the file system of the file
+   * @param file the file written
+   * @param interval the number of uncompressed bytes of each member
+   * @return the compression output stream
+   */
+  public CompressionOutputStream createIndexedOutputStream(OutputStream out,
+      FileSystem fs, Path file, long interval) throws IOException {
+    return new IndexedGzipOutputStream(out, this, fs, file, interval);
+  }
+
   public Compressor createCompressor() {
     return (ZlibFactory.isNativeZlibLoaded(conf))
       ? new GzipZlibCompressor(conf)
@@ -137,6 +171,26 @@ public class GzipCodec extends DefaultCodec {
                                   conf.getInt("io.file.buffer.size", 4*1024));
   }
 
+  /**
+   * Create a stream reading a split of an indexed gzip file.  The split
+   * starts at the first checkpoint of the index at or after
+   * <code>start</code> and ends at the first one at or after
+   * <code>end</code>; see {@link SplitCompressionInputStream} for the
+   * adjusted offsets.
+   * @param seekableIn the seekable gzip file
+   * @param decompressor the decompressor to use, may be null
+   * @param index the index of the file
+   * @param start the start of the split in the file
+   * @param end the end of the split in the file
+   * @return a stream to read the uncompressed bytes of the split from
+   */
+  public SplitCompressionInputStream createInputStream(InputStream seekableIn,
+      Decompressor decompressor, GzipIndex index, long start, long end)
+      throws IOException {
+    return new SplitGzipInputStream(seekableIn, this, decompressor, index,
+        start, end);
+  }
+
   public Decompressor createDecompressor() {
     return (ZlibFactory.isNativeZlibLoaded(conf))
       ? new GzipZlibDecompressor()
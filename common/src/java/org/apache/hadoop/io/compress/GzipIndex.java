@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.compress;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * An index of the checkpoints of a gzip file, where decompression can start
+ * without reading the file from its beginning.
+ * <p>
+ * The checkpoints are the starts of gzip members: a gzip file may hold any
+ * number of members one after the other, each compressed independently of
+ * the others, so a decompressor can start at any of them.  The index of a
+ * file is kept next to it in a hidden file, see {@link #getIndexPath(Path)},
+ * and is written either while compressing, see
+ * {@link GzipCodec#createIndexedOutputStream}, or by the {@link GzipIndexer}
+ * tool for files holding several members.
+ * <p>
+ * The checkpoints of an indexed file let input formats split it, see
+ * {@link GzipCodec#createInputStream(java.io.InputStream, Decompressor,
+ * GzipIndex, long, long)}.  The index records the length and modification
+ * time of the file it was written for, and an index not matching the file
+ * any more, for instance after the file was rewritten, is ignored.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class GzipIndex implements Writable {
+  /** The suffix of the index file name */
+  public static final String INDEX_SUFFIX = ".index";
+
+  private static final byte[] MAGIC = { 'G', 'Z', 'I', 'X' };
+  private static final byte VERSION = 1;
+
+  private long[] compressedOffsets = new long[16];
+  private long[] uncompressedOffsets = new long[16];
+  private int size = 0;
+  private long fileLength = -1;
+  private long modificationTime = -1;
+
+  /**
+   * Add a checkpoint after the last one.
+   * @param compressedOffset the offset of the checkpoint in the file
+   * @param uncompressedOffset the offset of the checkpoint in the
+   *                           uncompressed data
+   */
+  public void add(long compressedOffset, long uncompressedOffset) {
+    if (size == 0 ? compressedOffset != 0 || uncompressedOffset != 0
+        : compressedOffset <= compressedOffsets[size - 1]
+          || uncompressedOffset < uncompressedOffsets[size - 1]) {
+      throw new IllegalArgumentException("Checkpoint " + compressedOffset
+          + "/" + uncompressedOffset + " does not follow the last one");
+    }
+    if (size == compressedOffsets.length) {
+      compressedOffsets = Arrays.copyOf(compressedOffsets, 2 * size);
+      uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, 2 * size);
+    }
+    compressedOffsets[size] = compressedOffset;
+    uncompressedOffsets[size] = uncompressedOffset;
+    size++;
+  }
+
+  /**
+   * Record the file the index is for.
+   * @param fileLength the length of the file
+   * @param modificationTime the modification time of the file, or -1 if
+   *                         unknown
+   */
+  public void setFile(long fileLength, long modificationTime) {
+    this.fileLength = fileLength;
+    this.modificationTime = modificationTime;
+  }
+
+  /** @return the length of the indexed file, or -1 if unknown */
+  public long getFileLength() {
+    return fileLength;
+  }
+
+  /** @return the modification time of the indexed file, or -1 if unknown */
+  public long getModificationTime() {
+    return modificationTime;
+  }
+
+  /**
+   * Whether the index is for the given file: the length and modification
+   * time of the file are the ones recorded, if known.
+   * @param status the status of the file
+   * @return true if the index matches the file
+   */
+  public boolean matches(FileStatus status) {
+    return (fileLength == -1 || fileLength == status.getLen())
+        && (modificationTime == -1
+            || modificationTime == status.getModificationTime());
+  }
+
+  /** @return the number of checkpoints */
+  public int size() {
+    return size;
+  }
+
+  /** @return the offset in the file of the given checkpoint */
+  public long getCompressedOffset(int checkpoint) {
+    checkCheckpoint(checkpoint);
+    return compressedOffsets[checkpoint];
+  }
+
+  /** @return the offset in the uncompressed data of the given checkpoint */
+  public long getUncompressedOffset(int checkpoint) {
+    checkCheckpoint(checkpoint);
+    return uncompressedOffsets[checkpoint];
+  }
+
+  private void checkCheckpoint(int checkpoint) {
+    if (checkpoint < 0 || checkpoint >= size) {
+      throw new IndexOutOfBoundsException("No checkpoint " + checkpoint);
+    }
+  }
+
+  /**
+   * @return the first checkpoint at or after the given offset of the file,
+   *         or {@link #size()} if there is none
+   */
+  public int findCheckpoint(long compressedOffset) {
+    int i = Arrays.binarySearch(compressedOffsets, 0, size, compressedOffset);
+    return i >= 0 ? i : -(i + 1);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.write(MAGIC);
+    out.writeByte(VERSION);
+    WritableUtils.writeVLong(out, fileLength);
+    WritableUtils.writeVLong(out, modificationTime);
+    WritableUtils.writeVInt(out, size);
+    for (int i = 1; i < size; i++) {
+      WritableUtils.writeVLong(out,
+          compressedOffsets[i] - compressedOffsets[i - 1]);
+      WritableUtils.writeVLong(out,
+          uncompressedOffsets[i] - uncompressedOffsets[i - 1]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(MAGIC, magic)) {
+      throw new IOException("Not a gzip index");
+    }
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported gzip index version " + version);
+    }
+    fileLength = WritableUtils.readVLong(in);
+    modificationTime = WritableUtils.readVLong(in);
+    int count = WritableUtils.readVInt(in);
+    size = 0;
+    if (count > 0) {
+      long compressedOffset = 0;
+      long uncompressedOffset = 0;
+      add(compressedOffset, uncompressedOffset);
+      for (int i = 1; i < count; i++) {
+        compressedOffset += WritableUtils.readVLong(in);
+        uncompressedOffset += WritableUtils.readVLong(in);
+        add(compressedOffset, uncompressedOffset);
+      }
+    }
+  }
+
+  /**
+   * Write the index of a file next to it, recording the current length and
+   * modification time of the file.
+   * @param fs the file system of the file
+   * @param file the indexed file
+   */
+  public void write(FileSystem fs, Path file) throws IOException {
+    FileStatus status = fs.getFileStatus(file);
+    setFile(status.getLen(), status.getModificationTime());
+    FSDataOutputStream out = fs.create(getIndexPath(file), true);
+    try {
+      write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Read the index of a file.
+   * @param fs the file system of the file
+   * @param file the indexed file
+   * @return the index of the file, or null if the file has no index or its
+   *         index does not match it
+   */
+  public static GzipIndex read(FileSystem fs, Path file) throws IOException {
+    Path indexPath = getIndexPath(file);
+    if (!fs.exists(indexPath)) {
+      return null;
+    }
+    GzipIndex index = new GzipIndex();
+    FSDataInputStream in = fs.open(indexPath);
+    try {
+      index.readFields(in);
+    } finally {
+      in.close();
+    }
+    return index.matches(fs.getFileStatus(file)) ? index : null;
+  }
+
+  /**
+   * Get the path of the index of a file.  The index is hidden from the input
+   * formats, which skip the files whose name starts with a dot.
+   * @param file the indexed file
+   * @return the path of its index
+   */
+  public static Path getIndexPath(Path file) {
+    return new Path(file.getParent(), "." + file.getName() + INDEX_SUFFIX);
+  }
+
+  /**
+   * Whether a file compressed with the given codec has an index.
+   * @param fs the file system of the file
+   * @param file the file to check
+   * @param codec the codec of the file
+   * @return true if the file is a gzip file with an index matching it
+   */
+  public static boolean isIndexed(FileSystem fs, Path file,
+      CompressionCodec codec) throws IOException {
+    return codec instanceof GzipCodec && read(fs, file) != null;
+  }
+}
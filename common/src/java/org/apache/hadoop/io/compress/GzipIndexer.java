@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * A tool writing the {@link GzipIndex} of existing gzip files.
+ * <p>
+ * The checkpoints of the index are the starts of the gzip members of a file,
+ * so the tool is useful for files holding many members, as written by
+ * parallel compressors like pigz or {@link ParallelCompressorStream}, or by
+ * concatenating gzip files.  Members shorter than the interval given are
+ * merged with the following ones.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class GzipIndexer extends Configured implements Tool {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // gzip header flags, see RFC 1952
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  /** A buffered stream keeping track of its offset. */
+  private static class Reader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos = 0;
+    private int bufferLength = 0;
+    /** Offset of the start of the buffer in the stream */
+    private long bufferStart = 0;
+
+    Reader(InputStream in) {
+      this.in = in;
+    }
+
+    long getOffset() {
+      return bufferStart + bufferPos;
+    }
+
+    /** @return false at the end of the stream */
+    boolean fill() throws IOException {
+      if (bufferPos < bufferLength) {
+        return true;
+      }
+      bufferStart += bufferLength;
+      bufferPos = 0;
+      bufferLength = Math.max(in.read(buffer), 0);
+      return bufferLength > 0;
+    }
+
+    int readByte() throws IOException {
+      if (!fill()) {
+        throw new EOFException("Unexpected end of gzip file at "
+            + getOffset());
+      }
+      return buffer[bufferPos++] & 0xff;
+    }
+
+    int readShort() throws IOException {
+      return readByte() | (readByte() << 8);
+    }
+
+    long readInt() throws IOException {
+      return readShort() | ((long) readShort() << 16);
+    }
+
+    void skipString() throws IOException {
+      while (readByte() != 0) {
+      }
+    }
+
+    /** Pass the buffered data to the inflater. */
+    void setInput(Inflater inflater) throws IOException {
+      if (!fill()) {
+        throw new EOFException("Unexpected end of gzip file at "
+            + getOffset());
+      }
+      inflater.setInput(buffer, bufferPos, bufferLength - bufferPos);
+      bufferPos = bufferLength;
+    }
+
+    /** Take back the data the inflater did not use. */
+    void unread(Inflater inflater) {
+      bufferPos = bufferLength - inflater.getRemaining();
+    }
+  }
+
+  /**
+   * Index the members of a gzip file.
+   * @param in the gzip file
+   * @param interval the smallest number of uncompressed bytes between two
+   *                 checkpoints
+   * @return the index of the file
+   */
+  public static GzipIndex index(InputStream in, long interval)
+      throws IOException {
+    GzipIndex index = new GzipIndex();
+    Reader reader = new Reader(in);
+    Inflater inflater = new Inflater(true);
+    CRC32 crc = new CRC32();
+    byte[] output = new byte[BUFFER_SIZE];
+    long uncompressedOffset = 0;
+    long lastCheckpoint = 0;
+    try {
+      while (reader.fill()) {
+        long memberStart = reader.getOffset();
+        if (memberStart == 0
+            || uncompressedOffset - lastCheckpoint >= interval) {
+          index.add(memberStart, uncompressedOffset);
+          lastCheckpoint = uncompressedOffset;
+        }
+        readHeader(reader);
+
+        inflater.reset();
+        crc.reset();
+        while (!inflater.finished()) {
+          if (inflater.needsInput()) {
+            reader.setInput(inflater);
+          }
+          int n;
+          try {
+            n = inflater.inflate(output);
+          } catch (DataFormatException e) {
+            throw new IOException("Corrupt gzip member at " + memberStart, e);
+          }
+          if (n == 0 && inflater.needsDictionary()) {
+            throw new IOException("Corrupt gzip member at " + memberStart);
+          }
+          crc.update(output, 0, n);
+        }
+        reader.unread(inflater);
+
+        long size = inflater.getBytesWritten();
+        if (reader.readInt() != crc.getValue()
+            || reader.readInt() != (size & 0xffffffffL)) {
+          throw new IOException("Corrupt gzip trailer of member at "
+              + memberStart);
+        }
+        uncompressedOffset += size;
+      }
+    } finally {
+      inflater.end();
+    }
+    return index;
+  }
+
+  private static void readHeader(Reader reader) throws IOException {
+    long offset = reader.getOffset();
+    if (reader.readByte() != 0x1f || reader.readByte() != 0x8b
+        || reader.readByte() != 8) {
+      throw new IOException("Not a gzip member at " + offset);
+    }
+    int flags = reader.readByte();
+    // modification time, extra flags and OS
+    for (int i = 0; i < 6; i++) {
+      reader.readByte();
+    }
+    if ((flags & FEXTRA) != 0) {
+      for (int length = reader.readShort(); length > 0; length--) {
+        reader.readByte();
+      }
+    }
+    if ((flags & FNAME) != 0) {
+      reader.skipString();
+    }
+    if ((flags & FCOMMENT) != 0) {
+      reader.skipString();
+    }
+    if ((flags & FHCRC) != 0) {
+      reader.readShort();
+    }
+  }
+
+  /**
+   * Index a gzip file and write its index next to it.
+   * @param fs the file system of the file
+   * @param file the gzip file
+   * @param interval the smallest number of uncompressed bytes between two
+   *                 checkpoints
+   * @return the index of the file
+   */
+  public static GzipIndex index(FileSystem fs, Path file, long interval)
+      throws IOException {
+    GzipIndex index;
+    FSDataInputStream in = fs.open(file);
+    try {
+      index = index(in, interval);
+    } finally {
+      in.close();
+    }
+    index.write(fs, file);
+    return index;
+  }
+
+  private static int printUsage() {
+    System.err.println("Usage: GzipIndexer [-interval <bytes>] <file> ...");
+    ToolRunner.printGenericCommandUsage(System.err);
+    return -1;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    long interval = 0;
+    int i = 0;
+    if (args.length > 1 && "-interval".equals(args[0])) {
+      interval = Long.parseLong(args[1]);
+      i = 2;
+    }
+    if (i == args.length) {
+      return printUsage();
+    }
+    for (; i < args.length; i++) {
+      Path file = new Path(args[i]);
+      FileSystem fs = file.getFileSystem(getConf());
+      file = fs.makeQualified(file);
+      GzipIndex index = index(fs, file, interval);
+      System.out.println(file + ": " + index.size() + " checkpoints");
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new GzipIndexer(), args));
+  }
+}
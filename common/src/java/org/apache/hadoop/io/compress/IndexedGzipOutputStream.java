@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.compress;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A gzip output stream starting a new gzip member every given number of
+ * uncompressed bytes, and recording the start of the members in a
+ * {@link GzipIndex}.  The output is a standard multi-member gzip file.
+ */
+class IndexedGzipOutputStream extends CompressionOutputStream {
+
+  /** Counts the bytes written, and leaves the stream open on close. */
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  private final GzipCodec codec;
+  private final CountingOutputStream counter;
+  private final OutputStream indexOut;
+  private final FileSystem fs;
+  private final Path file;
+  private final long interval;
+  private final GzipIndex index = new GzipIndex();
+  /** May be null, when the codec compresses without a Compressor */
+  private final Compressor compressor;
+  private CompressionOutputStream member = null;
+  private long memberLength = 0;
+  private long uncompressedLength = 0;
+  private boolean closed = false;
+  private final byte[] oneByte = new byte[1];
+
+  /**
+   * @param out the stream the compressed data is written to
+   * @param codec the codec compressing the members
+   * @param indexOut the stream the index is written to on close, or null
+   * @param interval the number of uncompressed bytes of each member
+   */
+  IndexedGzipOutputStream(OutputStream out, GzipCodec codec,
+      OutputStream indexOut, long interval) {
+    this(out, codec, indexOut, null, null, interval);
+  }
+
+  /**
+   * @param out the stream writing the file
+   * @param codec the codec compressing the members
+   * @param fs the file system of the file
+   * @param file the file written, next to which the index is written once
+   *             the file is closed
+   * @param interval the number of uncompressed bytes of each member
+   */
+  IndexedGzipOutputStream(OutputStream out, GzipCodec codec, FileSystem fs,
+      Path file, long interval) {
+    this(out, codec, null, fs, file, interval);
+  }
+
+  private IndexedGzipOutputStream(OutputStream out, GzipCodec codec,
+      OutputStream indexOut, FileSystem fs, Path file, long interval) {
+    super(out);
+    if (interval <= 0) {
+      throw new IllegalArgumentException("Illegal interval " + interval);
+    }
+    this.codec = codec;
+    this.counter = new CountingOutputStream(out);
+    this.indexOut = indexOut;
+    this.fs = fs;
+    this.file = file;
+    this.interval = interval;
+    this.compressor = CodecPool.getCompressor(codec);
+  }
+
+  /** @return the index of the members written so far */
+  GzipIndex getIndex() {
+    return index;
+  }
+
+  private void startMember() throws IOException {
+    index.add(counter.count, uncompressedLength);
+    if (compressor != null) {
+      compressor.reset();
+    }
+    member = codec.createOutputStream(counter, compressor);
+    memberLength = 0;
+  }
+
+  private void endMember() throws IOException {
+    member.finish();
+    member = null;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    oneByte[0] = (byte)(b & 0xff);
+    write(oneByte, 0, oneByte.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    while (len > 0) {
+      if (member == null) {
+        startMember();
+      }
+      int n = (int) Math.min(len, interval - memberLength);
+      member.write(b, off, n);
+      memberLength += n;
+      uncompressedLength += n;
+      off += n;
+      len -= n;
+      if (memberLength == interval) {
+        endMember();
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (member != null) {
+      member.flush();
+    }
+    counter.flush();
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (member == null && index.size() == 0) {
+      // an empty file is still one member
+      startMember();
+    }
+    if (member != null) {
+      endMember();
+    }
+  }
+
+  @Override
+  public void resetState() throws IOException {
+    if (member != null) {
+      member.resetState();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      finish();
+      out.close();
+      // the modification time of the file is only known from its status
+      index.setFile(counter.count, -1);
+      if (file != null) {
+        index.write(fs, file);
+      } else if (indexOut != null) {
+        DataOutputStream dataOut = new DataOutputStream(indexOut);
+        index.write(dataOut);
+        dataOut.close();
+      }
+    } finally {
+      CodecPool.returnCompressor(compressor);
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.compress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+/**
+ * A {@link CompressionOutputStream} compressing on several threads.
+ * <p>
+ * The data written is cut in blocks which are compressed independently of
+ * each other by a pool of threads, with compressors borrowed from the
+ * {@link CodecPool}, and the compressed blocks are written to the underlying
+ * stream in order.  Every block is a complete compressed stream of the codec,
+ * e.g. a gzip member for the {@link GzipCodec}, so the output is a
+ * concatenation of streams which only codecs whose decompressors read
+ * concatenated streams, like gzip, deflate or snappy, can read back.
+ * <p>
+ * Each block starts with an empty dictionary, which costs a little
+ * compression ratio for small blocks.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ParallelCompressorStream extends CompressionOutputStream {
+  private static final AtomicInteger streamCount = new AtomicInteger();
+  /**
+   * Seconds an idle compression thread waits for a block before exiting, so
+   * that the threads of a stream which is not closed do not stay around
+   */
+  private static final long THREAD_KEEP_ALIVE_SECONDS = 10;
+
+  /** A block of data and its compressed form. */
+  private static class Block {
+    final byte[] data;
+    int length = 0;
+    final DataOutputBuffer compressed = new DataOutputBuffer();
+
+    Block(int size) {
+      data = new byte[size];
+    }
+  }
+
+  private final CompressionCodec codec;
+  private final Configuration conf;
+  private final int blockSize;
+  private final int maxPending;
+  private final ThreadPoolExecutor executor;
+  /** Blocks being compressed, in the order they are written */
+  private final Queue<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+  /** Blocks written out, ready to be filled again */
+  private final Queue<Block> free = new ArrayDeque<Block>();
+  /** Compressors of the stream not used by a compression thread */
+  private final Queue<Compressor> compressors =
+    new ConcurrentLinkedQueue<Compressor>();
+  private Block current;
+  /** Whether nothing was compressed since the last reset */
+  private boolean empty = true;
+  private boolean closed = false;
+  private final byte[] oneByte = new byte[1];
+
+  /**
+   * Create a stream compressing on several threads.
+   * @param out the stream the compressed data is written to
+   * @param codec the codec compressing the blocks
+   * @param conf the configuration the compressors are initialized with
+   * @param threads the number of compression threads
+   * @param blockSize the number of bytes compressed in each block
+   */
+  public ParallelCompressorStream(OutputStream out, CompressionCodec codec,
+      Configuration conf, int threads, int blockSize) {
+    super(out);
+    if (out == null || codec == null) {
+      throw new NullPointerException();
+    } else if (threads <= 0) {
+      throw new IllegalArgumentException("Illegal number of threads");
+    } else if (blockSize <= 0) {
+      throw new IllegalArgumentException("Illegal blockSize");
+    }
+    this.codec = codec;
+    this.conf = conf;
+    this.blockSize = blockSize;
+    // keep the threads busy while the oldest block is written out
+    this.maxPending = 2 * threads;
+    final String name = "ParallelCompressorStream-"
+      + streamCount.incrementAndGet();
+    this.executor = new ThreadPoolExecutor(threads, threads,
+        THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private int count = 0;
+
+      public synchronized Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name + "-" + (++count));
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.executor.allowCoreThreadTimeOut(true);
+    this.current = new Block(blockSize);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    oneByte[0] = (byte)(b & 0xff);
+    write(oneByte, 0, oneByte.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkStream();
+    if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    while (len > 0) {
+      int n = Math.min(len, blockSize - current.length);
+      System.arraycopy(b, off, current.data, current.length, n);
+      current.length += n;
+      off += n;
+      len -= n;
+      if (current.length == blockSize) {
+        submit();
+      }
+    }
+  }
+
+  /** Hand the current block to the compression threads. */
+  private void submit() throws IOException {
+    final Block block = current;
+    pending.add(executor.submit(new Callable<Block>() {
+      @Override
+      public Block call() throws IOException {
+        compress(block);
+        return block;
+      }
+    }));
+    empty = false;
+    current = free.poll();
+    if (current == null) {
+      current = new Block(blockSize);
+    }
+    current.length = 0;
+    while (pending.size() > maxPending) {
+      writeNext();
+    }
+  }
+
+  /** Compress a block, on a compression thread. */
+  private void compress(Block block) throws IOException {
+    Compressor compressor = compressors.poll();
+    if (compressor == null) {
+      // may be null for codecs compressing without a Compressor
+      compressor = CodecPool.getCompressor(codec, conf);
+    } else {
+      compressor.reset();
+    }
+    boolean success = false;
+    try {
+      block.compressed.reset();
+      CompressionOutputStream stream =
+        codec.createOutputStream(block.compressed, compressor);
+      stream.write(block.data, 0, block.length);
+      stream.finish();
+      success = true;
+    } finally {
+      if (compressor != null) {
+        if (success) {
+          compressors.add(compressor);
+        } else {
+          CodecPool.returnCompressor(compressor);
+        }
+      }
+    }
+  }
+
+  /** Write out the oldest block being compressed. */
+  private void writeNext() throws IOException {
+    Block block;
+    try {
+      block = pending.remove().get();
+    } catch (InterruptedException e) {
+      throw (IOException) new InterruptedIOException(
+          "Interrupted while compressing").initCause(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to compress", e.getCause());
+    }
+    out.write(block.compressed.getData(), 0, block.compressed.getLength());
+    free.add(block);
+  }
+
+  /** Compress what was written so far and write it out. */
+  private void drain() throws IOException {
+    if (current.length > 0) {
+      submit();
+    }
+    while (!pending.isEmpty()) {
+      writeNext();
+    }
+  }
+
+  /**
+   * Write out the compressed data.  Every flush ends a block, so frequent
+   * flushes hurt both the parallelism and the compression ratio.
+   */
+  @Override
+  public void flush() throws IOException {
+    checkStream();
+    drain();
+    out.flush();
+  }
+
+  @Override
+  public void finish() throws IOException {
+    checkStream();
+    if (empty && current.length == 0) {
+      // a stream with no data still needs its header and trailer
+      submit();
+    }
+    drain();
+  }
+
+  /**
+   * Drop the data written since the last block was handed to the compression
+   * threads.  The blocks being compressed are still written out.
+   */
+  @Override
+  public void resetState() throws IOException {
+    checkStream();
+    current.length = 0;
+    empty = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      finish();
+    } finally {
+      closed = true;
+      executor.shutdownNow();
+      Compressor compressor;
+      while ((compressor = compressors.poll()) != null) {
+        CodecPool.returnCompressor(compressor);
+      }
+      out.close();
+    }
+  }
+
+  private void checkStream() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.fs.Seekable;
+
+/**
+ * A gzip input stream reading a split of an indexed gzip file.
+ * <p>
+ * A split owns the checkpoints of the {@link GzipIndex} in [start, end): the
+ * stream starts at the first of them and reports as its position the
+ * checkpoint the last byte read belongs to.  A read never returns bytes of
+ * two checkpoints, so that a reader stopping once the position reaches the
+ * end of the split reads the line crossing into the next split but nothing
+ * beyond, as the line record readers expect.
+ */
+class SplitGzipInputStream extends SplitCompressionInputStream {
+  private final GzipIndex index;
+  /** Null when the split owns no checkpoint */
+  private final CompressionInputStream gzipIn;
+  private int checkpoint;
+  private long uncompressedPos;
+  private final byte[] oneByte = new byte[1];
+
+  /**
+   * @param seekableIn the seekable gzip file
+   * @param codec the codec of the file
+   * @param decompressor the decompressor to use, may be null
+   * @param index the index of the file
+   * @param start the start of the split in the file
+   * @param end the end of the split in the file
+   */
+  SplitGzipInputStream(InputStream seekableIn, GzipCodec codec,
+      Decompressor decompressor, GzipIndex index, long start, long end)
+      throws IOException {
+    super(seekableIn, start, end);
+    if (!(seekableIn instanceof Seekable)) {
+      throw new IOException("seekableIn must be an instance of " +
+          Seekable.class.getName());
+    }
+    this.index = index;
+    checkpoint = index.findCheckpoint(start);
+    if (checkpoint < index.size()
+        && index.getCompressedOffset(checkpoint) < end) {
+      setStart(index.getCompressedOffset(checkpoint));
+      uncompressedPos = index.getUncompressedOffset(checkpoint);
+      ((Seekable) seekableIn).seek(getAdjustedStart());
+      gzipIn = codec.createInputStream(seekableIn, decompressor);
+    } else {
+      gzipIn = null;
+    }
+    // the last offset owned by the split
+    setEnd(end - 1);
+  }
+
+  @Override
+  public int read() throws IOException {
+    return read(oneByte, 0, 1) == -1 ? -1 : (oneByte[0] & 0xff);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (gzipIn == null) {
+      return -1;
+    }
+    nextCheckpoint();
+    if (checkpoint + 1 < index.size()) {
+      len = (int) Math.min(len,
+          index.getUncompressedOffset(checkpoint + 1) - uncompressedPos);
+    }
+    int n = gzipIn.read(b, off, len);
+    if (n > 0) {
+      uncompressedPos += n;
+    }
+    return n;
+  }
+
+  /**
+   * Move to the last checkpoint starting at the current position.  Empty
+   * gzip members give several checkpoints the same uncompressed offset.
+   */
+  private void nextCheckpoint() {
+    while (checkpoint + 1 < index.size()
+        && uncompressedPos == index.getUncompressedOffset(checkpoint + 1)) {
+      checkpoint++;
+    }
+  }
+
+  /**
+   * @return the offset of the checkpoint the last byte read belongs to
+   */
+  @Override
+  public long getPos() {
+    return gzipIn == null ? getAdjustedStart()
+        : index.getCompressedOffset(checkpoint);
+  }
+
+  /**
+   * Restart the decompressor at the start of the gzip member of the current
+   * checkpoint, and decompress up to the current position again.  The
+   * position of the stream does not change.
+   */
+  @Override
+  public void resetState() throws IOException {
+    if (gzipIn == null) {
+      return;
+    }
+    nextCheckpoint();
+    ((Seekable) in).seek(index.getCompressedOffset(checkpoint));
+    gzipIn.resetState();
+    long skip = uncompressedPos - index.getUncompressedOffset(checkpoint);
+    while (skip > 0) {
+      long n = gzipIn.skip(skip);
+      if (n <= 0) {
+        throw new EOFException("Unexpected end of gzip member at "
+            + index.getCompressedOffset(checkpoint));
+      }
+      skip -= n;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (gzipIn != null) {
+      gzipIn.close();
+    } else {
+      super.close();
+    }
+  }
+}
@@ -25,6 +25,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
@@ -35,6 +36,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.compress.Compressor;
 import org.apache.hadoop.io.compress.Decompressor;
@@ -475,6 +477,11 @@ final class BCFile {
   static public class Reader implements Closeable {
     private final FSDataInputStream in;
     private final Configuration conf;
+    // the shared cache of decompressed data blocks, null if disabled
+    private final BlockCache cache;
+    private final Object cacheFileKey;
+    // whether the cached blocks are this reader's own
+    private final boolean evictOnClose;
     final DataIndex dataIndex;
     // Index for meta blocks
     final MetaIndex metaIndex;
@@ -509,6 +516,17 @@ final class BCFile {
         }
       }
 
+      /**
+       * State of a block read from the block cache, which needs no
+       * decompressor.
+       */
+      public RBlockState(Algorithm compressionAlgo, BlockRegion region,
+          InputStream cached) {
+        this.compressAlgo = compressionAlgo;
+        this.region = region;
+        this.in = cached;
+      }
+
       /**
        * Get the output stream for BlockAppender's consumption.
        * 
@@ -613,8 +631,32 @@ final class BCFile {
      */
     public Reader(FSDataInputStream fin, long fileLength, Configuration conf)
         throws IOException {
+      this(fin, fileLength, conf, BlockCache.newReaderKey(), true);
+    }
+
+    /**
+     * Constructor. Readers of the same file opened this way share the
+     * decompressed blocks in the block cache, and leave them cached when
+     * they are closed.
+     * 
+     * @param fin
+     *          FS input stream.
+     * @param status
+     *          Status of the corresponding file
+     * @throws IOException
+     */
+    public Reader(FSDataInputStream fin, FileStatus status, Configuration conf)
+        throws IOException {
+      this(fin, status.getLen(), conf, BlockCache.fileKey(status), false);
+    }
+
+    private Reader(FSDataInputStream fin, long fileLength, Configuration conf,
+        Object cacheFileKey, boolean evictOnClose) throws IOException {
       this.in = fin;
       this.conf = conf;
+      this.cache = BlockCache.get(conf);
+      this.cacheFileKey = cacheFileKey;
+      this.evictOnClose = evictOnClose;
 
       // move the cursor to the beginning of the tail, containing: offset to the
       // meta block index, version and magic
@@ -672,7 +714,9 @@ final class BCFile {
      * Finishing reading the BCFile. Release all resources.
      */
     public void close() {
-      // nothing to be done now
+      if (cache != null && evictOnClose) {
+        cache.evict(cacheFileKey);
+      }
     }
 
     /**
@@ -720,7 +764,25 @@ final class BCFile {
       }
 
       BlockRegion region = dataIndex.getBlockRegionList().get(blockIndex);
-      return createReader(dataIndex.getDefaultCompressionAlgorithm(), region);
+      Algorithm compressAlgo = dataIndex.getDefaultCompressionAlgorithm();
+      if (cache == null || !cache.isCacheable(region.getRawSize())) {
+        return createReader(compressAlgo, region);
+      }
+
+      ByteBuffer block = cache.get(cacheFileKey, region.getOffset());
+      if (block == null) {
+        // decompress the whole block once, and serve it from memory after
+        byte[] data = new byte[(int) region.getRawSize()];
+        BlockReader reader = createReader(compressAlgo, region);
+        try {
+          reader.readFully(data);
+        } finally {
+          reader.close();
+        }
+        block = cache.put(cacheFileKey, region.getOffset(), data);
+      }
+      return new BlockReader(new RBlockState(compressAlgo, region,
+          new BlockCache.BlockInputStream(block)));
     }
 
     private BlockReader createReader(Algorithm compressAlgo, BlockRegion region)
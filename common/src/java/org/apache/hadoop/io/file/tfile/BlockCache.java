@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.file.tfile;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
+
+/**
+ * A size-bounded LRU cache of decompressed BCFile data blocks, shared by all
+ * the readers of a JVM. Blocks are keyed by their file and their offset in
+ * it. Readers opened with the {@link FileStatus} of their file key it by its
+ * path, length and modification time, so they share its blocks, which stay
+ * cached after they are closed. Readers opened with a stream and a length
+ * cannot tell which file they read: each keys its blocks on its own, and
+ * drops them when it is closed.
+ */
+final class BlockCache {
+  static final String CACHE_SIZE_ATTR = "tfile.io.block.cache.size";
+  static final String CACHE_DIRECT_ATTR = "tfile.io.block.cache.direct";
+
+  @Metrics(about="TFile block cache metrics", context="tfile")
+  static class BlockCacheMetrics {
+    @Metric("Number of data blocks found in the cache")
+    MutableCounterLong hits;
+    @Metric("Number of data blocks read because they were not cached")
+    MutableCounterLong misses;
+    @Metric("Number of blocks evicted to make room for others")
+    MutableCounterLong evictions;
+    @Metric("Bytes of decompressed data cached")
+    MutableGaugeLong cachedBytes;
+
+    static BlockCacheMetrics create() {
+      return DefaultMetricsSystem.instance().register(new BlockCacheMetrics());
+    }
+  }
+
+  static final BlockCacheMetrics metrics = BlockCacheMetrics.create();
+
+  private static BlockCache instance;
+
+  /**
+   * Get the shared cache, created with the settings of the first
+   * configuration that enables it.
+   * 
+   * @return the cache, or null if <code>conf</code> does not enable it.
+   */
+  static synchronized BlockCache get(Configuration conf) {
+    long capacity = conf.getLong(CACHE_SIZE_ATTR, 0);
+    if (capacity <= 0) {
+      return null;
+    }
+    if (instance == null) {
+      instance = new BlockCache(capacity, 
+                                conf.getBoolean(CACHE_DIRECT_ATTR, false));
+    }
+    return instance;
+  }
+
+  /** Get a key for the blocks read by a single reader. */
+  static Object newReaderKey() {
+    return new Object();
+  }
+
+  /**
+   * Get a key for the blocks of a file, equal for all the readers of the
+   * same version of the file.
+   */
+  static Object fileKey(FileStatus status) {
+    return new FileKey(status.getPath().toString(), status.getLen(),
+                       status.getModificationTime());
+  }
+
+  private static final class FileKey {
+    private final String path;
+    private final long length;
+    private final long modificationTime;
+
+    FileKey(String path, long length, long modificationTime) {
+      this.path = path;
+      this.length = length;
+      this.modificationTime = modificationTime;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof FileKey)) {
+        return false;
+      }
+      FileKey that = (FileKey) other;
+      return path.equals(that.path) && length == that.length
+          && modificationTime == that.modificationTime;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (path.hashCode() * 31 + (length ^ (length >>> 32)) * 17
+          + (modificationTime ^ (modificationTime >>> 32)));
+    }
+  }
+
+  private static final class BlockKey {
+    private final Object file;
+    private final long offset;
+
+    BlockKey(Object file, long offset) {
+      this.file = file;
+      this.offset = offset;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof BlockKey)) {
+        return false;
+      }
+      BlockKey that = (BlockKey) other;
+      return file.equals(that.file) && offset == that.offset;
+    }
+
+    @Override
+    public int hashCode() {
+      return file.hashCode() * 31 + (int) (offset ^ (offset >>> 32));
+    }
+  }
+
+  private final long capacity;
+  private final boolean direct;
+  // in access order, so that the eldest entry is the least recently used
+  private final LinkedHashMap<BlockKey, ByteBuffer> blocks =
+      new LinkedHashMap<BlockKey, ByteBuffer>(16, 0.75f, true);
+  private long size = 0;
+
+  BlockCache(long capacity, boolean direct) {
+    this.capacity = capacity;
+    this.direct = direct;
+  }
+
+  /**
+   * Whether a block of the given decompressed size may be cached.
+   */
+  boolean isCacheable(long rawSize) {
+    return rawSize <= capacity && rawSize <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * Look up a block.
+   * 
+   * @return a buffer positioned at the start of the block, or null if it is
+   *         not cached.
+   */
+  synchronized ByteBuffer get(Object file, long offset) {
+    ByteBuffer block = blocks.get(new BlockKey(file, offset));
+    if (block == null) {
+      metrics.misses.incr();
+      return null;
+    }
+    metrics.hits.incr();
+    return block.duplicate();
+  }
+
+  /**
+   * Cache a block, evicting the least recently used blocks as needed.
+   * 
+   * @return a buffer positioned at the start of the block.
+   */
+  ByteBuffer put(Object file, long offset, byte[] data) {
+    ByteBuffer block;
+    if (direct) {
+      block = ByteBuffer.allocateDirect(data.length);
+      block.put(data);
+      block.flip();
+    } else {
+      block = ByteBuffer.wrap(data);
+    }
+    if (!isCacheable(data.length)) {
+      return block;
+    }
+    synchronized (this) {
+      ByteBuffer old = blocks.put(new BlockKey(file, offset), block);
+      if (old != null) {
+        size -= old.capacity();
+        metrics.cachedBytes.decr(old.capacity());
+      }
+      size += data.length;
+      metrics.cachedBytes.incr(data.length);
+      Iterator<ByteBuffer> eldest = blocks.values().iterator();
+      while (size > capacity) {
+        ByteBuffer evicted = eldest.next();
+        eldest.remove();
+        size -= evicted.capacity();
+        metrics.cachedBytes.decr(evicted.capacity());
+        metrics.evictions.incr();
+      }
+    }
+    return block.duplicate();
+  }
+
+  /** Drop all the blocks of a file. */
+  synchronized void evict(Object file) {
+    Iterator<Map.Entry<BlockKey, ByteBuffer>> it = 
+      blocks.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<BlockKey, ByteBuffer> entry = it.next();
+      if (entry.getKey().file.equals(file)) {
+        size -= entry.getValue().capacity();
+        metrics.cachedBytes.decr(entry.getValue().capacity());
+        it.remove();
+      }
+    }
+  }
+
+  /** The bytes of decompressed data cached. */
+  synchronized long getSize() {
+    return size;
+  }
+
+  /** Reads a cached block. */
+  static final class BlockInputStream extends InputStream {
+    private final ByteBuffer block;
+
+    BlockInputStream(ByteBuffer block) {
+      this.block = block;
+    }
+
+    @Override
+    public int read() {
+      return block.hasRemaining() ? block.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!block.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, block.remaining());
+      block.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, block.remaining()));
+      block.position(block.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return block.remaining();
+    }
+  }
+}
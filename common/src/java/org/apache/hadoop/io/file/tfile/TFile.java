@@ -36,6 +36,7 @@ import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.io.BoundedByteArrayOutputStream;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.DataInputBuffer;
@@ -94,6 +95,22 @@ import org.apache.hadoop.io.serializer.JavaSerializationComparator;
  * FSDataOutputStream. Integer (in bytes). Default to 256KB.
  * <li><b>tfile.fs.input.buffer.size</b>: Buffer size used for
  * FSDataInputStream. Integer (in bytes). Default to 256KB.
+ * <li><b>tfile.io.block.cache.size</b>: Size of the LRU cache of decompressed
+ * data blocks shared by all the readers in the JVM. Long (in bytes). Default
+ * to 0, which disables the cache. The cache is sized by the first reader that
+ * enables it. Readers share the cached blocks of a file only if they are opened
+ * with its {@link FileStatus}; the blocks of readers opened with a stream and a
+ * length are their own, and are dropped when they are closed.
+ * <li><b>tfile.io.block.cache.direct</b>: Whether the block cache keeps the
+ * blocks in direct (off-heap) buffers. Boolean. Default to false.
+ * <li><b>tfile.io.key.restart.interval</b>: Number of records between the
+ * restart points of prefix-compressed keys. Integer. Default to 0, which
+ * writes full keys in the TFile 1.0 format. A positive value stores each key
+ * as the suffix it does not share with the previous key of the block, except
+ * for every n-th record, and appends the offsets of those restart points to
+ * the block so that seeks binary search them instead of scanning the block
+ * from its start. Such files are written as TFile 2.0 and cannot be read by
+ * older releases.
  * </ul>
  * <p>
  * Suggestions on performance optimization.
@@ -113,6 +130,13 @@ import org.apache.hadoop.io.serializer.JavaSerializationComparator;
  * However, it also means that if multiple threads attempt to access the same
  * TFile (using multiple scanners) simultaneously, the actual I/O is carried out
  * sequentially even if they access different DFS blocks.
+ * <li>Block cache. Lookup-heavy workloads that seek into the same blocks
+ * repeatedly should enable "tfile.io.block.cache.size", so that each block is
+ * decompressed once rather than on every seek into it.
+ * <li>Key restart interval. Keys sharing long prefixes (such as paths or
+ * URLs) benefit from "tfile.io.key.restart.interval". Smaller intervals make
+ * seeks within a block faster, larger ones compress keys better; 16 is a
+ * reasonable start.
  * <li>Compression codec. Use "none" if the data is not very compressable (by
  * compressable, I mean a compression ratio at least 2:1). Generally, use "lzo"
  * as the starting point for experimenting. "gz" overs slightly better
@@ -138,6 +162,8 @@ public class TFile {
       "tfile.fs.input.buffer.size";
   private static final String FS_OUTPUT_BUF_SIZE_ATTR =
       "tfile.fs.output.buffer.size";
+  private static final String KEY_RESTART_INTERVAL_ATTR =
+      "tfile.io.key.restart.interval";
 
   static int getChunkBufferSize(Configuration conf) {
     int ret = conf.getInt(CHUNK_BUF_SIZE_ATTR, 1024 * 1024);
@@ -152,8 +178,15 @@ public class TFile {
     return conf.getInt(FS_OUTPUT_BUF_SIZE_ATTR, 256 * 1024);
   }
 
+  static int getKeyRestartInterval(Configuration conf) {
+    int ret = conf.getInt(KEY_RESTART_INTERVAL_ATTR, 0);
+    return (ret > 0) ? ret : 0;
+  }
+
   private static final int MAX_KEY_SIZE = 64 * 1024; // 64KB
-  static final Version API_VERSION = new Version((short) 1, (short) 0);
+  static final Version API_VERSION = new Version((short) 2, (short) 0);
+  // version of the files with full keys, still readable by 1.x readers.
+  static final Version PLAIN_KEY_VERSION = new Version((short) 1, (short) 0);
 
   /** compression: gzip */
   public static final String COMPRESSION_GZ = "gz";
@@ -218,6 +251,13 @@ public class TFile {
     BlockAppender blkAppender;
     long blkRecordCount;
 
+    // records between restart points of prefix-compressed keys, 0 if keys
+    // are written in full.
+    private final int keyRestartInterval;
+    // offsets of the restart points in the current data block.
+    private int[] restartOffsets = new int[16];
+    private int restartCount = 0;
+
     // buffers for caching the key.
     BoundedByteArrayOutputStream currentKeyBufferOS;
     BoundedByteArrayOutputStream lastKeyBufferOS;
@@ -282,7 +322,8 @@ public class TFile {
         String compressName, String comparator, Configuration conf)
         throws IOException {
       sizeMinBlock = minBlockSize;
-      tfileMeta = new TFileMeta(comparator);
+      keyRestartInterval = getKeyRestartInterval(conf);
+      tfileMeta = new TFileMeta(comparator, keyRestartInterval);
       tfileIndex = new TFileIndex(tfileMeta.getComparator());
 
       writerBCF = new BCFile.Writer(fsdos, compressName, conf);
@@ -446,8 +487,12 @@ public class TFile {
                 + expectedLength + " actual=" + len);
           }
 
-          Utils.writeVInt(blkAppender, len);
-          blkAppender.write(key, 0, len);
+          if (keyRestartInterval > 0) {
+            writePrefixCompressedKey(key, len);
+          } else {
+            Utils.writeVInt(blkAppender, len);
+            blkAppender.write(key, 0, len);
+          }
           if (tfileIndex.getFirstKey() == null) {
             tfileIndex.setFirstKey(key, 0, len);
           }
@@ -472,6 +517,34 @@ public class TFile {
       }
     }
 
+    /**
+     * Write a key as the length of the prefix it shares with the previous key
+     * in the block, followed by the remaining bytes. Every keyRestartInterval
+     * records, the key is written in full and its offset remembered as a
+     * restart point.
+     */
+    private void writePrefixCompressedKey(byte[] key, int len)
+        throws IOException {
+      int shared = 0;
+      if (blkRecordCount % keyRestartInterval == 0) {
+        if (restartCount == restartOffsets.length) {
+          int[] newOffsets = new int[restartOffsets.length * 2];
+          System.arraycopy(restartOffsets, 0, newOffsets, 0, restartCount);
+          restartOffsets = newOffsets;
+        }
+        restartOffsets[restartCount++] = (int) blkAppender.getRawSize();
+      } else {
+        byte[] lastKey = lastKeyBufferOS.getBuffer();
+        int limit = Math.min(len, lastKeyBufferOS.size());
+        while (shared < limit && key[shared] == lastKey[shared]) {
+          ++shared;
+        }
+      }
+      Utils.writeVInt(blkAppender, shared);
+      Utils.writeVInt(blkAppender, len - shared);
+      blkAppender.write(key, shared, len - shared);
+    }
+
     /**
      * Helper class to register value after close call on value append stream.
      */
@@ -662,6 +735,14 @@ public class TFile {
             new TFileIndexEntry(lastKeyBufferOS.getBuffer(), 0, lastKeyBufferOS
                 .size(), blkRecordCount);
         tfileIndex.addEntry(keyLast);
+        if (keyRestartInterval > 0) {
+          // the restart index trails the records of the block
+          for (int i = 0; i < restartCount; ++i) {
+            blkAppender.writeInt(restartOffsets[i]);
+          }
+          blkAppender.writeInt(restartCount);
+          restartCount = 0;
+        }
         // close the appender
         blkAppender.close();
         blkAppender = null;
@@ -800,7 +881,29 @@ public class TFile {
      */
     public Reader(FSDataInputStream fsdis, long fileLength, Configuration conf)
         throws IOException {
-      readerBCF = new BCFile.Reader(fsdis, fileLength, conf);
+      this(new BCFile.Reader(fsdis, fileLength, conf));
+    }
+
+    /**
+     * Constructor. Readers of the same TFile opened this way share the
+     * decompressed blocks in the block cache, and leave them cached when
+     * they are closed.
+     * 
+     * @param fsdis
+     *          FS input stream of the TFile.
+     * @param status
+     *          The status of the TFile, which identifies it in the block
+     *          cache.
+     * @param conf
+     * @throws IOException
+     */
+    public Reader(FSDataInputStream fsdis, FileStatus status,
+        Configuration conf) throws IOException {
+      this(new BCFile.Reader(fsdis, status, conf));
+    }
+
+    private Reader(BCFile.Reader readerBCF) throws IOException {
+      this.readerBCF = readerBCF;
 
       // first, read TFile meta
       BlockReader brMeta = readerBCF.getMetaBlock(TFileMeta.BLOCK_NAME);
@@ -1223,6 +1326,20 @@ public class TFile {
       final Reader reader;
       // current block (null if reaching end)
       private BlockReader blkReader;
+      // stream the records of the current block are read from.
+      private DataInputStream blkIn;
+
+      // records between restart points of prefix-compressed keys, 0 if keys
+      // are stored in full.
+      final int keyRestartInterval;
+      // content of the current block, loaded whole for prefix-compressed keys
+      // so that the cursor may jump to any of its restart points.
+      private byte[] blockBytes;
+      private int blockDataLength;
+      private DataInputBuffer blockBuffer;
+      private int[] restartOffsets;
+      private int restartCount;
+      private DataInputBuffer restartKeyIn;
 
       Location beginLocation;
       Location endLocation;
@@ -1280,6 +1397,12 @@ public class TFile {
         this.reader = reader;
         // ensure the TFile index is loaded throughout the life of scanner.
         reader.checkTFileDataIndex();
+        keyRestartInterval = reader.tfileMeta.getKeyRestartInterval();
+        if (keyRestartInterval > 0) {
+          blockBuffer = new DataInputBuffer();
+          restartKeyIn = new DataInputBuffer();
+          restartOffsets = new int[0];
+        }
         beginLocation = begin;
         endLocation = end;
 
@@ -1545,6 +1668,7 @@ public class TFile {
        */
       private void initBlock(int blockIndex) throws IOException {
         klen = -1;
+        blkIn = null;
         if (blkReader != null) {
           try {
             blkReader.close();
@@ -1552,12 +1676,103 @@ public class TFile {
             blkReader = null;
           }
         }
-        blkReader = reader.getBlockReader(blockIndex);
+        if (keyRestartInterval > 0) {
+          loadBlock(blockIndex);
+          blkIn = blockBuffer;
+        } else {
+          blkReader = reader.getBlockReader(blockIndex);
+          blkIn = blkReader;
+        }
         currentLocation.set(blockIndex, 0);
       }
 
+      /**
+       * Read a block with prefix-compressed keys into memory, along with the
+       * restart index at its end.
+       * 
+       * @throws IOException
+       */
+      private void loadBlock(int blockIndex) throws IOException {
+        BlockReader in = reader.getBlockReader(blockIndex);
+        int size;
+        try {
+          size = (int) in.getRawSize();
+          if (blockBytes == null || blockBytes.length < size) {
+            blockBytes = new byte[size];
+          }
+          in.readFully(blockBytes, 0, size);
+        } finally {
+          in.close();
+        }
+
+        restartCount = WritableComparator.readInt(blockBytes, size - 4);
+        blockDataLength = size - 4 * (restartCount + 1);
+        if (restartCount < 0 || blockDataLength < 0) {
+          throw new IOException("Corrupted restart index in block "
+              + blockIndex);
+        }
+        if (restartOffsets.length < restartCount) {
+          restartOffsets = new int[restartCount];
+        }
+        for (int i = 0; i < restartCount; ++i) {
+          restartOffsets[i] =
+              WritableComparator.readInt(blockBytes, blockDataLength + 4 * i);
+        }
+        blockBuffer.reset(blockBytes, 0, blockDataLength);
+      }
+
+      /**
+       * Move the cursor to a restart point of the current block. Expecting
+       * the restart point is valid.
+       */
+      private void seekToRestart(int restart) {
+        int offset = restartOffsets[restart];
+        blockBuffer.reset(blockBytes, offset, blockDataLength - offset);
+        klen = -1;
+        currentLocation.set(currentLocation.getBlockIndex(), (long) restart
+            * keyRestartInterval);
+      }
+
+      /**
+       * Find the last restart point among the first entryInBlock records of the
+       * current block whose key is smaller than the input key (or not greater
+       * than it, if greater is true).
+       * 
+       * @return the restart point, or -1 if there is none.
+       */
+      private int findRestart(RawComparable key, boolean greater,
+          long entryInBlock) throws IOException {
+        if (entryInBlock <= 0) {
+          return -1;
+        }
+        int lo = 0;
+        int hi =
+            (int) Math.min(restartCount - 1, (entryInBlock - 1)
+                / keyRestartInterval);
+        int ret = -1;
+        while (lo <= hi) {
+          int mid = (lo + hi) >>> 1;
+          // keys at restart points are stored in full
+          int offset = restartOffsets[mid];
+          restartKeyIn.reset(blockBytes, offset, blockDataLength - offset);
+          Utils.readVInt(restartKeyIn);
+          int len = Utils.readVInt(restartKeyIn);
+          int cmp =
+              reader.compareKeys(blockBytes, restartKeyIn.getPosition(), len,
+                  key.buffer(), key.offset(), key.size());
+          if (cmp < 0 || (greater && cmp == 0)) {
+            ret = mid;
+            lo = mid + 1;
+          } else {
+            hi = mid - 1;
+          }
+        }
+        return ret;
+      }
+
       private void parkCursorAtEnd() throws IOException {
         klen = -1;
+        blkIn = null;
         currentLocation.set(endLocation);
         if (blkReader != null) {
           try {
@@ -1599,9 +1814,17 @@ public class TFile {
         vlen = -1;
         valueChecked = false;
 
-        klen = Utils.readVInt(blkReader);
-        blkReader.readFully(keyBuffer, 0, klen);
-        valueBufferInputStream.reset(blkReader);
+        if (keyRestartInterval > 0) {
+          // the key shares a prefix with the previous key in keyBuffer.
+          int shared = Utils.readVInt(blkIn);
+          int unshared = Utils.readVInt(blkIn);
+          blkIn.readFully(keyBuffer, shared, unshared);
+          klen = shared + unshared;
+        } else {
+          klen = Utils.readVInt(blkIn);
+          blkIn.readFully(keyBuffer, 0, klen);
+        }
+        valueBufferInputStream.reset(blkIn);
         if (valueBufferInputStream.isLastChunk()) {
           vlen = valueBufferInputStream.getRemain();
         }
@@ -1976,6 +2199,16 @@ public class TFile {
        * @throws IOException
        */
       private void inBlockAdvance(long n) throws IOException {
+        if (keyRestartInterval > 0 && n > 0) {
+          long target = currentLocation.getRecordIndex() + n;
+          long restart = target / keyRestartInterval;
+          if (restart < restartCount
+              && restart * keyRestartInterval > currentLocation
+                  .getRecordIndex()) {
+            seekToRestart((int) restart);
+            n = target - currentLocation.getRecordIndex();
+          }
+        }
         for (long i = 0; i < n; ++i) {
           checkKey();
           if (!valueBufferInputStream.isClosed()) {
@@ -2005,6 +2238,15 @@ public class TFile {
           entryInBlock = endLocation.getRecordIndex();
         }
 
+        if (keyRestartInterval > 0) {
+          int restart = findRestart(key, greater, entryInBlock);
+          if (restart >= 0
+              && (long) restart * keyRestartInterval > currentLocation
+                  .getRecordIndex()) {
+            seekToRestart(restart);
+          }
+        }
+
         while (currentLocation.getRecordIndex() < entryInBlock) {
           int cmp = compareCursorKeyTo(key);
           if (cmp > 0) return false;
@@ -2038,11 +2280,21 @@ public class TFile {
     private long recordCount;
     private final String strComparator;
     private final BytesComparator comparator;
+    private final int keyRestartInterval;
 
     // ctor for writes
     public TFileMeta(String comparator) {
-      // set fileVersion to API version when we create it.
-      version = TFile.API_VERSION;
+      this(comparator, 0);
+    }
+
+    // ctor for writes
+    public TFileMeta(String comparator, int keyRestartInterval) {
+      // only files with prefix-compressed keys need the current API version,
+      // others stay readable by older readers.
+      version =
+          (keyRestartInterval > 0) ? TFile.API_VERSION
+              : TFile.PLAIN_KEY_VERSION;
+      this.keyRestartInterval = keyRestartInterval;
       recordCount = 0;
       strComparator = (comparator == null) ? "" : comparator;
       this.comparator = makeComparator(strComparator);
@@ -2051,12 +2303,18 @@ public class TFile {
     // ctor for reads
     public TFileMeta(DataInput in) throws IOException {
       version = new Version(in);
-      if (!version.compatibleWith(TFile.API_VERSION)) {
+      if (!version.compatibleWith(TFile.API_VERSION)
+          && !version.compatibleWith(TFile.PLAIN_KEY_VERSION)) {
         throw new RuntimeException("Incompatible TFile fileVersion.");
       }
       recordCount = Utils.readVLong(in);
       strComparator = Utils.readString(in);
       comparator = makeComparator(strComparator);
+      if (version.compatibleWith(TFile.API_VERSION)) {
+        keyRestartInterval = Utils.readVInt(in);
+      } else {
+        keyRestartInterval = 0;
+      }
     }
 
     @SuppressWarnings("unchecked")
@@ -2088,9 +2346,12 @@ public class TFile {
     }
 
     public void write(DataOutput out) throws IOException {
-      TFile.API_VERSION.write(out);
+      version.write(out);
       Utils.writeVLong(out, recordCount);
       Utils.writeString(out, strComparator);
+      if (version.compatibleWith(TFile.API_VERSION)) {
+        Utils.writeVInt(out, keyRestartInterval);
+      }
     }
 
     public long getRecordCount() {
@@ -2116,6 +2377,10 @@ public class TFile {
     public Version getVersion() {
       return version;
     }
+
+    public int getKeyRestartInterval() {
+      return keyRestartInterval;
+    }
   } // END: class MetaTFileMeta
 
   /**
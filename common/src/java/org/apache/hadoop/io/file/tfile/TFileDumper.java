@@ -112,6 +112,10 @@ class TFileDumper {
           .getDefaultCompressionName());
       properties.put("Record Count", Long.toString(reader.getEntryCount()));
       properties.put("Sorted", Boolean.toString(reader.isSorted()));
+      if (reader.tfileMeta.getKeyRestartInterval() > 0) {
+        properties.put("Key Restart Interval", Integer.toString(reader.tfileMeta
+            .getKeyRestartInterval()));
+      }
       if (reader.isSorted()) {
         properties.put("Comparator", reader.getComparatorName());
       }
@@ -119,7 +119,14 @@ public class AvroRpcEngine implements RpcEngine {
 
     public List<ByteBuffer> transceive(List<ByteBuffer> request)
       throws IOException {
-      return tunnel.call(new BufferListWritable(request)).buffers;
+      // the tunnel must block: Avro expects the response to be returned
+      boolean async = RPC.isAsynchronousMode();
+      RPC.setAsynchronousMode(false);
+      try {
+        return tunnel.call(new BufferListWritable(request)).buffers;
+      } finally {
+        RPC.setAsynchronousMode(async);
+      }
     }
 
     public List<ByteBuffer> readBuffers() throws IOException {
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+
+/**
+ * Abstracts the queue that feeds the {@link Server} handlers. The backing
+ * {@link BlockingQueue} implementation is configured per RPC port with
+ * <code>ipc.[port].callqueue.impl</code>, and defaults to a single
+ * {@link LinkedBlockingQueue}.
+ */
+@InterfaceAudience.Private
+public class CallQueueManager<E> {
+  public static final Log LOG = LogFactory.getLog(CallQueueManager.class);
+
+  private final BlockingQueue<E> queue;
+
+  /**
+   * Get the configuration prefix used for the call queue of a port.
+   * @param port the RPC port
+   * @return the prefix, e.g. <code>ipc.8020</code>
+   */
+  public static String getQueueNamespace(int port) {
+    return CommonConfigurationKeys.IPC_CALLQUEUE_NAMESPACE + "." + port;
+  }
+
+  /**
+   * Get the call queue class configured for a namespace.
+   * @param namespace the configuration prefix
+   * @param conf the configuration
+   * @return the configured class, {@link LinkedBlockingQueue} by default
+   */
+  @SuppressWarnings("unchecked")
+  public static <E> Class<? extends BlockingQueue<E>> getQueueClass(
+      String namespace, Configuration conf) {
+    return (Class<? extends BlockingQueue<E>>) conf.getClass(
+        namespace + "." + CommonConfigurationKeys.IPC_CALLQUEUE_IMPL_KEY,
+        LinkedBlockingQueue.class, BlockingQueue.class);
+  }
+
+  public CallQueueManager(Class<? extends BlockingQueue<E>> backingClass,
+      int maxQueueSize, String namespace, Configuration conf) {
+    this.queue = createCallQueueInstance(backingClass, maxQueueSize,
+        namespace, conf);
+    LOG.info("Using callQueue " + backingClass);
+  }
+
+  private static <T extends BlockingQueue<E>, E> T createCallQueueInstance(
+      Class<T> theClass, int maxLen, String ns, Configuration conf) {
+
+    // Used for custom, configurable callqueues
+    try {
+      Constructor<T> ctor = theClass.getDeclaredConstructor(int.class,
+          String.class, Configuration.class);
+      return ctor.newInstance(maxLen, ns, conf);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(theClass.getName()
+          + " could not be constructed.", e.getCause());
+    } catch (Exception e) {
+      // fall through to the next constructor
+    }
+
+    // Used for LinkedBlockingQueue, ArrayBlockingQueue, etc
+    try {
+      Constructor<T> ctor = theClass.getDeclaredConstructor(int.class);
+      return ctor.newInstance(maxLen);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(theClass.getName()
+          + " could not be constructed.", e.getCause());
+    } catch (Exception e) {
+      // fall through to the next constructor
+    }
+
+    // Last attempt
+    try {
+      Constructor<T> ctor = theClass.getDeclaredConstructor();
+      return ctor.newInstance();
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(theClass.getName()
+          + " could not be constructed.", e.getCause());
+    } catch (Exception e) {
+      // fall through
+    }
+
+    // Nothing worked
+    throw new RuntimeException(theClass.getName() +
+        " could not be constructed.");
+  }
+
+  /**
+   * Insert e into the backing queue, waiting if there is no space.
+   */
+  public void put(E e) throws InterruptedException {
+    queue.put(e);
+  }
+
+  /**
+   * Insert e into the backing queue if there is space.
+   * @return true if e was inserted, false if the queue is full
+   */
+  public boolean offer(E e) {
+    return queue.offer(e);
+  }
+
+  /**
+   * Retrieve an E from the backing queue, waiting if none is available.
+   */
+  public E take() throws InterruptedException {
+    return queue.take();
+  }
+
+  /**
+   * Retrieve an E from the backing queue if one is available.
+   * @return the head of the queue, or null if it is empty
+   */
+  public E poll() {
+    return queue.poll();
+  }
+
+  public int size() {
+    return queue.size();
+  }
+
+  /**
+   * @return the number of priority levels of the backing queue,
+   *         1 unless it is a {@link FairCallQueue}
+   */
+  public int getNumLevels() {
+    if (queue instanceof FairCallQueue) {
+      return ((FairCallQueue<?>) queue).getNumLevels();
+    }
+    return 1;
+  }
+
+  /**
+   * @return the length of each priority level of the backing queue
+   */
+  public int[] getQueueSizes() {
+    if (queue instanceof FairCallQueue) {
+      return ((FairCallQueue<?>) queue).getQueueSizes();
+    }
+    return new int[] { queue.size() };
+  }
+}
@@ -40,6 +40,10 @@ import java.util.Iterator;
 import java.util.Random;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -50,6 +54,7 @@ import org.apache.commons.logging.*;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
@@ -91,6 +96,8 @@ public class Client {
   final static String PING_INTERVAL_NAME = "ipc.ping.interval";
   final static int DEFAULT_PING_INTERVAL = 60000; // 1 min
   final static int PING_CALL_ID = -1;
+  // largest buffer a connection keeps to serialize its calls into
+  final static int MAX_SEND_BUFFER_SIZE = 64*1024;
   
   /**
    * set the ping interval value in configuration
@@ -161,6 +168,8 @@ public class Client {
     Writable value;                               // value, null if error
     IOException error;                            // exception, null if value
     boolean done;                                 // true when call is done
+    Class<?> protocol;                            // protocol of the call
+    UserGroupInformation ticket;                  // user making the call
 
     protected Call(Writable param) {
       this.param = param;
@@ -217,6 +226,8 @@ public class Client {
     private Socket socket = null;                 // connected socket
     private DataInputStream in;
     private DataOutputStream out;
+    // buffer the calls are serialized into, guarded by out
+    private DataOutputBuffer sendBuffer = new DataOutputBuffer();
     private int rpcTimeout;
     private int maxIdleTime; //connections will be culled if it was idle for 
     //maxIdleTime msecs
@@ -285,8 +296,13 @@ public class Client {
         authMethod = AuthMethod.KERBEROS;
       }
       
-      header = new ConnectionHeader(protocol == null ? null : protocol
-          .getName(), ticket, authMethod);
+      if (remoteId.isMultiplexed()) {
+        header = new ConnectionHeader(ConnectionHeader.MULTIPLEXED_PROTOCOL,
+            ticket, authMethod);
+      } else {
+        header = new ConnectionHeader(protocol == null ? null : protocol
+            .getName(), ticket, authMethod);
+      }
       
       if (LOG.isDebugEnabled())
         LOG.debug("Use " + authMethod + " authentication for protocol "
@@ -747,7 +763,6 @@ public class Client {
         return;
       }
 
-      DataOutputBuffer d=null;
       try {
         synchronized (this.out) {
           if (LOG.isDebugEnabled())
@@ -755,21 +770,25 @@ public class Client {
           
           //for serializing the
           //data to be written
-          d = new DataOutputBuffer();
+          DataOutputBuffer d = sendBuffer.reset();
           d.writeInt(call.id);
+          if (remoteId.isMultiplexed()) {
+            // a shared connection names the protocol and user of each call
+            new ConnectionHeader(call.protocol == null ? null : call.protocol
+                .getName(), call.ticket, authMethod).write(d);
+          }
           call.param.write(d);
           byte[] data = d.getData();
           int dataLength = d.getLength();
           out.writeInt(dataLength);      //first put the data length
           out.write(data, 0, dataLength);//write the data
           out.flush();
+          if (data.length > MAX_SEND_BUFFER_SIZE) {
+            sendBuffer = new DataOutputBuffer();  // do not keep a large call
+          }
         }
       } catch(IOException e) {
         markClosed(e);
-      } finally {
-        //the buffer is just an in-memory buffer, but it is still polite to
-        // close early
-        IOUtils.closeStream(d);
       }
     }  
 
@@ -909,6 +928,102 @@ public class Client {
     }
   }
 
+  /**
+   * Receives the outcome of an asynchronous call made with
+   * {@link Client#callAsync(Writable, ConnectionId, Callback)}.
+   * Callbacks are run by the receiver thread of the connection, so they
+   * must be quick and must never block or make calls on this client.
+   */
+  @InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
+  @InterfaceStability.Evolving
+  public static interface Callback {
+    /** The call completed with the given value. */
+    void onSuccess(Writable value);
+
+    /**
+     * The call failed, either with a {@link RemoteException} thrown by the
+     * server or with a local exception such as a connection failure.
+     */
+    void onFailure(IOException error);
+  }
+
+  /** Call implementation used for asynchronous calls. */
+  private class AsyncCall extends Call implements Future<Writable> {
+    private final InetSocketAddress address;
+    private final Callback callback;
+
+    public AsyncCall(Writable param, InetSocketAddress address,
+                     Callback callback) {
+      super(param);
+      this.address = address;
+      this.callback = callback;
+    }
+
+    /** Wake up all waiters and run the callback, if any. */
+    protected synchronized void callComplete() {
+      this.done = true;
+      notifyAll();
+      if (callback != null) {
+        try {
+          if (error != null) {
+            callback.onFailure(getError());
+          } else {
+            callback.onSuccess(value);
+          }
+        } catch (Throwable t) {
+          LOG.warn("Callback of call " + id + " to " + address + " failed", t);
+        }
+      }
+    }
+
+    private IOException getError() {
+      return error instanceof RemoteException
+          ? error : wrapException(address, error);
+    }
+
+    private Writable getResult() throws ExecutionException {
+      if (error != null) {
+        throw new ExecutionException(getError());
+      }
+      return value;
+    }
+
+    /** Calls cannot be withdrawn once they are sent. */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    public boolean isCancelled() {
+      return false;
+    }
+
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    public synchronized Writable get()
+        throws InterruptedException, ExecutionException {
+      while (!done) {
+        wait();
+      }
+      return getResult();
+    }
+
+    public synchronized Writable get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (!done) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new TimeoutException("Call " + id + " to " + address
+              + " timed out after " + timeout + " " + unit);
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return getResult();
+    }
+  }
+
   /** Construct an IPC client whose values are of the given {@link Writable}
    * class. */
   public Client(Class<? extends Writable> valueClass, Configuration conf, 
@@ -1062,6 +1177,30 @@ public class Client {
     }
   }
 
+  /** Make a call, passing <code>param</code>, to the IPC server defined by
+   * <code>remoteId</code> without waiting for the value.  The returned future
+   * completes when the response arrives; its {@link Future#get()} throws an
+   * {@link ExecutionException} whose cause is the {@link RemoteException}
+   * thrown by the server or the local exception that failed the call.
+   * Many asynchronous calls can be in flight over the same connection.
+   */
+  public Future<Writable> callAsync(Writable param, ConnectionId remoteId)
+      throws InterruptedException, IOException {
+    return callAsync(param, remoteId, null);
+  }
+
+  /** Make an asynchronous call as {@link #callAsync(Writable, ConnectionId)}
+   * does, additionally passing the outcome to <code>callback</code> once the
+   * call completes.
+   */
+  public Future<Writable> callAsync(Writable param, ConnectionId remoteId,
+      Callback callback) throws InterruptedException, IOException {
+    AsyncCall call = new AsyncCall(param, remoteId.getAddress(), callback);
+    Connection connection = getConnection(remoteId, call);
+    connection.sendParam(call);                 // send the parameter
+    return call;
+  }
+
   /**
    * Take an IOException and the address we were trying to connect to
    * and return an IOException with the input exception as the cause.
@@ -1169,6 +1308,8 @@ public class Client {
       throw new IOException("The client is stopped");
     }
     Connection connection;
+    call.protocol = remoteId.getProtocol();
+    call.ticket = remoteId.getTicket();
     /* we could avoid this allocation for each RPC by having a  
      * connectionsId object and with set() method. We need to manage the
      * refs for keys in HashMap properly. For now its ok.
@@ -1193,7 +1334,9 @@ public class Client {
   
   /**
    * This class holds the address and the user ticket. The client connections
-   * to servers are uniquely identified by <remoteAddress, protocol, ticket>
+   * to servers are uniquely identified by <remoteAddress, protocol, ticket>,
+   * or by the remote address alone for multiplexed connections, which carry
+   * the protocol and ticket with every call.
    */
   static class ConnectionId {
     InetSocketAddress address;
@@ -1208,12 +1351,22 @@ public class Client {
     private boolean tcpNoDelay; // if T then disable Nagle's Algorithm
     private boolean doPing; //do we need to send ping message
     private int pingInterval; // how often sends ping to the server in msecs
+    private boolean multiplexed; // is the connection shared by all protocols
     
     ConnectionId(InetSocketAddress address, Class<?> protocol, 
                  UserGroupInformation ticket, int rpcTimeout,
                  String serverPrincipal, int maxIdleTime, 
                  int maxRetries, boolean tcpNoDelay,
                  boolean doPing, int pingInterval) {
+      this(address, protocol, ticket, rpcTimeout, serverPrincipal,
+          maxIdleTime, maxRetries, tcpNoDelay, doPing, pingInterval, false);
+    }
+
+    ConnectionId(InetSocketAddress address, Class<?> protocol, 
+                 UserGroupInformation ticket, int rpcTimeout,
+                 String serverPrincipal, int maxIdleTime, 
+                 int maxRetries, boolean tcpNoDelay,
+                 boolean doPing, int pingInterval, boolean multiplexed) {
       this.protocol = protocol;
       this.address = address;
       this.ticket = ticket;
@@ -1224,6 +1377,7 @@ public class Client {
       this.tcpNoDelay = tcpNoDelay;
       this.doPing = doPing;
       this.pingInterval = pingInterval;
+      this.multiplexed = multiplexed;
     }
     
     InetSocketAddress getAddress() {
@@ -1266,18 +1420,28 @@ public class Client {
       return pingInterval;
     }
     
+    boolean isMultiplexed() {
+      return multiplexed;
+    }
+    
     static ConnectionId getConnectionId(InetSocketAddress addr,
         Class<?> protocol, UserGroupInformation ticket, int rpcTimeout,
         Configuration conf) throws IOException {
       String remotePrincipal = getRemotePrincipal(conf, addr, protocol);
       boolean doPing = conf.getBoolean("ipc.client.ping", true);
+      // SASL authenticates a connection for a single protocol and user,
+      // so only insecure connections can be shared
+      boolean multiplexed = !UserGroupInformation.isSecurityEnabled()
+          && conf.getBoolean(
+              CommonConfigurationKeys.IPC_CLIENT_CONNECTION_MULTIPLEXED_KEY,
+              CommonConfigurationKeys.IPC_CLIENT_CONNECTION_MULTIPLEXED_DEFAULT);
       return new ConnectionId(addr, protocol, ticket,
           rpcTimeout, remotePrincipal,
           conf.getInt("ipc.client.connection.maxidletime", 10000), // 10s
           conf.getInt("ipc.client.connect.max.retries", 10),
           conf.getBoolean("ipc.client.tcpnodelay", false),
           doPing, 
-          (doPing ? Client.getPingInterval(conf) : 0));
+          (doPing ? Client.getPingInterval(conf) : 0), multiplexed);
     }
     
     private static String getRemotePrincipal(Configuration conf,
@@ -1315,11 +1479,12 @@ public class Client {
             && this.maxIdleTime == that.maxIdleTime
             && this.maxRetries == that.maxRetries
             && this.pingInterval == that.pingInterval
-            && isEqual(this.protocol, that.protocol)
+            && this.multiplexed == that.multiplexed
+            && (multiplexed || isEqual(this.protocol, that.protocol))
             && this.rpcTimeout == that.rpcTimeout
             && isEqual(this.serverPrincipal, that.serverPrincipal)
             && this.tcpNoDelay == that.tcpNoDelay
-            && isEqual(this.ticket, that.ticket);
+            && (multiplexed || isEqual(this.ticket, that.ticket));
       }
       return false;
     }
@@ -1332,12 +1497,18 @@ public class Client {
       result = PRIME * result + maxIdleTime;
       result = PRIME * result + maxRetries;
       result = PRIME * result + pingInterval;
-      result = PRIME * result + ((protocol == null) ? 0 : protocol.hashCode());
+      result = PRIME * result + (multiplexed ? 1231 : 1237);
+      if (!multiplexed) {
+        result = PRIME * result
+            + ((protocol == null) ? 0 : protocol.hashCode());
+      }
       result = PRIME * result + rpcTimeout;
       result = PRIME * result
           + ((serverPrincipal == null) ? 0 : serverPrincipal.hashCode());
       result = PRIME * result + (tcpNoDelay ? 1231 : 1237);
-      result = PRIME * result + ((ticket == null) ? 0 : ticket.hashCode());
+      if (!multiplexed) {
+        result = PRIME * result + ((ticket == null) ? 0 : ticket.hashCode());
+      }
       return result;
     }
   }  
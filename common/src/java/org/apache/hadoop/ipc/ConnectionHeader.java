@@ -23,8 +23,10 @@ import java.io.IOException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.SaslRpcServer.AuthMethod;
 
@@ -34,6 +36,12 @@ import org.apache.hadoop.security.SaslRpcServer.AuthMethod;
  */
 class ConnectionHeader implements Writable {
   public static final Log LOG = LogFactory.getLog(ConnectionHeader.class);
+
+  /**
+   * Protocol announced by a multiplexed connection.  Every call on such a
+   * connection is preceded by its own header naming the protocol and user.
+   */
+  static final String MULTIPLEXED_PROTOCOL = "org.apache.hadoop.ipc.Multiplexed";
   
   private String protocol;
   private UserGroupInformation ugi = null;
@@ -79,6 +87,35 @@ class ConnectionHeader implements Writable {
     }
   }
 
+  /**
+   * Copy a serialized header without decoding it, so that the headers of
+   * the calls of a multiplexed connection can be told apart by their bytes.
+   * @param in the serialized header
+   * @param out the buffer the header is appended to
+   */
+  static void copy(DataInput in, DataOutputBuffer out) throws IOException {
+    int protocolLength = WritableUtils.readVInt(in);
+    WritableUtils.writeVInt(out, protocolLength);
+    out.write(in, protocolLength);
+    boolean ugiUsernamePresent = in.readBoolean();
+    out.writeBoolean(ugiUsernamePresent);
+    if (ugiUsernamePresent) {
+      copyUTF(in, out);
+      boolean realUserNamePresent = in.readBoolean();
+      out.writeBoolean(realUserNamePresent);
+      if (realUserNamePresent) {
+        copyUTF(in, out);
+      }
+    }
+  }
+
+  private static void copyUTF(DataInput in, DataOutputBuffer out)
+      throws IOException {
+    int length = in.readUnsignedShort();
+    out.writeShort(length);
+    out.write(in, length);
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
     Text.writeString(out, (protocol == null) ? "" : protocol);
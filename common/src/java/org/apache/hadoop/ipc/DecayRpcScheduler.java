@@ -0,0 +1,318 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+
+/**
+ * The decay RPC scheduler counts incoming requests in a map, then
+ * decays the counts at a fixed time interval. The scheduler is optimized
+ * for large periods (on the order of seconds), as it offloads work to the
+ * decay sweep.
+ *
+ * A caller is assigned a priority level according to its share of the
+ * calls recorded since the counts were last decayed: the heavier the
+ * caller, the lower its priority.
+ */
+@InterfaceAudience.Private
+public class DecayRpcScheduler implements RpcScheduler {
+  /**
+   * Period controls how many milliseconds between each decay sweep.
+   */
+  public static final String IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY =
+    "faircallqueue.decay-scheduler.period-ms";
+  public static final long IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_DEFAULT =
+    5000L;
+
+  /**
+   * Decay factor controls how much each count is suppressed by on each sweep.
+   * Valid numbers are &gt; 0 and &lt; 1. Decay factor works in tandem with
+   * period to control how long the scheduler remembers an identity.
+   */
+  public static final String IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY =
+    "faircallqueue.decay-scheduler.decay-factor";
+  public static final float IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_DEFAULT =
+    0.5f;
+
+  /**
+   * Thresholds are specified as integer percentages, and specify which
+   * usage range each level covers. For example, with 4 levels the setting
+   * 10,25,50 means that a caller with less than 10% of the recent calls
+   * gets the highest priority, 10-25% the next, and so on.
+   */
+  public static final String IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY =
+    "faircallqueue.decay-scheduler.thresholds";
+
+  // Specifies the identity to use when the call has no user
+  public static final String DECAYSCHEDULER_UNKNOWN_IDENTITY =
+    "IdentityProvider.Unknown";
+
+  public static final Log LOG = LogFactory.getLog(DecayRpcScheduler.class);
+
+  // Shared daemon timer used to run the decay sweeps of all schedulers
+  private static final Timer DECAY_TIMER =
+    new Timer("DecayRpcScheduler decay sweep", true);
+
+  // Track the number of calls for each identity since the last decay
+  private final ConcurrentHashMap<Object, AtomicLong> callCounts =
+    new ConcurrentHashMap<Object, AtomicLong>();
+
+  // Should be the sum of all AtomicLongs in callCounts
+  private final AtomicLong totalCalls = new AtomicLong();
+
+  private final float decayFactor;
+  private final int numLevels;
+  private final double[] thresholds;
+
+  /**
+   * This TimerTask will call decayCurrentCounts until
+   * the scheduler has been garbage collected.
+   */
+  static class DecayTask extends TimerTask {
+    private WeakReference<DecayRpcScheduler> schedulerRef;
+
+    public DecayTask(DecayRpcScheduler scheduler) {
+      this.schedulerRef = new WeakReference<DecayRpcScheduler>(scheduler);
+    }
+
+    @Override
+    public void run() {
+      DecayRpcScheduler sched = schedulerRef.get();
+      if (sched != null) {
+        sched.decayCurrentCounts();
+      } else {
+        // Our scheduler was garbage collected since it is no longer in use,
+        // so we should terminate the timer as well
+        cancel();
+      }
+    }
+  }
+
+  /**
+   * Create a decay scheduler.
+   * @param numLevels number of priority levels
+   * @param ns config prefix, so that we can configure the scheduler
+   *           of each RPC port separately
+   * @param conf configuration to use
+   */
+  public DecayRpcScheduler(int numLevels, String ns, Configuration conf) {
+    if (numLevels < 1) {
+      throw new IllegalArgumentException("number of levels must be > 0");
+    }
+    this.numLevels = numLevels;
+    this.decayFactor = parseDecayFactor(ns, conf);
+    this.thresholds = parseThresholds(ns, conf, numLevels);
+
+    long period = conf.getLong(ns + "." +
+        IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY,
+        IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_DEFAULT);
+    if (period <= 0) {
+      throw new IllegalArgumentException("Period millis must be > 0");
+    }
+    DECAY_TIMER.scheduleAtFixedRate(new DecayTask(this), period, period);
+  }
+
+  private static float parseDecayFactor(String ns, Configuration conf) {
+    float factor = conf.getFloat(ns + "." +
+        IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY,
+        IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_DEFAULT);
+    if (factor <= 0 || factor >= 1) {
+      throw new IllegalArgumentException("Decay Factor " +
+        "must be between 0 and 1");
+    }
+    return factor;
+  }
+
+  private static double[] parseThresholds(String ns, Configuration conf,
+      int numLevels) {
+    String[] percentages = conf.getTrimmedStrings(ns + "." +
+        IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY);
+
+    if (percentages.length == 0) {
+      return getDefaultThresholds(numLevels);
+    } else if (percentages.length != numLevels - 1) {
+      throw new IllegalArgumentException("Number of thresholds should be " +
+        (numLevels - 1) + ". Was: " + percentages.length);
+    }
+
+    // Convert integer percentages to decimals
+    double[] decimals = new double[percentages.length];
+    for (int i = 0; i < percentages.length; i++) {
+      decimals[i] = Integer.parseInt(percentages[i]) / 100.0;
+    }
+    return decimals;
+  }
+
+  /**
+   * Generate default thresholds if user did not specify. Strategy is
+   * to halve each time, since queue usage tends to be exponential.
+   * So if numLevels is 4, we would generate: double[]{0.125, 0.25, 0.5}
+   * which specifies the boundaries between each queue's usage.
+   * @param numLevels number of levels to compute for
+   * @return array of boundaries of length numLevels - 1
+   */
+  private static double[] getDefaultThresholds(int numLevels) {
+    double[] ret = new double[numLevels - 1];
+    double div = Math.pow(2, numLevels - 1);
+
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = Math.pow(2, i)/div;
+    }
+    return ret;
+  }
+
+  /**
+   * Decay the stored counts for each user and clean as necessary.
+   * This method should be called periodically in order to keep
+   * counts current.
+   */
+  void decayCurrentCounts() {
+    long total = 0;
+    Iterator<Map.Entry<Object, AtomicLong>> it =
+      callCounts.entrySet().iterator();
+
+    while (it.hasNext()) {
+      Map.Entry<Object, AtomicLong> entry = it.next();
+      AtomicLong count = entry.getValue();
+
+      // Compute the next value by reducing it by the decayFactor
+      long currentValue = count.get();
+      long nextValue = (long)(currentValue * decayFactor);
+      total += nextValue;
+      count.set(nextValue);
+
+      if (nextValue == 0) {
+        // We will clean up unused keys here. An interesting optimization
+        // might be to have an upper bound on keyspace in callCounts and only
+        // clean once we pass it.
+        it.remove();
+      }
+    }
+
+    // Update the total so that we remain in sync
+    totalCalls.set(total);
+  }
+
+  /**
+   * Map the calling user to an identity used for accounting. Calls
+   * without a user are all accounted together.
+   */
+  private static Object getIdentity(Schedulable obj) {
+    UserGroupInformation ugi = obj.getUserGroupInformation();
+    if (ugi == null) {
+      return DECAYSCHEDULER_UNKNOWN_IDENTITY;
+    }
+    return ugi.getShortUserName();
+  }
+
+  /**
+   * Increment the count for the identity and the total.
+   * @param identity the identity of the user to increment
+   * @return the value after incrementing
+   */
+  private long getAndIncrement(Object identity) {
+    // We will increment the count, or create it if no such count exists
+    AtomicLong count = callCounts.get(identity);
+    if (count == null) {
+      // Create the count since no such count exists.
+      count = new AtomicLong(0);
+
+      // Put it in, or get the AtomicLong that was put in by another thread
+      AtomicLong otherCount = callCounts.putIfAbsent(identity, count);
+      if (otherCount != null) {
+        count = otherCount;
+      }
+    }
+
+    // Update the total
+    totalCalls.getAndIncrement();
+
+    // At this point value is guaranteed to be not null. It may however have
+    // been clobbered from callCounts. Nonetheless, we return what
+    // we have.
+    return count.getAndIncrement();
+  }
+
+  /**
+   * Given the number of occurrences, compute a scheduling decision.
+   * @param occurrences how many occurrences
+   * @return scheduling decision from 0 to numLevels - 1
+   */
+  private int computePriorityLevel(long occurrences) {
+    long total = totalCalls.get();
+
+    double proportion = 0;
+    if (total > 0) {
+      proportion = (double) occurrences / total;
+    }
+
+    // Start with low priority queues, since they will be most common
+    for(int i = (numLevels - 1); i > 0; i--) {
+      if (proportion >= this.thresholds[i - 1]) {
+        return i; // We've found our queue number
+      }
+    }
+
+    // If we get this far, we're at queue 0
+    return 0;
+  }
+
+  @Override
+  public int getPriorityLevel(Schedulable obj) {
+    // First get the identity
+    Object identity = getIdentity(obj);
+
+    // Next, increment the count and compute the level from its share
+    long occurrences = this.getAndIncrement(identity);
+    return computePriorityLevel(occurrences);
+  }
+
+  @Override
+  public int getNumLevels() {
+    return numLevels;
+  }
+
+  // For testing
+  long getTotalCallVolume() {
+    return totalCalls.get();
+  }
+
+  // For testing
+  long getCallCount(Object identity) {
+    AtomicLong count = callCounts.get(identity);
+    return count == null ? 0 : count.get();
+  }
+
+  // For testing
+  double[] getThresholds() {
+    return thresholds;
+  }
+}
@@ -0,0 +1,406 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A queue with multiple levels for each priority. Calls are assigned a
+ * level by a {@link RpcScheduler} when they are put, and handlers take from
+ * the levels in the order decided by a {@link RpcMultiplexer}, so that a
+ * single heavy user cannot starve everybody else of handler time.
+ *
+ * The total capacity is split evenly across the levels. Each level is
+ * backed by its own {@link LinkedBlockingQueue}, so producers and consumers
+ * of different levels do not contend on a single lock.
+ */
+@InterfaceAudience.Private
+public class FairCallQueue<E extends Schedulable> extends AbstractQueue<E>
+  implements BlockingQueue<E> {
+  // Configuration Keys
+  public static final String IPC_CALLQUEUE_PRIORITY_LEVELS_KEY =
+    "faircallqueue.priority-levels";
+  public static final int IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT = 4;
+
+  public static final Log LOG = LogFactory.getLog(FairCallQueue.class);
+
+  /* The queues */
+  private final ArrayList<BlockingQueue<E>> queues;
+
+  /* Number of calls available to take; released after every insertion and
+   * acquired before every removal, so a holder of a permit is guaranteed
+   * to find a call in one of the queues. */
+  private final Semaphore available = new Semaphore(0);
+
+  /* Scheduler picks which queue to place in */
+  private final RpcScheduler scheduler;
+
+  /* Multiplexer picks which queue to draw from */
+  private final RpcMultiplexer multiplexer;
+
+  /**
+   * Create a FairCallQueue.
+   * @param capacity the maximum size of the whole queue, divided evenly
+   *        between the priority levels
+   * @param ns the prefix to use for configuration
+   * @param conf the configuration to read from
+   */
+  public FairCallQueue(int capacity, String ns, Configuration conf) {
+    int numLevels = conf.getInt(ns + "." +
+        IPC_CALLQUEUE_PRIORITY_LEVELS_KEY,
+        IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT);
+    if (numLevels < 1) {
+      throw new IllegalArgumentException("Number of priority levels must " +
+          "be at least 1");
+    }
+    int levelCapacity = Math.max(1, capacity / numLevels);
+
+    LOG.info("FairCallQueue is in use with " + numLevels +
+        " queues with total capacity of " + capacity);
+
+    this.queues = new ArrayList<BlockingQueue<E>>(numLevels);
+    for (int i = 0; i < numLevels; i++) {
+      this.queues.add(new LinkedBlockingQueue<E>(levelCapacity));
+    }
+
+    this.scheduler = new DecayRpcScheduler(numLevels, ns, conf);
+    this.multiplexer = new WeightedRoundRobinMultiplexer(numLevels, ns, conf);
+  }
+
+  /**
+   * Returns the first non-empty queue with equal or lesser priority
+   * than <i>startIdx</i>. Wraps around, searching a maximum of N
+   * queues, where N is this.queues.size().
+   *
+   * @param startIdx the queue number to start searching at
+   * @return the first non-empty queue with less priority, or null if
+   * everything was empty
+   */
+  private BlockingQueue<E> getFirstNonEmptyQueue(int startIdx) {
+    final int numQueues = this.queues.size();
+    for(int i=0; i < numQueues; i++) {
+      int idx = (i + startIdx) % numQueues; // offset and wrap around
+      BlockingQueue<E> queue = this.queues.get(idx);
+      if (queue.size() != 0) {
+        return queue;
+      }
+    }
+
+    // All queues were empty
+    return null;
+  }
+
+  /**
+   * Remove a call chosen by the multiplexer. The caller must hold a
+   * permit of {@link #available}.
+   */
+  private E removeNext() {
+    int startIdx = this.multiplexer.getAndAdvanceCurrentIndex();
+    while (true) {
+      BlockingQueue<E> q = this.getFirstNonEmptyQueue(startIdx);
+      if (q != null) {
+        // Another taker may have emptied the queue since we looked at it,
+        // in which case we simply look again
+        E e = q.poll();
+        if (e != null) {
+          return e;
+        }
+      }
+    }
+  }
+
+  /* AbstractQueue and BlockingQueue methods */
+
+  /**
+   * The priority level of a call. The scheduler is asked only the first
+   * time the call is queued: a call that could not be queued keeps its
+   * level, so retrying it does not count it against its user again.
+   */
+  private int schedule(E e) {
+    int priorityLevel = e.getPriorityLevel();
+    if (priorityLevel < 0) {
+      priorityLevel = scheduler.getPriorityLevel(e);
+      e.setPriorityLevel(priorityLevel);
+    }
+    return priorityLevel;
+  }
+
+  /**
+   * Offer a call to the sub-queue of its priority level, overflowing into
+   * the lower priority levels. The call records the level it is queued at;
+   * if all the levels are full, it keeps its scheduled level.
+   * @return true if the call was queued
+   */
+  private boolean offerFrom(E e, int priorityLevel) {
+    for (int i = priorityLevel; i < this.queues.size(); i++) {
+      e.setPriorityLevel(i);
+      if (this.queues.get(i).offer(e)) {
+        return true;
+      }
+    }
+    e.setPriorityLevel(priorityLevel);
+    return false;
+  }
+
+  /**
+   * Put and offer follow the same pattern:
+   * 1. Get the assigned priorityLevel from the call by scheduler
+   * 2. Get the nth sub-queue matching this priorityLevel
+   * 3. delegate the call to this sub-queue, moving on to the next lower
+   *    priority queue on overflow.
+   *
+   * But differ in what they do when the last queue is full too:
+   * - Put blocks on the last queue
+   * - Offer fails, or waits on the last queue for the given timeout
+   */
+  @Override
+  public void put(E e) throws InterruptedException {
+    if (!offerFrom(e, schedule(e))) {
+      // That was the last one, we will block on put in the last queue
+      int priorityLevel = this.queues.size() - 1;
+      e.setPriorityLevel(priorityLevel);
+      this.queues.get(priorityLevel).put(e);
+    }
+    available.release();
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    int priorityLevel = schedule(e);
+    if (!offerFrom(e, priorityLevel)) {
+      int lastLevel = this.queues.size() - 1;
+      e.setPriorityLevel(lastLevel);
+      if (!this.queues.get(lastLevel).offer(e, timeout, unit)) {
+        e.setPriorityLevel(priorityLevel);
+        return false;
+      }
+    }
+    available.release();
+    return true;
+  }
+
+  @Override
+  public boolean offer(E e) {
+    if (!offerFrom(e, schedule(e))) {
+      return false;
+    }
+    available.release();
+    return true;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    available.acquire();
+    return removeNext();
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    if (!available.tryAcquire(timeout, unit)) {
+      return null;
+    }
+    return removeNext();
+  }
+
+  /**
+   * poll() provides no strict consistency: it is possible for poll to return
+   * null even though an element is in the queue.
+   */
+  @Override
+  public E poll() {
+    if (!available.tryAcquire()) {
+      return null;
+    }
+    return removeNext();
+  }
+
+  /**
+   * Peek, like poll, provides no strict consistency.
+   */
+  @Override
+  public E peek() {
+    BlockingQueue<E> q = this.getFirstNonEmptyQueue(0);
+    if (q == null) {
+      return null;
+    } else {
+      return q.peek();
+    }
+  }
+
+  /**
+   * Size returns the sum of all sub-queue sizes, so it may be greater than
+   * capacity.
+   * Note: size provides no strict consistency, and should not be used to
+   * control queue IO.
+   */
+  @Override
+  public int size() {
+    int size = 0;
+    for (BlockingQueue<E> q : this.queues) {
+      size += q.size();
+    }
+    return size;
+  }
+
+  /**
+   * Remove a call from a sub-queue, along with a permit of
+   * {@link #available}. Without a permit every call left is about to be
+   * taken, so none is removed.
+   */
+  private boolean removeFrom(BlockingQueue<E> q, Object o) {
+    if (!available.tryAcquire()) {
+      return false;
+    }
+    if (q.remove(o)) {
+      return true;
+    }
+    available.release();
+    return false;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    for (BlockingQueue<E> q : this.queues) {
+      if (removeFrom(q, o)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns an iterator over the calls, from the highest priority level
+   * down. Like the iterators of the sub-queues it is weakly consistent: it
+   * never throws ConcurrentModificationException, and may or may not see
+   * the calls put or taken after it was created.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    return new Iterator<E>() {
+      private int level = 0;
+      private Iterator<E> it = queues.get(0).iterator();
+      private int lastLevel = -1;
+      private E last = null;
+
+      @Override
+      public boolean hasNext() {
+        while (!it.hasNext() && level + 1 < queues.size()) {
+          it = queues.get(++level).iterator();
+        }
+        return it.hasNext();
+      }
+
+      @Override
+      public E next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = it.next();
+        lastLevel = level;
+        return last;
+      }
+
+      @Override
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        removeFrom(queues.get(lastLevel), last);
+        last = null;
+      }
+    };
+  }
+
+  /**
+   * drainTo defers to each sub-queue. Note that draining from a FairCallQueue
+   * to another FairCallQueue will likely fail, since the incoming calls
+   * may be scheduled differently in the new FairCallQueue. Nonetheless this
+   * method is provided for completeness.
+   */
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    int sum = 0;
+    for (int i = 0; i < maxElements; i++) {
+      E e = poll();
+      if (e == null) {
+        break;
+      }
+      c.add(e);
+      sum++;
+    }
+    return sum;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns maximum remaining capacity. This does not reflect how much you can
+   * ideally fit in this FairCallQueue, as that would depend on the scheduler's
+   * decisions.
+   */
+  @Override
+  public int remainingCapacity() {
+    int sum = 0;
+    for (BlockingQueue<E> q : this.queues) {
+      sum += q.remainingCapacity();
+    }
+    return sum;
+  }
+
+  /**
+   * @return the number of priority levels of this queue
+   */
+  public int getNumLevels() {
+    return queues.size();
+  }
+
+  // For testing
+  RpcScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * @return the current length of each priority level
+   */
+  public int[] getQueueSizes() {
+    int[] sizes = new int[queues.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = queues.get(i).size();
+    }
+    return sizes;
+  }
+}
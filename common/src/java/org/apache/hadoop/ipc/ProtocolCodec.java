@@ -0,0 +1,331 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableFactories;
+
+/**
+ * Encodes the invocations of the methods of a protocol for
+ * {@link WritableRpcEngine}.
+ *
+ * A method is identified on the wire by its {@link ProtocolSignature}
+ * fingerprint, the id the server publishes in its protocol signature, and
+ * its parameters are written by codecs chosen once from their declared
+ * types.  Parameters of primitive, {@link String} or {@link Writable} types
+ * are thus sent without class names, and neither side looks a method up
+ * by reflection for each call.  Other parameters, and {@link Writable}
+ * instances of a subclass of the declared type, are written by
+ * {@link ObjectWritable}.
+ */
+class ProtocolCodec {
+  private static final Map<Class<?>, ProtocolCodec> CODECS =
+    new ConcurrentHashMap<Class<?>, ProtocolCodec>();
+
+  private final Class<?> protocol;
+  private final Map<Method, MethodCodec> byMethod =
+    new HashMap<Method, MethodCodec>();
+  private final Map<Integer, MethodCodec> byId =
+    new HashMap<Integer, MethodCodec>();
+
+  private ProtocolCodec(Class<?> protocol) throws IOException {
+    this.protocol = protocol;
+    for (Method method : protocol.getMethods()) {
+      MethodCodec codec = new MethodCodec(method);
+      MethodCodec previous = byId.put(codec.getId(), codec);
+      if (previous != null) {
+        throw new IOException("Methods " + previous.getMethod() + " and "
+            + method + " of " + protocol + " have the same fingerprint");
+      }
+      byMethod.put(method, codec);
+    }
+  }
+
+  /**
+   * Get the codec of a protocol, created on first use.
+   * @param protocol the protocol interface
+   * @return the codec of its methods
+   * @throws IOException if two methods of the protocol can not be told
+   *         apart, or an interface declaring them has no versionID
+   */
+  static ProtocolCodec get(Class<?> protocol) throws IOException {
+    ProtocolCodec codec = CODECS.get(protocol);
+    if (codec == null) {
+      codec = new ProtocolCodec(protocol);
+      CODECS.put(protocol, codec);
+    }
+    return codec;
+  }
+
+  /** @return the codec of a method of the protocol */
+  MethodCodec getMethod(Method method) throws IOException {
+    MethodCodec codec = byMethod.get(method);
+    if (codec == null) {
+      // the same method, declared by another interface of the protocol
+      codec = byId.get(ProtocolSignature.getFingerprint(method));
+    }
+    if (codec == null) {
+      throw new IOException(method + " is not a method of " + protocol);
+    }
+    return codec;
+  }
+
+  /** @return the codec of the method with the given id */
+  MethodCodec getMethod(int id) throws IOException {
+    MethodCodec codec = byId.get(id);
+    if (codec == null) {
+      throw new IOException("Unknown method id " + id + " of " + protocol);
+    }
+    return codec;
+  }
+
+  /** The encoding of the invocations of one method. */
+  static class MethodCodec {
+    private final Method method;
+    private final int id;
+    private final long clientVersion;
+    private final int clientMethodsHash;
+    private final ParameterCodec[] parameters;
+
+    private MethodCodec(Method method) throws IOException {
+      this.method = method;
+      this.id = ProtocolSignature.getFingerprint(method);
+      Class<?> declaringClass = method.getDeclaringClass();
+      if (declaringClass.equals(VersionedProtocol.class)) {
+        //VersionedProtocol is exempted from version check.
+        clientVersion = 0;
+        clientMethodsHash = 0;
+      } else {
+        try {
+          Field versionField = declaringClass.getField("versionID");
+          versionField.setAccessible(true);
+          clientVersion = versionField.getLong(declaringClass);
+        } catch (NoSuchFieldException ex) {
+          throw new IOException("Protocol " + declaringClass
+              + " of method " + method + " has no versionID field", ex);
+        } catch (IllegalAccessException ex) {
+          throw new IOException("Unable to read the versionID of protocol "
+              + declaringClass, ex);
+        }
+        clientMethodsHash =
+          ProtocolSignature.getFingerprint(declaringClass.getMethods());
+      }
+      method.setAccessible(true);
+      Class<?>[] types = method.getParameterTypes();
+      parameters = new ParameterCodec[types.length];
+      for (int i = 0; i < types.length; i++) {
+        parameters[i] = getParameterCodec(types[i]);
+      }
+    }
+
+    Method getMethod() {
+      return method;
+    }
+
+    int getId() {
+      return id;
+    }
+
+    long getClientVersion() {
+      return clientVersion;
+    }
+
+    int getClientMethodsHash() {
+      return clientMethodsHash;
+    }
+
+    void writeParameters(DataOutput out, Object[] values, Configuration conf)
+        throws IOException {
+      for (int i = 0; i < parameters.length; i++) {
+        parameters[i].write(out, values[i], conf);
+      }
+    }
+
+    Object[] readParameters(DataInput in, Configuration conf)
+        throws IOException {
+      Object[] values = new Object[parameters.length];
+      for (int i = 0; i < parameters.length; i++) {
+        values[i] = parameters[i].read(in, conf);
+      }
+      return values;
+    }
+  }
+
+  /** Writes and reads the values of a parameter type. */
+  private static abstract class ParameterCodec {
+    abstract void write(DataOutput out, Object value, Configuration conf)
+        throws IOException;
+
+    abstract Object read(DataInput in, Configuration conf) throws IOException;
+  }
+
+  // tags of the values of Writable parameters
+  private static final byte NULL_VALUE = 0;
+  private static final byte DECLARED_CLASS_VALUE = 1;
+  private static final byte OTHER_CLASS_VALUE = 2;
+
+  private static ParameterCodec getParameterCodec(final Class<?> type) {
+    if (type == Boolean.TYPE) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeBoolean((Boolean) value);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readBoolean();
+        }
+      };
+    } else if (type == Byte.TYPE) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeByte((Byte) value);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readByte();
+        }
+      };
+    } else if (type == Character.TYPE) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeChar((Character) value);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readChar();
+        }
+      };
+    } else if (type == Short.TYPE) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeShort((Short) value);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readShort();
+        }
+      };
+    } else if (type == Integer.TYPE) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeInt((Integer) value);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readInt();
+        }
+      };
+    } else if (type == Long.TYPE) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeLong((Long) value);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readLong();
+        }
+      };
+    } else if (type == Float.TYPE) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeFloat((Float) value);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readFloat();
+        }
+      };
+    } else if (type == Double.TYPE) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeDouble((Double) value);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readDouble();
+        }
+      };
+    } else if (type == String.class) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          out.writeBoolean(value != null);
+          if (value != null) {
+            Text.writeString(out, (String) value);
+          }
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return in.readBoolean() ? Text.readString(in) : null;
+        }
+      };
+    } else if (Writable.class.isAssignableFrom(type)) {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          if (value == null) {
+            out.writeByte(NULL_VALUE);
+          } else if (value.getClass() == type) {
+            out.writeByte(DECLARED_CLASS_VALUE);
+            ((Writable) value).write(out);
+          } else {
+            out.writeByte(OTHER_CLASS_VALUE);
+            ObjectWritable.writeObject(out, value, type, conf, true);
+          }
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          switch (in.readByte()) {
+          case NULL_VALUE:
+            return null;
+          case DECLARED_CLASS_VALUE:
+            @SuppressWarnings("unchecked")
+            Writable value = WritableFactories.newInstance(
+                (Class<? extends Writable>) type, conf);
+            value.readFields(in);
+            return value;
+          case OTHER_CLASS_VALUE:
+            return ObjectWritable.readObject(in, conf);
+          default:
+            throw new IOException("Corrupt value of " + type);
+          }
+        }
+      };
+    } else {
+      return new ParameterCodec() {
+        void write(DataOutput out, Object value, Configuration conf)
+            throws IOException {
+          ObjectWritable.writeObject(out, value, type, conf, true);
+        }
+        Object read(DataInput in, Configuration conf) throws IOException {
+          return ObjectWritable.readObject(in, conf);
+        }
+      };
+    }
+  }
+}
@@ -28,6 +28,7 @@ import java.net.SocketTimeoutException;
 import java.io.*;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Future;
 
 import javax.net.SocketFactory;
 
@@ -75,6 +76,58 @@ public class RPC {
 
   private static final String ENGINE_PROP = "rpc.engine";
 
+  // whether proxy calls made by the current thread are asynchronous
+  private static final ThreadLocal<Boolean> ASYNC_MODE =
+    new ThreadLocal<Boolean>() {
+      @Override
+      protected Boolean initialValue() {
+        return Boolean.FALSE;
+      }
+    };
+
+  // the pending result of the last asynchronous call of the current thread
+  private static final ThreadLocal<Future<?>> ASYNC_RETURN_VALUE =
+    new ThreadLocal<Future<?>>();
+
+  /**
+   * Switch the current thread in or out of asynchronous mode.  While in
+   * asynchronous mode, a method invoked on an RPC proxy sends its request
+   * and returns at once with the default value of its return type
+   * (<code>null</code>, zero or <code>false</code>).  The result is then
+   * obtained with {@link #getAsyncReturnValue()}, which must be called right
+   * after the proxy method.  Many calls can so be in flight from one thread.
+   * Proxies whose engine has no asynchronous support ignore the mode.
+   * @param async true to make calls asynchronous, false to make them block
+   */
+  public static void setAsynchronousMode(boolean async) {
+    ASYNC_MODE.set(async);
+  }
+
+  /** @return true if the current thread is in asynchronous mode */
+  public static boolean isAsynchronousMode() {
+    return ASYNC_MODE.get();
+  }
+
+  /**
+   * Get and clear the pending result of the last call made in asynchronous
+   * mode by the current thread.  {@link Future#get()} on it returns the
+   * value of the call, or throws an
+   * {@link java.util.concurrent.ExecutionException} whose cause is the
+   * exception the call failed with.
+   * @return the pending result, or null if no asynchronous call was made
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Future<T> getAsyncReturnValue() {
+    Future<T> value = (Future<T>) ASYNC_RETURN_VALUE.get();
+    ASYNC_RETURN_VALUE.remove();
+    return value;
+  }
+
+  // record the pending result of an asynchronous call, for engines
+  static void setAsyncReturnValue(Future<?> value) {
+    ASYNC_RETURN_VALUE.set(value);
+  }
+
   /**
    * Set a protocol to use a non-default RpcEngine.
    * @param conf configuration to use
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets limiting the rate of calls per key, such as a user or a
+ * host.  A bucket holds at most one second worth of calls, so that short
+ * bursts are allowed.
+ *
+ * Each bucket keeps the theoretical time at which it will be full again
+ * and is updated with a compare and set, so that callers never block.
+ */
+class RateLimiter {
+  // full buckets are dropped once there are more buckets than this
+  private static final int MAX_BUCKETS = 4096;
+
+  private final long interval;                  // nanoseconds per call
+  private final long burst;                     // nanoseconds of calls
+  // time up to which the calls of each key have been taken
+  private final ConcurrentHashMap<String, AtomicLong> buckets =
+    new ConcurrentHashMap<String, AtomicLong>();
+
+  /**
+   * @param callsPerSecond the sustained rate of calls allowed for each key
+   */
+  RateLimiter(double callsPerSecond) {
+    if (callsPerSecond <= 0) {
+      throw new IllegalArgumentException("Rate must be positive: "
+          + callsPerSecond);
+    }
+    this.interval = Math.max(1L, (long) (1e9 / callsPerSecond));
+    this.burst = Math.max(interval, 1000000000L);
+  }
+
+  /**
+   * Take a call from the bucket of a key.
+   * @param key the key the call is counted for
+   * @return true if the call is allowed, false if the key is over its rate
+   */
+  boolean tryAcquire(String key) {
+    long now = System.nanoTime();
+    AtomicLong bucket = buckets.get(key);
+    if (bucket == null) {
+      if (buckets.size() >= MAX_BUCKETS) {
+        purge();
+      }
+      bucket = new AtomicLong(now - burst);       // a full bucket
+      AtomicLong previous = buckets.putIfAbsent(key, bucket);
+      if (previous != null) {
+        bucket = previous;
+      }
+    }
+    while (true) {
+      long full = bucket.get();
+      long next = Math.max(full, now - burst) + interval;
+      if (next > now) {
+        return false;
+      }
+      if (bucket.compareAndSet(full, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Give back a call taken by {@link #tryAcquire(String)} that was not made.
+   * @param key the key the call was counted for
+   */
+  void release(String key) {
+    AtomicLong bucket = buckets.get(key);
+    if (bucket != null) {
+      bucket.addAndGet(-interval);
+    }
+  }
+
+  /** Drop the buckets that are full, which are equal to new buckets. */
+  private void purge() {
+    long now = System.nanoTime();
+    for (Iterator<AtomicLong> i = buckets.values().iterator(); i.hasNext();) {
+      if (i.next().get() <= now - burst) {
+        i.remove();
+      }
+    }
+  }
+
+  /** @return the number of keys with a bucket */
+  int size() {
+    return buckets.size();
+  }
+}
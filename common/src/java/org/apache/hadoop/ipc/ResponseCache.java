@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.security.UserGroupInformation;
+
+/**
+ * A bounded cache of the responses of {@link Cacheable} calls, for a
+ * {@link Server} to answer identical calls without running them again.
+ *
+ * Calls are identical when they come from the same user over the same
+ * protocol with the same serialized parameter.  Entries expire after a
+ * time to live, and are evicted in least recently used order beyond the
+ * maximum number of entries.  The owner of the server state calls
+ * {@link #invalidate()} whenever that state changes; a response computed
+ * while the state changed is not cached.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
+@InterfaceStability.Evolving
+public class ResponseCache {
+  private final long ttl;
+  private final Map<Key, Entry> entries;
+  private long generation;                          // guarded by this
+
+  /** Identity of a call. */
+  static final class Key {
+    private final String protocol;
+    private final String user;
+    private final byte[] param;
+    private final int hash;
+
+    Key(String protocol, String user, byte[] param) {
+      this.protocol = protocol;
+      this.user = user;
+      this.param = param;
+      this.hash = 31 * (31 * protocol.hashCode() + user.hashCode())
+        + Arrays.hashCode(param);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return hash == that.hash && protocol.equals(that.protocol) &&
+        user.equals(that.user) && Arrays.equals(param, that.param);
+    }
+  }
+
+  /** A serialized response and the time it expires. */
+  private static final class Entry {
+    private final byte[] response;
+    private final long expiry;
+
+    Entry(byte[] response, long expiry) {
+      this.response = response;
+      this.expiry = expiry;
+    }
+  }
+
+  /**
+   * Create a cache.
+   * @param maxEntries maximum number of responses to cache
+   * @param ttl time in milliseconds after which a response expires
+   */
+  public ResponseCache(final int maxEntries, long ttl) {
+    if (maxEntries <= 0 || ttl <= 0) {
+      throw new IllegalArgumentException("Invalid max entries " + maxEntries
+          + " or time to live " + ttl);
+    }
+    this.ttl = ttl;
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /** Get the key of a call. */
+  static Key getKey(Class<?> protocol, UserGroupInformation user,
+                    Writable param) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    param.write(out);
+    return new Key(protocol == null ? "" : protocol.getName(),
+                   user == null ? "" : user.getUserName(),
+                   Arrays.copyOf(out.getData(), out.getLength()));
+  }
+
+  /**
+   * Get the current generation of the cache, to pass to
+   * {@link #put(Key, Writable, long)} once the response is computed.
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Get the cached response of a call.
+   * @return the serialized response, to be written back as is, or null if
+   *         there is none or it expired
+   */
+  synchronized byte[] get(Key key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiry < System.currentTimeMillis()) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.response;
+  }
+
+  /**
+   * Cache the response of a call, unless the cache was invalidated since
+   * the given generation.
+   * @param key the key of the call
+   * @param response the response of the call
+   * @param generation the generation of the cache before the call was run
+   */
+  void put(Key key, Writable response, long generation) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    response.write(out);
+    Entry entry = new Entry(Arrays.copyOf(out.getData(), out.getLength()),
+                            System.currentTimeMillis() + ttl);
+    synchronized (this) {
+      if (generation == this.generation) {
+        entries.put(key, entry);
+      }
+    }
+  }
+
+  /**
+   * Drop all the cached responses, including the ones of the calls
+   * being run.
+   */
+  public synchronized void invalidate() {
+    generation++;
+    if (!entries.isEmpty()) {
+      entries.clear();
+    }
+  }
+
+  /** @return the number of cached responses */
+  public synchronized int size() {
+    return entries.size();
+  }
+}
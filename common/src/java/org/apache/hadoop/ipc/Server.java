@@ -20,9 +20,11 @@ package org.apache.hadoop.ipc;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -34,6 +36,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -43,16 +46,16 @@ import java.nio.channels.WritableByteChannel;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
 
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
@@ -64,6 +67,10 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataInputByteBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DirectBufferPool;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
@@ -115,6 +122,16 @@ public abstract class Server {
    */
   static int INITIAL_RESP_BUF_SIZE = 10240;
 
+  /**
+   * Maximum number of queued responses sent with one gathering write
+   */
+  private static final int MAX_GATHERED_RESPONSES = 16;
+
+  /**
+   * Milliseconds between the attempts of a Reader to queue held back calls
+   */
+  private static final int THROTTLED_RETRY_INTERVAL = 10;
+
   public static final Log LOG = LogFactory.getLog(Server.class);
   public static final Log AUDITLOG = 
     LogFactory.getLog("SecurityLogger."+Server.class.getName());
@@ -198,11 +215,21 @@ public abstract class Server {
 
   private int maxQueueSize;
   private final int maxRespSize;
+  private final DirectBufferPool bufferPool; // request and response buffers
+  // limits of the call rates of each user and client host, null if none
+  private final RateLimiter userRateLimiter;
+  private final RateLimiter hostRateLimiter;
+  // cache of the responses of cacheable calls, null if not caching
+  private volatile ResponseCache responseCache;
+  // lock held while running a batch of read-only calls, null if not batching
+  private volatile Lock readOnlyBatchLock;
+  private volatile int readOnlyBatchSize = 1;
   private int socketSendBufferSize;
   private final boolean tcpNoDelay; // if T then disable Nagle's Algorithm
 
   volatile private boolean running = true;         // true while server runs
-  private BlockingQueue<Call> callQueue; // queued calls
+  private CallQueueManager<Call> callQueue; // queued calls
+  private final boolean multiLevelCallQueue; // true if calls have priorities
 
   private List<Connection> connectionList = 
     Collections.synchronizedList(new LinkedList<Connection>());
@@ -269,18 +296,28 @@ public abstract class Server {
   }
 
   /** A call queued for handling. */
-  private static class Call {
+  private static class Call implements Schedulable {
     private int id;                               // the client's call id
     private Writable param;                       // the parameter passed
     private Connection connection;                // connection to client
     private long timestamp;     // the time received when response is null
                                    // the time served when response is not null
     private ByteBuffer response;                      // the response for this call
+    private int priorityLevel = -1; // the call queue level, once scheduled
+    private final Class<?> protocol;              // protocol of the call
+    private final UserGroupInformation user;      // user making the call
 
     public Call(int id, Writable param, Connection connection) { 
+      this(id, param, connection, connection.protocol, connection.user);
+    }
+
+    public Call(int id, Writable param, Connection connection,
+        Class<?> protocol, UserGroupInformation user) {
       this.id = id;
       this.param = param;
       this.connection = connection;
+      this.protocol = protocol;
+      this.user = user;
       this.timestamp = System.currentTimeMillis();
       this.response = null;
     }
@@ -293,6 +330,27 @@ public abstract class Server {
     public void setResponse(ByteBuffer response) {
       this.response = response;
     }
+
+    /** Give the buffer of a response that was sent back to the pool. */
+    private void releaseResponse(DirectBufferPool pool) {
+      pool.returnBuffer(response);
+      response = null;
+    }
+
+    @Override
+    public UserGroupInformation getUserGroupInformation() {
+      return user;
+    }
+
+    @Override
+    public int getPriorityLevel() {
+      return priorityLevel;
+    }
+
+    @Override
+    public void setPriorityLevel(int priorityLevel) {
+      this.priorityLevel = priorityLevel;
+    }
   }
 
   /** Listens on the socket. Creates jobs for the handler threads*/
@@ -338,6 +396,8 @@ public abstract class Server {
     private class Reader extends Thread {
       private volatile boolean adding = false;
       private final Selector readSelector;
+      // connections not read until their held back calls are queued
+      private final List<Connection> throttled = new ArrayList<Connection>();
 
       Reader(String name) throws IOException {
         super(name);
@@ -362,7 +422,11 @@ public abstract class Server {
         while (running) {
           SelectionKey key = null;
           try {
-            readSelector.select();
+            if (throttled.isEmpty()) {
+              readSelector.select();
+            } else {
+              readSelector.select(THROTTLED_RETRY_INTERVAL);
+            }
             while (adding) {
               this.wait(1000);
             }              
@@ -374,10 +438,14 @@ public abstract class Server {
               if (key.isValid()) {
                 if (key.isReadable()) {
                   doRead(key);
+                  throttle(key);
                 }
               }
               key = null;
             }
+            if (!throttled.isEmpty()) {
+              retryThrottled();
+            }
           } catch (InterruptedException e) {
             if (running) {                      // unexpected -- log it
               LOG.info(getName() + " unexpectedly interrupted", e);
@@ -388,6 +456,34 @@ public abstract class Server {
         }
       }
 
+      /**
+       * Stop reading from a connection which has calls held back, so that
+       * its client is pushed back while the other connections are served.
+       */
+      private void throttle(SelectionKey key) {
+        Connection c = (Connection)key.attachment();
+        if (key.isValid() && c != null && c.isThrottled() &&
+            key.interestOps() != 0) {
+          key.interestOps(0);
+          throttled.add(c);
+        }
+      }
+
+      /** Queue held back calls, and read again from their connections. */
+      private void retryThrottled() {
+        Iterator<Connection> iter = throttled.iterator();
+        while (iter.hasNext()) {
+          Connection c = iter.next();
+          SelectionKey key = c.channel.keyFor(readSelector);
+          if (key == null || !key.isValid()) {
+            iter.remove();                      // the connection was closed
+          } else if (c.queueThrottledCalls()) {
+            key.interestOps(SelectionKey.OP_READ);
+            iter.remove();
+          }
+        }
+      }
+
       /**
        * This gets reader into the state that waits for the new channel
        * to be registered with readSelector. If it was waiting in select()
@@ -763,59 +859,58 @@ public abstract class Server {
       }
     }
 
-    // Processes one response. Returns true if there are no more pending
-    // data for this channel.
+    // Sends as many of the pending responses of a channel as possible.
+    // Returns true if there are no more pending data for this channel.
     //
     private boolean processResponse(LinkedList<Call> responseQueue,
                                     boolean inHandler) throws IOException {
       boolean error = true;
       boolean done = false;       // there is more data for this channel.
-      int numElements = 0;
       Call call = null;
       try {
         synchronized (responseQueue) {
           //
           // If there are no items for this channel, then we are done
           //
-          numElements = responseQueue.size();
-          if (numElements == 0) {
+          if (responseQueue.isEmpty()) {
             error = false;
             return true;              // no more data for this channel.
           }
           //
-          // Extract the first call
+          // Gather the first responses and send as much data as we can
+          // in the non-blocking fashion
           //
-          call = responseQueue.removeFirst();
+          call = responseQueue.getFirst();
           SocketChannel channel = call.connection.channel;
           if (LOG.isDebugEnabled()) {
             LOG.debug(getName() + ": responding to #" + call.id + " from " +
                       call.connection);
           }
-          //
-          // Send as much data as we can in the non-blocking fashion
-          //
-          int numBytes = channelWrite(channel, call.response);
+          long numBytes = channelWrite(channel, gatherResponses(responseQueue));
           if (numBytes < 0) {
             return true;
           }
-          if (!call.response.hasRemaining()) {
-            call.connection.decRpcCount();
-            if (numElements == 1) {    // last call fully processes.
-              done = true;             // no more data for this channel.
-            } else {
-              done = false;            // more calls pending to be sent.
-            }
+          //
+          // Retire the calls whose responses were fully sent
+          //
+          while (!responseQueue.isEmpty() &&
+                 !responseQueue.getFirst().response.hasRemaining()) {
+            Call sent = responseQueue.removeFirst();
+            sent.connection.decRpcCount();
+            sent.releaseResponse(bufferPool);
             if (LOG.isDebugEnabled()) {
-              LOG.debug(getName() + ": responding to #" + call.id + " from " +
-                        call.connection + " Wrote " + numBytes + " bytes.");
+              LOG.debug(getName() + ": responding to #" + sent.id + " from " +
+                        sent.connection + " Wrote " + numBytes + " bytes.");
             }
+          }
+          if (responseQueue.isEmpty()) {
+            done = true;               // no more data for this channel.
           } else {
+            call = responseQueue.getFirst();
             //
-            // If we were unable to write the entire response out, then 
+            // If we were unable to write all the responses out, then 
             // insert in Selector queue. 
             //
-            call.connection.responseQueue.addFirst(call);
-            
             if (inHandler) {
               // set the serve time when the response has to be sent later
               call.timestamp = System.currentTimeMillis();
@@ -851,6 +946,25 @@ public abstract class Server {
       return done;
     }
 
+    // Returns the responses to send together: the first pending one, and
+    // the direct ones that follow it if it is direct too.  Heap buffers are
+    // sent alone since NIO copies them into temporary direct buffers.
+    private ByteBuffer[] gatherResponses(LinkedList<Call> responseQueue) {
+      ByteBuffer first = responseQueue.getFirst().response;
+      if (!first.isDirect() || responseQueue.size() == 1) {
+        return new ByteBuffer[] { first };
+      }
+      List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+      for (Call pending : responseQueue) {
+        if (!pending.response.isDirect() ||
+            buffers.size() == MAX_GATHERED_RESPONSES) {
+          break;
+        }
+        buffers.add(pending.response);
+      }
+      return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
     //
     // Enqueue a response from the application.
     //
@@ -888,8 +1002,11 @@ public abstract class Server {
     private SocketChannel channel;
     private ByteBuffer data;
     private ByteBuffer dataLengthBuffer;
+    private final DataInputByteBuffer dataInput = new DataInputByteBuffer();
     private LinkedList<Call> responseQueue;
     private volatile int rpcCount = 0; // number of outstanding rpcs
+    // calls read but not queued yet, in order; only used by the Reader
+    private final LinkedList<Call> throttledCalls = new LinkedList<Call>();
     private long lastContact;
     private int dataLength;
     private Socket socket;
@@ -901,6 +1018,15 @@ public abstract class Server {
     
     ConnectionHeader header = new ConnectionHeader();
     Class<?> protocol;
+    // a multiplexed connection carries the protocol and user of each call
+    private boolean multiplexed;
+    // authorized callers of a multiplexed connection, by the bytes of their
+    // call header
+    private final Map<BytesWritable, Call> callers =
+      new HashMap<BytesWritable, Call>();
+    // the header of the call being read, and its bytes to look it up
+    private final DataOutputBuffer callerHeader = new DataOutputBuffer();
+    private final BytesWritable callerKey = new BytesWritable();
     boolean useSasl;
     SaslServer saslServer;
     private AuthMethod authMethod;
@@ -1220,7 +1346,9 @@ public abstract class Server {
             LOG.warn("Unexpected data length " + dataLength + "!! from " + 
                 getHostAddress());
           }
-          data = ByteBuffer.allocate(dataLength);
+          // SASL processing needs the bytes on the heap
+          data = useSasl ? ByteBuffer.allocate(dataLength)
+                         : bufferPool.getBuffer(dataLength);
         }
         
         count = channelRead(channel, data);
@@ -1229,6 +1357,7 @@ public abstract class Server {
           dataLengthBuffer.clear();
           data.flip();
           if (skipInitialSaslHandshake) {
+            bufferPool.returnBuffer(data);
             data = null;
             skipInitialSaslHandshake = false;
             continue;
@@ -1237,7 +1366,12 @@ public abstract class Server {
           if (useSasl) {
             saslReadAndProcess(data.array());
           } else {
-            processOneRpc(data.array());
+            try {
+              dataInput.reset(data);
+              processOneRpc(dataInput);
+            } finally {
+              bufferPool.returnBuffer(data);
+            }
           }
           data = null;
           if (!isHeaderRead) {
@@ -1283,10 +1417,17 @@ public abstract class Server {
     }
 
     /// Reads the connection header following version
-    private void processHeader(byte[] buf) throws IOException {
-      DataInputStream in =
-        new DataInputStream(new ByteArrayInputStream(buf));
+    private void processHeader(DataInputStream in) throws IOException {
       header.readFields(in);
+      if (ConnectionHeader.MULTIPLEXED_PROTOCOL.equals(header.getProtocol())) {
+        if (useSasl) {
+          throw new AccessControlException("Connection from " + this
+              + " can not be multiplexed with " + authMethod
+              + " authentication");
+        }
+        multiplexed = true;
+        return;
+      }
       try {
         String protocolClassName = header.getProtocol();
         if (protocolClassName != null) {
@@ -1371,12 +1512,18 @@ public abstract class Server {
     
     private void processOneRpc(byte[] buf) throws IOException,
         InterruptedException {
+      processOneRpc(new DataInputStream(new ByteArrayInputStream(buf)));
+    }
+
+    private void processOneRpc(DataInputStream in) throws IOException,
+        InterruptedException {
       if (headerRead) {
-        processData(buf);
+        processData(in);
       } else {
-        processHeader(buf);
+        processHeader(in);
         headerRead = true;
-        if (!authorizeConnection()) {
+        // the callers of a multiplexed connection are authorized per call
+        if (!multiplexed && !authorizeConnection()) {
           throw new AccessControlException("Connection from " + this
               + " for protocol " + header.getProtocol()
               + " is unauthorized for user " + user);
@@ -1384,17 +1531,22 @@ public abstract class Server {
       }
     }
     
-    private void processData(byte[] buf) throws  IOException, InterruptedException {
-      DataInputStream dis =
-        new DataInputStream(new ByteArrayInputStream(buf));
+    private void processData(DataInputStream dis)
+        throws  IOException, InterruptedException {
       int id = dis.readInt();                    // try to read an id
         
       if (LOG.isDebugEnabled())
         LOG.debug(" got #" + id);
+      Call caller = null;
+      if (multiplexed) {
+        caller = getCaller(id, dis);
+        if (caller == null) {
+          return;                 // the caller was refused, the error is sent
+        }
+      }
       Writable param;
       try {
-        param = ReflectionUtils.newInstance(paramClass, conf);//read param
-        param.readFields(dis);
+        param = readParam(caller == null ? protocol : caller.protocol, dis);
       } catch (Throwable t) {
         LOG.warn("Unable to read call parameters for client " +
                  getHostAddress(), t);
@@ -1408,9 +1560,131 @@ public abstract class Server {
         return;
       }
         
-      Call call = new Call(id, param, this);
-      callQueue.put(call);              // queue the call; maybe blocked here
+      Call call = caller == null ? new Call(id, param, this)
+          : new Call(id, param, this, caller.protocol, caller.user);
       incRpcCount();  // Increment the rpc count
+      // a call held back also holds back the calls that follow it
+      if (!throttledCalls.isEmpty() || !tryQueue(call, true)) {
+        throttledCalls.add(call);
+      }
+    }
+
+    /** @return true if some calls read from this connection are held back */
+    private boolean isThrottled() {
+      return !throttledCalls.isEmpty();
+    }
+
+    /**
+     * Queue the calls held back, in order.
+     * @return true if no call is held back any more
+     */
+    private boolean queueThrottledCalls() {
+      while (!throttledCalls.isEmpty()) {
+        if (!tryQueue(throttledCalls.getFirst(), false)) {
+          return false;
+        }
+        throttledCalls.removeFirst();
+      }
+      return true;
+    }
+
+    /**
+     * Queue a call unless its user or host is over its call rate or the
+     * call queue is full.
+     * @param call the call to queue
+     * @param first true on the first attempt to queue the call
+     * @return true if the call was queued
+     */
+    private boolean tryQueue(Call call, boolean first) {
+      String userName = call.user == null ? null : call.user.getUserName();
+      boolean userLimited = userRateLimiter != null && userName != null;
+      if (userLimited && !userRateLimiter.tryAcquire(userName)) {
+        if (first) {
+          rpcMetrics.incrRateLimitedCalls();
+        }
+        return false;
+      }
+      if (hostRateLimiter != null && !hostRateLimiter.tryAcquire(hostAddress)) {
+        if (userLimited) {
+          userRateLimiter.release(userName);
+        }
+        if (first) {
+          rpcMetrics.incrRateLimitedCalls();
+        }
+        return false;
+      }
+      if (!callQueue.offer(call)) {
+        if (userLimited) {
+          userRateLimiter.release(userName);
+        }
+        if (hostRateLimiter != null) {
+          hostRateLimiter.release(hostAddress);
+        }
+        if (first) {
+          rpcMetrics.incrThrottledCalls();
+        }
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Read the header of a call on a multiplexed connection, authorizing its
+     * protocol and user the first time they are seen on this connection.
+     * @return a call holding the protocol and user of the caller, or null if
+     *         the caller is not authorized, in which case an error has been
+     *         sent for the call
+     */
+    private Call getCaller(int id, DataInputStream dis) throws IOException {
+      // the header is only decoded the first time it is seen
+      ConnectionHeader.copy(dis, callerHeader.reset());
+      callerKey.set(callerHeader.getData(), 0, callerHeader.getLength());
+      Call caller = callers.get(callerKey);
+      if (caller != null) {
+        return caller;
+      }
+
+      ConnectionHeader callHeader = new ConnectionHeader();
+      DataInputBuffer headerIn = new DataInputBuffer();
+      headerIn.reset(callerHeader.getData(), callerHeader.getLength());
+      callHeader.readFields(headerIn);
+      UserGroupInformation callUser = callHeader.getUgi();
+      Class<?> callProtocol = null;
+      try {
+        if (callHeader.getProtocol() != null) {
+          callProtocol = getProtocolClass(callHeader.getProtocol(), conf);
+          rpcDetailedMetrics.init(callProtocol);
+        }
+        if (callUser != null) {
+          callUser.setAuthenticationMethod(
+              AuthMethod.SIMPLE.authenticationMethod);
+          if (callUser.getRealUser() != null) {
+            ProxyUsers.authorize(callUser, this.getHostAddress(), conf);
+          }
+        }
+        authorize(callUser, callHeader, getHostInetAddress());
+        rpcMetrics.incrAuthorizationSuccesses();
+      } catch (ClassNotFoundException cnfe) {
+        refuseCall(id, IOException.class.getName(),
+            "Unknown protocol: " + callHeader.getProtocol());
+        return null;
+      } catch (AuthorizationException ae) {
+        rpcMetrics.incrAuthorizationFailures();
+        refuseCall(id, ae.getClass().getName(), ae.getMessage());
+        return null;
+      }
+      caller = new Call(id, null, this, callProtocol, callUser);
+      callers.put(new BytesWritable(callerKey.copyBytes()), caller);
+      return caller;
+    }
+
+    /** Answer a call of a multiplexed connection with an error. */
+    private void refuseCall(int id, String errorClass, String error)
+        throws IOException {
+      Call refusedCall = new Call(id, null, this);
+      setupResponse(new ByteArrayOutputStream(), refusedCall, Status.ERROR,
+          null, errorClass, error);
+      responder.doRespond(refusedCall);
     }
 
     private boolean authorizeConnection() throws IOException {
@@ -1456,6 +1730,8 @@ public abstract class Server {
 
   /** Handles queued calls . */
   private class Handler extends Thread {
+    private ByteArrayOutputStream buf;  // buffer to serialize responses into
+
     public Handler(int instanceNumber) {
       this.setDaemon(true);
       this.setName("IPC Server handler "+ instanceNumber + " on " + port);
@@ -1465,68 +1741,15 @@ public abstract class Server {
     public void run() {
       LOG.info(getName() + ": starting");
       SERVER.set(Server.this);
-      ByteArrayOutputStream buf = 
-        new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
+      buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
       while (running) {
         try {
           final Call call = callQueue.take(); // pop the queue; maybe blocked here
-
-          if (LOG.isDebugEnabled())
-            LOG.debug(getName() + ": has #" + call.id + " from " +
-                      call.connection);
-          
-          String errorClass = null;
-          String error = null;
-          Writable value = null;
-
-          CurCall.set(call);
-          try {
-            // Make the call as the user via Subject.doAs, thus associating
-            // the call with the Subject
-            if (call.connection.user == null) {
-              value = call(call.connection.protocol, call.param, 
-                           call.timestamp);
-            } else {
-              value = 
-                call.connection.user.doAs
-                  (new PrivilegedExceptionAction<Writable>() {
-                     @Override
-                     public Writable run() throws Exception {
-                       // make the call
-                       return call(call.connection.protocol, 
-                                   call.param, call.timestamp);
-
-                     }
-                   }
-                  );
-            }
-          } catch (Throwable e) {
-            LOG.info(getName() + ", call: " + call + ", error: ", e);
-            errorClass = e.getClass().getName();
-            error = StringUtils.stringifyException(e);
-            // Remove redundant error class name from the beginning of the stack trace
-            String exceptionHdr = errorClass + ": ";
-            if (error.startsWith(exceptionHdr)) {
-              error = error.substring(exceptionHdr.length());
-            }
-          }
-          CurCall.set(null);
-          synchronized (call.connection.responseQueue) {
-            // setupResponse() needs to be sync'ed together with 
-            // responder.doResponse() since setupResponse may use
-            // SASL to encrypt response data and SASL enforces
-            // its own message ordering.
-            setupResponse(buf, call, (error == null) ? Status.SUCCESS
-                : Status.ERROR, value, errorClass, error);
-            
-            // Discard the large buf and reset it back to smaller size 
-            // to free up heap
-            if (buf.size() > maxRespSize) {
-              LOG.warn("Large response size " + buf.size() + " for call "
-                  + call.toString());
-              buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
-            }
-            responder.doRespond(call);
+          Lock batchLock = readOnlyBatchLock;
+          if (batchLock != null && isReadOnly(call)) {
+            processReadOnlyBatch(call, batchLock, readOnlyBatchSize);
+          } else {
+            process(call);
           }
         } catch (InterruptedException e) {
           if (running) {                          // unexpected -- log it
@@ -1539,6 +1762,158 @@ public abstract class Server {
       LOG.info(getName() + ": exiting");
     }
 
+    /**
+     * Run a read-only call together with the read-only calls queued after
+     * it, all under one acquisition of the read-only batch lock.  The first
+     * call taken from the queue that is not read-only ends the batch, and is
+     * run once the lock is released.
+     */
+    private void processReadOnlyBatch(Call first, Lock batchLock,
+        int maxBatchSize) throws IOException {
+      List<Call> batch = new ArrayList<Call>(maxBatchSize);
+      batch.add(first);
+      Call next = null;
+      while (batch.size() < maxBatchSize &&
+             (next = callQueue.poll()) != null) {
+        if (!isReadOnly(next)) {
+          break;
+        }
+        batch.add(next);
+        next = null;
+      }
+      rpcMetrics.incrReadOnlyBatch(batch.size());
+
+      batchLock.lock();
+      try {
+        for (Call call : batch) {
+          try {
+            process(call);
+          } catch (IOException e) {
+            LOG.info(getName() + " caught an exception", e);
+          }
+        }
+      } finally {
+        batchLock.unlock();
+      }
+      if (next != null) {
+        process(next);
+      }
+    }
+
+    private Writable runCall(final Call call) throws Exception {
+      // Make the call as the user via Subject.doAs, thus associating
+      // the call with the Subject
+      if (call.user == null) {
+        return call(call.protocol, call.param, call.timestamp);
+      } else {
+        return 
+          call.user.doAs
+            (new PrivilegedExceptionAction<Writable>() {
+               @Override
+               public Writable run() throws Exception {
+                 // make the call
+                 return call(call.protocol, 
+                             call.param, call.timestamp);
+
+               }
+             }
+            );
+      }
+    }
+
+    private ResponseCache.Key getResponseCacheKey(Call call) {
+      try {
+        return ResponseCache.getKey(call.protocol, call.user, call.param);
+      } catch (IOException e) {
+        LOG.warn(getName() + ", call " + call + ": not cacheable", e);
+        return null;
+      }
+    }
+
+    private void putInResponseCache(ResponseCache cache, ResponseCache.Key key,
+        Writable value, long generation) {
+      try {
+        cache.put(key, value, generation);
+      } catch (IOException e) {
+        LOG.warn(getName() + ": unable to cache response " + value, e);
+      }
+    }
+
+    private void process(final Call call) throws IOException {
+      if (multiLevelCallQueue) {
+        rpcMetrics.addRpcQueueTime(call.getPriorityLevel(),
+            (int) (System.currentTimeMillis() - call.timestamp));
+      }
+
+      if (LOG.isDebugEnabled())
+        LOG.debug(getName() + ": has #" + call.id + " from " +
+                  call.connection);
+      
+      String errorClass = null;
+      String error = null;
+      Writable value = null;
+      byte[] cachedValue = null;
+
+      // Look the call up in the response cache, if it can be cached
+      ResponseCache cache = responseCache;
+      ResponseCache.Key cacheKey = null;
+      long cacheGeneration = 0;
+      if (cache != null && call.param != null &&
+          isCacheable(call.protocol, call.param)) {
+        cacheKey = getResponseCacheKey(call);
+        if (cacheKey != null) {
+          cacheGeneration = cache.getGeneration();
+          cachedValue = cache.get(cacheKey);
+          if (cachedValue != null) {
+            rpcMetrics.incrResponseCacheHits();
+          } else {
+            rpcMetrics.incrResponseCacheMisses();
+          }
+        }
+      }
+
+      CurCall.set(call);
+      try {
+        if (cachedValue == null) {            // not served from the cache
+          value = runCall(call);
+          if (cacheKey != null) {
+            putInResponseCache(cache, cacheKey, value, cacheGeneration);
+          }
+        }
+      } catch (Throwable e) {
+        LOG.info(getName() + ", call: " + call + ", error: ", e);
+        errorClass = e.getClass().getName();
+        error = StringUtils.stringifyException(e);
+        // Remove redundant error class name from the beginning of the stack trace
+        String exceptionHdr = errorClass + ": ";
+        if (error.startsWith(exceptionHdr)) {
+          error = error.substring(exceptionHdr.length());
+        }
+      }
+      CurCall.set(null);
+      synchronized (call.connection.responseQueue) {
+        // setupResponse() needs to be sync'ed together with 
+        // responder.doResponse() since setupResponse may use
+        // SASL to encrypt response data and SASL enforces
+        // its own message ordering.
+        if (cachedValue != null) {
+          setupResponse(buf, call, cachedValue);
+        } else {
+          setupResponse(buf, call, (error == null) ? Status.SUCCESS
+              : Status.ERROR, value, errorClass, error);
+        }
+        
+        // Discard the large buf and reset it back to smaller size 
+        // to free up heap
+        if (buf.size() > maxRespSize) {
+          LOG.warn("Large response size " + buf.size() + " for call "
+              + call.toString());
+          buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
+        }
+        responder.doRespond(call);
+      }
+    }
+
   }
   
   protected Server(String bindAddress, int port,
@@ -1576,6 +1951,19 @@ public abstract class Server {
     this.maxRespSize = conf.getInt(
         CommonConfigurationKeys.IPC_SERVER_RPC_MAX_RESPONSE_SIZE_KEY,
         CommonConfigurationKeys.IPC_SERVER_RPC_MAX_RESPONSE_SIZE_DEFAULT);
+    this.bufferPool = new DirectBufferPool(
+        conf.getInt(
+            CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_MAX_BUFFER_SIZE_KEY,
+            CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_MAX_BUFFER_SIZE_DEFAULT),
+        conf.getLong(
+            CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_CAPACITY_KEY,
+            CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_CAPACITY_DEFAULT));
+    this.userRateLimiter = newRateLimiter(conf.getFloat(
+        CommonConfigurationKeys.IPC_SERVER_USER_CALLS_PER_SECOND_KEY,
+        CommonConfigurationKeys.IPC_SERVER_USER_CALLS_PER_SECOND_DEFAULT));
+    this.hostRateLimiter = newRateLimiter(conf.getFloat(
+        CommonConfigurationKeys.IPC_SERVER_HOST_CALLS_PER_SECOND_KEY,
+        CommonConfigurationKeys.IPC_SERVER_HOST_CALLS_PER_SECOND_DEFAULT));
     if (numReaders != -1) {
       this.readThreads = numReaders;
     } else {
@@ -1583,7 +1971,11 @@ public abstract class Server {
           CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_KEY,
           CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_DEFAULT);      
     }
-    this.callQueue  = new LinkedBlockingQueue<Call>(maxQueueSize); 
+    String queueNamespace = CallQueueManager.getQueueNamespace(port);
+    this.callQueue = new CallQueueManager<Call>(
+        CallQueueManager.<Call>getQueueClass(queueNamespace, conf),
+        maxQueueSize, queueNamespace, conf);
+    this.multiLevelCallQueue = callQueue.getNumLevels() > 1;
     this.maxIdleTime = 2*conf.getInt("ipc.client.connection.maxidletime", 1000);
     this.maxConnectionsToNuke = conf.getInt("ipc.client.kill.max", 10);
     this.thresholdIdleConnections = conf.getInt("ipc.client.idlethreshold", 4000);
@@ -1659,7 +2051,51 @@ public abstract class Server {
     if (call.connection.useWrap) {
       wrapWithSasl(response, call);
     }
-    call.setResponse(ByteBuffer.wrap(response.toByteArray()));
+    call.setResponse(copyToBuffer(response));
+  }
+
+  /**
+   * Setup the response of an IPC Call served from the response cache.
+   * 
+   * @param response buffer to serialize the response into
+   * @param call {@link Call} to which we are setting up the response
+   * @param cachedValue serialized return value of an identical call
+   * @throws IOException
+   */
+  private void setupResponse(ByteArrayOutputStream response, Call call,
+                             byte[] cachedValue) throws IOException {
+    response.reset();
+    DataOutputStream out = new DataOutputStream(response);
+    out.writeInt(call.id);                // write call id
+    out.writeInt(Status.SUCCESS.state);   // write status
+    out.write(cachedValue);
+    if (call.connection.useWrap) {
+      wrapWithSasl(response, call);
+    }
+    call.setResponse(copyToBuffer(response));
+  }
+
+  /**
+   * Copy a serialized response into a buffer from the pool.  Responses that
+   * fit in the pool are sent from direct buffers, which saves NIO from
+   * copying them again into temporary direct buffers.
+   */
+  private ByteBuffer copyToBuffer(ByteArrayOutputStream response)
+      throws IOException {
+    final ByteBuffer buf = bufferPool.getBuffer(response.size());
+    response.writeTo(new OutputStream() {
+      @Override
+      public void write(int b) {
+        buf.put((byte) b);
+      }
+      @Override
+      public void write(byte[] b, int off, int len) {
+        buf.put(b, off, len);
+      }
+    });
+    buf.flip();
+    rpcMetrics.incrResponseBytesCopied(response.size());
+    return buf;
   }
   
   private void wrapWithSasl(ByteArrayOutputStream response, Call call)
@@ -1685,6 +2121,94 @@ public abstract class Server {
     return conf;
   }
   
+  /**
+   * Let handlers run up to <code>maxBatchSize</code> queued read-only calls
+   * under one acquisition of <code>lock</code>, rather than letting each call
+   * take the lock on its own.  Which calls are read-only is up to
+   * {@link #isReadOnly(Class, Writable)}.  The lock must be reentrant, since
+   * the calls of a batch still acquire it themselves, and should be a shared
+   * one such as the read lock of a {@link
+   * java.util.concurrent.locks.ReadWriteLock}: the calls of a batch wait for
+   * each other, so it should be kept small.
+   * @param lock the lock to hold while running a batch, or null
+   * @param maxBatchSize the maximum number of calls in a batch; batching is
+   *                     disabled if the lock is null or this is below 2
+   */
+  public void setReadOnlyBatching(Lock lock, int maxBatchSize) {
+    this.readOnlyBatchSize = Math.max(1, maxBatchSize);
+    this.readOnlyBatchLock = readOnlyBatchSize > 1 ? lock : null;
+  }
+
+  private boolean isReadOnly(Call call) {
+    return call.param != null &&
+      isReadOnly(call.protocol, call.param);
+  }
+
+  private static RateLimiter newRateLimiter(float callsPerSecond) {
+    return callsPerSecond > 0 ? new RateLimiter(callsPerSecond) : null;
+  }
+
+  /**
+   * Read the parameter of a call.
+   * @param protocol the protocol the call was made with, null if unknown
+   * @param in the serialized call, following the call id
+   * @return the parameter of the call, an instance of the parameter class
+   * @throws IOException if the parameter can not be read
+   */
+  protected Writable readParam(Class<?> protocol, DataInput in)
+      throws IOException {
+    Writable param = ReflectionUtils.newInstance(paramClass, conf);
+    param.readFields(in);
+    return param;
+  }
+
+  /**
+   * Tell whether a call only reads the state of the server, so that it can
+   * be batched with other such calls.
+   * @see #setReadOnlyBatching(Lock, int)
+   * @param protocol the protocol of the connection the call came from
+   * @param param the parameter of the call
+   * @return true if the call can be run in a read-only batch;
+   *         false by default
+   */
+  protected boolean isReadOnly(Class<?> protocol, Writable param) {
+    return false;
+  }
+
+  /**
+   * Serve the calls that {@link #isCacheable(Class, Writable)} accepts from
+   * a response cache.  The same cache can be shared by several servers.
+   * @param cache the cache to use, or null to disable caching
+   */
+  public void setResponseCache(ResponseCache cache) {
+    this.responseCache = cache;
+  }
+
+  /** @return the response cache of this server, null if it has none */
+  public ResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  /**
+   * Tell whether the response of a call may be served from the response
+   * cache of this server.
+   * @see #setResponseCache(ResponseCache)
+   * @param protocol the protocol of the connection the call came from
+   * @param param the parameter of the call
+   * @return true if the response can be cached; false by default
+   */
+  protected boolean isCacheable(Class<?> protocol, Writable param) {
+    return false;
+  }
+
+  /**
+   * The pool of the buffers used to read requests and send responses.
+   * @return the buffer pool of this server
+   */
+  public DirectBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
   /** for unit testing only, should be called before server is started */ 
   void disableSecurity() {
     this.isSecurityEnabled = false;
@@ -1805,6 +2329,22 @@ public abstract class Server {
     return callQueue.size();
   }
   
+  /**
+   * The number of priority levels of the rpc call queue.
+   * @return The number of priority levels, 1 for a plain FIFO queue.
+   */
+  public int getCallQueueNumLevels() {
+    return callQueue.getNumLevels();
+  }
+
+  /**
+   * The number of rpc calls in each priority level of the queue.
+   * @return The number of rpc calls in each priority level.
+   */
+  public int[] getCallQueueLevelLens() {
+    return callQueue.getQueueSizes();
+  }
+
   /**
    * The maximum size of the rpc call queue of this server.
    * @return The maximum size of the rpc call queue.
@@ -1841,7 +2381,7 @@ public abstract class Server {
   private int channelWrite(WritableByteChannel channel, 
                            ByteBuffer buffer) throws IOException {
     
-    int count =  (buffer.remaining() <= NIO_BUFFER_LIMIT) ?
+    int count =  (buffer.isDirect() || buffer.remaining() <= NIO_BUFFER_LIMIT) ?
                  channel.write(buffer) : channelIO(null, channel, buffer);
     if (count > 0) {
       rpcMetrics.incrSentBytes(count);
@@ -1850,6 +2390,24 @@ public abstract class Server {
   }
   
   
+  /**
+   * Write several buffers with one gathering write when they are direct, as
+   * {@link #channelWrite(WritableByteChannel, ByteBuffer)} does otherwise.
+   *
+   * @see GatheringByteChannel#write(ByteBuffer[])
+   */
+  private long channelWrite(SocketChannel channel,
+                            ByteBuffer[] buffers) throws IOException {
+    if (buffers.length == 1) {
+      return channelWrite(channel, buffers[0]);
+    }
+    long count = channel.write(buffers);
+    if (count > 0) {
+      rpcMetrics.incrSentBytes((int) count);
+    }
+    return count;
+  }
+
   /**
    * This is a wrapper around {@link ReadableByteChannel#read(ByteBuffer)}.
    * If the amount of data is large, it writes to channel in smaller chunks. 
@@ -18,7 +18,7 @@
 
 package org.apache.hadoop.ipc;
 
-import java.lang.reflect.Field;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Method;
 import java.lang.reflect.Array;
@@ -29,6 +29,10 @@ import java.net.InetSocketAddress;
 import java.io.*;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.net.SocketFactory;
 
@@ -49,7 +53,9 @@ public class WritableRpcEngine implements RpcEngine {
   
   //writableRpcVersion should be updated if there is a change
   //in format of the rpc messages.
-  public static long writableRpcVersion = 1L;
+  // 2 : Methods identified by fingerprint, parameters written by a
+  //     ProtocolCodec
+  public static long writableRpcVersion = 2L;
 
   /** A method invocation, including the method name and its parameters.*/
   private static class Invocation implements Writable, Configurable {
@@ -59,6 +65,10 @@ public class WritableRpcEngine implements RpcEngine {
     private Configuration conf;
     private long clientVersion;
     private int clientMethodsHash;
+    // encodes the invocation, null for invocations of older clients
+    private ProtocolCodec.MethodCodec codec;
+    // decodes the invocations of the protocol of the connection
+    private ProtocolCodec protocolCodec;
     
     //This could be different from static writableRpcVersion when received
     //at server, if client is using a different version.
@@ -66,28 +76,19 @@ public class WritableRpcEngine implements RpcEngine {
 
     public Invocation() {}
 
-    public Invocation(Method method, Object[] parameters) {
-      this.methodName = method.getName();
-      this.parameterClasses = method.getParameterTypes();
+    /** An invocation to be read for the given protocol. */
+    Invocation(ProtocolCodec protocolCodec) {
+      this.protocolCodec = protocolCodec;
+    }
+
+    public Invocation(ProtocolCodec.MethodCodec codec, Object[] parameters) {
+      this.codec = codec;
+      this.methodName = codec.getMethod().getName();
+      this.parameterClasses = codec.getMethod().getParameterTypes();
       this.parameters = parameters;
+      this.clientVersion = codec.getClientVersion();
+      this.clientMethodsHash = codec.getClientMethodsHash();
       rpcVersion = writableRpcVersion;
-      if (method.getDeclaringClass().equals(VersionedProtocol.class)) {
-        //VersionedProtocol is exempted from version check.
-        clientVersion = 0;
-        clientMethodsHash = 0;
-      } else {
-        try {
-          Field versionField = method.getDeclaringClass().getField("versionID");
-          versionField.setAccessible(true);
-          this.clientVersion = versionField.getLong(method.getDeclaringClass());
-        } catch (NoSuchFieldException ex) {
-          throw new RuntimeException(ex);
-        } catch (IllegalAccessException ex) {
-          throw new RuntimeException(ex);
-        }
-        this.clientMethodsHash = ProtocolSignature.getFingerprint(method
-            .getDeclaringClass().getMethods());
-      }
     }
 
     /** The name of the method invoked. */
@@ -98,6 +99,11 @@ public class WritableRpcEngine implements RpcEngine {
 
     /** The parameter instances. */
     public Object[] getParameters() { return parameters; }
+
+    /** The method invoked, null if it has to be looked up by name. */
+    Method getMethod() {
+      return codec == null ? null : codec.getMethod();
+    }
     
     private long getProtocolVersion() {
       return clientVersion;
@@ -117,6 +123,23 @@ public class WritableRpcEngine implements RpcEngine {
 
     public void readFields(DataInput in) throws IOException {
       rpcVersion = in.readLong();
+      if (rpcVersion != writableRpcVersion) {
+        // read enough of the invocation of an older client to reject it
+        readFieldsByName(in);
+        return;
+      }
+      if (protocolCodec == null) {
+        throw new IOException("No protocol to read the invocation");
+      }
+      codec = protocolCodec.getMethod(in.readInt());
+      methodName = codec.getMethod().getName();
+      parameterClasses = codec.getMethod().getParameterTypes();
+      clientVersion = in.readLong();
+      clientMethodsHash = in.readInt();
+      parameters = codec.readParameters(in, conf);
+    }
+
+    private void readFieldsByName(DataInput in) throws IOException {
       methodName = UTF8.readString(in);
       clientVersion = in.readLong();
       clientMethodsHash = in.readInt();
@@ -131,14 +154,10 @@ public class WritableRpcEngine implements RpcEngine {
 
     public void write(DataOutput out) throws IOException {
       out.writeLong(rpcVersion);
-      UTF8.writeString(out, methodName);
+      out.writeInt(codec.getId());
       out.writeLong(clientVersion);
       out.writeInt(clientMethodsHash);
-      out.writeInt(parameterClasses.length);
-      for (int i = 0; i < parameterClasses.length; i++) {
-        ObjectWritable.writeObject(out, parameters[i], parameterClasses[i],
-                                   conf, true);
-      }
+      codec.writeParameters(out, parameters, conf);
     }
 
     public String toString() {
@@ -167,6 +186,21 @@ public class WritableRpcEngine implements RpcEngine {
 
   }
 
+  /**
+   * A return value written with the compact encoding of arrays of primitives,
+   * which {@link ObjectWritable} reads back on the client.
+   */
+  private static class ReturnValue extends ObjectWritable {
+    public ReturnValue(Class<?> declaredClass, Object instance) {
+      super(declaredClass, instance);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      writeObject(out, get(), getDeclaredClass(), getConf(), true);
+    }
+  }
+
   /* Cache a client using its socket factory as the hash key */
   static private class ClientCache {
     private Map<SocketFactory, Client> clients =
@@ -229,6 +263,7 @@ public class WritableRpcEngine implements RpcEngine {
   private static class Invoker implements InvocationHandler {
     private Client.ConnectionId remoteId;
     private Client client;
+    private final ProtocolCodec codec;
     private boolean isClosed = false;
 
     public Invoker(Class<?> protocol,
@@ -238,6 +273,7 @@ public class WritableRpcEngine implements RpcEngine {
       this.remoteId = Client.ConnectionId.getConnectionId(address, protocol,
           ticket, rpcTimeout, conf);
       this.client = CLIENTS.getClient(conf, factory);
+      this.codec = ProtocolCodec.get(protocol);
     }
 
     public Object invoke(Object proxy, Method method, Object[] args)
@@ -247,8 +283,15 @@ public class WritableRpcEngine implements RpcEngine {
         startTime = System.currentTimeMillis();
       }
 
+      if (RPC.isAsynchronousMode() &&
+          method.getDeclaringClass() != VersionedProtocol.class) {
+        RPC.setAsyncReturnValue(new AsyncValue(client.callAsync(
+            new Invocation(codec.getMethod(method), args), remoteId)));
+        return getDefaultValue(method.getReturnType());
+      }
+
       ObjectWritable value = (ObjectWritable)
-        client.call(new Invocation(method, args), remoteId);
+        client.call(new Invocation(codec.getMethod(method), args), remoteId);
       if (LOG.isDebugEnabled()) {
         long callTime = System.currentTimeMillis() - startTime;
         LOG.debug("Call: " + method.getName() + " " + callTime);
@@ -265,6 +308,44 @@ public class WritableRpcEngine implements RpcEngine {
     }
   }
   
+  /** The value of an asynchronous call, unwrapped from its ObjectWritable. */
+  private static class AsyncValue implements Future<Object> {
+    private final Future<Writable> call;
+
+    public AsyncValue(Future<Writable> call) {
+      this.call = call;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return call.cancel(mayInterruptIfRunning);
+    }
+
+    public boolean isCancelled() {
+      return call.isCancelled();
+    }
+
+    public boolean isDone() {
+      return call.isDone();
+    }
+
+    public Object get() throws InterruptedException, ExecutionException {
+      return ((ObjectWritable)call.get()).get();
+    }
+
+    public Object get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+      return ((ObjectWritable)call.get(timeout, unit)).get();
+    }
+  }
+
+  /** The value returned by a proxy method while its call is pending. */
+  private static Object getDefaultValue(Class<?> type) {
+    if (!type.isPrimitive() || type == Void.TYPE) {
+      return null;
+    }
+    return Array.get(Array.newInstance(type, 1), 0);  // zero or false
+  }
+
   // for unit testing only
   @InterfaceAudience.Private
   @InterfaceStability.Unstable
@@ -304,9 +385,11 @@ public class WritableRpcEngine implements RpcEngine {
                        UserGroupInformation ticket, Configuration conf)
     throws IOException, InterruptedException {
 
+    ProtocolCodec.MethodCodec codec =
+      ProtocolCodec.get(method.getDeclaringClass()).getMethod(method);
     Invocation[] invocations = new Invocation[params.length];
     for (int i = 0; i < params.length; i++)
-      invocations[i] = new Invocation(method, params[i]);
+      invocations[i] = new Invocation(codec, params[i]);
     Client client = CLIENTS.getClient(conf);
     try {
     Writable[] wrappedValues = 
@@ -383,16 +466,42 @@ public class WritableRpcEngine implements RpcEngine {
       this.verbose = verbose;
     }
 
+    @Override
+    protected Writable readParam(Class<?> protocol, DataInput in)
+        throws IOException {
+      Invocation invocation = new Invocation(
+          protocol == null ? null : ProtocolCodec.get(protocol));
+      invocation.setConf(getConf());
+      invocation.readFields(in);
+      return invocation;
+    }
+
+    @Override
+    protected boolean isReadOnly(Class<?> protocol, Writable param) {
+      return isAnnotationPresent(protocol, param, ReadOnly.class);
+    }
+
+    @Override
+    protected boolean isCacheable(Class<?> protocol, Writable param) {
+      return isAnnotationPresent(protocol, param, Cacheable.class);
+    }
+
+    private static boolean isAnnotationPresent(Class<?> protocol,
+        Writable param, Class<? extends Annotation> annotation) {
+      if (protocol == null) {
+        return false;
+      }
+      Method method = ((Invocation)param).getMethod();
+      // invocations of older clients are rejected by call()
+      return method != null && method.isAnnotationPresent(annotation);
+    }
+
     public Writable call(Class<?> protocol, Writable param, long receivedTime) 
     throws IOException {
       try {
         Invocation call = (Invocation)param;
         if (verbose) log("Call: " + call);
 
-        Method method = protocol.getMethod(call.getMethodName(),
-                                           call.getParameterClasses());
-        method.setAccessible(true);
-
         // Verify rpc version
         if (call.getRpcVersion() != writableRpcVersion) {
           // Client is using a different version of WritableRpc
@@ -401,6 +510,9 @@ public class WritableRpcEngine implements RpcEngine {
                   + call.getRpcVersion() + ", server side version="
                   + writableRpcVersion);
         }
+
+        // the method was resolved when the invocation was read
+        Method method = call.getMethod();
         
         //Verify protocol version.
         //Bypass the version check for VersionedProtocol
@@ -433,7 +545,7 @@ public class WritableRpcEngine implements RpcEngine {
                                              processingTime);
         if (verbose) log("Return: "+value);
 
-        return new ObjectWritable(method.getReturnType(), value);
+        return new ReturnValue(method.getReturnType(), value);
 
       } catch (InvocationTargetException e) {
         Throwable target = e.getTargetException();
@@ -21,12 +21,18 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
 import org.apache.hadoop.metrics2.annotation.Metric;
 import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import static org.apache.hadoop.metrics2.lib.Interns.info;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterInt;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 
 /**
@@ -35,18 +41,35 @@ import org.apache.hadoop.metrics2.lib.MutableRate;
  */
 @InterfaceAudience.Private
 @Metrics(about="Aggregate RPC metrics", context="rpc")
-public class RpcMetrics {
+public class RpcMetrics implements MetricsSource {
 
   static final Log LOG = LogFactory.getLog(RpcMetrics.class);
   final Server server;
   final MetricsRegistry registry;
   final String name;
+  // Per priority level metrics, only when the call queue has priorities
+  final MutableRate[] rpcQueueTimeLevels;
+  final MetricsInfo[] callQueueLengthLevels;
   
   RpcMetrics(Server server) {
     String port = String.valueOf(server.getListenerAddress().getPort());
     name = "RpcActivityForPort"+ port;
     this.server = server;
     registry = new MetricsRegistry("rpc").tag("port", "RPC port", port);
+    int numLevels = server.getCallQueueNumLevels();
+    if (numLevels > 1) {
+      rpcQueueTimeLevels = new MutableRate[numLevels];
+      callQueueLengthLevels = new MetricsInfo[numLevels];
+      for (int i = 0; i < numLevels; i++) {
+        rpcQueueTimeLevels[i] = registry.newRate("RpcQueueTimeLevel"+ i,
+            "Queue time of priority level "+ i, false);
+        callQueueLengthLevels[i] = info("CallQueueLengthLevel"+ i,
+            "Length of priority level "+ i +" of the call queue");
+      }
+    } else {
+      rpcQueueTimeLevels = null;
+      callQueueLengthLevels = null;
+    }
     LOG.debug("Initialized "+ registry);
   }
 
@@ -61,6 +84,9 @@ public class RpcMetrics {
   @Metric("Number of sent bytes") MutableCounterLong sentBytes;
   @Metric("Queue time") MutableRate rpcQueueTime;
   @Metric("Processsing time") MutableRate rpcProcessingTime;
+  @Metric("Queue time percentiles") MutableQuantiles rpcQueueTime60s;
+  @Metric("Processing time percentiles")
+  MutableQuantiles rpcProcessingTime60s;
   @Metric("Number of authentication failures")
   MutableCounterInt rpcAuthenticationFailures;
   @Metric("Number of authentication successes")
@@ -70,6 +96,39 @@ public class RpcMetrics {
   @Metric("Number of authorization sucesses")
   MutableCounterInt rpcAuthorizationSuccesses;
 
+  @Metric("Number of response bytes copied into send buffers")
+  MutableCounterLong rpcResponseBytesCopied;
+
+  @Metric(value="Number of buffers reused from the buffer pool",
+          type=Metric.Type.COUNTER)
+  public long bufferPoolHits() {
+    return server.getBufferPool().getHits();
+  }
+
+  @Metric(value="Number of direct buffers allocated by the buffer pool",
+          type=Metric.Type.COUNTER)
+  public long bufferPoolMisses() {
+    return server.getBufferPool().getMisses();
+  }
+
+  @Metric("Bytes held by the buffer pool") public long bufferPoolBytes() {
+    return server.getBufferPool().getPooledBytes();
+  }
+
+  @Metric("Number of batches of read-only calls")
+  MutableCounterLong rpcReadOnlyBatches;
+  @Metric("Number of read-only calls run in batches")
+  MutableCounterLong rpcReadOnlyBatchedCalls;
+
+  @Metric("Number of calls answered from the response cache")
+  MutableCounterLong rpcResponseCacheHits;
+  @Metric("Number of cacheable calls missing from the response cache")
+  MutableCounterLong rpcResponseCacheMisses;
+  @Metric("Number of calls held back because the call queue was full")
+  MutableCounterLong rpcThrottledCalls;
+  @Metric("Number of calls held back by the user or host call rate limits")
+  MutableCounterLong rpcRateLimitedCalls;
+
   @Metric("Number of open connections") public int numOpenConnections() {
     return server.getNumOpenConnections();
   }
@@ -78,6 +137,18 @@ public class RpcMetrics {
     return server.getCallQueueLen();
   }
 
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(registry.info());
+    registry.snapshot(rb, all);
+    if (callQueueLengthLevels != null) {
+      int[] lens = server.getCallQueueLevelLens();
+      for (int i = 0; i < callQueueLengthLevels.length; i++) {
+        rb.addGauge(callQueueLengthLevels[i], lens[i]);
+      }
+    }
+  }
+
   // Public instrumentation methods that could be extracted to an
   // abstract class if we decide to do custom instrumentation classes a la
   // JobTrackerInstrumenation. The methods with //@Override comment are
@@ -119,7 +190,10 @@ public class RpcMetrics {
    * Shutdown the instrumentation for the process
    */
   //@Override
-  public void shutdown() {}
+  public void shutdown() {
+    rpcQueueTime60s.stop();
+    rpcProcessingTime60s.stop();
+  }
 
   /**
    * Increment sent bytes by count
@@ -139,6 +213,57 @@ public class RpcMetrics {
     receivedBytes.incr(count);
   }
 
+  /**
+   * Increment the response bytes copied into send buffers by count
+   * @param count to increment
+   */
+  //@Override
+  public void incrResponseBytesCopied(int count) {
+    rpcResponseBytesCopied.incr(count);
+  }
+
+  /**
+   * One batch of read-only calls
+   * @param numCalls the number of calls in the batch
+   */
+  //@Override
+  public void incrReadOnlyBatch(int numCalls) {
+    rpcReadOnlyBatches.incr();
+    rpcReadOnlyBatchedCalls.incr(numCalls);
+  }
+
+  /**
+   * One call answered from the response cache
+   */
+  //@Override
+  public void incrResponseCacheHits() {
+    rpcResponseCacheHits.incr();
+  }
+
+  /**
+   * One cacheable call that had to be run
+   */
+  //@Override
+  public void incrResponseCacheMisses() {
+    rpcResponseCacheMisses.incr();
+  }
+
+  /**
+   * One call held back because the call queue was full
+   */
+  //@Override
+  public void incrThrottledCalls() {
+    rpcThrottledCalls.incr();
+  }
+
+  /**
+   * One call held back by a call rate limit
+   */
+  //@Override
+  public void incrRateLimitedCalls() {
+    rpcRateLimitedCalls.incr();
+  }
+
   /**
    * Add an RPC queue time sample
    * @param qTime the queue time
@@ -146,6 +271,17 @@ public class RpcMetrics {
   //@Override
   public void addRpcQueueTime(int qTime) {
     rpcQueueTime.add(qTime);
+    rpcQueueTime60s.add(qTime);
+  }
+
+  /**
+   * Add an RPC queue time sample for a priority level of the call queue
+   * @param level the priority level the call was queued at
+   * @param qTime the queue time
+   */
+  //@Override
+  public void addRpcQueueTime(int level, int qTime) {
+    rpcQueueTimeLevels[level].add(qTime);
   }
 
   /**
@@ -155,5 +291,6 @@ public class RpcMetrics {
   //@Override
   public void addRpcProcessingTime(int processingTime) {
     rpcProcessingTime.add(processingTime);
+    rpcProcessingTime60s.add(processingTime);
   }
 }
@@ -49,15 +49,20 @@ public @interface Metric {
   String about() default "";
 
   /**
-   * @return optional sample name for MutableStat/Rate/Rates
+   * @return optional sample name for MutableStat/Rate/Rates/Quantiles
    */
   String sampleName() default "Ops";
 
   /**
-   * @return optional value name for MutableStat/Rate/Rates
+   * @return optional value name for MutableStat/Rate/Rates/Quantiles
    */
   String valueName() default "Time";
 
+  /**
+   * @return optional rollover interval in seconds for MutableQuantiles
+   */
+  int interval() default 60;
+
   /**
    * @return true to create a metric snapshot even if unchanged.
    */
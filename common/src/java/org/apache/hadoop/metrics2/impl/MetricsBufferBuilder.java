@@ -19,6 +19,9 @@
 package org.apache.hadoop.metrics2.impl;
 
 import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.Lists;
 
 /**
  * Builder for the immutable metrics buffers
@@ -30,6 +33,27 @@ class MetricsBufferBuilder extends ArrayList<MetricsBuffer.Entry> {
     return add(new MetricsBuffer.Entry(name, records));
   }
 
+  /**
+   * Add the records of a source that hold some metrics. A source snapshotted
+   * with all == false only returns its changed metrics, so a record without
+   * any is unchanged and left out, as is the source if all its records are.
+   * @param name  of the source
+   * @param records of the source
+   * @return true if the source was added
+   */
+  boolean addChanged(String name, Iterable<MetricsRecordImpl> records) {
+    List<MetricsRecordImpl> changed = null;
+    for (MetricsRecordImpl record : records) {
+      if (record.metrics().iterator().hasNext()) {
+        if (changed == null) {
+          changed = Lists.newArrayList();
+        }
+        changed.add(record);
+      }
+    }
+    return changed != null && add(name, changed);
+  }
+
   MetricsBuffer get() {
     return new MetricsBuffer(this);
   }
@@ -38,6 +38,7 @@ import org.apache.hadoop.metrics2.AbstractMetric;
 import org.apache.hadoop.metrics2.MetricsFilter;
 import org.apache.hadoop.metrics2.MetricsSource;
 import org.apache.hadoop.metrics2.MetricsTag;
+import org.apache.hadoop.metrics2.lib.MetricsSourceBuilder.RegistrySource;
 import static org.apache.hadoop.metrics2.impl.MetricsConfig.*;
 import org.apache.hadoop.metrics2.util.MBeans;
 import static org.apache.hadoop.metrics2.util.Contracts.*;
@@ -161,6 +162,23 @@ class MetricsSourceAdapter implements DynamicMBean {
     }
   }
 
+  /**
+   * Whether a snapshot of the changed metrics of the source may hold any.
+   * Only the sources built from annotated objects tell whether they changed,
+   * the others always count as changed, as does every source until its
+   * first snapshot, which is complete.
+   * @return false if the snapshot can be skipped
+   */
+  boolean changed() {
+    synchronized(this) {
+      if (lastRecs == null && jmxCacheTS == 0) {
+        return true;
+      }
+    }
+    return !(source instanceof RegistrySource)
+        || ((RegistrySource) source).changed();
+  }
+
   Iterable<MetricsRecordImpl> getMetrics(MetricsCollectorImpl builder,
                                          boolean all) {
     builder.setRecordFilter(recordFilter).setMetricFilter(metricFilter);
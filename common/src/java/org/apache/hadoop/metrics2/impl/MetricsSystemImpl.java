@@ -82,7 +82,9 @@ public class MetricsSystemImpl extends MetricsSystem implements MetricsSource {
   private final Map<String, MetricsSinkAdapter> sinks;
   private final Map<String, MetricsSink> allSinks;
   private final List<Callback> callbacks;
-  private final MetricsCollectorImpl collector;
+  // A copy of the source adapters, so that snapshots need not hold the lock
+  private volatile MetricsSourceAdapter[] sourceArray =
+      new MetricsSourceAdapter[0];
   private final MetricsRegistry registry = new MetricsRegistry(MS_NAME);
   @Metric({"Snapshot", "Snapshot stats"}) MutableStat snapshotStat;
   @Metric({"Publish", "Publishing stats"}) MutableStat publishStat;
@@ -118,7 +120,6 @@ public class MetricsSystemImpl extends MetricsSystem implements MetricsSource {
     sinkConfigs = Maps.newHashMap();
     callbacks = Lists.newArrayList();
     injectedTags = Lists.newArrayList();
-    collector = new MetricsCollectorImpl();
     if (prefix != null) {
       // prefix could be null for default ctor, which requires init later
       initSystemMBean();
@@ -240,6 +241,7 @@ public class MetricsSystemImpl extends MetricsSystem implements MetricsSource {
         : new MetricsSourceAdapter(prefix, name, desc, source,
           injectedTags, period, config.subset(SOURCE_KEY));
     sources.put(name, sa);
+    updateSourceArray();
     sa.start();
     LOG.info("Registered source "+ name);
   }
@@ -343,37 +345,51 @@ public class MetricsSystemImpl extends MetricsSystem implements MetricsSource {
     LOG.info("Scheduled snapshot period at "+ period +" second(s).");
   }
 
-  synchronized void onTimerEvent() {
-    logicalTime += period;
-    if (sinks.size() > 0) {
-      publishMetrics(sampleMetrics());
+  void onTimerEvent() {
+    synchronized(this) {
+      logicalTime += period;
+      if (sinks.isEmpty()) return;
     }
+    // Sources are snapshotted without the lock, sinks are fed without
+    // blocking: registration and JMX need not wait for either.
+    publishMetrics(sampleMetrics());
   }
 
   /**
-   * Sample all the sources for a snapshot of metrics/tags
+   * Sample all the sources for a snapshot of metrics/tags. Only the sources
+   * with changed metrics are in the snapshot.
    * @return  the metrics buffer containing the snapshot
    */
-  synchronized MetricsBuffer sampleMetrics() {
-    collector.clear();
+  MetricsBuffer sampleMetrics() {
+    MetricsFilter filter;
+    MetricsSourceAdapter selfSource;
+    synchronized(this) {
+      filter = sourceFilter;
+      selfSource = publishSelfMetrics ? sysSource : null;
+    }
+    MetricsCollectorImpl collector = new MetricsCollectorImpl();
     MetricsBufferBuilder bufferBuilder = new MetricsBufferBuilder();
 
-    for (Entry<String, MetricsSourceAdapter> entry : sources.entrySet()) {
-      if (sourceFilter == null || sourceFilter.accepts(entry.getKey())) {
-        snapshotMetrics(entry.getValue(), bufferBuilder);
+    for (MetricsSourceAdapter sa : sourceArray) {
+      if (filter == null || filter.accepts(sa.name())) {
+        snapshotMetrics(sa, collector, bufferBuilder);
       }
     }
-    if (publishSelfMetrics) {
-      snapshotMetrics(sysSource, bufferBuilder);
+    if (selfSource != null) {
+      snapshotMetrics(selfSource, collector, bufferBuilder);
     }
     MetricsBuffer buffer = bufferBuilder.get();
     return buffer;
   }
 
   private void snapshotMetrics(MetricsSourceAdapter sa,
+                               MetricsCollectorImpl collector,
                                MetricsBufferBuilder bufferBuilder) {
+    if (!sa.changed()) {
+      return; // a snapshot would hold no metrics
+    }
     long startTime = System.currentTimeMillis();
-    bufferBuilder.add(sa.name(), sa.getMetrics(collector, false));
+    bufferBuilder.addChanged(sa.name(), sa.getMetrics(collector, false));
     collector.clear();
     snapshotStat.add(System.currentTimeMillis() - startTime);
     LOG.debug("Snapshotted source "+ sa.name());
@@ -393,6 +409,11 @@ public class MetricsSystemImpl extends MetricsSystem implements MetricsSource {
     droppedPubAll.incr(dropped);
   }
 
+  private synchronized void updateSourceArray() {
+    sourceArray = sources.values().toArray(
+        new MetricsSourceAdapter[sources.size()]);
+  }
+
   private synchronized void stopTimer() {
     if (timer == null) {
       LOG.warn(prefix +" metrics system timer already stopped!");
@@ -411,6 +432,7 @@ public class MetricsSystemImpl extends MetricsSystem implements MetricsSource {
     }
     sysSource.stop();
     sources.clear();
+    updateSourceArray();
   }
 
   private synchronized void stopSinks() {
@@ -19,6 +19,11 @@
 package org.apache.hadoop.metrics2.impl;
 
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.*;
 
 /**
  * A half-blocking (nonblocking for producers, blocking for consumers) queue
@@ -26,6 +31,14 @@ import java.util.ConcurrentModificationException;
  *
  * New elements are dropped when the queue is full to preserve "interesting"
  * elements at the onset of queue filling events
+ *
+ * The queue is a lock-free ring buffer. Every slot has a sequence number
+ * telling whether it is free for the producer or holds an element for the
+ * consumers, so any number of threads may enqueue and dequeue at once
+ * without contending on a monitor. The consume methods, which only remove
+ * an element once the consumer is done with it, are exclusive: they may not
+ * run along each other nor along dequeue. A monitor is only entered by
+ * consumers waiting on an empty queue, and by producers waking them up.
  */
 class SinkQueue<T> {
 
@@ -33,28 +46,53 @@ class SinkQueue<T> {
     void consume(T object) throws InterruptedException;
   }
 
+  private static final int EXCLUSIVE = -1;
+
   // A fixed size circular buffer to minimize garbage
   private final T[] data;
-  private int head; // head position
-  private int tail; // tail position
-  private int size; // number of elements
-  private Thread currentConsumer = null;
+  // Position of the element a slot holds, plus one; or, if the slot is free,
+  // the position it will be filled at.
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong(); // next to dequeue
+  private final AtomicLong tail = new AtomicLong(); // next to enqueue
+  // EXCLUSIVE while consuming, otherwise the number of running dequeues
+  private final AtomicInteger consumers = new AtomicInteger();
+  private volatile Thread currentConsumer = null;
+  private final Object signal = new Object();
+  private volatile int waiters = 0; // only changed under the signal monitor
 
   @SuppressWarnings("unchecked")
   SinkQueue(int capacity) {
     this.data = (T[]) new Object[Math.max(1, capacity)];
-    head = tail = size = 0;
+    sequences = new AtomicLongArray(data.length);
+    for (int i = 0; i < data.length; ++i) {
+      sequences.set(i, i);
+    }
   }
 
-  synchronized boolean enqueue(T e) {
-    if (data.length == size) {
-      return false;
+  boolean enqueue(T e) {
+    checkNotNull(e, "element");
+    for (;;) {
+      long pos = tail.get();
+      int i = index(pos);
+      long diff = sequences.get(i) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          data[i] = e;
+          sequences.set(i, pos + 1);
+          if (waiters > 0) {
+            synchronized (signal) {
+              signal.notifyAll();
+            }
+          }
+          return true;
+        }
+      }
+      else if (diff < 0) {
+        return false; // full
+      }
+      // else another producer took the slot, try the next one
     }
-    ++size;
-    tail = (tail + 1) % data.length;
-    data[tail] = e;
-    notify();
-    return true;
   }
 
   /**
@@ -83,8 +121,11 @@ class SinkQueue<T> {
     waitForData();
 
     try {
+      // Elements enqueued meanwhile are left to the next batch
       for (int i = size(); i-- > 0; ) {
-        consumer.consume(front()); // can take forever
+        T e = front();
+        if (e == null) break; // still being enqueued
+        consumer.consume(e); // can take forever
         _dequeue();
       }
     }
@@ -98,73 +139,155 @@ class SinkQueue<T> {
    * @return  the first element
    * @throws InterruptedException
    */
-  synchronized T dequeue() throws InterruptedException {
+  T dequeue() throws InterruptedException {
     checkConsumer();
 
-    while (0 == size) {
-      wait();
+    for (;;) {
+      int n = consumers.get();
+      if (n == EXCLUSIVE) {
+        checkConsumer();
+      }
+      else if (consumers.compareAndSet(n, n + 1)) {
+        T e;
+        try {
+          e = poll();
+        }
+        finally {
+          consumers.decrementAndGet();
+        }
+        if (e != null) {
+          return e;
+        }
+        awaitData();
+      }
     }
-    return _dequeue();
   }
 
-  private synchronized T waitForData() throws InterruptedException {
+  private T waitForData() throws InterruptedException {
     checkConsumer();
 
-    while (0 == size) {
-      wait();
+    for (;;) {
+      awaitData();
+      setConsumerLock();
+      T e = front();
+      if (e != null) {
+        return e;
+      }
+      clearConsumerLock(); // a dequeue got there first
+    }
+  }
+
+  private void awaitData() throws InterruptedException {
+    if (front() != null) {
+      return;
+    }
+    synchronized (signal) {
+      ++waiters;
+      try {
+        while (front() == null) {
+          signal.wait();
+        }
+      }
+      finally {
+        --waiters;
+      }
     }
-    setConsumerLock();
-    return front();
   }
 
-  private synchronized void checkConsumer() {
-    if (currentConsumer != null) {
+  private void checkConsumer() {
+    if (consumers.get() == EXCLUSIVE) {
+      Thread t = currentConsumer;
       throw new ConcurrentModificationException("The "+
-          currentConsumer.getName() +" thread is consuming the queue.");
+          (t == null ? "other" : t.getName()) +" thread is consuming the queue.");
     }
   }
 
-  private synchronized void setConsumerLock() {
+  private void setConsumerLock() {
+    // Dequeues only run for a few instructions, so wait them out
+    while (!consumers.compareAndSet(0, EXCLUSIVE)) {
+      checkConsumer();
+      Thread.yield();
+    }
     currentConsumer = Thread.currentThread();
   }
 
-  private synchronized void clearConsumerLock() {
+  private void clearConsumerLock() {
     currentConsumer = null;
+    consumers.set(0);
+  }
+
+  private T poll() {
+    for (;;) {
+      long pos = head.get();
+      int i = index(pos);
+      long diff = sequences.get(i) - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          T ret = data[i];
+          data[i] = null;  // hint to gc
+          sequences.set(i, pos + data.length);
+          return ret;
+        }
+      }
+      else if (diff < 0) {
+        return null; // empty
+      }
+    }
   }
 
-  private synchronized T _dequeue() {
-    if (0 == size) {
+  // Only called by the exclusive consumer
+  private T _dequeue() {
+    long pos = head.get();
+    int i = index(pos);
+    if (sequences.get(i) != pos + 1) {
       throw new IllegalStateException("Size must > 0 here.");
     }
-    --size;
-    head = (head + 1) % data.length;
-    T ret = data[head];
-    data[head] = null;  // hint to gc
+    T ret = data[i];
+    data[i] = null;  // hint to gc
+    head.set(pos + 1);
+    sequences.set(i, pos + data.length);
     return ret;
   }
 
-  synchronized T front() {
-    return data[(head + 1) % data.length];
+  T front() {
+    long pos = head.get();
+    int i = index(pos);
+    return sequences.get(i) == pos + 1 ? data[i] : null;
   }
 
-  synchronized T back() {
-    return data[tail];
+  T back() {
+    long pos = tail.get() - 1;
+    if (pos < head.get()) {
+      return null;
+    }
+    int i = index(pos);
+    return sequences.get(i) == pos + 1 ? data[i] : null;
   }
 
-  synchronized void clear() {
+  void clear() {
     checkConsumer();
+    setConsumerLock();
 
-    for (int i = data.length; i-- > 0; ) {
-      data[i] = null;
+    try {
+      while (front() != null) {
+        _dequeue();
+      }
+    }
+    finally {
+      clearConsumerLock();
     }
-    size = 0;
   }
 
-  synchronized int size() {
-    return size;
+  int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, data.length));
   }
 
   int capacity() {
     return data.length;
   }
+
+  private int index(long pos) {
+    return (int) (pos % data.length);
+  }
 }
@@ -211,6 +211,24 @@ public class MetricsRegistry {
     return newStat(name, desc, sampleName, valueName, false);
   }
 
+  /**
+   * Create a mutable metric with the percentiles of its samples
+   * @param name  of the metric
+   * @param desc  metric description
+   * @param sampleName  of the metric (e.g., "Ops")
+   * @param valueName   of the metric (e.g., "Time" or "Latency")
+   * @param interval    rollover interval of the percentiles in seconds
+   * @return a new mutable quantiles metric object
+   */
+  public synchronized MutableQuantiles newQuantiles(String name, String desc,
+      String sampleName, String valueName, int interval) {
+    checkMetricName(name);
+    MutableQuantiles ret =
+        new MutableQuantiles(name, desc, sampleName, valueName, interval);
+    metricsMap.put(name, ret);
+    return ret;
+  }
+
   /**
    * Create a mutable rate metric
    * @param name  of the metric
@@ -356,6 +374,22 @@ public class MetricsRegistry {
     }
   }
 
+  /**
+   * Whether any metric changed since its last snapshot, i.e. whether a
+   * snapshot of the changed metrics would hold any.  Metrics which do not
+   * track their changes, like the ones of annotated methods, always count as
+   * changed.
+   * @return true if any metric changed
+   */
+  public synchronized boolean changed() {
+    for (MutableMetric metric : metrics()) {
+      if (metric.changed()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Sample all the mutable metrics and put the snapshot in the builder
    * @param builder to contain the metrics snapshot
@@ -72,12 +72,33 @@ public class MetricsSourceBuilder {
     else if (!hasAtMetric) {
       throw new MetricsException("No valid @Metric annotation found.");
     }
-    return new MetricsSource() {
-      @Override
-      public void getMetrics(MetricsCollector builder, boolean all) {
-        registry.snapshot(builder.addRecord(registry.info()), all);
-      }
-    };
+    return new RegistrySource(registry);
+  }
+
+  /**
+   * The source built for an object whose metrics are all in its registry,
+   * which tells whether a snapshot of the changed metrics would hold any.
+   */
+  @InterfaceAudience.Private
+  public static class RegistrySource implements MetricsSource {
+    private final MetricsRegistry registry;
+
+    RegistrySource(MetricsRegistry registry) {
+      this.registry = registry;
+    }
+
+    @Override
+    public void getMetrics(MetricsCollector builder, boolean all) {
+      registry.snapshot(builder.addRecord(registry.info()), all);
+    }
+
+    /**
+     * @return true if any metric of the source changed since its last
+     *         snapshot
+     */
+    public boolean changed() {
+      return registry.changed();
+    }
   }
 
   public MetricsInfo info() {
@@ -72,6 +72,12 @@ public class MutableMetricsFactory {
                               annotation.sampleName(), annotation.valueName(),
                               annotation.always());
     }
+    if (cls == MutableQuantiles.class) {
+      return registry.newQuantiles(info.name(), info.description(),
+                                   annotation.sampleName(),
+                                   annotation.valueName(),
+                                   annotation.interval());
+    }
     throw new MetricsException("Unsupported metric field "+ field.getName() +
                                " of type "+ field.getType().getName());
   }
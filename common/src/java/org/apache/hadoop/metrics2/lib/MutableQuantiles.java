@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.metrics2.lib;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.util.Contracts;
+import org.apache.hadoop.metrics2.util.Quantile;
+import org.apache.hadoop.metrics2.util.SampleQuantiles;
+import static org.apache.hadoop.metrics2.lib.Interns.*;
+
+/**
+ * A mutable metric with the percentiles of its samples.
+ *
+ * Useful for keeping tail latencies, e.g. the 99th percentile of the RPC
+ * processing time. Samples go to a bounded-memory streaming estimator, which
+ * is rolled over every interval: a snapshot publishes the percentiles of the
+ * last complete interval.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class MutableQuantiles extends MutableMetric {
+
+  static final Quantile[] QUANTILES = {
+    new Quantile(0.50, 0.050),
+    new Quantile(0.75, 0.025),
+    new Quantile(0.90, 0.010),
+    new Quantile(0.95, 0.005),
+    new Quantile(0.99, 0.001)
+  };
+
+  private static final ScheduledExecutorService scheduler =
+      Executors.newScheduledThreadPool(1, new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "MutableQuantiles-rollover");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  private final MetricsInfo numInfo;
+  private final MetricsInfo[] quantileInfos;
+  private final int interval;
+
+  private SampleQuantiles estimator = new SampleQuantiles(QUANTILES);
+  private long previousCount = 0;
+  private Map<Quantile, Long> previousSnapshot = null;
+  private final ScheduledFuture<?> rollover;
+
+  /**
+   * Construct a percentiles metric, rolled over every interval
+   * @param name        of the metric
+   * @param description of the metric
+   * @param sampleName  of the metric (e.g. "Ops")
+   * @param valueName   of the metric (e.g. "Time", "Latency")
+   * @param interval    of the rollover in seconds
+   */
+  public MutableQuantiles(String name, String description,
+                          String sampleName, String valueName, int interval) {
+    Contracts.checkArg(interval, interval > 0, "interval must be positive");
+    String ucName = StringUtils.capitalize(name);
+    String usName = StringUtils.capitalize(sampleName);
+    String uvName = StringUtils.capitalize(valueName);
+    String desc = StringUtils.uncapitalize(description);
+    String lsName = StringUtils.uncapitalize(sampleName);
+    String lvName = StringUtils.uncapitalize(valueName);
+    numInfo = info(ucName +"Num"+ usName, "Number of "+ lsName +" for "+ desc
+                   +" over the last "+ interval +" seconds");
+    quantileInfos = new MetricsInfo[QUANTILES.length];
+    for (int i = 0; i < QUANTILES.length; i++) {
+      int percentile = (int) (100 * QUANTILES[i].quantile);
+      quantileInfos[i] = info(ucName + percentile +"thPercentile"+ uvName,
+          percentile +"th percentile "+ lvName +" for "+ desc
+          +" over the last "+ interval +" seconds");
+    }
+    this.interval = interval;
+    rollover = scheduler.scheduleAtFixedRate(new Runnable() {
+      @Override public void run() {
+        rollover();
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Add a sample to the current interval
+   * @param value of the sample
+   */
+  public synchronized void add(long value) {
+    estimator.insert(value);
+  }
+
+  /**
+   * @return the rollover interval of the metric in seconds
+   */
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Stop rolling the metric over, e.g. when its source goes away
+   */
+  public void stop() {
+    rollover.cancel(false);
+  }
+
+  /**
+   * Complete the current interval and start a new one
+   */
+  synchronized void rollover() {
+    previousCount = estimator.getCount();
+    previousSnapshot = estimator.snapshot();
+    estimator.clear();
+    setChanged();
+  }
+
+  @Override
+  public synchronized void snapshot(MetricsRecordBuilder builder,
+                                    boolean all) {
+    if (all || changed()) {
+      builder.addGauge(numInfo, previousCount);
+      for (int i = 0; i < QUANTILES.length; i++) {
+        long value = previousSnapshot == null ? 0
+            : previousSnapshot.get(QUANTILES[i]);
+        builder.addGauge(quantileInfos[i], value);
+      }
+      if (changed()) {
+        clearChanged();
+      }
+    }
+  }
+}
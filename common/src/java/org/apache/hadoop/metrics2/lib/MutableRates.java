@@ -77,4 +77,9 @@ public class MutableRates extends MutableMetric {
   public void snapshot(MetricsRecordBuilder rb, boolean all) {
     registry.snapshot(rb, all);
   }
+
+  @Override
+  public boolean changed() {
+    return registry.changed();
+  }
 }
@@ -60,7 +60,8 @@
     <dd>Convenience classes for implementing metrics sources, including the
       Mutable[{@link org.apache.hadoop.metrics2.lib.MutableGauge Gauge}*|
       {@link org.apache.hadoop.metrics2.lib.MutableCounter Counter}*|
-      {@link org.apache.hadoop.metrics2.lib.MutableStat Stat}] and
+      {@link org.apache.hadoop.metrics2.lib.MutableStat Stat}|
+      {@link org.apache.hadoop.metrics2.lib.MutableQuantiles Quantiles}] and
       {@link org.apache.hadoop.metrics2.lib.MetricsRegistry}.
     </dd>
     <dt> <code>org.apache.hadoop.metrics2.filter</code></dt>
@@ -273,6 +274,11 @@
       in particular, provides a way to measure latency and throughput of an
       operation. In this particular case, it produces a long counter
       "Rate0NumOps" and double gauge "Rate0AvgTime" when snapshotted.
+      The <code>MutableQuantiles</code> adds tail latencies: a field
+      <code>&#064;Metric(value="My latency description", interval=60)
+      MutableQuantiles latency0</code> produces "Latency0NumOps" and
+      "Latency050thPercentileTime" through "Latency099thPercentileTime"
+      gauges for the last complete 60 second interval.
     </dd>
   </dl>
 
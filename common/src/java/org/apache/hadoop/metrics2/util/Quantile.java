@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.metrics2.util;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A quantile to track with {@link SampleQuantiles}, along with the error
+ * allowed on the rank of the values it returns.
+ */
+@InterfaceAudience.Private
+public class Quantile implements Comparable<Quantile> {
+  public final double quantile;
+  public final double error;
+
+  /**
+   * @param quantile  to track, between 0 and 1 (e.g. 0.99)
+   * @param error     allowed on the rank, as a fraction of the samples
+   */
+  public Quantile(double quantile, double error) {
+    Contracts.checkArg(quantile, quantile > 0 && quantile < 1,
+                       "quantile must be between 0 and 1");
+    Contracts.checkArg(error, error > 0 && error < 1,
+                       "error must be between 0 and 1");
+    this.quantile = quantile;
+    this.error = error;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof Quantile)) {
+      return false;
+    }
+    Quantile that = (Quantile) other;
+    return Double.doubleToLongBits(quantile)
+               == Double.doubleToLongBits(that.quantile)
+        && Double.doubleToLongBits(error)
+               == Double.doubleToLongBits(that.error);
+  }
+
+  @Override
+  public int hashCode() {
+    long bits = Double.doubleToLongBits(quantile) * 31
+        + Double.doubleToLongBits(error);
+    return (int) (bits ^ (bits >>> 32));
+  }
+
+  @Override
+  public int compareTo(Quantile other) {
+    int cmp = Double.compare(quantile, other.quantile);
+    return cmp != 0 ? cmp : Double.compare(error, other.error);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%.2f %%ile +/- %.3f", quantile * 100, error);
+  }
+}
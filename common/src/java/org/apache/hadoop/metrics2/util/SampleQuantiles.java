@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.metrics2.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Streaming estimator of targeted quantiles, after Cormode, Korn,
+ * Muthukrishnan and Srivastava, "Effective Computation of Biased Quantiles
+ * over Data Streams" (ICDE 2005).
+ *
+ * The estimator keeps a sorted list of samples, each with the range of ranks
+ * it may have in the stream. Samples that the error bounds of the tracked
+ * quantiles allow to merge are merged, so memory stays bounded no matter how
+ * many values are inserted. New values are buffered and inserted in batches.
+ * The error bounds hold for streams in any order seen in practice, but not
+ * for adversarial ones such as a long strictly decreasing run.
+ *
+ * This class is not thread safe.
+ */
+@InterfaceAudience.Private
+public class SampleQuantiles {
+
+  private static final int BUFFER_SIZE = 500;
+
+  private final Quantile[] quantiles;
+  private final LinkedList<Item> samples = new LinkedList<Item>();
+  private final long[] buffer = new long[BUFFER_SIZE];
+  private int bufferCount = 0;
+  private long count = 0;
+
+  /**
+   * @param quantiles to track, each with its allowed error
+   */
+  public SampleQuantiles(Quantile... quantiles) {
+    Preconditions.checkArgument(quantiles.length > 0,
+                                "need at least one quantile");
+    this.quantiles = quantiles.clone();
+  }
+
+  /**
+   * The allowed error on the rank of a sample, given the number of samples
+   * seen so far. It is the smallest error any tracked quantile allows at
+   * that rank.
+   * @param rank  of the sample
+   * @param n     number of samples seen so far
+   * @return the allowed error, as a number of ranks
+   */
+  private double allowableError(int rank, long n) {
+    double minError = n + 1;
+    for (Quantile q : quantiles) {
+      double error;
+      if (rank <= q.quantile * n) {
+        error = (2.0 * q.error * (n - rank)) / (1 - q.quantile);
+      } else {
+        error = (2.0 * q.error * rank) / q.quantile;
+      }
+      if (error < minError) {
+        minError = error;
+      }
+    }
+    return minError;
+  }
+
+  /**
+   * Add a value to the stream
+   * @param value to add
+   */
+  public void insert(long value) {
+    buffer[bufferCount++] = value;
+    count++;
+    if (bufferCount == buffer.length) {
+      insertBatch();
+      compress();
+    }
+  }
+
+  /**
+   * Merge the buffered values into the sample list
+   */
+  private void insertBatch() {
+    if (bufferCount == 0) {
+      return;
+    }
+    Arrays.sort(buffer, 0, bufferCount);
+    // The buffer is sorted, so one walk of the sample list places every
+    // buffered value. rank is the least rank of the sample at the cursor.
+    long n = count - bufferCount;
+    int rank = 0;
+    ListIterator<Item> it = samples.listIterator();
+    for (int i = 0; i < bufferCount; i++) {
+      long v = buffer[i];
+      while (it.hasNext()) {
+        Item item = it.next();
+        if (item.value >= v) {
+          it.previous();
+          break;
+        }
+        rank += item.g;
+      }
+      int delta = 0;
+      // A new minimum or maximum has an exact rank
+      if (it.hasPrevious() && it.hasNext()) {
+        delta = Math.max(0, (int) Math.floor(allowableError(rank, n)) - 1);
+      }
+      it.add(new Item(v, 1, delta));
+      rank++;
+      n++;
+    }
+    bufferCount = 0;
+  }
+
+  /**
+   * Merge adjacent samples whose combined rank range is still within the
+   * allowed error
+   */
+  private void compress() {
+    if (samples.size() < 2) {
+      return;
+    }
+    ListIterator<Item> it = samples.listIterator();
+    Item prev;
+    Item next = it.next();
+    int rank = 0;   // least rank of the sample before prev
+    while (it.hasNext()) {
+      prev = next;
+      next = it.next();
+      if (prev.g + next.g + next.delta
+          <= allowableError(rank + prev.g, count)) {
+        next.g += prev.g;
+        // Drop prev, the sample before next
+        it.previous();
+        it.previous();
+        it.remove();
+        it.next();
+      } else {
+        rank += prev.g;
+      }
+    }
+  }
+
+  /**
+   * Estimate the value at a quantile
+   * @param quantile to query, between 0 and 1
+   * @return the estimated value
+   */
+  private long query(double quantile) {
+    Preconditions.checkState(!samples.isEmpty(), "no data in estimator");
+    int rankMin = 0;
+    int desired = (int) (quantile * count);
+    double error = allowableError(desired, count) / 2;
+    ListIterator<Item> it = samples.listIterator();
+    Item prev;
+    Item cur = it.next();
+    while (it.hasNext()) {
+      prev = cur;
+      cur = it.next();
+      rankMin += prev.g;
+      if (rankMin + cur.g + cur.delta > desired + error) {
+        return prev.value;
+      }
+    }
+    return samples.getLast().value;
+  }
+
+  /**
+   * Estimate the values of all the tracked quantiles, flushing the buffered
+   * values first
+   * @return a map of each quantile to its estimated value, or null if no
+   *         value was inserted
+   */
+  public Map<Quantile, Long> snapshot() {
+    insertBatch();
+    compress();
+    if (samples.isEmpty()) {
+      return null;
+    }
+    Map<Quantile, Long> values = new TreeMap<Quantile, Long>();
+    for (Quantile q : quantiles) {
+      values.put(q, query(q.quantile));
+    }
+    return Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * @return the number of values inserted since the last clear
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the number of samples held, which bounds the memory used
+   */
+  public int getSampleCount() {
+    return samples.size();
+  }
+
+  /**
+   * Forget all the inserted values
+   */
+  public void clear() {
+    count = 0;
+    bufferCount = 0;
+    samples.clear();
+  }
+
+  @Override
+  public String toString() {
+    Map<Quantile, Long> values = snapshot();
+    return values == null ? "[no samples]" : values.toString();
+  }
+
+  /**
+   * A sample from the stream, with the bounds of its rank: the rank of the
+   * previous sample plus g is the least rank it may have, and delta more is
+   * the greatest.
+   */
+  private static class Item {
+    final long value;
+    int g;
+    final int delta;
+
+    Item(long value, int g, int delta) {
+      this.value = value;
+      this.g = g;
+      this.delta = delta;
+    }
+
+    @Override
+    public String toString() {
+      return value +"("+ g +","+ delta +")";
+    }
+  }
+}
@@ -21,10 +21,12 @@ package org.apache.hadoop.util;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.zip.Checksum;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.ChecksumException;
 
 /**
  * This class provides inteface and utilities for processing checksums for
@@ -40,9 +42,13 @@ public class DataChecksum implements Checksum {
   // checksum types
   public static final int CHECKSUM_NULL    = 0;
   public static final int CHECKSUM_CRC32   = 1;
+  public static final int CHECKSUM_CRC32C  = 2;
+  
+  private static final String[] NAMES = { "NULL", "CRC32", "CRC32C" };
   
   private static final int CHECKSUM_NULL_SIZE  = 0;
   private static final int CHECKSUM_CRC32_SIZE = 4;
+  private static final int CHECKSUM_CRC32C_SIZE = 4;
   
   
   public static DataChecksum newDataChecksum( int type, int bytesPerChecksum ) {
@@ -57,11 +63,36 @@ public class DataChecksum implements Checksum {
     case CHECKSUM_CRC32 :
       return new DataChecksum( CHECKSUM_CRC32, new PureJavaCrc32(), 
                                CHECKSUM_CRC32_SIZE, bytesPerChecksum );
+    case CHECKSUM_CRC32C :
+      return new DataChecksum( CHECKSUM_CRC32C, new PureJavaCrc32C(), 
+                               CHECKSUM_CRC32C_SIZE, bytesPerChecksum );
     default:
       return null;  
     }
   }
   
+  /**
+   * Get the checksum type with the given name, such as "CRC32C".
+   * @return the checksum type, or -1 if the name is not known
+   */
+  public static int getChecksumType( String name ) {
+    for ( int i = 0; i < NAMES.length; i++ ) {
+      if ( NAMES[i].equalsIgnoreCase( name ) ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+  
+  /**
+   * Get the name of a checksum type.
+   * @return the name, or the type number if the type is not known
+   */
+  public static String getChecksumTypeName( int type ) {
+    return type >= 0 && type < NAMES.length ? NAMES[type]
+                                            : String.valueOf( type );
+  }
+  
   /**
    * Creates a DataChecksum from HEADER_LEN bytes from arr[offset].
    * @return DataChecksum of the type in the array or null in case of an error.
@@ -76,7 +107,7 @@ public class DataChecksum implements Checksum {
                            ( (bytes[offset+2] & 0xff) << 16 ) |
                            ( (bytes[offset+3] & 0xff) << 8 )  |
                            ( (bytes[offset+4] & 0xff) );
-    return newDataChecksum( bytes[0], bytesPerChecksum );
+    return newDataChecksum( bytes[offset], bytesPerChecksum );
   }
   
   /**
@@ -126,7 +157,7 @@ public class DataChecksum implements Checksum {
        return 0;
      }
 
-     if ( type == CHECKSUM_CRC32 ) {
+     if ( size == 4 ) {
        out.writeInt( (int) summer.getValue() );
      } else {
        throw new IOException( "Unknown Checksum " + type );
@@ -150,7 +181,7 @@ public class DataChecksum implements Checksum {
         return 0;
       }
 
-      if ( type == CHECKSUM_CRC32 ) {
+      if ( size == 4 ) {
         int checksum = (int) summer.getValue();
         buf[offset+0] = (byte) ((checksum >>> 24) & 0xff);
         buf[offset+1] = (byte) ((checksum >>> 16) & 0xff);
@@ -172,7 +203,7 @@ public class DataChecksum implements Checksum {
     * @return true if the checksum matches and false otherwise.
     */
    public boolean compare( byte buf[], int offset ) {
-     if ( size > 0 && type == CHECKSUM_CRC32 ) {
+     if ( size == 4 ) {
        int checksum = ( (buf[offset+0] & 0xff) << 24 ) | 
                       ( (buf[offset+1] & 0xff) << 16 ) |
                       ( (buf[offset+2] & 0xff) << 8 )  |
@@ -182,11 +213,199 @@ public class DataChecksum implements Checksum {
      return size == 0;
    }
    
+   /**
+    * Verify that the checksums of all the chunks of some data match.  The
+    * data is split in chunks of bytesPerChecksum bytes, the last one may be
+    * shorter, and the checksums hold the checksum of each chunk in turn.
+    * The positions of the buffers are left unchanged, and the running
+    * checksum is reset.
+    * @param data the data to verify, from its position to its limit
+    * @param checksums the checksums of the chunks, from its position
+    * @param fileName the name of the file, for the error message
+    * @param basePos the position of the data in the file
+    * @throws ChecksumException if a chunk does not match its checksum
+    */
+   public void verifyChunkedSums( ByteBuffer data, ByteBuffer checksums,
+                                  String fileName, long basePos )
+                                  throws ChecksumException {
+     if ( size == 0 ) {
+       return;
+     }
+     if ( data.hasArray() && checksums.hasArray() ) {
+       verifyChunkedSums( data.array(), data.arrayOffset() + data.position(),
+           data.remaining(), checksums.array(),
+           checksums.arrayOffset() + checksums.position(), fileName, basePos );
+       return;
+     }
+     byte[] chunk = getScratch();
+     ByteBuffer src = data.duplicate();
+     int sumPos = checksums.position();
+     for ( int pos = data.position(); pos < data.limit();
+           pos += bytesPerChecksum, sumPos += size ) {
+       int n = Math.min( bytesPerChecksum, data.limit() - pos );
+       src.get( chunk, 0, n );
+       summer.reset();
+       summer.update( chunk, 0, n );
+       int computed = (int) summer.getValue();
+       int stored = checksums.getInt( sumPos );
+       if ( computed != stored ) {
+         throw newChecksumException( fileName,
+             basePos + pos - data.position(), computed, stored );
+       }
+     }
+     reset();
+   }
+   
+   /**
+    * Verify that the checksums of all the chunks of some data match, as
+    * {@link #verifyChunkedSums(ByteBuffer, ByteBuffer, String, long)} does.
+    * @param data the array holding the data to verify
+    * @param dataOff the offset of the data in its array
+    * @param dataLen the length of the data
+    * @param checksums the array holding the checksums of the chunks
+    * @param checksumsOff the offset of the checksums in their array
+    * @param fileName the name of the file, for the error message
+    * @param basePos the position of the data in the file
+    * @throws ChecksumException if a chunk does not match its checksum
+    */
+   public void verifyChunkedSums( byte[] data, int dataOff, int dataLen,
+                                  byte[] checksums, int checksumsOff,
+                                  String fileName, long basePos )
+                                  throws ChecksumException {
+     if ( size == 0 ) {
+       return;
+     }
+     int remaining = dataLen;
+     int dataPos = dataOff;
+     int sumPos = checksumsOff;
+     while ( remaining > 0 ) {
+       int n = Math.min( remaining, bytesPerChecksum );
+       summer.reset();
+       summer.update( data, dataPos, n );
+       int computed = (int) summer.getValue();
+       int stored = ( (checksums[sumPos+0] & 0xff) << 24 ) |
+                    ( (checksums[sumPos+1] & 0xff) << 16 ) |
+                    ( (checksums[sumPos+2] & 0xff) << 8 )  |
+                    ( (checksums[sumPos+3] & 0xff) );
+       if ( computed != stored ) {
+         throw newChecksumException( fileName, basePos + dataPos - dataOff,
+                                     computed, stored );
+       }
+       dataPos += n;
+       sumPos += size;
+       remaining -= n;
+     }
+     reset();
+   }
+   
+   /**
+    * Compute the checksums of all the chunks of some data, as
+    * {@link #verifyChunkedSums(ByteBuffer, ByteBuffer, String, long)}
+    * verifies them.  The positions of the buffers are left unchanged, and
+    * the running checksum is reset.
+    * @param data the data to checksum, from its position to its limit
+    * @param checksums the buffer to write the checksums to, from its position
+    */
+   public void calculateChunkedSums( ByteBuffer data, ByteBuffer checksums ) {
+     if ( size == 0 ) {
+       return;
+     }
+     if ( data.hasArray() && checksums.hasArray() ) {
+       calculateChunkedSums( data.array(),
+           data.arrayOffset() + data.position(), data.remaining(),
+           checksums.array(), checksums.arrayOffset() + checksums.position() );
+       return;
+     }
+     byte[] chunk = getScratch();
+     ByteBuffer src = data.duplicate();
+     int sumPos = checksums.position();
+     for ( int pos = data.position(); pos < data.limit();
+           pos += bytesPerChecksum, sumPos += size ) {
+       int n = Math.min( bytesPerChecksum, data.limit() - pos );
+       src.get( chunk, 0, n );
+       summer.reset();
+       summer.update( chunk, 0, n );
+       checksums.putInt( sumPos, (int) summer.getValue() );
+     }
+     reset();
+   }
+   
+   /**
+    * Compute the checksums of all the chunks of some data, as
+    * {@link #calculateChunkedSums(ByteBuffer, ByteBuffer)} does.
+    * @param data the array holding the data to checksum
+    * @param dataOff the offset of the data in its array
+    * @param dataLen the length of the data
+    * @param checksums the array to write the checksums to
+    * @param checksumsOff the offset of the checksums in their array
+    */
+   public void calculateChunkedSums( byte[] data, int dataOff, int dataLen,
+                                     byte[] checksums, int checksumsOff ) {
+     if ( size == 0 ) {
+       return;
+     }
+     int remaining = dataLen;
+     int dataPos = dataOff;
+     int sumPos = checksumsOff;
+     while ( remaining > 0 ) {
+       int n = Math.min( remaining, bytesPerChecksum );
+       summer.reset();
+       summer.update( data, dataPos, n );
+       int checksum = (int) summer.getValue();
+       checksums[sumPos+0] = (byte) ((checksum >>> 24) & 0xff);
+       checksums[sumPos+1] = (byte) ((checksum >>> 16) & 0xff);
+       checksums[sumPos+2] = (byte) ((checksum >>> 8) & 0xff);
+       checksums[sumPos+3] = (byte) (checksum & 0xff);
+       dataPos += n;
+       sumPos += size;
+       remaining -= n;
+     }
+     reset();
+   }
+   
+   private ChecksumException newChecksumException( String fileName,
+       long errPos, int computed, int stored ) {
+     return new ChecksumException( "Checksum error: " + fileName + " at " +
+         errPos + " exp: " + stored + " got: " + computed, errPos );
+   }
+   
+   /** @return a buffer of one chunk, to checksum data in direct buffers */
+   private byte[] getScratch() {
+     if ( scratch == null ) {
+       scratch = new byte[bytesPerChecksum];
+     }
+     return scratch;
+   }
+   
+   /**
+    * Two DataChecksums are equal if they have the same type and chunk size.
+    */
+   @Override
+   public boolean equals( Object other ) {
+     if ( !(other instanceof DataChecksum) ) {
+       return false;
+     }
+     DataChecksum o = (DataChecksum) other;
+     return o.type == type && o.bytesPerChecksum == bytesPerChecksum;
+   }
+   
+   @Override
+   public int hashCode() {
+     return type * 31 + bytesPerChecksum;
+   }
+   
+   @Override
+   public String toString() {
+     return "DataChecksum(type=" + getChecksumTypeName( type ) +
+         ", chunkSize=" + bytesPerChecksum + ")";
+   }
+   
   private final int type;
   private final int size;
   private final Checksum summer;
   private final int bytesPerChecksum;
   private int inSum = 0;
+  private byte[] scratch;
   
   private DataChecksum( int checksumType, Checksum checksum,
                         int sumSize, int chunkSize ) {
@@ -20,6 +20,7 @@ package org.apache.hadoop.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -36,6 +37,10 @@ import org.apache.hadoop.io.Text;
  * </ul>
  * In both cases, EOF also terminates an otherwise unterminated
  * line.
+ * <p>
+ * The lines may be read from an input stream or from a
+ * {@link ByteBuffer}, e.g. a direct buffer holding a memory mapped file.
+ * The buffered data is searched for line terminators eight bytes at a time.
  */
 @InterfaceAudience.LimitedPrivate({"MapReduce"})
 @InterfaceStability.Unstable
@@ -43,7 +48,11 @@ public class LineReader {
   private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
   private int bufferSize = DEFAULT_BUFFER_SIZE;
   private InputStream in;
+  // the source of the data when reading from a ByteBuffer instead of in
+  private ByteBuffer inBuffer;
   private byte[] buffer;
+  // the buffer, to read eight bytes at a time
+  private ByteBuffer words;
   // the number of bytes of real data in the buffer
   private int bufferLength = 0;
   // the current position in the buffer
@@ -52,8 +61,16 @@ public class LineReader {
   private static final byte CR = '\r';
   private static final byte LF = '\n';
 
+  private static final long ONES = 0x0101010101010101L;
+  private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+  private static final long CR_BYTES = CR * ONES;
+  private static final long LF_BYTES = LF * ONES;
+
   // The line delimiter
   private final byte[] recordDelimiterBytes;
+  // For every prefix of the delimiter, the length of its longest proper
+  // prefix which is also its suffix, to resume matching after a mismatch
+  private final int[] delimiterFallback;
 
   /**
    * Create a line reader that reads from the given stream using the
@@ -73,10 +90,7 @@ public class LineReader {
    * @throws IOException
    */
   public LineReader(InputStream in, int bufferSize) {
-    this.in = in;
-    this.bufferSize = bufferSize;
-    this.buffer = new byte[this.bufferSize];
-    this.recordDelimiterBytes = null;
+    this(in, bufferSize, null);
   }
 
   /**
@@ -99,10 +113,7 @@ public class LineReader {
    * @param recordDelimiterBytes The delimiter
    */
   public LineReader(InputStream in, byte[] recordDelimiterBytes) {
-    this.in = in;
-    this.bufferSize = DEFAULT_BUFFER_SIZE;
-    this.buffer = new byte[this.bufferSize];
-    this.recordDelimiterBytes = recordDelimiterBytes;
+    this(in, DEFAULT_BUFFER_SIZE, recordDelimiterBytes);
   }
 
   /**
@@ -119,7 +130,10 @@ public class LineReader {
     this.in = in;
     this.bufferSize = bufferSize;
     this.buffer = new byte[this.bufferSize];
+    this.words = ByteBuffer.wrap(buffer);
     this.recordDelimiterBytes = recordDelimiterBytes;
+    this.delimiterFallback = recordDelimiterBytes == null ? null
+        : computeFallback(recordDelimiterBytes);
   }
 
   /**
@@ -134,19 +148,123 @@ public class LineReader {
    */
   public LineReader(InputStream in, Configuration conf,
       byte[] recordDelimiterBytes) throws IOException {
-    this.in = in;
-    this.bufferSize = conf.getInt("io.file.buffer.size", DEFAULT_BUFFER_SIZE);
-    this.buffer = new byte[this.bufferSize];
-    this.recordDelimiterBytes = recordDelimiterBytes;
+    this(in, conf.getInt("io.file.buffer.size", DEFAULT_BUFFER_SIZE),
+        recordDelimiterBytes);
   }
 
+  /**
+   * Create a line reader that reads the remaining bytes of the given buffer
+   * using the given buffer-size, and using a custom delimiter of array of
+   * bytes.
+   * @param in The buffer, heap or direct, read from its position
+   * @param bufferSize Size of the read buffer
+   * @param recordDelimiterBytes The delimiter, or null for CR, LF or CRLF
+   */
+  public LineReader(ByteBuffer in, int bufferSize,
+      byte[] recordDelimiterBytes) {
+    this((InputStream) null, bufferSize, recordDelimiterBytes);
+    this.inBuffer = in;
+  }
+
+  /**
+   * Create a line reader that reads the remaining bytes of the given buffer
+   * using the default buffer-size (64k).
+   * @param in The buffer, heap or direct, read from its position
+   */
+  public LineReader(ByteBuffer in) {
+    this(in, DEFAULT_BUFFER_SIZE, null);
+  }
+
+  private static int[] computeFallback(byte[] delimiter) {
+    int[] fallback = new int[delimiter.length];
+    int matched = 0;
+    for (int i = 1; i < delimiter.length; i++) {
+      while (matched > 0 && delimiter[i] != delimiter[matched]) {
+        matched = fallback[matched - 1];
+      }
+      if (delimiter[i] == delimiter[matched]) {
+        matched++;
+      }
+      fallback[i] = matched;
+    }
+    return fallback;
+  }
 
   /**
    * Close the underlying stream.
    * @throws IOException
    */
   public void close() throws IOException {
-    in.close();
+    if (in != null) {
+      in.close();
+    }
+  }
+
+  /**
+   * Refill the buffer from the underlying stream or buffer.
+   * @return the number of bytes read, or -1 at the end of the data
+   */
+  private int fillBuffer() throws IOException {
+    if (in != null) {
+      return in.read(buffer);
+    }
+    int length = Math.min(buffer.length, inBuffer.remaining());
+    if (length == 0) {
+      return -1;
+    }
+    inBuffer.get(buffer, 0, length);
+    return length;
+  }
+
+  /**
+   * @return a word with the high bit of every byte of the given word which
+   *         is zero set and all the other bits clear
+   */
+  private static long zeroBytes(long word) {
+    return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+  }
+
+  /**
+   * @return the index of the first byte of the buffer in [from, to) which is
+   *         CR or LF, or to if there is none
+   */
+  private int findNewline(int from, int to) {
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      long word = words.getLong(i);
+      long found = zeroBytes(word ^ LF_BYTES) | zeroBytes(word ^ CR_BYTES);
+      if (found != 0) {
+        // the buffer is big endian: the first byte is the most significant
+        return i + (Long.numberOfLeadingZeros(found) >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      if (buffer[i] == LF || buffer[i] == CR) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  /**
+   * @return the index of the first byte of the buffer in [from, to) equal to
+   *         b, or to if there is none
+   */
+  private int findByte(byte b, int from, int to) {
+    long pattern = (b & 0xffL) * ONES;
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      long found = zeroBytes(words.getLong(i) ^ pattern);
+      if (found != 0) {
+        return i + (Long.numberOfLeadingZeros(found) >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      if (buffer[i] == b) {
+        return i;
+      }
+    }
+    return to;
   }
   
   /**
@@ -206,21 +324,30 @@ public class LineReader {
         startPosn = bufferPosn = 0;
         if (prevCharCR)
           ++bytesConsumed; //account for CR from previous read
-        bufferLength = in.read(buffer);
+        bufferLength = fillBuffer();
         if (bufferLength <= 0)
           break; // EOF
       }
-      for (; bufferPosn < bufferLength; ++bufferPosn) { //search for newline
+      if (prevCharCR) { //CR ended the previous buffer, look for LF
+        newlineLength = 1;
         if (buffer[bufferPosn] == LF) {
-          newlineLength = (prevCharCR) ? 2 : 1;
-          ++bufferPosn; // at next invocation proceed from following byte
-          break;
+          newlineLength = 2;
+          ++bufferPosn;
         }
-        if (prevCharCR) { //CR + notLF, we are at notLF
-          newlineLength = 1;
-          break;
+      } else {
+        bufferPosn = findNewline(bufferPosn, bufferLength);
+        if (bufferPosn < bufferLength) {
+          if (buffer[bufferPosn++] == LF) {
+            newlineLength = 1;
+          } else if (bufferPosn == bufferLength) {
+            prevCharCR = true; //CR at the end of the buffer
+          } else if (buffer[bufferPosn] == LF) {
+            newlineLength = 2;
+            ++bufferPosn;
+          } else {
+            newlineLength = 1;
+          }
         }
-        prevCharCR = (buffer[bufferPosn] == CR);
       }
       int readLength = bufferPosn - startPosn;
       if (prevCharCR && newlineLength == 0)
@@ -246,6 +373,10 @@ public class LineReader {
    */
   private int readCustomLine(Text str, int maxLineLength, int maxBytesToConsume)
       throws IOException {
+    /* The bytes matching a prefix of the delimiter are not appended to str
+     * until the match fails.  They may have been read in an earlier buffer,
+     * but since they match the delimiter they are appended from it.
+     */
     str.clear();
     int txtLength = 0; // tracks str.getLength(), as an optimization
     long bytesConsumed = 0;
@@ -255,31 +386,43 @@ public class LineReader {
       // time
       if (bufferPosn >= bufferLength) {
         startPosn = bufferPosn = 0;
-        bufferLength = in.read(buffer);
-        if (bufferLength <= 0)
-          break; // EOF
+        bufferLength = fillBuffer();
+        if (bufferLength <= 0) {
+          // EOF: a partial delimiter is part of the line
+          txtLength = appendLine(str, txtLength, maxLineLength,
+              recordDelimiterBytes, 0, delPosn);
+          break;
+        }
       }
-      for (; bufferPosn < bufferLength; ++bufferPosn) {
-        if (buffer[bufferPosn] == recordDelimiterBytes[delPosn]) {
+      int prevDelPosn = delPosn;
+      while (bufferPosn < bufferLength) {
+        if (delPosn == 0) {
+          bufferPosn = findByte(recordDelimiterBytes[0], bufferPosn,
+              bufferLength);
+          if (bufferPosn == bufferLength) {
+            break;
+          }
+        }
+        byte b = buffer[bufferPosn++];
+        while (delPosn > 0 && b != recordDelimiterBytes[delPosn]) {
+          delPosn = delimiterFallback[delPosn - 1];
+        }
+        if (b == recordDelimiterBytes[delPosn]) {
           delPosn++;
-          if (delPosn >= recordDelimiterBytes.length) {
-            bufferPosn++;
+          if (delPosn == recordDelimiterBytes.length) {
             break;
           }
-        } else {
-          delPosn = 0;
         }
       }
       int readLength = bufferPosn - startPosn;
       bytesConsumed += readLength;
-      int appendLength = readLength - delPosn;
-      if (appendLength > maxLineLength - txtLength) {
-        appendLength = maxLineLength - txtLength;
-      }
-      if (appendLength > 0) {
-        str.append(buffer, startPosn, appendLength);
-        txtLength += appendLength;
-      }
+      // the bytes consumed which are not part of a delimiter (match)
+      int lineLength = prevDelPosn + readLength - delPosn;
+      int fromDelimiter = Math.min(lineLength, prevDelPosn);
+      txtLength = appendLine(str, txtLength, maxLineLength,
+          recordDelimiterBytes, 0, fromDelimiter);
+      txtLength = appendLine(str, txtLength, maxLineLength,
+          buffer, startPosn, lineLength - fromDelimiter);
     } while (delPosn < recordDelimiterBytes.length
         && bytesConsumed < maxBytesToConsume);
     if (bytesConsumed > (long) Integer.MAX_VALUE)
@@ -287,6 +430,22 @@ public class LineReader {
     return (int) bytesConsumed;
   }
 
+  /**
+   * Append bytes to a line, up to its maximum length.
+   * @return the new length of the line
+   */
+  private static int appendLine(Text str, int txtLength, int maxLineLength,
+      byte[] bytes, int start, int length) {
+    if (length > maxLineLength - txtLength) {
+      length = maxLineLength - txtLength;
+    }
+    if (length > 0) {
+      str.append(bytes, start, length);
+      txtLength += length;
+    }
+    return txtLength;
+  }
+
   /**
    * Read from the InputStream into the given Text.
    * @param str the object to store the given line
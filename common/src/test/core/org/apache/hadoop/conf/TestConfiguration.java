@@ -20,6 +20,7 @@ package org.apache.hadoop.conf;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
@@ -328,6 +329,36 @@ public class TestConfiguration extends TestCase {
     tearDown();
   }
 
+  public void testWriteBinary() throws IOException {
+    out=new BufferedWriter(new FileWriter(CONFIG));
+    startConfig();
+    appendProperty("test.binary.a", "x");
+    appendProperty("test.binary.b", "x");
+    appendProperty("test.binary.var", "${test.binary.a}y");
+    endConfig();
+    conf.addResource(new Path(CONFIG));
+    conf.set("test.binary.set", "z");
+    // keys whose common prefix ends inside a surrogate pair
+    conf.set("test.binary.\uD83D\uDE00", "p");
+    conf.set("test.binary.\uD83D\uDE01", "q");
+
+    FileOutputStream fos = new FileOutputStream(CONFIG2);
+    try {
+      conf.writeBinary(fos);
+    } finally {
+      fos.close();
+    }
+    Configuration other = new Configuration(false);
+    other.addResource(new Path(CONFIG2));
+    assertEquals(conf.size(), other.size());
+    for (Map.Entry<String, String> e : conf) {
+      assertEquals(e.getValue(), other.getRaw(e.getKey()));
+    }
+    assertEquals("xy", other.get("test.binary.var"));
+    assertEquals("z", other.get("test.binary.set"));
+    assertEquals("q", other.get("test.binary.\uD83D\uDE01"));
+  }
+
   BufferedWriter out;
 	
   public void testIntegerRanges() {
@@ -604,6 +635,74 @@ public class TestConfiguration extends TestCase {
     assertFalse(conf.iterator().hasNext());
   }
 
+  public void testFreeze() {
+    Configuration conf = new Configuration(false);
+    conf.set("a", "A");
+    conf.set("b", "${a}b");
+    conf.set("int", " 0x10 ");
+    conf.set("long", "12345678901");
+    conf.set("float", "0.5");
+    conf.set("bool", "true");
+    conf.set("notint", "x");
+    conf.setClass("class", String.class, Object.class);
+    conf.freeze();
+    assertTrue(conf.isFrozen());
+
+    assertEquals("A", conf.get("a"));
+    assertEquals("Ab", conf.get("b"));
+    assertEquals("${a}b", conf.getRaw("b"));
+    assertNull(conf.get("missing"));
+    assertEquals("Ac", conf.get("missing", "${a}c"));
+    assertEquals("0x10", conf.getTrimmed("int"));
+    for (int i = 0; i < 2; i++) {  // parsed, then remembered
+      assertEquals(16, conf.getInt("int", -1));
+      assertEquals(12345678901L, conf.getLong("long", -1));
+      assertEquals(0.5f, conf.getFloat("float", -1), 0);
+      assertEquals(-1, conf.getInt("notint", -1));
+      assertEquals(-1, conf.getInt("missing", -1));
+      assertTrue(conf.getBoolean("bool", false));
+      assertEquals(String.class, conf.getClass("class", null));
+      assertEquals(Integer.class, conf.getClass("missing", Integer.class));
+    }
+    assertEquals(8, conf.size());
+
+    try {
+      conf.set("a", "B");
+      fail("Should not be able to change a frozen configuration");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      conf.unset("a");
+      fail("Should not be able to change a frozen configuration");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      conf.addResource("test-config.xml");
+      fail("Should not be able to change a frozen configuration");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    assertEquals("A", conf.get("a"));
+
+    Configuration copy = new Configuration(conf);
+    assertFalse(copy.isFrozen());
+    copy.set("a", "B");
+    assertEquals("Bb", copy.get("b"));
+    assertEquals("Ab", conf.get("b"));
+  }
+
+  public void testFreezeDeprecatedKeys() {
+    Configuration.addDeprecation("test.freeze.old.key",
+                                 new String[] {"test.freeze.new.key"});
+    Configuration conf = new Configuration(false);
+    conf.set("test.freeze.old.key", "value");
+    conf.freeze();
+    assertEquals("value", conf.get("test.freeze.old.key"));
+    assertEquals("value", conf.get("test.freeze.new.key"));
+  }
+
   public static class Fake_ClassLoader extends ClassLoader {
   }
 
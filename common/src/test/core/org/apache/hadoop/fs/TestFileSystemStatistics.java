@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem.Statistics;
+import org.apache.hadoop.fs.FileSystem.Statistics.Operation;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.junit.Test;
+
+public class TestFileSystemStatistics {
+  private static final int THREADS = 8;
+  private static final int INCREMENTS = 10000;
+
+  private static Thread[] startIncrementers(final Statistics stats) {
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int n = 0; n < INCREMENTS; n++) {
+            stats.incrementBytesRead(1);
+            stats.incrementBytesWritten(2);
+            stats.incrementReadOps(1);
+            stats.incrementLargeReadOps(1);
+            stats.incrementWriteOps(1);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    return threads;
+  }
+
+  private static void join(Thread[] threads) throws InterruptedException {
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    Statistics stats = new Statistics("test");
+    join(startIncrementers(stats));
+    long total = THREADS * INCREMENTS;
+    assertEquals(total, stats.getBytesRead());
+    assertEquals(2 * total, stats.getBytesWritten());
+    assertEquals(2 * total, stats.getReadOps());
+    assertEquals(total, stats.getLargeReadOps());
+    assertEquals(total, stats.getWriteOps());
+
+    // the counts of the exited threads are kept
+    stats.incrementBytesRead(1);
+    join(startIncrementers(stats));
+    assertEquals(2 * total + 1, stats.getBytesRead());
+    assertEquals(2 * total + 1, new Statistics(stats).getBytesRead());
+    assertEquals(2 * total + 1, stats.snapshot().getBytesRead());
+    assertEquals(2 * total, stats.snapshot().getWriteOps());
+  }
+
+  @Test
+  public void testExitedThreadsArePruned() throws Exception {
+    Statistics stats = new Statistics("test");
+    for (int i = 0; i < 10; i++) {
+      join(startIncrementers(stats));
+    }
+    // pruned on registration, without any aggregation
+    assertTrue(stats.getThreadCount() < 10 * THREADS);
+    assertEquals(10 * THREADS * INCREMENTS, stats.getBytesRead());
+    assertEquals(0, stats.getThreadCount());
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    Statistics stats = new Statistics("test");
+    join(startIncrementers(stats));
+    stats.incrementBytesRead(5);
+    stats.incrementBytesWritten(7);
+    stats.reset();
+    assertEquals(0, stats.getBytesRead());
+    assertEquals(0, stats.getBytesWritten());
+    // operation counts are not reset
+    assertEquals(THREADS * INCREMENTS, stats.getWriteOps());
+
+    stats.incrementBytesRead(3);
+    join(startIncrementers(stats));
+    assertEquals(THREADS * INCREMENTS + 3, stats.getBytesRead());
+  }
+
+  @Test
+  public void testOperationTimes() {
+    Statistics stats = new Statistics("test");
+    assertEquals(0, stats.getOperationCount(Operation.OPEN));
+    stats.addOperationTime(Operation.OPEN, 500);          // < 1us
+    stats.addOperationTime(Operation.OPEN, 3000);         // [2, 4) us
+    stats.addOperationTime(Operation.OPEN, 3999);         // [2, 4) us
+    stats.addOperationTime(Operation.LIST_STATUS, 1L << 50);
+    assertEquals(3, stats.getOperationCount(Operation.OPEN));
+    assertEquals(6, stats.getOperationTime(Operation.OPEN));
+    long[] expected = new long[Statistics.LATENCY_BUCKETS];
+    expected[0] = 1;
+    expected[2] = 2;
+    assertArrayEquals(expected, stats.getOperationLatencies(Operation.OPEN));
+    expected = new long[Statistics.LATENCY_BUCKETS];
+    expected[Statistics.LATENCY_BUCKETS - 1] = 1;
+    assertArrayEquals(expected,
+        stats.getOperationLatencies(Operation.LIST_STATUS));
+    assertEquals(0, stats.getOperationCount(Operation.CREATE));
+
+    long[] latencies = stats.getOperationLatencies(Operation.OPEN);
+    assertEquals(1, FileSystemMetrics.percentile(latencies, 3, 10));
+    assertEquals(4, FileSystemMetrics.percentile(latencies, 3, 50));
+    assertEquals(4, FileSystemMetrics.percentile(latencies, 3, 99));
+    assertEquals(0, FileSystemMetrics.percentile(new long[32], 0, 50));
+  }
+
+  @Test
+  public void testLocalFileSystemOperations() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration()).getRaw();
+    Statistics stats = FileSystem.getStatistics(fs.getUri().getScheme(),
+        fs.getClass());
+    long opens = stats.getOperationCount(Operation.OPEN);
+    long creates = stats.getOperationCount(Operation.CREATE);
+    long lists = stats.getOperationCount(Operation.LIST_STATUS);
+    long stats0 = stats.getOperationCount(Operation.GET_FILE_STATUS);
+
+    Path dir = new Path(System.getProperty("test.build.data", "/tmp"),
+        "TestFileSystemStatistics");
+    Path file = new Path(dir, "file");
+    try {
+      fs.create(file).close();
+      fs.open(file).close();
+      fs.listStatus(dir);
+      fs.getFileStatus(file);
+      assertEquals(creates + 1, stats.getOperationCount(Operation.CREATE));
+      assertEquals(opens + 1, stats.getOperationCount(Operation.OPEN));
+      assertEquals(lists + 1, stats.getOperationCount(Operation.LIST_STATUS));
+      // open, create and listStatus do not count as getFileStatus calls
+      assertEquals(stats0 + 1,
+          stats.getOperationCount(Operation.GET_FILE_STATUS));
+    } finally {
+      fs.delete(dir, true);
+    }
+  }
+
+  /** A file system class of its own, to get statistics of its own. */
+  static class StatisticsTestFileSystem extends RawLocalFileSystem {
+  }
+
+  @Test
+  public void testMetrics() {
+    assertEquals("ListStatus",
+        FileSystemMetrics.opName(Operation.LIST_STATUS));
+    Statistics stats =
+        FileSystem.getStatistics("stest", StatisticsTestFileSystem.class);
+    stats.incrementBytesRead(123456);
+    stats.incrementWriteOps(77);
+    stats.addOperationTime(Operation.GET_FILE_STATUS, 10000);
+    stats.addOperationTime(Operation.GET_FILE_STATUS, 30000);
+    MetricsRecordBuilder rb = getMetrics(new FileSystemMetrics());
+    assertCounter("BytesRead", 123456L, rb);
+    assertCounter("WriteOps", 77, rb);
+    assertCounter("GetFileStatusNumOps", 2L, rb);
+    assertGauge("GetFileStatusAvgTimeMicros", 20.0, rb);
+    assertGauge("GetFileStatus99thPercentileMicros", 32L, rb);
+  }
+}
@@ -192,4 +192,18 @@ public class TestDataByteBuffers {
     readJunk(dib, r, seed, 1000);
   }
 
+  @Test(timeout=10000)
+  public void testDataInputByteBufferEOF() throws IOException {
+    DataInputByteBuffer dib = new DataInputByteBuffer();
+    ByteBuffer a = ByteBuffer.allocate(2);
+    ByteBuffer b = ByteBuffer.allocateDirect(0);
+    dib.reset(a, b);
+    try {
+      dib.readInt();                 // truncated input must not spin
+      fail("Expected EOFException");
+    } catch (java.io.EOFException e) {
+      // expected
+    }
+  }
+
 }
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestDirectBufferPool {
+
+  @Test
+  public void testSizeClasses() {
+    DirectBufferPool pool = new DirectBufferPool(100000, 1024 * 1024);
+    assertEquals(128 * 1024, pool.getMaxBufferSize());
+
+    ByteBuffer buf = pool.getBuffer(10);
+    assertTrue(buf.isDirect());
+    assertEquals(DirectBufferPool.MIN_BUFFER_SIZE, buf.capacity());
+    assertEquals(0, buf.position());
+    assertEquals(10, buf.limit());
+
+    buf = pool.getBuffer(5000);
+    assertEquals(8192, buf.capacity());
+    assertEquals(5000, buf.limit());
+    buf = pool.getBuffer(8192);
+    assertEquals(8192, buf.capacity());
+
+    // beyond the max buffer size, heap buffers of the exact size
+    buf = pool.getBuffer(128 * 1024 + 1);
+    assertFalse(buf.isDirect());
+    assertEquals(128 * 1024 + 1, buf.capacity());
+    assertEquals(3, pool.getMisses());
+    assertEquals(0, pool.getHits());
+  }
+
+  @Test
+  public void testReuse() {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 1024 * 1024);
+    ByteBuffer buf = pool.getBuffer(3000);
+    buf.putInt(42);
+    pool.returnBuffer(buf);
+    assertEquals(4096, pool.getPooledBytes());
+
+    // another size of the same class gets the same, cleared, buffer
+    ByteBuffer again = pool.getBuffer(2049);
+    assertSame(buf, again);
+    assertEquals(0, again.position());
+    assertEquals(2049, again.limit());
+    assertEquals(0, pool.getPooledBytes());
+    assertEquals(1, pool.getHits());
+    assertEquals(1, pool.getMisses());
+
+    // a smaller class does not
+    assertNotSame(buf, pool.getBuffer(2048));
+
+    // foreign buffers are ignored
+    pool.returnBuffer(ByteBuffer.allocate(4096));
+    pool.returnBuffer(ByteBuffer.allocateDirect(3000));
+    pool.returnBuffer(null);
+    assertEquals(0, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testCapacity() {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 8192);
+    ByteBuffer b1 = pool.getBuffer(4096);
+    ByteBuffer b2 = pool.getBuffer(4096);
+    ByteBuffer b3 = pool.getBuffer(4096);
+    pool.returnBuffer(b1);
+    pool.returnBuffer(b2);
+    pool.returnBuffer(b3);                   // beyond the capacity
+    assertEquals(8192, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testDisabled() {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 0);
+    assertEquals(0, pool.getMaxBufferSize());
+    ByteBuffer buf = pool.getBuffer(100);
+    assertFalse(buf.isDirect());
+    pool.returnBuffer(buf);
+    assertEquals(0, pool.getPooledBytes());
+    assertEquals(0, pool.getMisses());
+  }
+}
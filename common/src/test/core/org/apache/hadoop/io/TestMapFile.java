@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.io;
 
+import java.util.Random;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -121,4 +123,61 @@ public class TestMapFile extends TestCase {
       conf);
     assertEquals(null, reader.midKey());
   }
+
+  /** The mapped index must find the same records as the in-memory one. */
+  public void testMemoryMappedIndex() throws Exception {
+    Configuration conf = new Configuration();
+    Path dirName = new Path(System.getProperty("test.build.data",".") +
+      getName() + ".mapfile"); 
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path qualifiedDirName = fs.makeQualified(dirName);
+    MapFile.Writer.setIndexInterval(conf, 4);
+    MapFile.Writer.setIndexCompressed(conf, false);
+    MapFile.Writer writer = new MapFile.Writer(conf, qualifiedDirName,
+      MapFile.Writer.keyClass(IntWritable.class),
+      MapFile.Writer.valueClass(IntWritable.class));
+    final int count = 20000;
+    // even keys, so that odd ones are missing
+    for (int i = 0; i < count; i++) {
+      writer.append(new IntWritable(2 * i), new IntWritable(i));
+    }
+    writer.close();
+
+    MapFile.Reader mapped = new MapFile.Reader(qualifiedDirName, conf,
+      SequenceFile.Reader.memoryMapped(true));
+    MapFile.Reader heap = new MapFile.Reader(qualifiedDirName, conf);
+    try {
+      IntWritable key = new IntWritable();
+      IntWritable value = new IntWritable();
+      IntWritable expected = new IntWritable();
+      // in order, which takes the shortcut for nearby keys, then at random
+      Random random = new Random(0);
+      for (int i = -2; i < 2 * count + 2; i++) {
+        int k = i < 2 * count ? i : random.nextInt(2 * count + 4) - 2;
+        key.set(k);
+        Writable found = mapped.get(key, value);
+        assertEquals(heap.get(key, expected) != null, found != null);
+        if (found != null) {
+          assertEquals(k / 2, value.get());
+        }
+        boolean before = random.nextBoolean();
+        assertEquals(heap.getClosest(key, expected, before),
+                     mapped.getClosest(key, value, before));
+      }
+      for (int i = 0; i < 1000; i++) {
+        key.set(random.nextInt(2 * count + 4) - 2);
+        assertEquals(heap.get(key, expected) != null,
+                     mapped.get(key, value) != null);
+      }
+
+      int mid = ((IntWritable)mapped.midKey()).get();
+      assertTrue("mid key " + mid, Math.abs(mid - count) < count / 10);
+      IntWritable last = new IntWritable();
+      mapped.finalKey(last);
+      assertEquals(2 * (count - 1), last.get());
+    } finally {
+      mapped.close();
+      heap.close();
+    }
+  }
 }
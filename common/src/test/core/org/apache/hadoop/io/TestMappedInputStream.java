@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestMappedInputStream extends TestCase {
+  private static final File DIR = 
+    new File(System.getProperty("test.build.data", "/tmp"));
+
+  private File file;
+  private byte[] data;
+
+  @Override
+  protected void setUp() throws Exception {
+    DIR.mkdirs();
+    file = new File(DIR, "TestMappedInputStream.dat");
+    data = new byte[1000];
+    new Random(0).nextBytes(data);
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(data);
+    out.close();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  /** Reads and seeks across many small windows. */
+  public void testRead() throws Exception {
+    MappedInputStream in = new MappedInputStream(file, 7);
+    try {
+      assertEquals(data.length, in.getLength());
+      byte[] buf = new byte[data.length];
+      int n = 0;
+      Random random = new Random(1);
+      while (n < data.length) {
+        if (random.nextBoolean()) {
+          buf[n++] = (byte) in.read();
+        } else {
+          int read = in.read(buf, n, random.nextInt(20));
+          assertTrue(read >= 0);
+          n += read;
+        }
+        assertEquals(n, in.getPos());
+      }
+      assertTrue(Arrays.equals(data, buf));
+      assertEquals(-1, in.read());
+      assertEquals(-1, in.read(buf, 0, 1));
+
+      for (int i = 0; i < 100; i++) {
+        int pos = random.nextInt(data.length);
+        int len = random.nextInt(data.length - pos + 1);
+        in.seek(pos);
+        byte[] range = new byte[len];
+        in.readFully(pos, range, 0, len);
+        assertEquals(pos, in.getPos());
+        assertEquals(len, in.read(range, 0, len));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, pos, pos + len), 
+                                 range));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Views share the mapping when they fit in a window. */
+  public void testView() throws Exception {
+    MappedInputStream in = new MappedInputStream(file, 64);
+    try {
+      Random random = new Random(2);
+      for (int i = 0; i < 100; i++) {
+        int pos = random.nextInt(data.length);
+        // some views are larger than the window and get copied
+        int len = random.nextInt(Math.min(100, data.length - pos) + 1);
+        ByteBuffer view = in.view(pos, len);
+        assertEquals(0, view.position());
+        assertEquals(len, view.remaining());
+        byte[] bytes = new byte[len];
+        view.get(bytes);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, pos, pos + len),
+                                 bytes));
+        assertEquals(len <= 64, view.isDirect());
+      }
+      try {
+        in.view(data.length - 10, 11);
+        fail("Viewed past the end of the file");
+      } catch (EOFException e) {
+        // expected
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
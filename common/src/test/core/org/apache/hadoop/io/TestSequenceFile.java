@@ -19,6 +19,7 @@
 package org.apache.hadoop.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import junit.framework.TestCase;
 
@@ -304,6 +305,113 @@ public class TestSequenceFile extends TestCase {
     return sorter;
   }
 
+  /**
+   * Sorts with several threads and enough segments for intermediate merges,
+   * with both a raw comparator and the generic, deserializing one.
+   */
+  public void testParallelSort() throws Exception {
+    int count = 1024 * 10;
+    int factor = 3;
+    Path file = 
+      new Path(System.getProperty("test.build.data",".")+"/test.parallel.seq");
+    int seed = new Random().nextInt();
+    LOG.info("Seed = " + seed);
+
+    FileSystem fs = FileSystem.getLocal(conf);
+    try {
+      for (CompressionType compressionType : CompressionType.values()) {
+        writeTest(fs, count, seed, file, compressionType, new DefaultCodec());
+        for (boolean fast : new boolean[] { true, false }) {
+          for (int threads : new int[] { 2, 4 }) {
+            fs.delete(file.suffix(".sorted"), true);
+            SequenceFile.Sorter sorter = newSorter(fs, fast, 1, factor);
+            // a handful of records per run, so the merge needs several passes
+            sorter.setMemory(64 * 1024);
+            sorter.setThreads(threads);
+            assertEquals(threads, sorter.getThreads());
+            sorter.sort(file, file.suffix(".sorted"));
+            checkSort(fs, count, seed, file);
+          }
+        }
+      }
+    } finally {
+      fs.close();
+    }
+  }
+
+  /** Memory-mapped readers must see the same records as buffered ones. */
+  public void testMemoryMappedReader() throws Exception {
+    int count = 1024;
+    Path file = 
+      new Path(System.getProperty("test.build.data",".")+"/test.mapped.seq");
+    int seed = new Random().nextInt();
+    LOG.info("Seed = " + seed);
+
+    FileSystem fs = FileSystem.getLocal(conf);
+    try {
+      for (CompressionType compressionType : CompressionType.values()) {
+        writeTest(fs, count, seed, file, compressionType, new DefaultCodec());
+        SequenceFile.Reader mapped = new SequenceFile.Reader(conf,
+            SequenceFile.Reader.file(file),
+            SequenceFile.Reader.memoryMapped(true));
+        SequenceFile.Reader buffered = new SequenceFile.Reader(conf,
+            SequenceFile.Reader.file(file));
+        try {
+          assertTrue(mapped.isMemoryMapped());
+          assertFalse(buffered.isMemoryMapped());
+          SequenceFile.Reader.RecordView view = 
+            new SequenceFile.Reader.RecordView();
+          if (compressionType == CompressionType.BLOCK) {
+            try {
+              mapped.nextRawView(view);
+              fail("Viewed a block-compressed record");
+            } catch (IOException e) {
+              // expected
+            }
+            RandomDatum k = new RandomDatum();
+            RandomDatum v = new RandomDatum();
+            RandomDatum expectedKey = new RandomDatum();
+            RandomDatum expectedValue = new RandomDatum();
+            for (int i = 0; i < count; i++) {
+              assertTrue(buffered.next(expectedKey, expectedValue));
+              assertTrue(mapped.next(k, v));
+              assertEquals(expectedKey, k);
+              assertEquals(expectedValue, v);
+            }
+            assertFalse(mapped.next(k, v));
+            continue;
+          }
+          DataOutputBuffer key = new DataOutputBuffer();
+          DataOutputBuffer value = new DataOutputBuffer();
+          SequenceFile.ValueBytes rawValue = buffered.createValueBytes();
+          for (int i = 0; i < count; i++) {
+            key.reset();
+            value.reset();
+            int length = buffered.nextRaw(key, rawValue);
+            if (buffered.isCompressed()) {
+              rawValue.writeCompressedBytes(value);
+            } else {
+              rawValue.writeUncompressedBytes(value);
+            }
+            assertEquals(length, mapped.nextRawView(view));
+            assertEquals(buffered.isCompressed(), view.isValueCompressed());
+            assertEquals(ByteBuffer.wrap(key.getData(), 0, key.getLength()),
+                         view.getKey());
+            assertEquals(
+                ByteBuffer.wrap(value.getData(), 0, value.getLength()),
+                view.getValue());
+          }
+          assertEquals(-1, mapped.nextRawView(view));
+        } finally {
+          mapped.close();
+          buffered.close();
+        }
+      }
+    } finally {
+      fs.close();
+    }
+  }
+
   /** Unit tests for SequenceFile metadata. */
   public void testSequenceFileMetadata() throws Exception {
     LOG.info("Testing SequenceFile with metadata");
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.io;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/** Unit tests for WritableComparator and the raw comparators it registers. */
+public class TestWritableComparator extends TestCase {
+  private static final Random RANDOM = new Random();
+
+  /** Byte at a time lexicographic order, for reference. */
+  private static int compareBytesSlowly(byte[] b1, int s1, int l1,
+                                        byte[] b2, int s2, int l2) {
+    for (int i = 0; i < l1 && i < l2; i++) {
+      int a = (b1[s1 + i] & 0xff);
+      int b = (b2[s2 + i] & 0xff);
+      if (a != b) {
+        return a - b;
+      }
+    }
+    return l1 - l2;
+  }
+
+  public void testCompareBytes() {
+    for (int n = 0; n < 100000; n++) {
+      int s1 = RANDOM.nextInt(10);
+      int s2 = RANDOM.nextInt(10);
+      int l1 = RANDOM.nextInt(40);
+      int l2 = RANDOM.nextInt(40);
+      byte[] b1 = new byte[s1 + l1];
+      byte[] b2 = new byte[s2 + l2];
+      RANDOM.nextBytes(b1);
+      RANDOM.nextBytes(b2);
+      // share a prefix most of the time, so that the mismatch may fall in
+      // any byte of a word
+      int shared = Math.min(l1, l2);
+      if (shared > 0 && RANDOM.nextInt(4) != 0) {
+        shared = RANDOM.nextInt(shared + 1);
+      }
+      if (RANDOM.nextInt(4) != 0) {
+        System.arraycopy(b1, s1, b2, s2, shared);
+      }
+      assertEquals(compareBytesSlowly(b1, s1, l1, b2, s2, l2),
+          WritableComparator.compareBytes(b1, s1, l1, b2, s2, l2));
+      assertEquals(compareBytesSlowly(b2, s2, l2, b1, s1, l1),
+          WritableComparator.compareBytes(b2, s2, l2, b1, s1, l1));
+    }
+  }
+
+  public void testCompareBytesUnsigned() {
+    byte[] b1 = new byte[16];
+    byte[] b2 = new byte[16];
+    for (int i = 0; i < 16; i++) {
+      b2[i] = (byte) 0x80;
+      assertTrue(WritableComparator.compareBytes(b1, 0, 16, b2, 0, 16) < 0);
+      assertTrue(WritableComparator.compareBytes(b2, 0, 16, b1, 0, 16) > 0);
+      b1[i] = (byte) 0x80;
+      assertEquals(0, WritableComparator.compareBytes(b1, 0, 16, b2, 0, 16));
+    }
+  }
+
+  private static byte[] serialize(Writable w) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    w.write(out);
+    byte[] ret = new byte[out.getLength() + 1];
+    // start at offset one, to check that offsets are honored
+    System.arraycopy(out.getData(), 0, ret, 1, out.getLength());
+    return ret;
+  }
+
+  private static void checkRawCompare(WritableComparable a,
+      WritableComparable b) throws IOException {
+    WritableComparator comparator = WritableComparator.get(a.getClass());
+    byte[] ba = serialize(a);
+    byte[] bb = serialize(b);
+    int raw = comparator.compare(ba, 1, ba.length - 1, bb, 1, bb.length - 1);
+    assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)),
+        Integer.signum(raw));
+  }
+
+  private static long randomLong() {
+    switch (RANDOM.nextInt(4)) {
+    case 0:
+      return RANDOM.nextInt(256) - 128;
+    case 1:
+      return RANDOM.nextInt();
+    case 2:
+      return RANDOM.nextBoolean() ? Long.MAX_VALUE : Long.MIN_VALUE;
+    default:
+      return RANDOM.nextLong();
+    }
+  }
+
+  public void testVIntComparator() throws IOException {
+    assertEquals(VIntWritable.Comparator.class,
+        WritableComparator.get(VIntWritable.class).getClass());
+    for (int n = 0; n < 10000; n++) {
+      int a = (int) randomLong();
+      int b = RANDOM.nextInt(8) == 0 ? a : (int) randomLong();
+      checkRawCompare(new VIntWritable(a), new VIntWritable(b));
+    }
+  }
+
+  public void testVLongComparator() throws IOException {
+    assertEquals(VLongWritable.Comparator.class,
+        WritableComparator.get(VLongWritable.class).getClass());
+    for (int n = 0; n < 10000; n++) {
+      long a = randomLong();
+      long b = RANDOM.nextInt(8) == 0 ? a : randomLong();
+      checkRawCompare(new VLongWritable(a), new VLongWritable(b));
+    }
+  }
+
+  public void testBytesComparators() throws IOException {
+    for (int n = 0; n < 10000; n++) {
+      byte[] a = new byte[RANDOM.nextInt(30)];
+      RANDOM.nextBytes(a);
+      byte[] b = a.clone();
+      if (b.length > 0 && RANDOM.nextBoolean()) {
+        b[RANDOM.nextInt(b.length)] ^= (byte) (1 << RANDOM.nextInt(8));
+      }
+      checkRawCompare(new BytesWritable(a), new BytesWritable(b));
+      checkRawCompare(new Text(toText(a)), new Text(toText(b)));
+    }
+  }
+
+  /** Make a valid UTF-8 string spanning one to three byte characters. */
+  private static String toText(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append((char) ((b & 0xff) << (b % 3 == 0 ? 4 : 0)));
+    }
+    return sb.toString();
+  }
+}
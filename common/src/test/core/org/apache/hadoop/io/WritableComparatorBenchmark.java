@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.util.VersionInfo;
+
+/**
+ * WritableComparatorBenchmark measures the time
+ * {@link WritableComparator#compareBytes(byte[], int, int, byte[], int, int)}
+ * takes to compare keys of several lengths which differ in their last
+ * byte, against a byte at a time loop.
+ * <p>
+ * Usage: WritableComparatorBenchmark [-keys count] [-runs count]
+ */
+public class WritableComparatorBenchmark extends Configured implements Tool {
+  private static final int[] KEY_LENGTHS = { 8, 16, 32, 128, 1024 };
+
+  /** The byte at a time comparison, as a baseline. */
+  static int compareBytesBaseline(byte[] b1, int s1, int l1,
+                                  byte[] b2, int s2, int l2) {
+    int end1 = s1 + l1;
+    int end2 = s2 + l2;
+    for (int i = s1, j = s2; i < end1 && j < end2; i++, j++) {
+      int a = (b1[i] & 0xff);
+      int b = (b2[j] & 0xff);
+      if (a != b) {
+        return a - b;
+      }
+    }
+    return l1 - l2;
+  }
+
+  /**
+   * Generate pairs of keys of the given length, stored one after the other
+   * at unaligned offsets, the second key of a pair differing from the first
+   * in its last byte.
+   */
+  static byte[] generateKeys(int count, int length) {
+    Random random = new Random(length);
+    byte[] keys = new byte[2 * count * length + 1];
+    random.nextBytes(keys);
+    for (int i = 0; i < count; i++) {
+      int first = 1 + 2 * i * length;
+      System.arraycopy(keys, first, keys, first + length, length - 1);
+      keys[first + 2 * length - 1] = (byte) (keys[first + length - 1] ^ 1);
+    }
+    return keys;
+  }
+
+  /** @return the number of pairs found to differ */
+  static int compareAll(byte[] keys, int count, int length,
+      boolean baseline) {
+    int different = 0;
+    for (int i = 0; i < count; i++) {
+      int first = 1 + 2 * i * length;
+      int result = baseline
+        ? compareBytesBaseline(keys, first, length,
+                               keys, first + length, length)
+        : WritableComparator.compareBytes(keys, first, length,
+                                          keys, first + length, length);
+      if (result != 0) {
+        different++;
+      }
+    }
+    return different;
+  }
+
+  /** @return the best time of the runs, in ns per comparison */
+  static double measure(byte[] keys, int count, int length, boolean baseline,
+      int runs) {
+    // warm up
+    for (int i = 0; i < 10; i++) {
+      compareAll(keys, count, length, baseline);
+    }
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      int different = compareAll(keys, count, length, baseline);
+      best = Math.min(best, System.nanoTime() - start);
+      if (different != count) {
+        throw new IllegalStateException("Found " + (count - different)
+            + " equal pairs of keys");
+      }
+    }
+    return (double) best / count;
+  }
+
+  void runAll(int count, int runs, PrintStream out) {
+    out.println(String.format("%-8s %12s %12s", "length", "baseline ns",
+        "compare ns"));
+    for (int length : KEY_LENGTHS) {
+      byte[] keys = generateKeys(count, length);
+      double baseline = measure(keys, count, length, true, runs);
+      double compare = measure(keys, count, length, false, runs);
+      out.println(String.format("%-8d %12.1f %12.1f", length, baseline,
+          compare));
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    int count = 64 * 1024;
+    int runs = 20;
+    for (int i = 0; i < args.length; i++) {
+      if ("-keys".equals(args[i]) && i + 1 < args.length) {
+        count = Integer.parseInt(args[++i]);
+      } else if ("-runs".equals(args[i]) && i + 1 < args.length) {
+        runs = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(
+            "Usage: WritableComparatorBenchmark [-keys count] [-runs count]");
+        ToolRunner.printGenericCommandUsage(System.err);
+        return -1;
+      }
+    }
+    System.out.println("Benchmark: WritableComparator.compareBytes.");
+    System.out.println(VersionInfo.getVersion());
+    runAll(count, runs, System.out);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new Configuration(),
+        new WritableComparatorBenchmark(), args));
+  }
+}
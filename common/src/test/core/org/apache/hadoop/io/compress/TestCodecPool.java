@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.compress;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestCodecPool {
+
+  /**
+   * A compressor doing nothing.  Every test uses its own subclass so that
+   * it gets pools of its own.
+   */
+  static class StubCompressor implements Compressor {
+    volatile boolean ended = false;
+
+    public void setInput(byte[] b, int off, int len) {}
+    public boolean needsInput() { return true; }
+    public void setDictionary(byte[] b, int off, int len) {}
+    public long getBytesRead() { return 0; }
+    public long getBytesWritten() { return 0; }
+    public void finish() {}
+    public boolean finished() { return true; }
+    public int compress(byte[] b, int off, int len) { return 0; }
+    public void reset() {}
+    public void end() { ended = true; }
+    public void reinit(Configuration conf) {}
+  }
+
+  static class LocalCompressor extends StubCompressor {}
+  static class SharedCompressor extends StubCompressor {}
+  static class BoundedCompressor extends StubCompressor {}
+  static class LeakedCompressor extends StubCompressor {}
+  static class ConcurrentCompressor extends StubCompressor {}
+  static class OrphanedCompressor extends StubCompressor {}
+
+  @SuppressWarnings("unchecked")
+  private static CompressionCodec newCodec(
+      final Class<? extends StubCompressor> type) {
+    CompressionCodec codec = mock(CompressionCodec.class);
+    when(codec.getCompressorType()).thenReturn((Class) type);
+    when(codec.createCompressor()).thenAnswer(new Answer<Compressor>() {
+      public Compressor answer(InvocationOnMock invocation) throws Throwable {
+        return type.newInstance();
+      }
+    });
+    return codec;
+  }
+
+  @Test
+  public void testThreadLocalReuse() {
+    CompressionCodec codec = newCodec(LocalCompressor.class);
+    long created = CodecPool.metrics.created();
+    long localHits = CodecPool.metrics.localHits();
+
+    Compressor first = CodecPool.getCompressor(codec);
+    assertTrue(first instanceof LocalCompressor);
+    CodecPool.returnCompressor(first);
+    Compressor second = CodecPool.getCompressor(codec);
+    assertSame(first, second);
+    // the cache of the thread is empty until the compressor is returned
+    Compressor third = CodecPool.getCompressor(codec);
+    assertNotSame(second, third);
+    CodecPool.returnCompressor(second);
+    CodecPool.returnCompressor(third);
+
+    assertEquals(created + 2, CodecPool.metrics.created());
+    assertEquals(localHits + 1, CodecPool.metrics.localHits());
+  }
+
+  @Test
+  public void testSharedPool() throws Exception {
+    final CompressionCodec codec = newCodec(SharedCompressor.class);
+    long sharedHits = CodecPool.metrics.sharedHits();
+
+    // the first compressor returned stays in the cache of this thread, the
+    // second one goes to the shared pool
+    Compressor kept = CodecPool.getCompressor(codec);
+    Compressor shared = CodecPool.getCompressor(codec);
+    CodecPool.returnCompressor(kept);
+    CodecPool.returnCompressor(shared);
+
+    final AtomicReference<Compressor> borrowed =
+      new AtomicReference<Compressor>();
+    Thread other = new Thread() {
+      public void run() {
+        borrowed.set(CodecPool.getCompressor(codec));
+      }
+    };
+    other.start();
+    other.join();
+    assertSame(shared, borrowed.get());
+    assertEquals(sharedHits + 1, CodecPool.metrics.sharedHits());
+    assertSame(kept, CodecPool.getCompressor(codec));
+    CodecPool.returnCompressor(kept);
+    CodecPool.returnCompressor(borrowed.get());
+  }
+
+  @Test
+  public void testDeadThreadCodecsArePooled() throws Exception {
+    final CompressionCodec codec = newCodec(OrphanedCompressor.class);
+    long created = CodecPool.metrics.created();
+    long sharedHits = CodecPool.metrics.sharedHits();
+
+    // the compressor stays in the cache of the other thread when it dies
+    final AtomicReference<Compressor> returned =
+      new AtomicReference<Compressor>();
+    Thread other = new Thread() {
+      public void run() {
+        returned.set(CodecPool.getCompressor(codec));
+        CodecPool.returnCompressor(returned.get());
+      }
+    };
+    other.start();
+    other.join();
+
+    Compressor compressor = CodecPool.getCompressor(codec);
+    assertSame(returned.get(), compressor);
+    assertFalse(((StubCompressor) compressor).ended);
+    CodecPool.returnCompressor(compressor);
+    // the counts of the dead thread are kept
+    assertEquals(created + 1, CodecPool.metrics.created());
+    assertEquals(sharedHits + 1, CodecPool.metrics.sharedHits());
+  }
+
+  @Test
+  public void testBoundedPool() {
+    CompressionCodec codec = newCodec(BoundedCompressor.class);
+    long discarded = CodecPool.metrics.discarded();
+
+    // one compressor fits in the cache of the thread and the others in the
+    // shared pool, until it is full
+    List<StubCompressor> compressors = new ArrayList<StubCompressor>();
+    for (int i = 0; i < CodecPool.MAX_POOLED_CODECS + 3; i++) {
+      compressors.add((StubCompressor) CodecPool.getCompressor(codec));
+    }
+    for (StubCompressor compressor : compressors) {
+      CodecPool.returnCompressor(compressor);
+    }
+
+    assertEquals(discarded + 2, CodecPool.metrics.discarded());
+    int ended = 0;
+    for (StubCompressor compressor : compressors) {
+      ended += compressor.ended ? 1 : 0;
+    }
+    assertEquals(2, ended);
+    assertTrue(compressors.get(compressors.size() - 1).ended);
+  }
+
+  @Test
+  public void testLeakDetection() throws Exception {
+    CompressionCodec codec = newCodec(LeakedCompressor.class);
+    long leaked = CodecPool.metrics.leaked.value();
+
+    // only a sample of the codecs lent out is tracked
+    for (int i = 0; i < CodecPool.LEAK_SAMPLE_INTERVAL; i++) {
+      CodecPool.getCompressor(codec);
+    }
+    for (int i = 0; i < 100 && CodecPool.metrics.leaked.value() == leaked;
+         i++) {
+      System.gc();
+      Thread.sleep(50);
+      // leaks are detected when codecs are borrowed or returned
+      CodecPool.returnCompressor(CodecPool.getCompressor(codec));
+    }
+    // codecs dropped by other tests may be counted as well
+    assertTrue(CodecPool.metrics.leaked.value() > leaked);
+  }
+
+  @Test
+  public void testConcurrentUse() throws Exception {
+    final CompressionCodec codec = newCodec(ConcurrentCompressor.class);
+    final Set<Compressor> inUse = Collections.synchronizedSet(
+        Collections.newSetFromMap(new IdentityHashMap<Compressor, Boolean>()));
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < 10000; j++) {
+              Compressor compressor = CodecPool.getCompressor(codec);
+              assertTrue("Compressor lent twice", inUse.add(compressor));
+              assertFalse(((StubCompressor) compressor).ended);
+              assertTrue(inUse.remove(compressor));
+              CodecPool.returnCompressor(compressor);
+            }
+          } catch (Throwable t) {
+            error.compareAndSet(null, t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+  }
+}
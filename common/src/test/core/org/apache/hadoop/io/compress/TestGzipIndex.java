@@ -0,0 +1,352 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.compress;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestGzipIndex {
+  private static final Path TEST_DIR = new Path(
+      System.getProperty("test.build.data", "/tmp"), "TestGzipIndex");
+
+  private final Configuration conf = new Configuration();
+  private FileSystem fs;
+  private GzipCodec codec;
+
+  @Before
+  public void setUp() throws IOException {
+    fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    codec = ReflectionUtils.newInstance(GzipCodec.class, conf);
+  }
+
+  private static List<String> generateLines(int count, long seed) {
+    Random random = new Random(seed);
+    List<String> lines = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      StringBuilder line = new StringBuilder("line " + i);
+      for (int j = random.nextInt(30); j > 0; j--) {
+        line.append(' ').append(random.nextInt(1000));
+      }
+      lines.add(line.toString());
+    }
+    return lines;
+  }
+
+  private static byte[] toBytes(List<String> lines) {
+    StringBuilder text = new StringBuilder();
+    for (String line : lines) {
+      text.append(line).append('\n');
+    }
+    return text.toString().getBytes();
+  }
+
+  /** Write an indexed gzip file. */
+  private Path writeFile(String name, byte[] data, long interval)
+      throws IOException {
+    Path file = new Path(TEST_DIR, name);
+    FSDataOutputStream out = fs.create(file);
+    CompressionOutputStream gzipOut = codec.createIndexedOutputStream(out,
+        fs.create(GzipIndex.getIndexPath(file)), interval);
+    gzipOut.write(data);
+    gzipOut.close();
+    return file;
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    IOUtils.copyBytes(new GZIPInputStream(
+        new ByteArrayInputStream(compressed)), bytes, 4096, true);
+    return bytes.toByteArray();
+  }
+
+  private byte[] readFile(Path file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    IOUtils.copyBytes(fs.open(file), bytes, 4096, true);
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testIndexedOutput() throws IOException {
+    byte[] data = toBytes(generateLines(5000, 0));
+    int interval = 10000;
+    Path file = writeFile("indexed.gz", data, interval);
+    byte[] compressed = readFile(file);
+    assertArrayEquals(data, gunzip(compressed));
+
+    GzipIndex index = GzipIndex.read(fs, file);
+    assertEquals((data.length + interval - 1) / interval, index.size());
+    for (int i = 0; i < index.size(); i++) {
+      assertEquals(i * (long) interval, index.getUncompressedOffset(i));
+      // every checkpoint starts a gzip member
+      int offset = (int) index.getCompressedOffset(i);
+      byte[] tail = gunzip(Arrays.copyOfRange(compressed, offset,
+          compressed.length));
+      assertEquals(data.length - i * interval, tail.length);
+    }
+    assertEquals(0, index.findCheckpoint(0));
+    assertEquals(1, index.findCheckpoint(1));
+    assertEquals(index.size(), index.findCheckpoint(compressed.length));
+
+    // serialization
+    DataOutputBuffer out = new DataOutputBuffer();
+    index.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    GzipIndex copy = new GzipIndex();
+    copy.readFields(in);
+    assertEquals(index.size(), copy.size());
+    for (int i = 0; i < index.size(); i++) {
+      assertEquals(index.getCompressedOffset(i), copy.getCompressedOffset(i));
+      assertEquals(index.getUncompressedOffset(i),
+          copy.getUncompressedOffset(i));
+    }
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    Path file = writeFile("empty.gz", new byte[0], 100);
+    assertEquals(0, gunzip(readFile(file)).length);
+    assertEquals(1, GzipIndex.read(fs, file).size());
+  }
+
+  @Test
+  public void testIndexer() throws IOException {
+    byte[] data = toBytes(generateLines(3000, 1));
+    Path file = writeFile("indexer.gz", data, 5000);
+    GzipIndex written = GzipIndex.read(fs, file);
+
+    // every member is a checkpoint
+    GzipIndex index = GzipIndexer.index(fs, file, 0);
+    assertEquals(written.size(), index.size());
+    for (int i = 0; i < index.size(); i++) {
+      assertEquals(written.getCompressedOffset(i),
+          index.getCompressedOffset(i));
+      assertEquals(written.getUncompressedOffset(i),
+          index.getUncompressedOffset(i));
+    }
+    assertEquals(written.size(), GzipIndex.read(fs, file).size());
+
+    // short members are merged
+    index = GzipIndexer.index(fs, file, 12000);
+    assertEquals((written.size() + 2) / 3, index.size());
+    for (int i = 0; i < index.size(); i++) {
+      assertEquals(written.getCompressedOffset(3 * i),
+          index.getCompressedOffset(i));
+    }
+
+    // a single member file
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CompressionOutputStream out = codec.createOutputStream(bytes);
+    out.write(data);
+    out.close();
+    assertEquals(1, GzipIndexer.index(
+        new ByteArrayInputStream(bytes.toByteArray()), 0).size());
+
+    try {
+      GzipIndexer.index(new ByteArrayInputStream(data), 0);
+      fail("Indexed a file which is not gzip");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testStaleIndex() throws IOException {
+    byte[] data = toBytes(generateLines(1000, 3));
+    Path file = new Path(TEST_DIR, "stale.gz");
+    CompressionOutputStream out = codec.createIndexedOutputStream(
+        fs.create(file), fs, file, 5000);
+    out.write(data);
+    out.close();
+    FileStatus status = fs.getFileStatus(file);
+    GzipIndex index = GzipIndex.read(fs, file);
+    assertEquals(status.getLen(), index.getFileLength());
+    assertEquals(status.getModificationTime(), index.getModificationTime());
+    assertTrue(GzipIndex.isIndexed(fs, file, codec));
+
+    // a file touched since it was indexed
+    assertTrue(new File(file.toUri().getPath()).setLastModified(
+        status.getModificationTime() - 10000));
+    assertNull(GzipIndex.read(fs, file));
+    assertFalse(GzipIndex.isIndexed(fs, file, codec));
+
+    // a file rewritten since it was indexed, with an index written without
+    // the modification time of the file
+    file = writeFile("rewritten.gz", data, 5000);
+    assertEquals(-1, GzipIndex.read(fs, file).getModificationTime());
+    assertTrue(GzipIndex.isIndexed(fs, file, codec));
+    out = codec.createOutputStream(fs.create(file, true));
+    out.write(data);
+    out.close();
+    assertNull(GzipIndex.read(fs, file));
+    assertFalse(GzipIndex.isIndexed(fs, file, codec));
+  }
+
+  @Test
+  public void testResetState() throws IOException {
+    byte[] data = toBytes(generateLines(2000, 4));
+    Path file = writeFile("reset.gz", data, 3000);
+    GzipIndex index = GzipIndex.read(fs, file);
+    long length = fs.getFileStatus(file).getLen();
+    SplitCompressionInputStream in = codec.createInputStream(fs.open(file),
+        codec.createDecompressor(), index, 0, length);
+    // reset within the members and at their ends
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1000];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      read.write(buffer, 0, n);
+      in.resetState();
+    }
+    in.close();
+    assertArrayEquals(data, read.toByteArray());
+  }
+
+  @Test
+  public void testEmptyMember() throws IOException {
+    List<String> lines = generateLines(1000, 5);
+    byte[] data = toBytes(lines);
+    // gzip members of the first half, of nothing, and of the second half
+    Path file = new Path(TEST_DIR, "emptymember.gz");
+    FSDataOutputStream fileOut = fs.create(file);
+    int[] ends = { data.length / 2, data.length / 2, data.length };
+    int start = 0;
+    for (int end : ends) {
+      CompressionOutputStream out = codec.createOutputStream(fileOut);
+      out.write(data, start, end - start);
+      out.finish();
+      start = end;
+    }
+    fileOut.close();
+    GzipIndex index = GzipIndexer.index(fs, file, 0);
+    assertEquals(3, index.size());
+    assertEquals(index.getUncompressedOffset(1),
+        index.getUncompressedOffset(2));
+
+    long length = fs.getFileStatus(file).getLen();
+    assertEquals(lines, readSplit(file, index, 0, length));
+    List<String> read = new ArrayList<String>();
+    for (int i = 0; i < index.size(); i++) {
+      read.addAll(readSplit(file, index, index.getCompressedOffset(i),
+          i + 1 < index.size() ? index.getCompressedOffset(i + 1) : length));
+    }
+    assertEquals(lines, read);
+
+    SplitCompressionInputStream in = codec.createInputStream(fs.open(file),
+        codec.createDecompressor(), index, 0, length);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1000];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      bytes.write(buffer, 0, n);
+      in.resetState();
+    }
+    in.close();
+    assertArrayEquals(data, bytes.toByteArray());
+  }
+
+  /** Read the lines of a split as the line record readers do. */
+  private List<String> readSplit(Path file, GzipIndex index, long start,
+      long end) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    FSDataInputStream fileIn = fs.open(file);
+    SplitCompressionInputStream in = codec.createInputStream(fileIn,
+        codec.createDecompressor(), index, start, end);
+    LineReader reader = new LineReader(in, 4096);
+    Text line = new Text();
+    if (in.getAdjustedStart() != 0) {
+      reader.readLine(line);
+    }
+    while (in.getPos() <= in.getAdjustedEnd()
+        && reader.readLine(line) > 0) {
+      lines.add(line.toString());
+    }
+    reader.close();
+    return lines;
+  }
+
+  private void testSplits(List<String> lines, long interval)
+      throws IOException {
+    Path file = writeFile("splits.gz", toBytes(lines), interval);
+    GzipIndex index = GzipIndex.read(fs, file);
+    long length = fs.getFileStatus(file).getLen();
+    for (long splitSize : new long[] { 1000, 2500, 10000, length }) {
+      List<String> read = new ArrayList<String>();
+      for (long start = 0; start < length; start += splitSize) {
+        read.addAll(readSplit(file, index, start,
+            Math.min(start + splitSize, length)));
+      }
+      assertEquals("interval=" + interval + " splitSize=" + splitSize,
+          lines, read);
+    }
+    // splits ending at, just before and just after the checkpoints
+    for (int delta = -1; delta <= 1; delta++) {
+      List<String> read = new ArrayList<String>();
+      long start = 0;
+      for (int i = 1; i <= index.size(); i++) {
+        long end = i == index.size() ? length
+            : index.getCompressedOffset(i) + delta;
+        read.addAll(readSplit(file, index, start, end));
+        start = end;
+      }
+      assertEquals("interval=" + interval + " delta=" + delta, lines, read);
+    }
+  }
+
+  @Test
+  public void testSplits() throws IOException {
+    List<String> lines = generateLines(4000, 2);
+    testSplits(lines, 7777);
+    testSplits(lines, 100000);
+  }
+
+  @Test
+  public void testSplitsAtLineBoundaries() throws IOException {
+    // every checkpoint starts a line
+    List<String> lines = new ArrayList<String>();
+    for (int i = 0; i < 4000; i++) {
+      lines.add(String.format("line %09d", i));
+    }
+    testSplits(lines, 15 * 100);
+  }
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.compress;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Test;
+
+public class TestParallelCompressorStream {
+  private static final int BLOCK_SIZE = 16 * 1024;
+  private final Configuration conf = new Configuration();
+
+  /** Data which compresses, with blocks of random words. */
+  private static byte[] generateData(int length, long seed) {
+    Random random = new Random(seed);
+    byte[] data = new byte[length];
+    String[] words = { "hadoop ", "parallel ", "compression ", "stream\n" };
+    int i = 0;
+    while (i < length) {
+      byte[] word = words[random.nextInt(words.length)].getBytes();
+      int n = Math.min(word.length, length - i);
+      System.arraycopy(word, 0, data, i, n);
+      i += n;
+    }
+    return data;
+  }
+
+  private byte[] compress(CompressionCodec codec, byte[] data, int threads)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ParallelCompressorStream out =
+      new ParallelCompressorStream(bytes, codec, conf, threads, BLOCK_SIZE);
+    // write in pieces of various sizes, across the block boundaries
+    Random random = new Random(data.length);
+    int off = 0;
+    while (off < data.length) {
+      if (random.nextInt(10) == 0) {
+        out.write(data[off++]);
+      } else {
+        int len = Math.min(random.nextInt(3 * BLOCK_SIZE), data.length - off);
+        out.write(data, off, len);
+        off += len;
+      }
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    IOUtils.copyBytes(in, bytes, 4096, true);
+    return bytes.toByteArray();
+  }
+
+  private byte[] decompress(CompressionCodec codec, byte[] compressed)
+      throws IOException {
+    return readFully(codec.createInputStream(
+        new ByteArrayInputStream(compressed)));
+  }
+
+  private void testRoundTrip(Class<? extends CompressionCodec> codecClass)
+      throws IOException {
+    CompressionCodec codec = ReflectionUtils.newInstance(codecClass, conf);
+    for (int length : new int[] { 0, 1, BLOCK_SIZE, 20 * BLOCK_SIZE + 17 }) {
+      byte[] data = generateData(length, length);
+      for (int threads : new int[] { 1, 4 }) {
+        byte[] compressed = compress(codec, data, threads);
+        assertArrayEquals(codecClass.getSimpleName() + " length=" + length
+            + " threads=" + threads, data, decompress(codec, compressed));
+      }
+    }
+  }
+
+  @Test
+  public void testDefaultCodec() throws IOException {
+    testRoundTrip(DefaultCodec.class);
+  }
+
+  @Test
+  public void testGzipCodec() throws IOException {
+    testRoundTrip(GzipCodec.class);
+    // the concatenated members are a valid gzip file
+    byte[] data = generateData(10 * BLOCK_SIZE, 0);
+    byte[] compressed = compress(new GzipCodec(), data, 4);
+    assertArrayEquals(data, readFully(
+        new GZIPInputStream(new ByteArrayInputStream(compressed))));
+  }
+
+  @Test
+  public void testFinishAndReset() throws IOException {
+    CompressionCodec codec = ReflectionUtils.newInstance(GzipCodec.class,
+        conf);
+    byte[] first = generateData(3 * BLOCK_SIZE + 5, 1);
+    byte[] second = generateData(BLOCK_SIZE / 2, 2);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ParallelCompressorStream out =
+      new ParallelCompressorStream(bytes, codec, conf, 2, BLOCK_SIZE);
+    out.write(first);
+    out.finish();
+    int firstLength = bytes.size();
+    out.finish();
+    assertEquals(firstLength, bytes.size());
+    out.resetState();
+    out.write(second);
+    out.close();
+
+    byte[] compressed = bytes.toByteArray();
+    assertArrayEquals(first, decompress(codec,
+        Arrays.copyOf(compressed, firstLength)));
+    byte[] all = new byte[first.length + second.length];
+    System.arraycopy(first, 0, all, 0, first.length);
+    System.arraycopy(second, 0, all, first.length, second.length);
+    assertArrayEquals(all, decompress(codec, compressed));
+
+    try {
+      out.write(1);
+      fail("Wrote to a closed stream");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCloseAfterFailure() throws IOException {
+    final boolean[] closed = { false };
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Injected failure");
+      }
+
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+    ParallelCompressorStream out = new ParallelCompressorStream(failing,
+        ReflectionUtils.newInstance(GzipCodec.class, conf), conf, 2,
+        BLOCK_SIZE);
+    out.write(generateData(BLOCK_SIZE, 3));
+    try {
+      out.close();
+      fail("Closed a stream failing to write");
+    } catch (IOException e) {
+      // expected
+    }
+    assertTrue("The underlying stream was not closed", closed[0]);
+  }
+
+  @Test
+  public void testCodecSelection() throws IOException {
+    Configuration conf = new Configuration();
+    CompressionCodec gzip = ReflectionUtils.newInstance(GzipCodec.class, conf);
+    CompressionCodec deflate =
+      ReflectionUtils.newInstance(DefaultCodec.class, conf);
+    assertFalse(CompressionCodecFactory.isParallelCompression(gzip, conf));
+
+    conf.set(CommonConfigurationKeys.IO_COMPRESSION_CODEC_PARALLEL_CODECS_KEY,
+        "Gzip, " + BZip2Codec.class.getName());
+    assertTrue(CompressionCodecFactory.isParallelCompression(gzip, conf));
+    assertTrue(CompressionCodecFactory.isParallelCompression(
+        new BZip2Codec(), conf));
+    assertFalse(CompressionCodecFactory.isParallelCompression(deflate, conf));
+
+    CompressionOutputStream out = CompressionCodecFactory.createOutputStream(
+        gzip, new ByteArrayOutputStream(), conf);
+    assertTrue(out instanceof ParallelCompressorStream);
+    out.close();
+    out = CompressionCodecFactory.createOutputStream(
+        deflate, new ByteArrayOutputStream(), conf);
+    assertFalse(out instanceof ParallelCompressorStream);
+    out.close();
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.file.tfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.file.tfile.TFile.Reader;
+import org.apache.hadoop.io.file.tfile.TFile.Reader.Scanner;
+import org.apache.hadoop.io.file.tfile.TFile.Writer;
+
+public class TestTFileBlockCache extends TestCase {
+  private static String ROOT =
+      System.getProperty("test.build.data", "/tmp/tfile-test");
+  private static final int RECORDS = 5000;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path path;
+
+  @Override
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    conf.setLong(BlockCache.CACHE_SIZE_ATTR, 4 * 1024 * 1024);
+    path = new Path(ROOT, "TestTFileBlockCache");
+    fs = path.getFileSystem(conf);
+    FSDataOutputStream out = fs.create(path);
+    // gz buffers too much for small blocks, so do not compress
+    Writer writer = new Writer(out, 1024, 
+        Compression.Algorithm.NONE.getName(), "memcmp", conf);
+    for (int i = 0; i < RECORDS; i++) {
+      writer.append(key(i), value(i));
+    }
+    writer.close();
+    out.close();
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    fs.delete(path, true);
+  }
+
+  private static byte[] key(int i) {
+    return String.format("key%06d", i).getBytes();
+  }
+
+  private static byte[] value(int i) {
+    return ("value" + i + "-" + Integer.toHexString(i * 7919)).getBytes();
+  }
+
+  /** Lookups are served from the cache once their block has been read. */
+  public void testLookups() throws IOException {
+    Reader reader = 
+      new Reader(fs.open(path), fs.getFileStatus(path).getLen(), conf);
+    BlockCache cache = BlockCache.get(conf);
+    assertNotNull(cache);
+    int blocks = reader.readerBCF.getBlockCount();
+    assertTrue("only " + blocks + " blocks", blocks > 10);
+    try {
+      long misses = BlockCache.metrics.misses.value();
+      long hits = BlockCache.metrics.hits.value();
+      Random random = new Random(0);
+      byte[] buf = new byte[64];
+      for (int pass = 0; pass < 2; pass++) {
+        for (int n = 0; n < 1000; n++) {
+          int i = random.nextInt(RECORDS);
+          Scanner scanner = reader.createScanner();
+          try {
+            assertTrue(scanner.seekTo(key(i)));
+            int len = scanner.entry().getValue(buf);
+            assertEquals(new String(value(i)), new String(buf, 0, len));
+          } finally {
+            scanner.close();
+          }
+        }
+        // every block is decompressed at most once
+        assertTrue(BlockCache.metrics.misses.value() - misses <= blocks);
+      }
+      assertTrue(BlockCache.metrics.hits.value() - hits >= 1000);
+      assertTrue(cache.getSize() > 0);
+
+      // a full scan sees the same records
+      Scanner scanner = reader.createScanner();
+      for (int i = 0; i < RECORDS; i++, scanner.advance()) {
+        int len = scanner.entry().getValue(buf);
+        assertEquals(new String(value(i)), new String(buf, 0, len));
+      }
+      assertTrue(scanner.atEnd());
+      scanner.close();
+    } finally {
+      reader.close();
+    }
+    assertEquals(0, cache.getSize());
+  }
+
+  /** Readers opened with the status of a file share its cached blocks. */
+  public void testSharedReaders() throws IOException {
+    FileStatus status = fs.getFileStatus(path);
+    BlockCache cache = BlockCache.get(conf);
+    byte[] buf = new byte[64];
+    Reader reader = new Reader(fs.open(path), status, conf);
+    int blocks = reader.readerBCF.getBlockCount();
+    try {
+      Scanner scanner = reader.createScanner();
+      for (int i = 0; i < RECORDS; i++, scanner.advance()) {
+        scanner.entry().getValue(buf);
+      }
+      scanner.close();
+    } finally {
+      reader.close();
+    }
+    // the blocks outlive the reader
+    long size = cache.getSize();
+    assertTrue(size > 0);
+
+    long misses = BlockCache.metrics.misses.value();
+    long hits = BlockCache.metrics.hits.value();
+    reader = new Reader(fs.open(path), status, conf);
+    try {
+      Scanner scanner = reader.createScanner();
+      for (int i = 0; i < RECORDS; i++, scanner.advance()) {
+        int len = scanner.entry().getValue(buf);
+        assertEquals(new String(value(i)), new String(buf, 0, len));
+      }
+      scanner.close();
+    } finally {
+      reader.close();
+    }
+    assertEquals(misses, BlockCache.metrics.misses.value());
+    assertTrue(BlockCache.metrics.hits.value() - hits >= blocks);
+    assertEquals(size, cache.getSize());
+
+    cache.evict(BlockCache.fileKey(status));
+    assertEquals(0, cache.getSize());
+  }
+
+  public void testEviction() {
+    BlockCache cache = new BlockCache(100, false);
+    long evictions = BlockCache.metrics.evictions.value();
+    cache.put(1, 0, new byte[40]);
+    cache.put(1, 40, new byte[40]);
+    assertNotNull(cache.get(1, 0));               // now the most recent
+    cache.put(2, 0, new byte[40]);
+    assertEquals(1, BlockCache.metrics.evictions.value() - evictions);
+    assertNull(cache.get(1, 40));
+    assertNotNull(cache.get(1, 0));
+    assertNotNull(cache.get(2, 0));
+    assertEquals(80, cache.getSize());
+
+    assertFalse(cache.isCacheable(101));
+    cache.evict(1);
+    assertNull(cache.get(1, 0));
+    assertEquals(40, cache.getSize());
+  }
+
+  public void testDirect() {
+    BlockCache cache = new BlockCache(100, true);
+    byte[] data = "some block".getBytes();
+    ByteBuffer block = cache.put(1, 0, data);
+    assertTrue(block.isDirect());
+    ByteBuffer cached = cache.get(1, 0);
+    assertTrue(cached.isDirect());
+    assertEquals(ByteBuffer.wrap(data), cached);
+    // each lookup gets its own position
+    cached.get();
+    assertEquals(data.length, cache.get(1, 0).remaining());
+  }
+}
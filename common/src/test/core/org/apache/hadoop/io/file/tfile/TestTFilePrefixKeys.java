@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.file.tfile;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.file.tfile.TFile.Reader;
+import org.apache.hadoop.io.file.tfile.TFile.Reader.Scanner;
+import org.apache.hadoop.io.file.tfile.TFile.Writer;
+
+public class TestTFilePrefixKeys extends TestCase {
+  private static String ROOT =
+      System.getProperty("test.build.data", "/tmp/tfile-test");
+  // every key is appended DUPS times in a row
+  private static final int DUPS = 3;
+  private static final int RECORDS = 3000;
+  private static final int RESTART_INTERVAL = 4;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path path;
+
+  @Override
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    conf.setInt("tfile.io.key.restart.interval", RESTART_INTERVAL);
+    path = new Path(ROOT, "TestTFilePrefixKeys");
+    fs = path.getFileSystem(conf);
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    fs.delete(path, true);
+  }
+
+  private static byte[] key(int i) {
+    return String.format("user/data/%05d", i).getBytes();
+  }
+
+  private static byte[] value(int i) {
+    return ("value" + i).getBytes();
+  }
+
+  private void writeFile(Path file, String comparator, Configuration conf)
+      throws IOException {
+    FSDataOutputStream out = fs.create(file);
+    // do not compress, so that there are many small blocks
+    Writer writer = new Writer(out, 1024,
+        Compression.Algorithm.NONE.getName(), comparator, conf);
+    for (int i = 0; i < RECORDS; i++) {
+      if (i % 2 == 0) {
+        writer.append(key(i / DUPS), value(i));
+      } else {
+        // chunk encoded value of unknown length
+        DataOutputStream dos = writer.prepareAppendKey(-1);
+        dos.write(key(i / DUPS));
+        dos.close();
+        dos = writer.prepareAppendValue(-1);
+        dos.write(value(i));
+        dos.close();
+      }
+    }
+    writer.close();
+    out.close();
+  }
+
+  private Reader openReader(Path file) throws IOException {
+    return new Reader(fs.open(file), fs.getFileStatus(file).getLen(), conf);
+  }
+
+  private static void checkEntry(Scanner scanner, int i) throws IOException {
+    BytesWritable key = new BytesWritable();
+    BytesWritable value = new BytesWritable();
+    scanner.entry().get(key, value);
+    assertEquals(new String(key(i / DUPS)),
+        new String(key.getBytes(), 0, key.getLength()));
+    assertEquals(new String(value(i)),
+        new String(value.getBytes(), 0, value.getLength()));
+    assertEquals(i, scanner.getRecordNum());
+  }
+
+  /** Only files with prefix-compressed keys need the new file version. */
+  public void testVersions() throws IOException {
+    writeFile(path, "memcmp", conf);
+    Path plain = new Path(ROOT, "TestTFilePrefixKeys.plain");
+    try {
+      writeFile(plain, "memcmp", new Configuration());
+
+      Reader reader = openReader(path);
+      assertEquals(TFile.API_VERSION, reader.tfileMeta.getVersion());
+      assertEquals(RESTART_INTERVAL,
+          reader.tfileMeta.getKeyRestartInterval());
+      assertTrue(reader.readerBCF.getBlockCount() > 10);
+      reader.close();
+
+      reader = openReader(plain);
+      assertEquals(TFile.PLAIN_KEY_VERSION, reader.tfileMeta.getVersion());
+      assertEquals(0, reader.tfileMeta.getKeyRestartInterval());
+      Scanner scanner = reader.createScanner();
+      for (int i = 0; i < RECORDS; i++, scanner.advance()) {
+        checkEntry(scanner, i);
+      }
+      assertTrue(scanner.atEnd());
+      scanner.close();
+      reader.close();
+
+      assertTrue(fs.getFileStatus(path).getLen() < fs.getFileStatus(plain)
+          .getLen());
+    } finally {
+      fs.delete(plain, true);
+    }
+  }
+
+  public void testScan() throws IOException {
+    writeFile(path, "memcmp", conf);
+    Reader reader = openReader(path);
+    Scanner scanner = reader.createScanner();
+    for (int i = 0; i < RECORDS; i++, scanner.advance()) {
+      checkEntry(scanner, i);
+    }
+    assertTrue(scanner.atEnd());
+    scanner.close();
+    reader.close();
+  }
+
+  public void testUnsortedScan() throws IOException {
+    writeFile(path, null, conf);
+    Reader reader = openReader(path);
+    assertFalse(reader.isSorted());
+    Scanner scanner = reader.createScanner();
+    for (int i = 0; i < RECORDS; i++, scanner.advance()) {
+      checkEntry(scanner, i);
+    }
+    assertTrue(scanner.atEnd());
+    scanner.close();
+    reader.close();
+  }
+
+  public void testSeekToKey() throws IOException {
+    writeFile(path, "memcmp", conf);
+    Reader reader = openReader(path);
+    Scanner scanner = reader.createScanner();
+    Random rand = new Random(System.nanoTime());
+    int keys = RECORDS / DUPS;
+    for (int n = 0; n < 1000; n++) {
+      int k = rand.nextInt(keys);
+      assertTrue(scanner.seekTo(key(k)));
+      checkEntry(scanner, k * DUPS);
+
+      scanner.upperBound(key(k));
+      if (k == keys - 1) {
+        assertTrue(scanner.atEnd());
+      } else {
+        checkEntry(scanner, (k + 1) * DUPS);
+      }
+
+      // a missing key sorts between key(k) and key(k + 1)
+      byte[] missing = (new String(key(k)) + "-").getBytes();
+      if (k == keys - 1) {
+        assertFalse(scanner.seekTo(missing));
+        assertTrue(scanner.atEnd());
+      } else {
+        scanner.lowerBound(missing);
+        checkEntry(scanner, (k + 1) * DUPS);
+      }
+    }
+    scanner.close();
+    reader.close();
+
+    // scanners bounded by keys
+    for (int n = 0; n < 50; n++) {
+      int k = rand.nextInt(keys - 1);
+      int l = k + 1 + rand.nextInt(keys - k - 1);
+      reader = openReader(path);
+      scanner = reader.createScannerByKey(key(k), key(l));
+      int i = k * DUPS;
+      for (; !scanner.atEnd(); i++, scanner.advance()) {
+        checkEntry(scanner, i);
+      }
+      assertEquals(l * DUPS, i);
+      scanner.close();
+      reader.close();
+    }
+  }
+
+  public void testSeekToRecordNum() throws IOException {
+    writeFile(path, "memcmp", conf);
+    Reader reader = openReader(path);
+    Random rand = new Random(System.nanoTime());
+    for (int n = 0; n < 500; n++) {
+      int begin = rand.nextInt(RECORDS);
+      int end = begin + rand.nextInt(RECORDS - begin) + 1;
+      Scanner scanner = reader.createScannerByRecordNum(begin, end);
+      checkEntry(scanner, begin);
+      int skip = rand.nextInt(end - begin);
+      if (skip > 0) {
+        for (int i = 0; i < skip; i++) {
+          scanner.advance();
+        }
+        checkEntry(scanner, begin + skip);
+      }
+      scanner.rewind();
+      checkEntry(scanner, begin);
+      scanner.close();
+    }
+    reader.close();
+  }
+}
@@ -0,0 +1,484 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Level;
+
+/**
+ * RPCCallBenchmark measures the round trip latency and the throughput of
+ * calls through {@link Client} and {@link Server}.
+ * <p>
+ * Every parameter may be given a comma separated list of values; the
+ * benchmark runs once for each combination of them, so that a run sweeps
+ * the RPC engines, payload sizes, numbers of concurrent clients and numbers
+ * of server handler and reader threads in one go.  Each run starts a fresh
+ * server, lets the clients call it during a warm up period, then measures
+ * for a fixed period and prints one line of results holding the calls per
+ * second and the latency percentiles of the measured calls.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>engine - <tt>writable</tt> or <tt>avro</tt></li>
+ * <li>payload - bytes sent and echoed back by each call</li>
+ * <li>clients - number of client threads calling the server</li>
+ * <li>users - number of distinct users the client threads call as</li>
+ * <li>handlers - number of server handler threads</li>
+ * <li>readers - number of server reader threads</li>
+ * <li>callqueue - class of the server call queue</li>
+ * <li>warmup, time - seconds of warm up and of measurement</li>
+ * </ul>
+ */
+public class RPCCallBenchmark extends Configured implements Tool {
+  private static final String ADDRESS = "0.0.0.0";
+
+  /** Protocol of the benchmark used with {@link WritableRpcEngine}. */
+  public interface BenchmarkProtocol extends VersionedProtocol {
+    public static final long versionID = 1L;
+
+    byte[] echo(byte[] data) throws IOException;
+  }
+
+  /** Protocol of the benchmark used with {@link AvroRpcEngine}. */
+  public interface AvroBenchmarkProtocol {
+    byte[] echo(byte[] data);
+  }
+
+  public static class BenchmarkImpl
+      implements BenchmarkProtocol, AvroBenchmarkProtocol {
+    @Override // VersionedProtocol
+    public long getProtocolVersion(String protocol, long clientVersion) {
+      return versionID;
+    }
+
+    @Override // VersionedProtocol
+    public ProtocolSignature getProtocolSignature(String protocol,
+        long clientVersion, int clientMethodsHashCode) throws IOException {
+      return new ProtocolSignature(versionID, null);
+    }
+
+    @Override // BenchmarkProtocol, AvroBenchmarkProtocol
+    public byte[] echo(byte[] data) {
+      return data;
+    }
+  }
+
+  /**
+   * Histogram of call latencies in microseconds.  Every power of two range
+   * is divided in {@link #SUB_BUCKETS} buckets, which bounds the error of a
+   * percentile to a few percent whatever the number of calls recorded.
+   */
+  static class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    static int getBucket(long micros) {
+      if (micros < SUB_BUCKETS) {
+        return (int) micros;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(micros);
+      int shift = exponent - SUB_BUCKET_BITS;
+      return (shift + 1) * SUB_BUCKETS
+          + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /** @return the smallest latency counted in a bucket */
+    static long getBucketValue(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      int shift = bucket / SUB_BUCKETS - 1;
+      return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    void add(long micros) {
+      counts[getBucket(micros)]++;
+      count++;
+      max = Math.max(max, micros);
+    }
+
+    void add(LatencyHistogram other) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+      }
+      count += other.count;
+      max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    long getMax() {
+      return max;
+    }
+
+    /** @return the latency below which the given fraction of calls fall */
+    long getPercentile(double fraction) {
+      long rank = (long) Math.ceil(fraction * count);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank && seen > 0) {
+          return Math.min(getBucketValue(i), max);
+        }
+      }
+      return max;
+    }
+  }
+
+  /** Settings of one run of the benchmark. */
+  static class RunSettings {
+    String engine = "writable";
+    int payloadSize = 1024;
+    int clientThreads = 1;
+    int users = 1;
+    int handlerThreads = 1;
+    int readerThreads = 1;
+    String callQueue = null;
+    int warmupSeconds = 2;
+    int measureSeconds = 10;
+
+    @Override
+    public String toString() {
+      return engine + " payload=" + payloadSize + " clients=" + clientThreads
+          + " users=" + users + " handlers=" + handlerThreads
+          + " readers=" + readerThreads
+          + (callQueue == null ? "" : " callqueue=" + callQueue);
+    }
+  }
+
+  /** Results of one run of the benchmark. */
+  static class RunResult {
+    final RunSettings settings;
+    final LatencyHistogram latencies;
+    final double callsPerSecond;
+
+    RunResult(RunSettings settings, LatencyHistogram latencies,
+        double callsPerSecond) {
+      this.settings = settings;
+      this.latencies = latencies;
+      this.callsPerSecond = callsPerSecond;
+    }
+
+    static void printHeader(PrintStream out) {
+      out.println(String.format("%-8s %8s %7s %5s %8s %7s %10s %8s %8s %8s"
+          + " %8s %8s", "engine", "payload", "clients", "users", "handlers",
+          "readers", "calls/s", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)",
+          "max(us)"));
+    }
+
+    void print(PrintStream out) {
+      out.println(String.format("%-8s %8d %7d %5d %8d %7d %10.0f %8d %8d %8d"
+          + " %8d %8d", settings.engine, settings.payloadSize,
+          settings.clientThreads, settings.users, settings.handlerThreads,
+          settings.readerThreads, callsPerSecond,
+          latencies.getPercentile(0.5), latencies.getPercentile(0.9),
+          latencies.getPercentile(0.99), latencies.getPercentile(0.999),
+          latencies.getMax()));
+    }
+  }
+
+  /** A client thread calling the server until the run is over. */
+  private static class CallerThread extends Thread {
+    private final Object proxy;
+    private final byte[] payload;
+    private final CountDownLatch started;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicReference<Throwable> error;
+    private volatile boolean measuring = false;
+    private volatile boolean running = true;
+
+    CallerThread(Object proxy, byte[] payload, CountDownLatch started,
+        AtomicReference<Throwable> error) {
+      this.proxy = proxy;
+      this.payload = payload;
+      this.started = started;
+      this.error = error;
+      setDaemon(true);
+    }
+
+    private void call() throws IOException {
+      byte[] value = proxy instanceof BenchmarkProtocol
+          ? ((BenchmarkProtocol) proxy).echo(payload)
+          : ((AvroBenchmarkProtocol) proxy).echo(payload);
+      if (value.length != payload.length) {
+        throw new IOException("Expected " + payload.length
+            + " bytes but got " + value.length);
+      }
+    }
+
+    public void run() {
+      started.countDown();
+      try {
+        while (running) {
+          boolean measured = measuring;
+          long start = System.nanoTime();
+          call();
+          if (measured && running) {
+            latencies.add((System.nanoTime() - start) / 1000);
+          }
+        }
+      } catch (Throwable t) {
+        error.compareAndSet(null, t);
+      }
+    }
+  }
+
+  /**
+   * Run the benchmark once.
+   * @param conf configuration of the server and the clients
+   * @param settings settings of the run
+   * @return the latencies and throughput of the calls made
+   */
+  RunResult run(Configuration conf, final RunSettings settings)
+      throws IOException, InterruptedException {
+    conf = new Configuration(conf);
+    final boolean avro = "avro".equals(settings.engine);
+    final Class<?> protocol = avro ? AvroBenchmarkProtocol.class
+        : BenchmarkProtocol.class;
+    if (avro) {
+      RPC.setProtocolEngine(conf, protocol, AvroRpcEngine.class);
+    } else if (!"writable".equals(settings.engine)) {
+      throw new IllegalArgumentException("Unknown engine " + settings.engine);
+    }
+    conf.setInt(CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_KEY,
+        settings.readerThreads);
+    int port = 0;
+    if (settings.callQueue != null) {
+      // the call queue is configured per port
+      ServerSocket socket = new ServerSocket(0);
+      port = socket.getLocalPort();
+      socket.close();
+      conf.set(CallQueueManager.getQueueNamespace(port) + "."
+          + CommonConfigurationKeys.IPC_CALLQUEUE_IMPL_KEY, settings.callQueue);
+    }
+
+    Server server = RPC.getServer(protocol, new BenchmarkImpl(), ADDRESS,
+        port, settings.handlerThreads, false, conf, null);
+    server.start();
+    final InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    final Configuration clientConf = conf;
+    List<Object> proxies = new ArrayList<Object>();
+    List<CallerThread> callers = new ArrayList<CallerThread>();
+    try {
+      byte[] payload = new byte[settings.payloadSize];
+      CountDownLatch started = new CountDownLatch(settings.clientThreads);
+      AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      for (int i = 0; i < settings.clientThreads; i++) {
+        UserGroupInformation user = UserGroupInformation.createRemoteUser(
+            "benchmark" + (i % settings.users));
+        Object proxy = user.doAs(new PrivilegedExceptionAction<Object>() {
+          @Override
+          public Object run() throws IOException {
+            return RPC.getProxy(protocol, BenchmarkProtocol.versionID, addr,
+                clientConf);
+          }
+        });
+        proxies.add(proxy);
+        callers.add(new CallerThread(proxy, payload, started, error));
+      }
+      for (CallerThread caller : callers) {
+        caller.start();
+      }
+      started.await();
+      Thread.sleep(settings.warmupSeconds * 1000L);
+
+      for (CallerThread caller : callers) {
+        caller.measuring = true;
+      }
+      long start = System.nanoTime();
+      Thread.sleep(settings.measureSeconds * 1000L);
+      for (CallerThread caller : callers) {
+        caller.running = false;
+      }
+      long elapsed = System.nanoTime() - start;
+      for (CallerThread caller : callers) {
+        caller.join();
+      }
+      if (error.get() != null) {
+        throw (IOException) new IOException("Benchmark call failed for "
+            + settings).initCause(error.get());
+      }
+
+      LatencyHistogram latencies = new LatencyHistogram();
+      for (CallerThread caller : callers) {
+        latencies.add(caller.latencies);
+      }
+      return new RunResult(settings, latencies,
+          latencies.getCount() * 1e9 / elapsed);
+    } finally {
+      for (CallerThread caller : callers) {
+        caller.running = false;
+      }
+      for (Object proxy : proxies) {
+        RPC.stopProxy(proxy);
+      }
+      server.stop();
+    }
+  }
+
+  private static int[] parseInts(String values) {
+    String[] parts = values.split(",");
+    int[] result = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      result[i] = Integer.parseInt(parts[i].trim());
+    }
+    return result;
+  }
+
+  @SuppressWarnings("static-access")
+  private static Options buildOptions() {
+    Options opts = new Options();
+    opts.addOption(OptionBuilder.withLongOpt("engine").hasArg()
+        .withArgName("writable|avro[,...]")
+        .withDescription("RPC engines, writable by default").create('e'));
+    opts.addOption(OptionBuilder.withLongOpt("payload").hasArg()
+        .withArgName("bytes[,...]")
+        .withDescription("payload sizes, 1024 by default").create('p'));
+    opts.addOption(OptionBuilder.withLongOpt("clients").hasArg()
+        .withArgName("threads[,...]")
+        .withDescription("concurrent client threads, 1 by default")
+        .create('c'));
+    opts.addOption(OptionBuilder.withLongOpt("users").hasArg()
+        .withArgName("count")
+        .withDescription("distinct users of the clients, 1 by default")
+        .create('u'));
+    opts.addOption(OptionBuilder.withLongOpt("handlers").hasArg()
+        .withArgName("threads[,...]")
+        .withDescription("server handler threads, 1 by default").create('h'));
+    opts.addOption(OptionBuilder.withLongOpt("readers").hasArg()
+        .withArgName("threads[,...]")
+        .withDescription("server reader threads, 1 by default").create('r'));
+    opts.addOption(OptionBuilder.withLongOpt("callqueue").hasArg()
+        .withArgName("class")
+        .withDescription("call queue class of the server").create('q'));
+    opts.addOption(OptionBuilder.withLongOpt("warmup").hasArg()
+        .withArgName("seconds")
+        .withDescription("warm up time of each run, 2 by default")
+        .create('w'));
+    opts.addOption(OptionBuilder.withLongOpt("time").hasArg()
+        .withArgName("seconds")
+        .withDescription("measured time of each run, 10 by default")
+        .create('t'));
+    opts.addOption(OptionBuilder.withLongOpt("help")
+        .withDescription("show this help").create('?'));
+    return opts;
+  }
+
+  /**
+   * Run the benchmark for every combination of the given settings.
+   * @return the results of the runs, in the order they were made
+   */
+  List<RunResult> runAll(Configuration conf, String[] engines,
+      int[] payloadSizes, int[] clientThreads, int users,
+      int[] handlerThreads, int[] readerThreads, String callQueue,
+      int warmupSeconds, int measureSeconds, PrintStream out)
+      throws IOException, InterruptedException {
+    List<RunResult> results = new ArrayList<RunResult>();
+    RunResult.printHeader(out);
+    for (String engine : engines) {
+      for (int payloadSize : payloadSizes) {
+        for (int clients : clientThreads) {
+          for (int handlers : handlerThreads) {
+            for (int readers : readerThreads) {
+              RunSettings settings = new RunSettings();
+              settings.engine = engine.trim();
+              settings.payloadSize = payloadSize;
+              settings.clientThreads = clients;
+              settings.users = users;
+              settings.handlerThreads = handlers;
+              settings.readerThreads = readers;
+              settings.callQueue = callQueue;
+              settings.warmupSeconds = warmupSeconds;
+              settings.measureSeconds = measureSeconds;
+              RunResult result = run(conf, settings);
+              result.print(out);
+              results.add(result);
+            }
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Options opts = buildOptions();
+    CommandLine line;
+    try {
+      line = new GnuParser().parse(opts, args);
+    } catch (ParseException e) {
+      System.err.println(e.getMessage());
+      new HelpFormatter().printHelp("RPCCallBenchmark", opts);
+      return -1;
+    }
+    if (line.hasOption('?')) {
+      new HelpFormatter().printHelp("RPCCallBenchmark", opts);
+      return 0;
+    }
+
+    MiniRPCBenchmark.setLoggingLevel(Level.ERROR);
+    System.out.println("Benchmark: RPC call latency and throughput.");
+    System.out.println(org.apache.hadoop.util.VersionInfo.getVersion());
+    runAll(getConf(),
+        line.getOptionValue('e', "writable").split(","),
+        parseInts(line.getOptionValue('p', "1024")),
+        parseInts(line.getOptionValue('c', "1")),
+        Integer.parseInt(line.getOptionValue('u', "1")),
+        parseInts(line.getOptionValue('h', "1")),
+        parseInts(line.getOptionValue('r', "1")),
+        line.getOptionValue('q'),
+        Integer.parseInt(line.getOptionValue('w', "2")),
+        Integer.parseInt(line.getOptionValue('t', "10")),
+        System.out);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new Configuration(), new RPCCallBenchmark(),
+        args));
+  }
+}
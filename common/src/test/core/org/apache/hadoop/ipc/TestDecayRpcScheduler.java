@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestDecayRpcScheduler {
+  private static final String NS = "ns";
+
+  private static Schedulable mockCall(String user) {
+    return new TestFairCallQueue.FakeCall(user);
+  }
+
+  private static Configuration newConf() {
+    Configuration conf = new Configuration();
+    // Avoid sweeps from the timer racing with the test
+    conf.setLong(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY, 600000);
+    return conf;
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testZeroLevels() {
+    new DecayRpcScheduler(0, NS, newConf());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testBadDecayFactor() {
+    Configuration conf = newConf();
+    conf.setFloat(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_FACTOR_KEY, 2.0f);
+    new DecayRpcScheduler(4, NS, conf);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testWrongNumberOfThresholds() {
+    Configuration conf = newConf();
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY, "10,20");
+    new DecayRpcScheduler(4, NS, conf);
+  }
+
+  @Test
+  public void testThresholds() {
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(4, NS, newConf());
+    assertArrayEquals(new double[]{0.125, 0.25, 0.5},
+        scheduler.getThresholds(), 0.0001);
+
+    Configuration conf = newConf();
+    conf.set(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_THRESHOLDS_KEY,
+        "10, 20, 30");
+    scheduler = new DecayRpcScheduler(4, NS, conf);
+    assertArrayEquals(new double[]{0.1, 0.2, 0.3},
+        scheduler.getThresholds(), 0.0001);
+  }
+
+  @Test
+  public void testAccumulateAndDecay() {
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(4, NS, newConf());
+    for (int i = 0; i < 8; i++) {
+      scheduler.getPriorityLevel(mockCall("A"));
+    }
+    scheduler.getPriorityLevel(mockCall("B"));
+    scheduler.getPriorityLevel(mockCall("B"));
+    assertEquals(10, scheduler.getTotalCallVolume());
+    assertEquals(8, scheduler.getCallCount("A"));
+    assertEquals(2, scheduler.getCallCount("B"));
+
+    scheduler.decayCurrentCounts();
+    assertEquals(4, scheduler.getCallCount("A"));
+    assertEquals(1, scheduler.getCallCount("B"));
+    assertEquals(5, scheduler.getTotalCallVolume());
+
+    // Idle identities are forgotten
+    scheduler.decayCurrentCounts();
+    scheduler.decayCurrentCounts();
+    assertEquals(0, scheduler.getCallCount("B"));
+    assertEquals(1, scheduler.getTotalCallVolume());
+  }
+
+  @Test
+  public void testPriority() {
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(3, NS, newConf());
+    // thresholds are 0.25 and 0.5
+    assertEquals(0, scheduler.getPriorityLevel(mockCall("A")));
+    assertEquals(2, scheduler.getPriorityLevel(mockCall("A")));
+    assertEquals(0, scheduler.getPriorityLevel(mockCall("B")));
+    assertEquals(0, scheduler.getPriorityLevel(mockCall("C")));
+    assertEquals(0, scheduler.getPriorityLevel(mockCall("D")));
+    // A has 2 of 6 calls before this one
+    assertEquals(1, scheduler.getPriorityLevel(mockCall("A")));
+  }
+
+  @Test
+  public void testCallsWithoutUser() {
+    DecayRpcScheduler scheduler = new DecayRpcScheduler(2, NS, newConf());
+    Schedulable anonymous = new Schedulable() {
+      @Override
+      public UserGroupInformation getUserGroupInformation() {
+        return null;
+      }
+      @Override
+      public int getPriorityLevel() {
+        return 0;
+      }
+      @Override
+      public void setPriorityLevel(int level) {
+      }
+    };
+    scheduler.getPriorityLevel(anonymous);
+    assertEquals(1, scheduler.getCallCount(
+        DecayRpcScheduler.DECAYSCHEDULER_UNKNOWN_IDENTITY));
+  }
+}
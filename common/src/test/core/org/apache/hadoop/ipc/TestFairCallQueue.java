@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestFairCallQueue {
+  private static final String NS = "ns";
+
+  static class FakeCall implements Schedulable {
+    private final UserGroupInformation ugi;
+    private int priorityLevel = -1;
+
+    FakeCall(String user) {
+      this.ugi = UserGroupInformation.createRemoteUser(user);
+    }
+
+    @Override
+    public UserGroupInformation getUserGroupInformation() {
+      return ugi;
+    }
+
+    @Override
+    public int getPriorityLevel() {
+      return priorityLevel;
+    }
+
+    @Override
+    public void setPriorityLevel(int level) {
+      this.priorityLevel = level;
+    }
+  }
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = new Configuration();
+    conf.setInt(NS + "." + FairCallQueue.IPC_CALLQUEUE_PRIORITY_LEVELS_KEY, 2);
+    conf.setLong(NS + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY, 60000);
+  }
+
+  @Test
+  public void testHeavyUserIsDemoted() throws Exception {
+    FairCallQueue<FakeCall> fcq = new FairCallQueue<FakeCall>(100, NS, conf);
+    for (int i = 0; i < 10; i++) {
+      fcq.put(new FakeCall("heavy"));
+    }
+    FakeCall light = new FakeCall("light");
+    fcq.put(light);
+
+    assertEquals(11, fcq.size());
+    assertEquals(0, light.getPriorityLevel());
+    int[] sizes = fcq.getQueueSizes();
+    assertEquals(2, sizes.length);
+    assertEquals(1 + 1, sizes[0]); // the first heavy call and the light one
+    assertEquals(9, sizes[1]);
+  }
+
+  @Test
+  public void testTakeServesAllLevels() throws Exception {
+    FairCallQueue<FakeCall> fcq = new FairCallQueue<FakeCall>(100, NS, conf);
+    for (int i = 0; i < 10; i++) {
+      fcq.put(new FakeCall("heavy"));
+    }
+    fcq.put(new FakeCall("light"));
+
+    // With the default weights of 2:1 the low level is served every third
+    // take, so the light call is not stuck behind the heavy user.
+    boolean sawLow = false;
+    ArrayList<FakeCall> taken = new ArrayList<FakeCall>();
+    for (int i = 0; i < 3; i++) {
+      FakeCall c = fcq.take();
+      taken.add(c);
+      sawLow |= c.getPriorityLevel() == 1;
+    }
+    assertTrue(sawLow);
+    while (fcq.size() > 0) {
+      taken.add(fcq.take());
+    }
+    assertEquals(11, taken.size());
+    assertNull(fcq.poll());
+    assertNull(fcq.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testPutOverflowsToLowerLevel() throws Exception {
+    // capacity of 4 split into two levels of 2
+    FairCallQueue<FakeCall> fcq = new FairCallQueue<FakeCall>(4, NS, conf);
+    assertEquals(4, fcq.remainingCapacity());
+    fcq.put(new FakeCall("a"));
+    fcq.put(new FakeCall("b"));
+    fcq.put(new FakeCall("c"));
+    int[] sizes = fcq.getQueueSizes();
+    assertEquals(2, sizes[0]);
+    assertEquals(1, sizes[1]);
+    assertEquals(1, fcq.remainingCapacity());
+  }
+
+  @Test
+  public void testOfferOverflowsToLowerLevel() throws Exception {
+    // capacity of 2 split into two levels of 1
+    FairCallQueue<FakeCall> fcq = new FairCallQueue<FakeCall>(2, NS, conf);
+    assertTrue(fcq.offer(new FakeCall("a")));
+    // the level of user b is full, offer must use the lower level
+    FakeCall b = new FakeCall("b");
+    assertTrue(fcq.offer(b));
+    assertEquals(1, b.getPriorityLevel());
+    assertFalse(fcq.offer(new FakeCall("c")));
+    assertFalse(fcq.offer(new FakeCall("c"), 10, TimeUnit.MILLISECONDS));
+    assertEquals(2, fcq.size());
+  }
+
+  @Test
+  public void testRetriedOfferIsScheduledOnce() throws Exception {
+    FairCallQueue<FakeCall> fcq = new FairCallQueue<FakeCall>(2, NS, conf);
+    DecayRpcScheduler scheduler = (DecayRpcScheduler) fcq.getScheduler();
+    assertTrue(fcq.offer(new FakeCall("a")));
+    assertTrue(fcq.offer(new FakeCall("a")));
+
+    FakeCall throttled = new FakeCall("b");
+    assertFalse(fcq.offer(throttled));
+    assertEquals(1, scheduler.getCallCount("b"));
+    long total = scheduler.getTotalCallVolume();
+    // a throttled call is retried until there is room for it
+    for (int i = 0; i < 10; i++) {
+      assertFalse(fcq.offer(throttled));
+    }
+    fcq.take();
+    assertTrue(fcq.offer(throttled));
+    assertEquals(1, scheduler.getCallCount("b"));
+    assertEquals(total, scheduler.getTotalCallVolume());
+  }
+
+  @Test
+  public void testDrainTo() throws Exception {
+    FairCallQueue<FakeCall> fcq = new FairCallQueue<FakeCall>(100, NS, conf);
+    for (int i = 0; i < 5; i++) {
+      fcq.put(new FakeCall("u" + i));
+    }
+    ArrayList<FakeCall> drained = new ArrayList<FakeCall>();
+    assertEquals(3, fcq.drainTo(drained, 3));
+    assertEquals(2, fcq.drainTo(drained));
+    assertEquals(0, fcq.size());
+  }
+
+  @Test
+  public void testIterator() throws Exception {
+    FairCallQueue<FakeCall> fcq = new FairCallQueue<FakeCall>(100, NS, conf);
+    ArrayList<FakeCall> calls = new ArrayList<FakeCall>();
+    for (int i = 0; i < 5; i++) {
+      FakeCall c = new FakeCall("heavy");
+      calls.add(c);
+      fcq.put(c);
+    }
+    FakeCall light = new FakeCall("light");
+    fcq.put(light);
+
+    // the levels in order, each in insertion order
+    ArrayList<FakeCall> seen = new ArrayList<FakeCall>();
+    for (FakeCall c : fcq) {
+      seen.add(c);
+    }
+    assertEquals(6, seen.size());
+    assertSame(calls.get(0), seen.get(0));
+    assertSame(light, seen.get(1));
+    assertSame(calls.get(1), seen.get(2));
+    assertSame(calls.get(4), seen.get(5));
+    assertTrue(fcq.contains(light));
+    assertNotNull(fcq.toString());
+
+    // removed calls are not taken
+    assertTrue(fcq.remove(light));
+    assertFalse(fcq.contains(light));
+    assertFalse(fcq.remove(light));
+    Iterator<FakeCall> it = fcq.iterator();
+    it.next();
+    it.remove();
+    assertEquals(4, fcq.size());
+    for (int i = 1; i < 5; i++) {
+      assertTrue(calls.contains(fcq.take()));
+    }
+    assertNull(fcq.poll());
+
+    fcq.addAll(calls);
+    fcq.clear();
+    assertEquals(0, fcq.size());
+    assertNull(fcq.poll());
+  }
+
+  @Test(timeout=10000)
+  public void testTakeBlocksUntilPut() throws Exception {
+    final FairCallQueue<FakeCall> fcq =
+      new FairCallQueue<FakeCall>(100, NS, conf);
+    final FakeCall call = new FakeCall("u");
+    Thread putter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+          fcq.put(call);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    putter.start();
+    assertSame(call, fcq.take());
+    putter.join();
+  }
+
+  @Test
+  public void testCallQueueManager() throws Exception {
+    Configuration conf = new Configuration();
+    CallQueueManager<FakeCall> cqm = new CallQueueManager<FakeCall>(
+        CallQueueManager.<FakeCall>getQueueClass(NS, conf), 10, NS, conf);
+    assertEquals(1, cqm.getNumLevels());
+
+    conf.setClass(NS + ".callqueue.impl", FairCallQueue.class,
+        BlockingQueue.class);
+    cqm = new CallQueueManager<FakeCall>(
+        CallQueueManager.<FakeCall>getQueueClass(NS, conf), 10, NS, conf);
+    assertEquals(FairCallQueue.IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT,
+        cqm.getNumLevels());
+    FakeCall call = new FakeCall("u");
+    cqm.put(call);
+    assertEquals(1, cqm.size());
+    assertSame(call, cqm.take());
+  }
+}
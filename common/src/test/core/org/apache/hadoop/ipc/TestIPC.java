@@ -23,6 +23,8 @@ import org.apache.commons.logging.*;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.net.NetUtils;
@@ -38,11 +40,17 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.SocketFactory;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
+import static org.apache.hadoop.test.MetricsAsserts.*;
 
 import org.apache.hadoop.conf.Configuration;
 import org.junit.Assume;
@@ -183,6 +191,211 @@ public class TestIPC {
     }
   }
 
+  @Test
+  public void testAsyncCalls() throws Exception {
+    Server server = new TestServer(2, false);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      Client.ConnectionId remoteId =
+        Client.ConnectionId.getConnectionId(addr, null, null, 0, conf);
+      final int count = 200;
+      final CountDownLatch latch = new CountDownLatch(count);
+      final AtomicInteger failures = new AtomicInteger();
+      Client.Callback callback = new Client.Callback() {
+        public void onSuccess(Writable value) {
+          latch.countDown();
+        }
+        public void onFailure(IOException error) {
+          failures.incrementAndGet();
+          latch.countDown();
+        }
+      };
+      LongWritable[] params = new LongWritable[count];
+      @SuppressWarnings("unchecked")
+      Future<Writable>[] values = new Future[count];
+      // all the calls are in flight at once over the same connection
+      for (int i = 0; i < count; i++) {
+        params[i] = new LongWritable(RANDOM.nextLong());
+        values[i] = client.callAsync(params[i], remoteId, callback);
+      }
+      for (int i = 0; i < count; i++) {
+        assertEquals(params[i], values[i].get(10, TimeUnit.SECONDS));
+        assertTrue(values[i].isDone());
+      }
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+      assertEquals(0, failures.get());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testAsyncCallFailure() throws Exception {
+    InetSocketAddress addr = new InetSocketAddress("127.0.0.1", 10);
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      final CountDownLatch latch = new CountDownLatch(1);
+      Client.Callback callback = new Client.Callback() {
+        public void onSuccess(Writable value) {
+        }
+        public void onFailure(IOException error) {
+          latch.countDown();
+        }
+      };
+      Future<Writable> value = client.callAsync(new LongWritable(1),
+          Client.ConnectionId.getConnectionId(addr, null, null, 0, conf),
+          callback);
+      try {
+        value.get();
+        fail("Expected an exception");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+        assertTrue(e.getCause().getMessage().contains(addr.toString()));
+      }
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+    } finally {
+      client.stop();
+    }
+  }
+
+  @Test
+  public void testMultiplexedConnection() throws Exception {
+    // the server answers with the protocol and user each call was made with
+    Server server = new Server(ADDRESS, 0, Text.class, 2, conf) {
+      @Override
+      public Writable call(Class<?> protocol, Writable param,
+          long receiveTime) throws IOException {
+        return new Text(protocol.getName() + " "
+            + UserGroupInformation.getCurrentUser().getUserName());
+      }
+    };
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Configuration clientConf = new Configuration(conf);
+    clientConf.setBoolean(
+        CommonConfigurationKeys.IPC_CLIENT_CONNECTION_MULTIPLEXED_KEY, true);
+    Client client = new Client(Text.class, clientConf);
+    try {
+      Class<?>[] protocols = { Runnable.class, Comparable.class };
+      UserGroupInformation[] users = {
+          UserGroupInformation.createRemoteUser("alice"),
+          UserGroupInformation.createRemoteUser("bob") };
+      for (int i = 0; i < 2; i++) {
+        for (Class<?> protocol : protocols) {
+          for (UserGroupInformation user : users) {
+            Writable value = client.call(new Text("call"), addr, protocol,
+                user, 0, clientConf);
+            assertEquals(protocol.getName() + " " + user.getUserName(),
+                value.toString());
+          }
+        }
+      }
+      // all the protocols and users shared a single connection
+      assertEquals(1, client.getConnectionIds().size());
+      assertEquals(1, server.getNumOpenConnections());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testThrottledConnection() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    Configuration serverConf = new Configuration(conf);
+    serverConf.setInt(
+        CommonConfigurationKeys.IPC_SERVER_HANDLER_QUEUE_SIZE_KEY, 1);
+    // a single handler with a single queued call fills the call queue
+    Server server = new Server(ADDRESS, 0, LongWritable.class, 1, serverConf) {
+      @Override
+      public Writable call(Class<?> protocol, Writable param,
+          long receiveTime) throws IOException {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return param;
+      }
+    };
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    Client other = new Client(LongWritable.class, conf);
+    try {
+      Client.ConnectionId remoteId =
+        Client.ConnectionId.getConnectionId(addr, null, null, 0, conf);
+      final int count = 10;
+      @SuppressWarnings("unchecked")
+      Future<Writable>[] values = new Future[count];
+      for (int i = 0; i < count; i++) {
+        values[i] = client.callAsync(new LongWritable(i), remoteId);
+      }
+      long deadline = System.currentTimeMillis() + 10000;
+      while (true) {
+        try {
+          assertCounterGt("RpcThrottledCalls", 0L,
+              getMetrics(server.rpcMetrics.name()));
+          break;
+        } catch (AssertionError e) {
+          if (System.currentTimeMillis() > deadline) {
+            throw e;
+          }
+          Thread.sleep(10);
+        }
+      }
+      // the calls held back do not block the calls of other connections
+      Future<Writable> value =
+        other.callAsync(new LongWritable(count), remoteId);
+      blocked.countDown();
+      for (int i = 0; i < count; i++) {
+        assertEquals(new LongWritable(i), values[i].get(10, TimeUnit.SECONDS));
+      }
+      assertEquals(new LongWritable(count), value.get(10, TimeUnit.SECONDS));
+    } finally {
+      blocked.countDown();
+      client.stop();
+      other.stop();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testHostRateLimit() throws Exception {
+    Configuration serverConf = new Configuration(conf);
+    serverConf.setFloat(
+        CommonConfigurationKeys.IPC_SERVER_HOST_CALLS_PER_SECOND_KEY, 5);
+    Server limited = new Server(ADDRESS, 0, LongWritable.class, 1,
+        serverConf) {
+      @Override
+      public Writable call(Class<?> protocol, Writable param,
+          long receiveTime) throws IOException {
+        return param;
+      }
+    };
+    InetSocketAddress addr = NetUtils.getConnectAddress(limited);
+    limited.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      // a second worth of calls is allowed at once, the others are paced
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 10; i++) {
+        LongWritable param = new LongWritable(i);
+        assertEquals(param, client.call(param, addr, null, null, 0, conf));
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      assertTrue("Calls were not paced: " + elapsed + "ms", elapsed >= 800);
+      assertCounterGt("RpcRateLimitedCalls", 0L,
+          getMetrics(limited.rpcMetrics.name()));
+    } finally {
+      client.stop();
+      limited.stop();
+    }
+  }
+
   @Test
   public void testSerial() throws Exception {
     testSerial(3, false, 2, 5, 100);
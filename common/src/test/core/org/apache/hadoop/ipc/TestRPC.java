@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.ipc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
@@ -26,12 +28,17 @@ import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import junit.framework.TestCase;
 
 import org.apache.commons.logging.*;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.io.UTF8;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
@@ -67,7 +74,9 @@ public class TestRPC extends TestCase {
     
     void ping() throws IOException;
     void slowPing(boolean shouldSlow) throws IOException;
+    @ReadOnly
     String echo(String value) throws IOException;
+    @Cacheable
     String[] echo(String[] value) throws IOException;
     Writable echo(Writable value) throws IOException;
     int add(int v1, int v2) throws IOException;
@@ -301,6 +310,8 @@ public class TestRPC extends TestCase {
     assertCounter("RpcProcessingTimeNumOps", 3L, rb);
     assertCounterGt("SentBytes", 0L, rb);
     assertCounterGt("ReceivedBytes", 0L, rb);
+    assertCounterGt("RpcResponseBytesCopied", 0L, rb);
+    assertCounterGt("BufferPoolHits", 0L, rb);
     
     // Number of calls to echo method should be 2
     rb = getMetrics(server.rpcDetailedMetrics.name());
@@ -384,6 +395,67 @@ public class TestRPC extends TestCase {
     }
   }
   
+  /** An invocation of ping in the format of WritableRpcEngine version 1. */
+  private static class PingByName implements Writable {
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(1L);                          // rpc version
+      UTF8.writeString(out, "ping");              // method name
+      out.writeLong(TestProtocol.versionID);      // client version
+      out.writeInt(0);                            // client methods hash
+      out.writeInt(0);                            // no parameters
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  public void testOlderInvocationFormatRejected() throws Exception {
+    Server server = RPC.getServer(TestProtocol.class,
+                                  new TestImpl(), ADDRESS, 0, conf);
+    Client client = new Client(ObjectWritable.class, conf);
+    try {
+      server.start();
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      try {
+        client.call(new PingByName(), addr, TestProtocol.class, null, 0,
+            conf);
+        fail("Expected a version mismatch");
+      } catch (RemoteException e) {
+        assertTrue(e.getMessage(),
+            e.getMessage().contains("WritableRpc version mismatch"));
+      }
+
+      // the current format is still served on the same server
+      TestProtocol proxy = (TestProtocol)RPC.getProxy(
+          TestProtocol.class, TestProtocol.versionID, addr, conf);
+      try {
+        proxy.ping();
+        assertEquals(3, proxy.add(1, 2));
+      } finally {
+        RPC.stopProxy(proxy);
+      }
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  /** A protocol which does not declare a versionID. */
+  public interface UnversionedProtocol extends VersionedProtocol {
+    void ping() throws IOException;
+  }
+
+  public void testProtocolWithoutVersionID() throws Exception {
+    try {
+      ProtocolCodec.get(UnversionedProtocol.class);
+      fail("Expected an IOException for a protocol without versionID");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(),
+          e.getMessage().contains(UnversionedProtocol.class.getName()));
+    }
+  }
+
   public void testStandaloneClient() throws IOException {
     try {
       TestProtocol proxy = RPC.waitForProxy(TestProtocol.class,
@@ -487,6 +559,198 @@ public class TestRPC extends TestCase {
     new TestRPC("testnoPings").testCalls(conf);
   }
 
+  public void testFairCallQueue() throws Exception {
+    Configuration conf = new Configuration();
+    String ns = CallQueueManager.getQueueNamespace(0);
+    conf.setClass(ns + "." + CommonConfigurationKeys.IPC_CALLQUEUE_IMPL_KEY,
+        FairCallQueue.class, java.util.concurrent.BlockingQueue.class);
+    conf.setInt(ns + "." + FairCallQueue.IPC_CALLQUEUE_PRIORITY_LEVELS_KEY, 2);
+    conf.setLong(ns + "." +
+        DecayRpcScheduler.IPC_CALLQUEUE_DECAYSCHEDULER_PERIOD_KEY, 60000);
+    Server server = RPC.getServer(TestProtocol.class,
+                                  new TestImpl(), ADDRESS, 0, conf);
+    TestProtocol proxy = null;
+    try {
+      server.start();
+      assertEquals(2, server.getCallQueueNumLevels());
+
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      proxy = (TestProtocol)RPC.getProxy(
+          TestProtocol.class, TestProtocol.versionID, addr, conf);
+      proxy.ping();
+      assertEquals("foo", proxy.echo("foo"));
+
+      // A single user gets all the calls, so it is demoted after the first
+      MetricsRecordBuilder rb = getMetrics(server.rpcMetrics.name());
+      assertCounter("RpcProcessingTimeNumOps", 2L, rb);
+      assertCounter("RpcQueueTimeLevel0NumOps", 1L, rb);
+      assertCounter("RpcQueueTimeLevel1NumOps", 1L, rb);
+      assertGauge("CallQueueLengthLevel0", 0, rb);
+      assertGauge("CallQueueLengthLevel1", 0, rb);
+    } finally {
+      server.stop();
+      if (proxy != null) {
+        RPC.stopProxy(proxy);
+      }
+    }
+  }
+
+  public void testAsyncCalls() throws Exception {
+    Configuration conf = new Configuration();
+    Server server = RPC.getServer(TestProtocol.class,
+                                  new TestImpl(), ADDRESS, 0, conf);
+    TestProtocol proxy = null;
+    try {
+      server.start();
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      proxy = (TestProtocol)RPC.getProxy(
+          TestProtocol.class, TestProtocol.versionID, addr, conf);
+
+      final int count = 100;
+      Future<?>[] sums = new Future<?>[count];
+      Future<?>[] echos = new Future<?>[count];
+      Future<?> error;
+      RPC.setAsynchronousMode(true);
+      try {
+        for (int i = 0; i < count; i++) {
+          assertEquals(0, proxy.add(i, 1));
+          sums[i] = RPC.getAsyncReturnValue();
+          assertNull(proxy.echo("call" + i));
+          echos[i] = RPC.getAsyncReturnValue();
+        }
+        proxy.error();
+        error = RPC.getAsyncReturnValue();
+        // calls of VersionedProtocol always block
+        assertEquals(TestProtocol.versionID,
+            proxy.getProtocolVersion(TestProtocol.class.getName(), 0));
+        assertNull(RPC.getAsyncReturnValue());
+      } finally {
+        RPC.setAsynchronousMode(false);
+      }
+
+      for (int i = 0; i < count; i++) {
+        assertEquals(i + 1, sums[i].get());
+        assertEquals("call" + i, echos[i].get());
+      }
+      try {
+        error.get();
+        fail("Expected an exception");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof RemoteException);
+        assertTrue(e.getCause().getMessage().contains("bobo"));
+      }
+      // blocking calls are back to normal
+      assertEquals(3, proxy.add(1, 2));
+    } finally {
+      server.stop();
+      if (proxy != null) {
+        RPC.stopProxy(proxy);
+      }
+    }
+  }
+
+  public void testReadOnlyBatching() throws Exception {
+    // a single handler, so calls queue up behind the first one
+    Server server = RPC.getServer(TestProtocol.class,
+                                  new TestImpl(), ADDRESS, 0, 1, false, conf, null);
+    final AtomicInteger locks = new AtomicInteger();
+    ReentrantLock lock = new ReentrantLock() {
+      @Override
+      public void lock() {
+        locks.incrementAndGet();
+        super.lock();
+      }
+    };
+    server.setReadOnlyBatching(lock, 10);
+    TestProtocol proxy = null;
+    try {
+      server.start();
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      proxy = (TestProtocol)RPC.getProxy(
+          TestProtocol.class, TestProtocol.versionID, addr, conf);
+
+      // hold the lock so the handler waits in its first batch
+      lock.lock();
+      Future<?>[] values = new Future<?>[5];
+      RPC.setAsynchronousMode(true);
+      try {
+        proxy.echo("e0");
+        values[0] = RPC.getAsyncReturnValue();
+        while (!lock.hasQueuedThreads()) {
+          Thread.sleep(10);
+        }
+        proxy.echo("e1");
+        values[1] = RPC.getAsyncReturnValue();
+        proxy.echo("e2");
+        values[2] = RPC.getAsyncReturnValue();
+        proxy.add(1, 2);                          // not read-only
+        values[3] = RPC.getAsyncReturnValue();
+        proxy.echo("e3");
+        values[4] = RPC.getAsyncReturnValue();
+      } finally {
+        RPC.setAsynchronousMode(false);
+      }
+      while (server.getCallQueueLen() < 4) {
+        Thread.sleep(10);
+      }
+      lock.unlock();
+
+      assertEquals("e0", values[0].get());
+      assertEquals("e1", values[1].get());
+      assertEquals("e2", values[2].get());
+      assertEquals(3, values[3].get());
+      assertEquals("e3", values[4].get());
+
+      // batches: e0 alone, e1 and e2 ended by add, then e3
+      assertEquals(1 + 3, locks.get());
+      MetricsRecordBuilder rb = getMetrics(server.rpcMetrics.name());
+      assertCounter("RpcReadOnlyBatches", 3L, rb);
+      assertCounter("RpcReadOnlyBatchedCalls", 4L, rb);
+    } finally {
+      server.stop();
+      if (proxy != null) {
+        RPC.stopProxy(proxy);
+      }
+    }
+  }
+
+  public void testResponseCache() throws Exception {
+    Server server = RPC.getServer(TestProtocol.class,
+                                  new TestImpl(), ADDRESS, 0, conf);
+    ResponseCache cache = new ResponseCache(10, 60000);
+    server.setResponseCache(cache);
+    TestProtocol proxy = null;
+    try {
+      server.start();
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      proxy = (TestProtocol)RPC.getProxy(
+          TestProtocol.class, TestProtocol.versionID, addr, conf);
+
+      String[] a = new String[] {"a"};
+      for (int i = 0; i < 3; i++) {
+        assertTrue(Arrays.equals(a, proxy.echo(a)));
+      }
+      cache.invalidate();
+      assertTrue(Arrays.equals(a, proxy.echo(a)));
+      String[] b = new String[] {"b"};
+      assertTrue(Arrays.equals(b, proxy.echo(b)));
+      assertEquals("a", proxy.echo("a"));       // not cacheable
+
+      MetricsRecordBuilder rb = getMetrics(server.rpcMetrics.name());
+      assertCounter("RpcResponseCacheHits", 2L, rb);
+      assertCounter("RpcResponseCacheMisses", 3L, rb);
+      assertEquals(2, cache.size());
+      // only the misses ran
+      rb = getMetrics(server.rpcDetailedMetrics.name());
+      assertCounter("EchoNumOps", 4L, rb);
+    } finally {
+      server.stop();
+      if (proxy != null) {
+        RPC.stopProxy(proxy);
+      }
+    }
+  }
+
   /**
    * Test stopping a non-registered proxy
    * @throws Exception
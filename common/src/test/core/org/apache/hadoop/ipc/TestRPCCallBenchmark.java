@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.RPCCallBenchmark.LatencyHistogram;
+import org.apache.hadoop.ipc.RPCCallBenchmark.RunResult;
+import org.junit.Test;
+
+/**
+ * Test {@link RPCCallBenchmark}
+ */
+public class TestRPCCallBenchmark {
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram latencies = new LatencyHistogram();
+    for (long i = 1; i <= 1000; i++) {
+      latencies.add(i);
+    }
+    assertEquals(1000, latencies.getCount());
+    assertEquals(1000, latencies.getMax());
+    // percentiles are exact below 16us and within 1/16th above
+    assertEquals(10, latencies.getPercentile(0.01));
+    assertEquals(500, latencies.getPercentile(0.5), 500 / 16);
+    assertEquals(990, latencies.getPercentile(0.99), 990 / 16);
+    for (long v = 1; v < 1L << 40; v = v * 3 + 1) {
+      long bucketValue = LatencyHistogram.getBucketValue(
+          LatencyHistogram.getBucket(v));
+      assertTrue(bucketValue <= v);
+      assertTrue(v - bucketValue <= v / 16);
+    }
+  }
+
+  @Test
+  public void testRunAll() throws Exception {
+    RPCCallBenchmark benchmark = new RPCCallBenchmark();
+    // a single short run, checking only that the benchmark works
+    List<RunResult> results = benchmark.runAll(new Configuration(),
+        new String[] { "writable" }, new int[] { 16 }, new int[] { 1 }, 1,
+        new int[] { 1 }, new int[] { 1 }, null, 0, 1, System.out);
+    assertEquals(1, results.size());
+    assertTrue(results.get(0).latencies.getCount() > 0);
+    assertTrue(results.get(0).callsPerSecond > 0);
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/** Unit tests for {@link RateLimiter}. */
+public class TestRateLimiter {
+
+  @Test
+  public void testBurst() {
+    // a slow rate, so that no call is given back during the test
+    RateLimiter limiter = new RateLimiter(0.001);
+    assertTrue(limiter.tryAcquire("alice"));
+    assertFalse(limiter.tryAcquire("alice"));
+    limiter.release("alice");
+    assertTrue(limiter.tryAcquire("alice"));
+    assertFalse(limiter.tryAcquire("alice"));
+  }
+
+  @Test
+  public void testOneSecondBurst() {
+    RateLimiter limiter = new RateLimiter(100);
+    int allowed = 0;
+    while (limiter.tryAcquire("alice")) {
+      allowed++;
+      assertTrue("Burst is not bounded", allowed <= 200);
+    }
+    assertTrue("Burst was " + allowed, allowed >= 100);
+  }
+
+  @Test
+  public void testKeysAreIndependent() {
+    RateLimiter limiter = new RateLimiter(0.001);
+    assertTrue(limiter.tryAcquire("alice"));
+    assertFalse(limiter.tryAcquire("alice"));
+    assertTrue(limiter.tryAcquire("bob"));
+    assertEquals(2, limiter.size());
+  }
+
+  @Test
+  public void testRefill() throws Exception {
+    RateLimiter limiter = new RateLimiter(100);
+    while (limiter.tryAcquire("alice")) {
+    }
+    Thread.sleep(100);
+    assertTrue(limiter.tryAcquire("alice"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositiveRate() {
+    new RateLimiter(0);
+  }
+}
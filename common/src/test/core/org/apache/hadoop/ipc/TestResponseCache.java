@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+public class TestResponseCache {
+  private static final UserGroupInformation ALICE =
+    UserGroupInformation.createRemoteUser("alice");
+  private static final UserGroupInformation BOB =
+    UserGroupInformation.createRemoteUser("bob");
+
+  private static ResponseCache.Key key(UserGroupInformation user, long param)
+      throws IOException {
+    return ResponseCache.getKey(TestRPC.TestProtocol.class, user,
+                                new LongWritable(param));
+  }
+
+  private static byte[] serialize(Writable w) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    w.write(out);
+    byte[] bytes = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  @Test
+  public void testKeys() throws IOException {
+    assertEquals(key(ALICE, 1), key(ALICE, 1));
+    assertEquals(key(ALICE, 1).hashCode(), key(ALICE, 1).hashCode());
+    assertFalse(key(ALICE, 1).equals(key(ALICE, 2)));
+    assertFalse(key(ALICE, 1).equals(key(BOB, 1)));
+    assertFalse(key(ALICE, 1).equals(key(null, 1)));
+    assertFalse(key(ALICE, 1).equals(ResponseCache.getKey(
+        TestIPC.class, ALICE, new LongWritable(1))));
+  }
+
+  @Test
+  public void testGetPut() throws IOException {
+    ResponseCache cache = new ResponseCache(10, 60000);
+    assertNull(cache.get(key(ALICE, 1)));
+    cache.put(key(ALICE, 1), new Text("one"), cache.getGeneration());
+    assertEquals(1, cache.size());
+
+    // the cached response is the serialized original one
+    byte[] cached = cache.get(key(ALICE, 1));
+    assertNotNull(cached);
+    assertArrayEquals(serialize(new Text("one")), cached);
+    assertNull(cache.get(key(BOB, 1)));
+  }
+
+  @Test
+  public void testInvalidate() throws IOException {
+    ResponseCache cache = new ResponseCache(10, 60000);
+    cache.put(key(ALICE, 1), new Text("one"), cache.getGeneration());
+    cache.invalidate();
+    assertEquals(0, cache.size());
+    assertNull(cache.get(key(ALICE, 1)));
+
+    // a response computed across an invalidation is not cached
+    long generation = cache.getGeneration();
+    cache.invalidate();
+    cache.put(key(ALICE, 2), new Text("two"), generation);
+    assertNull(cache.get(key(ALICE, 2)));
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    ResponseCache cache = new ResponseCache(2, 60000);
+    cache.put(key(ALICE, 1), new Text("one"), cache.getGeneration());
+    cache.put(key(ALICE, 2), new Text("two"), cache.getGeneration());
+    assertNotNull(cache.get(key(ALICE, 1)));   // 2 is now the eldest
+    cache.put(key(ALICE, 3), new Text("three"), cache.getGeneration());
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get(key(ALICE, 1)));
+    assertNull(cache.get(key(ALICE, 2)));
+    assertNotNull(cache.get(key(ALICE, 3)));
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    ResponseCache cache = new ResponseCache(10, 1);
+    cache.put(key(ALICE, 1), new Text("one"), cache.getGeneration());
+    Thread.sleep(10);
+    assertNull(cache.get(key(ALICE, 1)));
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestWeightedRoundRobinMultiplexer {
+  private static final String WEIGHTS_KEY = "ns." +
+      WeightedRoundRobinMultiplexer.IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY;
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInstantiateNegativeMux() {
+    new WeightedRoundRobinMultiplexer(-1, "ns", new Configuration());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInstantiateIllegalMux() {
+    Configuration conf = new Configuration();
+    conf.set(WEIGHTS_KEY, "1, 2, 3");
+    // ask for 3 weights with 2 queues
+    new WeightedRoundRobinMultiplexer(2, "ns", conf);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInstantiateZeroWeight() {
+    Configuration conf = new Configuration();
+    conf.set(WEIGHTS_KEY, "1, 0");
+    new WeightedRoundRobinMultiplexer(2, "ns", conf);
+  }
+
+  @Test
+  public void testDefaultPattern() {
+    // Mux of size 3: 4 x0 2 x1 1 x2 then repeat
+    WeightedRoundRobinMultiplexer mux =
+      new WeightedRoundRobinMultiplexer(3, "ns", new Configuration());
+    int[] expected = {0, 0, 0, 0, 1, 1, 2, 0, 0, 0, 0, 1, 1, 2};
+    for (int idx : expected) {
+      assertEquals(idx, mux.getAndAdvanceCurrentIndex());
+    }
+  }
+
+  @Test
+  public void testCustomPattern() {
+    Configuration conf = new Configuration();
+    conf.set(WEIGHTS_KEY, "1, 3");
+    WeightedRoundRobinMultiplexer mux =
+      new WeightedRoundRobinMultiplexer(2, "ns", conf);
+    int[] expected = {0, 1, 1, 1, 0, 1, 1, 1};
+    for (int idx : expected) {
+      assertEquals(idx, mux.getAndAdvanceCurrentIndex());
+    }
+  }
+}
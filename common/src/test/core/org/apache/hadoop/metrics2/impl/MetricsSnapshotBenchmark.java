@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.metrics2.impl;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.lib.MetricsAnnotations;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * MetricsSnapshotBenchmark measures how long the metrics system takes to
+ * snapshot its sources, as the number of sources grows.
+ * <p>
+ * Every run registers the given number of annotated sources, each with the
+ * given number of counters, then takes snapshots. Before each snapshot a
+ * given percentage of the sources increment one of their counters; the
+ * others stay unchanged, as most sources of a daemon do between two
+ * snapshots, and are skipped by the snapshot. One line is printed per run,
+ * holding the time of a snapshot, the time spent per source and the number
+ * of sources in the snapshot, so that the runs with different percentages
+ * of changed sources show the cost of the unchanged ones.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>sources - numbers of sources</li>
+ * <li>metrics - counters per source</li>
+ * <li>changed - percentages of the sources changed before each snapshot,
+ * one run for each number of sources and percentage</li>
+ * <li>warmup, snapshots - snapshots taken before and while measuring</li>
+ * </ul>
+ */
+public class MetricsSnapshotBenchmark extends Configured implements Tool {
+  private static final Log LOG =
+      LogFactory.getLog(MetricsSnapshotBenchmark.class);
+  static final String PREFIX = "SnapshotBench";
+
+  static class BenchmarkSource {
+    final MetricsRegistry registry;
+    final MutableCounterLong[] counters;
+    @Metric("Number of changes") MutableCounterLong changes;
+    int next = 0;
+
+    BenchmarkSource(String name, int numMetrics) {
+      registry = new MetricsRegistry(name);
+      counters = new MutableCounterLong[numMetrics];
+      for (int i = 0; i < numMetrics; i++) {
+        counters[i] = registry.newCounter("Counter"+ i, "Counter "+ i, 0L);
+      }
+    }
+
+    void change() {
+      changes.incr();
+      counters[next].incr();
+      next = (next + 1) % counters.length;
+    }
+  }
+
+  static class RunResult {
+    int sources;
+    int changedPercent;
+    double microsPerSnapshot;
+    int sourcesPerSnapshot;
+
+    static void printHeader(PrintStream out) {
+      out.println("sources\tchanged%\tus/snapshot\tns/source\t"
+          + "sources/snapshot");
+    }
+
+    void print(PrintStream out) {
+      out.printf("%d\t%d\t%.1f\t%.1f\t%d%n", sources, changedPercent,
+          microsPerSnapshot, microsPerSnapshot * 1000 / sources,
+          sourcesPerSnapshot);
+    }
+  }
+
+  /**
+   * Run the benchmark with one number of sources and percentage of changed
+   * sources.
+   */
+  RunResult run(int numSources, int numMetrics, int changedPercent,
+                int warmupSnapshots, int snapshots) {
+    new ConfigBuilder().add("*.period", 3600)
+        .add("*."+ MetricsConfig.START_MBEANS_KEY, false)
+        .save(TestMetricsConfig.getTestFilename(
+            "hadoop-metrics2-snapshotbench"));
+    MetricsSystemImpl ms = new MetricsSystemImpl();
+    ms.init(PREFIX);
+    try {
+      BenchmarkSource[] sources = new BenchmarkSource[numSources];
+      for (int i = 0; i < numSources; i++) {
+        sources[i] = new BenchmarkSource("Source"+ i, numMetrics);
+        // Not register(): source names must be unique in the process
+        ms.registerSource("Source"+ i, "Source "+ i,
+                          MetricsAnnotations.makeSource(sources[i]));
+      }
+      int numChanged = numSources * changedPercent / 100;
+      int nextChanged = 0;
+      long elapsed = 0;
+      int inSnapshots = 0;
+      for (int s = 0; s < warmupSnapshots + snapshots; s++) {
+        for (int i = 0; i < numChanged; i++) {
+          sources[nextChanged].change();
+          nextChanged = (nextChanged + 1) % numSources;
+        }
+        long start = System.nanoTime();
+        MetricsBuffer buffer = ms.sampleMetrics();
+        long end = System.nanoTime();
+        if (s >= warmupSnapshots) {
+          elapsed += end - start;
+          for (MetricsBuffer.Entry entry : buffer) {
+            LOG.debug("Snapshotted "+ entry.name());
+            ++inSnapshots;
+          }
+        }
+      }
+      RunResult result = new RunResult();
+      result.sources = numSources;
+      result.changedPercent = changedPercent;
+      result.microsPerSnapshot = elapsed / 1000.0 / Math.max(1, snapshots);
+      result.sourcesPerSnapshot = inSnapshots / Math.max(1, snapshots);
+      return result;
+    } finally {
+      ms.shutdown();
+    }
+  }
+
+  /**
+   * Run the benchmark for every number of sources and percentage of changed
+   * sources.
+   * @return the results of the runs, in the order they were made
+   */
+  List<RunResult> runAll(int[] numSources, int numMetrics,
+                         int[] changedPercents, int warmupSnapshots,
+                         int snapshots, PrintStream out) {
+    List<RunResult> results = new ArrayList<RunResult>();
+    RunResult.printHeader(out);
+    for (int n : numSources) {
+      for (int changedPercent : changedPercents) {
+        RunResult result = run(n, numMetrics, changedPercent,
+                               warmupSnapshots, snapshots);
+        result.print(out);
+        results.add(result);
+      }
+    }
+    return results;
+  }
+
+  private static int[] parseInts(String values) {
+    String[] parts = values.split(",");
+    int[] result = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      result[i] = Integer.parseInt(parts[i].trim());
+    }
+    return result;
+  }
+
+  @SuppressWarnings("static-access")
+  private static Options buildOptions() {
+    Options opts = new Options();
+    opts.addOption(OptionBuilder.withLongOpt("sources").hasArg()
+        .withArgName("count[,...]")
+        .withDescription("numbers of sources, 10,100,1000,10000 by default")
+        .create('s'));
+    opts.addOption(OptionBuilder.withLongOpt("metrics").hasArg()
+        .withArgName("count")
+        .withDescription("counters per source, 10 by default").create('m'));
+    opts.addOption(OptionBuilder.withLongOpt("changed").hasArg()
+        .withArgName("percent[,...]")
+        .withDescription("percentages of sources changed per snapshot, "
+            + "0,10,100 by default")
+        .create('c'));
+    opts.addOption(OptionBuilder.withLongOpt("warmup").hasArg()
+        .withArgName("snapshots")
+        .withDescription("snapshots before measuring, 20 by default")
+        .create('w'));
+    opts.addOption(OptionBuilder.withLongOpt("snapshots").hasArg()
+        .withArgName("snapshots")
+        .withDescription("measured snapshots, 100 by default").create('n'));
+    opts.addOption(OptionBuilder.withLongOpt("help")
+        .withDescription("show this help").create('?'));
+    return opts;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Options opts = buildOptions();
+    CommandLine line;
+    try {
+      line = new GnuParser().parse(opts, args);
+    } catch (ParseException e) {
+      System.err.println(e.getMessage());
+      new HelpFormatter().printHelp("MetricsSnapshotBenchmark", opts);
+      return -1;
+    }
+    if (line.hasOption('?')) {
+      new HelpFormatter().printHelp("MetricsSnapshotBenchmark", opts);
+      return 0;
+    }
+
+    System.out.println("Benchmark: metrics snapshot cost by source count.");
+    runAll(parseInts(line.getOptionValue('s', "10,100,1000,10000")),
+           Integer.parseInt(line.getOptionValue('m', "10")),
+           parseInts(line.getOptionValue('c', "0,10,100")),
+           Integer.parseInt(line.getOptionValue('w', "20")),
+           Integer.parseInt(line.getOptionValue('n', "100")),
+           System.out);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new Configuration(),
+                               new MetricsSnapshotBenchmark(), args));
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.metrics2.impl;
+
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.metrics2.impl.MetricsSnapshotBenchmark.RunResult;
+
+/**
+ * Test {@link MetricsSnapshotBenchmark}
+ */
+public class TestMetricsSnapshotBenchmark {
+
+  /**
+   * Only the changed sources, plus the system source, are in a snapshot
+   */
+  @Test public void testRunAll() {
+    MetricsSnapshotBenchmark benchmark = new MetricsSnapshotBenchmark();
+    List<RunResult> results = benchmark.runAll(new int[] { 10, 100 }, 4,
+                                               new int[] { 0, 10 }, 2, 5,
+                                               System.out);
+    assertEquals("runs", 4, results.size());
+    int[] expected = { 1, 2, 1, 11 };
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals("sources in snapshot", expected[i],
+                   results.get(i).sourcesPerSnapshot);
+    }
+    for (RunResult result : results) {
+      assertTrue("snapshot time", result.microsPerSnapshot > 0);
+    }
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.hadoop.metrics2.impl;
 
 import java.util.ConcurrentModificationException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -168,6 +169,57 @@ public class TestSinkQueue {
     assertEquals("element", 1, (int) q.dequeue());
   }
 
+  /**
+   * Test producers and dequeuers running at once: every element should be
+   * dequeued exactly once
+   * @throws Exception
+   */
+  @Test public void testConcurrentDequeuers() throws Exception {
+    final SinkQueue<Integer> q = new SinkQueue<Integer>(7);
+    final int producers = 4, dequeuers = 3, count = 10000;
+    final AtomicIntegerArray seen = new AtomicIntegerArray(producers * count);
+    Thread[] threads = new Thread[producers + dequeuers];
+    for (int p = 0; p < producers; ++p) {
+      final int first = p * count;
+      threads[p] = new Thread() {
+        @Override public void run() {
+          for (int i = first; i < first + count; ++i) {
+            while (!q.enqueue(i)) {
+              Thread.yield();
+            }
+          }
+        }
+      };
+    }
+    for (int d = producers; d < threads.length; ++d) {
+      threads[d] = new Thread() {
+        @Override public void run() {
+          try {
+            for (int i = 0; i < producers * count / dequeuers; ++i) {
+              seen.incrementAndGet(q.dequeue());
+            }
+          }
+          catch (InterruptedException e) {
+            LOG.warn("Interrupted", e);
+          }
+        }
+      };
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    // producers * count is not a multiple of dequeuers
+    while (q.size() > 0) {
+      seen.incrementAndGet(q.dequeue());
+    }
+    for (int i = 0; i < seen.length(); ++i) {
+      assertEquals("times element "+ i +" was dequeued", 1, seen.get(i));
+    }
+  }
+
   /**
    * Test the clear method
    */
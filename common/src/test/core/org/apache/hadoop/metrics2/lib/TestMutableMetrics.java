@@ -103,4 +103,40 @@ public class TestMutableMetrics {
     assertCounter("BarNumOps", 0L, rb);
     assertGauge("BarAvgTime", 0.0, rb);
   }
+
+  /**
+   * Test that quantiles publish the last complete interval
+   */
+  @Test public void testMutableQuantiles() {
+    MetricsRegistry registry = new MetricsRegistry("test");
+    MutableQuantiles quantiles =
+        registry.newQuantiles("foo", "stat", "Ops", "Latency", 60);
+    try {
+      for (long i = 1; i <= 1000; i++) {
+        quantiles.add(i);
+      }
+      MetricsRecordBuilder rb = mockMetricsRecordBuilder();
+      registry.snapshot(rb, true);
+      assertGauge("FooNumOps", 0L, rb);
+      assertGauge("Foo99thPercentileLatency", 0L, rb);
+
+      quantiles.rollover();
+      rb = mockMetricsRecordBuilder();
+      registry.snapshot(rb, false);
+      assertGauge("FooNumOps", 1000L, rb);
+      verify(rb).addGauge(eq(info("Foo50thPercentileLatency",
+          "50th percentile latency for stat over the last 60 seconds")),
+          and(geq(450L), leq(550L)));
+      verify(rb).addGauge(eq(info("Foo99thPercentileLatency",
+          "99th percentile latency for stat over the last 60 seconds")),
+          and(geq(989L), leq(991L)));
+
+      rb = mockMetricsRecordBuilder();
+      registry.snapshot(rb, false);
+      verify(rb, never()).addGauge(eq(info("FooNumOps",
+          "Number of ops for stat over the last 60 seconds")), anyLong());
+    } finally {
+      quantiles.stop();
+    }
+  }
 }
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.metrics2.util;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test the streaming quantile estimator
+ */
+public class TestSampleQuantiles {
+
+  static final Quantile[] QUANTILES = {
+    new Quantile(0.50, 0.050),
+    new Quantile(0.75, 0.025),
+    new Quantile(0.90, 0.010),
+    new Quantile(0.95, 0.005),
+    new Quantile(0.99, 0.001)
+  };
+
+  /**
+   * An empty estimator, then one sample
+   */
+  @Test public void testSimple() {
+    SampleQuantiles estimator = new SampleQuantiles(QUANTILES);
+    assertNull("empty snapshot", estimator.snapshot());
+    assertEquals("count", 0, estimator.getCount());
+
+    estimator.insert(1337);
+    Map<Quantile, Long> snapshot = estimator.snapshot();
+    assertEquals("count", 1, estimator.getCount());
+    for (Quantile q : QUANTILES) {
+      assertEquals(q.toString(), 1337L, (long) snapshot.get(q));
+    }
+
+    estimator.clear();
+    assertNull("snapshot after clear", estimator.snapshot());
+    assertEquals("count after clear", 0, estimator.getCount());
+  }
+
+  /**
+   * The estimates of a shuffled stream are within the error bounds, and
+   * the estimator holds far fewer samples than it saw
+   */
+  @Test public void testAccuracy() {
+    final int count = 100000;
+    List<Long> values = new LinkedList<Long>();
+    for (long i = 1; i <= count; i++) {
+      values.add(i);
+    }
+    Collections.shuffle(values, new Random(0xdeadbeefL));
+    SampleQuantiles estimator = new SampleQuantiles(QUANTILES);
+    for (long value : values) {
+      estimator.insert(value);
+    }
+    Map<Quantile, Long> snapshot = estimator.snapshot();
+    assertEquals("count", count, estimator.getCount());
+    for (Quantile q : QUANTILES) {
+      double allowed = q.error * count;
+      long actual = (long) (q.quantile * count);
+      long estimate = snapshot.get(q);
+      assertTrue(q +": "+ estimate +" too far from "+ actual,
+                 Math.abs(estimate - actual) <= allowed);
+    }
+    assertTrue("too many samples: "+ estimator.getSampleCount(),
+               estimator.getSampleCount() < count / 100);
+  }
+}
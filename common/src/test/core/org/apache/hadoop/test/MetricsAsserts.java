@@ -26,6 +26,7 @@ import static org.mockito.Mockito.*;
 import org.mockito.stubbing.Answer;
 import org.mockito.invocation.InvocationOnMock;
 import static org.mockito.AdditionalMatchers.*;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 
 import org.apache.commons.logging.Log;
@@ -273,4 +274,19 @@ public class MetricsAsserts {
                                    MetricsSource source) {
     assertGaugeGt(name, greater, getMetrics(source));
   }
+
+  /**
+   * Lookup the value of a long counter metric by name
+   * @param name  of the metric
+   * @param rb  the record builder mock used to getMetrics
+   * @return the value of the metric
+   */
+  public static long getLongCounter(String name, MetricsRecordBuilder rb) {
+    ArgumentCaptor<Long> captor = ArgumentCaptor.forClass(Long.class);
+    verify(rb, atLeast(0)).addCounter(eqName(info(name, "")),
+                                      captor.capture());
+    checkState(!captor.getAllValues().isEmpty(),
+               "Expected a counter named %s", name);
+    return captor.getValue();
+  }
 }
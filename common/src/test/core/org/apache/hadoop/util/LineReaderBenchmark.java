@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+
+/**
+ * LineReaderBenchmark measures the throughput of {@link LineReader} for
+ * short and long lines, with the default and a custom delimiter, reading
+ * from a stream and from a direct buffer.
+ * <p>
+ * Usage: LineReaderBenchmark [-size MB] [-runs count]
+ */
+public class LineReaderBenchmark extends Configured implements Tool {
+  private static final int[] LINE_LENGTHS = { 16, 100, 1000, 10000 };
+  private static final byte[] CUSTOM_DELIMITER = "|;|".getBytes();
+
+  /** Generate lines of printable characters of about the given length. */
+  static byte[] generateData(int size, int lineLength, byte[] delimiter) {
+    Random random = new Random(lineLength);
+    byte[] data = new byte[size];
+    int i = 0;
+    while (i < size) {
+      int length = lineLength / 2 + random.nextInt(lineLength);
+      for (int end = Math.min(i + length, size); i < end; i++) {
+        data[i] = (byte) ('a' + random.nextInt(26));
+      }
+      for (int j = 0; j < delimiter.length && i < size; j++) {
+        data[i++] = delimiter[j];
+      }
+    }
+    return data;
+  }
+
+  /** @return the number of lines read */
+  static long readAll(LineReader reader) throws IOException {
+    Text line = new Text();
+    long lines = 0;
+    while (reader.readLine(line) > 0) {
+      lines++;
+    }
+    return lines;
+  }
+
+  private static LineReader newReader(byte[] data, ByteBuffer direct,
+      byte[] delimiter) {
+    if (direct != null) {
+      direct.clear();
+      return new LineReader(direct, 64 * 1024, delimiter);
+    }
+    return new LineReader(new ByteArrayInputStream(data), 64 * 1024,
+        delimiter);
+  }
+
+  /** @return the best throughput of the runs, in MB/s */
+  static double measure(byte[] data, boolean direct, byte[] delimiter,
+      int runs) throws IOException {
+    ByteBuffer buffer = null;
+    if (direct) {
+      buffer = ByteBuffer.allocateDirect(data.length);
+      buffer.put(data);
+    }
+    // warm up
+    readAll(newReader(data, buffer, delimiter));
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      readAll(newReader(data, buffer, delimiter));
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return data.length / (best / 1e9) / (1024 * 1024);
+  }
+
+  void runAll(int size, int runs, PrintStream out) throws IOException {
+    out.println(String.format("%-8s %-8s %-8s %10s", "line", "delim",
+        "input", "MB/s"));
+    for (int lineLength : LINE_LENGTHS) {
+      for (boolean custom : new boolean[] { false, true }) {
+        byte[] delimiter = custom ? CUSTOM_DELIMITER : new byte[] { '\n' };
+        byte[] data = generateData(size, lineLength, delimiter);
+        for (boolean direct : new boolean[] { false, true }) {
+          double throughput = measure(data, direct,
+              custom ? CUSTOM_DELIMITER : null, runs);
+          out.println(String.format("%-8d %-8s %-8s %10.1f", lineLength,
+              custom ? "custom" : "default", direct ? "direct" : "stream",
+              throughput));
+        }
+      }
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    int size = 64;
+    int runs = 5;
+    for (int i = 0; i < args.length; i++) {
+      if ("-size".equals(args[i]) && i + 1 < args.length) {
+        size = Integer.parseInt(args[++i]);
+      } else if ("-runs".equals(args[i]) && i + 1 < args.length) {
+        runs = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: LineReaderBenchmark [-size MB] [-runs count]");
+        ToolRunner.printGenericCommandUsage(System.err);
+        return -1;
+      }
+    }
+    System.out.println("Benchmark: LineReader throughput.");
+    System.out.println(VersionInfo.getVersion());
+    runAll(size * 1024 * 1024, runs, System.out);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new Configuration(), new LineReaderBenchmark(),
+        args));
+  }
+}
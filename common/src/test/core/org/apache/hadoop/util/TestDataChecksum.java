@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.fs.ChecksumException;
+import org.junit.Test;
+
+/** Unit tests for {@link DataChecksum}. */
+public class TestDataChecksum {
+  private static final int BYTES_PER_CHECKSUM = 512;
+  private static final int[] TYPES = {
+    DataChecksum.CHECKSUM_CRC32, DataChecksum.CHECKSUM_CRC32C };
+
+  @Test
+  public void testHeader() throws Exception {
+    for (int type : TYPES) {
+      DataChecksum checksum =
+        DataChecksum.newDataChecksum(type, BYTES_PER_CHECKSUM);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      bytes.write(0xff);                  // the header is not at the start
+      checksum.writeHeader(new DataOutputStream(bytes));
+      DataChecksum read = DataChecksum.newDataChecksum(bytes.toByteArray(), 1);
+      assertEquals(checksum, read);
+      assertEquals(type, read.getChecksumType());
+      assertEquals(4, read.getChecksumSize());
+      assertEquals(type, DataChecksum.getChecksumType(
+          DataChecksum.getChecksumTypeName(type)));
+    }
+    assertEquals(DataChecksum.CHECKSUM_CRC32C,
+        DataChecksum.getChecksumType("crc32c"));
+    assertEquals(-1, DataChecksum.getChecksumType("MD5"));
+  }
+
+  @Test
+  public void testBulkOps() throws Exception {
+    Random r = new Random();
+    for (int type : TYPES) {
+      for (boolean direct : new boolean[] { false, true }) {
+        for (int len : new int[] { 1, BYTES_PER_CHECKSUM,
+            BYTES_PER_CHECKSUM * 7 + 13 }) {
+          doBulkTest(DataChecksum.newDataChecksum(type, BYTES_PER_CHECKSUM),
+              r, len, direct);
+        }
+      }
+    }
+  }
+
+  private void doBulkTest(DataChecksum checksum, Random r, int len,
+      boolean direct) throws Exception {
+    int numChunks = (len + BYTES_PER_CHECKSUM - 1) / BYTES_PER_CHECKSUM;
+    byte[] data = new byte[len];
+    r.nextBytes(data);
+    ByteBuffer dataBuf = allocate(len, direct);
+    dataBuf.put(data).flip();
+    ByteBuffer sums = allocate(numChunks * 4, direct);
+
+    checksum.calculateChunkedSums(dataBuf, sums);
+    assertEquals(0, dataBuf.position());
+    assertEquals(0, sums.position());
+
+    // the sums are those of the chunks one at a time
+    byte[] expected = new byte[4];
+    for (int i = 0; i < numChunks; i++) {
+      int off = i * BYTES_PER_CHECKSUM;
+      checksum.update(data, off, Math.min(BYTES_PER_CHECKSUM, len - off));
+      checksum.writeValue(expected, 0, true);
+      for (int j = 0; j < 4; j++) {
+        assertEquals(expected[j], sums.get(i * 4 + j));
+      }
+    }
+
+    checksum.verifyChunkedSums(dataBuf, sums, "file", 0);
+
+    // the same sums are computed from and verified against arrays
+    byte[] sumArray = new byte[numChunks * 4];
+    checksum.calculateChunkedSums(data, 0, len, sumArray, 0);
+    for (int j = 0; j < sumArray.length; j++) {
+      assertEquals(sumArray[j], sums.get(j));
+    }
+    checksum.verifyChunkedSums(data, 0, len, sumArray, 0, "file", 0);
+
+    // corrupt the last byte of the data
+    dataBuf.put(len - 1, (byte) (data[len - 1] + 1));
+    try {
+      checksum.verifyChunkedSums(dataBuf, sums, "file", 1000);
+      fail("Expected a ChecksumException");
+    } catch (ChecksumException ce) {
+      assertEquals(1000 + (numChunks - 1) * BYTES_PER_CHECKSUM, ce.getPos());
+    }
+  }
+
+  private static ByteBuffer allocate(int len, boolean direct) {
+    return direct ? ByteBuffer.allocateDirect(len) : ByteBuffer.allocate(len);
+  }
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class TestLineReader {
+  private static final int[] BUFFER_SIZES = { 1, 2, 3, 7, 8, 9, 16, 17, 4096 };
+
+  /** A line read, with the number of bytes consumed to read it. */
+  private static class Line {
+    final String text;
+    final int consumed;
+
+    Line(String text, int consumed) {
+      this.text = text;
+      this.consumed = consumed;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Line && text.equals(((Line) other).text)
+          && consumed == ((Line) other).consumed;
+    }
+
+    @Override
+    public int hashCode() {
+      return text.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "\"" + text + "\"/" + consumed;
+    }
+  }
+
+  /** Split data in lines terminated by CR, LF or CRLF. */
+  private static List<Line> splitDefault(String data, int maxLineLength) {
+    List<Line> lines = new ArrayList<Line>();
+    int start = 0;
+    while (start < data.length()) {
+      int end = start;
+      while (end < data.length() && data.charAt(end) != '\n'
+          && data.charAt(end) != '\r') {
+        end++;
+      }
+      int next = end;
+      if (next < data.length()) {
+        next += data.startsWith("\r\n", next) ? 2 : 1;
+      }
+      lines.add(new Line(truncate(data.substring(start, end), maxLineLength),
+          next - start));
+      start = next;
+    }
+    return lines;
+  }
+
+  /** Split data in lines terminated by a delimiter. */
+  private static List<Line> splitCustom(String data, String delimiter,
+      int maxLineLength) {
+    List<Line> lines = new ArrayList<Line>();
+    int start = 0;
+    while (start < data.length()) {
+      int end = data.indexOf(delimiter, start);
+      int next = end < 0 ? data.length() : end + delimiter.length();
+      end = end < 0 ? data.length() : end;
+      lines.add(new Line(truncate(data.substring(start, end), maxLineLength),
+          next - start));
+      start = next;
+    }
+    return lines;
+  }
+
+  private static String truncate(String line, int maxLineLength) {
+    return line.length() > maxLineLength ? line.substring(0, maxLineLength)
+        : line;
+  }
+
+  private static List<Line> read(LineReader reader, int maxLineLength)
+      throws IOException {
+    List<Line> lines = new ArrayList<Line>();
+    Text text = new Text();
+    int consumed;
+    while ((consumed = reader.readLine(text, maxLineLength)) > 0) {
+      lines.add(new Line(new String(text.getBytes(), 0, text.getLength(),
+          "ISO-8859-1"), consumed));
+    }
+    reader.close();
+    return lines;
+  }
+
+  private static ByteBuffer directBuffer(byte[] data) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(data.length + 3);
+    buffer.put(new byte[3]).put(data).flip();
+    buffer.position(3);
+    return buffer;
+  }
+
+  private static void check(String data, String delimiter, int maxLineLength)
+      throws IOException {
+    byte[] bytes = data.getBytes("ISO-8859-1");
+    byte[] delimiterBytes = delimiter == null ? null
+        : delimiter.getBytes("ISO-8859-1");
+    List<Line> expected = delimiter == null
+        ? splitDefault(data, maxLineLength)
+        : splitCustom(data, delimiter, maxLineLength);
+    for (int bufferSize : BUFFER_SIZES) {
+      String message = "data=" + Arrays.toString(bytes) + " delimiter="
+          + delimiter + " bufferSize=" + bufferSize;
+      assertEquals(message, expected, read(new LineReader(
+          new ByteArrayInputStream(bytes), bufferSize, delimiterBytes),
+          maxLineLength));
+      assertEquals(message, expected, read(new LineReader(
+          directBuffer(bytes), bufferSize, delimiterBytes), maxLineLength));
+    }
+  }
+
+  private static String randomData(Random random, String alphabet,
+      int length) {
+    StringBuilder data = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      data.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return data.toString();
+  }
+
+  @Test
+  public void testDefaultDelimiter() throws IOException {
+    check("", null, Integer.MAX_VALUE);
+    check("a", null, Integer.MAX_VALUE);
+    check("abc\ndef\r\nghi\rjkl", null, Integer.MAX_VALUE);
+    check("\n\n\r\r\r\n\n", null, Integer.MAX_VALUE);
+    check("0123456789abcdef\r0123456789abcdef\r\n", null, Integer.MAX_VALUE);
+    Random random = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      // long runs without newlines exercise the word at a time search
+      String alphabet = i % 2 == 0 ? "ab\r\n" : "abcdefghijklmnopqrstuvw\r\n";
+      check(randomData(random, alphabet, random.nextInt(100)), null,
+          random.nextBoolean() ? Integer.MAX_VALUE : random.nextInt(10));
+    }
+  }
+
+  @Test
+  public void testCustomDelimiter() throws IOException {
+    check("", "ab", Integer.MAX_VALUE);
+    check("a", "ab", Integer.MAX_VALUE);
+    check("xxabyyab", "ab", Integer.MAX_VALUE);
+    // a mismatch after a partial match must be retried as a new match
+    check("aab", "ab", Integer.MAX_VALUE);
+    check("aaab", "aab", Integer.MAX_VALUE);
+    check("ababac", "abac", Integer.MAX_VALUE);
+    // partial delimiters which turn out to be data
+    check("ab|a|b||c||", "||", Integer.MAX_VALUE);
+    check("abc\r\r\ndef\r\n", "\r\n", Integer.MAX_VALUE);
+    Random random = new Random(1);
+    String[] delimiters = { "x", "ab", "aab", "aba", "abab", "|||", "\r\n" };
+    for (int i = 0; i < 500; i++) {
+      String delimiter = delimiters[i % delimiters.length];
+      check(randomData(random, "ab|x\r\n", random.nextInt(100)), delimiter,
+          random.nextBoolean() ? Integer.MAX_VALUE : random.nextInt(10));
+    }
+  }
+
+  @Test
+  public void testHighBitBytes() throws IOException {
+    // bytes above 0x7f must not be confused with the delimiters
+    byte[] bytes = new byte[256 * 3];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    String data = new String(bytes, "ISO-8859-1");
+    check(data, null, Integer.MAX_VALUE);
+    check(data, "\u008d\u008e", Integer.MAX_VALUE);
+    check(data, "\u00ff", Integer.MAX_VALUE);
+  }
+}
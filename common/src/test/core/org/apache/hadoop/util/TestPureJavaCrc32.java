@@ -98,14 +98,15 @@ public class TestPureJavaCrc32 {
 
   /**
    * Generate a table to perform checksums based on the same CRC-32 polynomial
-   * that java.util.zip.CRC32 uses.
+   * that java.util.zip.CRC32 uses, or on another polynomial such as the
+   * CRC-32C polynomial 0x82F63B78.
    */
   public static class Table {
-    private static final int polynomial = 0xEDB88320;
+    private static final int CRC32_POLYNOMIAL = 0xEDB88320;
 
     private final int[][] tables;
 
-    private Table(final int nBits, final int nTables) {
+    private Table(final int nBits, final int nTables, final int polynomial) {
       tables = new int[nTables][];
       final int size = 1 << nBits;
       for(int i = 0; i < tables.length; i++) {
@@ -167,12 +168,17 @@ public class TestPureJavaCrc32 {
       return b.toString();
     }
 
-    /** Generate CRC-32 lookup tables */
+    /**
+     * Generate CRC-32 lookup tables, for the polynomial given in hexadecimal
+     * as the first argument if any.
+     */
     public static void main(String[] args) throws FileNotFoundException {
       int i = 8;
+      final int polynomial = args.length > 0
+          ? (int) Long.parseLong(args[0], 16) : CRC32_POLYNOMIAL;
       final PrintStream out = new PrintStream(
           new FileOutputStream("table" + i + ".txt"), true);
-      final Table t = new Table(i, 16);
+      final Table t = new Table(i, 16, polynomial);
       final String s = t.toString();
       System.out.println(s);
       out.println(s);
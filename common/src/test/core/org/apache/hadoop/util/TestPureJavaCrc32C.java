@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test to verify the pure-Java CRC32C algorithm against the test
+ * vectors of RFC 3720.
+ */
+public class TestPureJavaCrc32C {
+
+  private static long crc(byte[] b) {
+    PureJavaCrc32C crc = new PureJavaCrc32C();
+    crc.update(b, 0, b.length);
+    return crc.getValue();
+  }
+
+  @Test
+  public void testKnownValues() throws Exception {
+    assertEquals(0xE3069283L, crc("123456789".getBytes("US-ASCII")));
+
+    byte[] b = new byte[32];
+    assertEquals(0x8A9136AAL, crc(b));
+    Arrays.fill(b, (byte) 0xff);
+    assertEquals(0x62A8AB43L, crc(b));
+    for (int i = 0; i < b.length; i++) {
+      b[i] = (byte) i;
+    }
+    assertEquals(0x46DD794EL, crc(b));
+    for (int i = 0; i < b.length; i++) {
+      b[i] = (byte) (31 - i);
+    }
+    assertEquals(0x113FDB5CL, crc(b));
+  }
+
+  @Test
+  public void testUpdateByteByByte() {
+    Random r = new Random();
+    for (int i = 0; i < 1000; i++) {
+      byte[] b = new byte[r.nextInt(2048)];
+      r.nextBytes(b);
+      PureJavaCrc32C crc = new PureJavaCrc32C();
+      for (int j = 0; j < b.length; j++) {
+        crc.update(b[j]);
+      }
+      assertEquals(crc(b), crc.getValue());
+    }
+  }
+}
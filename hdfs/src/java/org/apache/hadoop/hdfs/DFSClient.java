@@ -100,6 +100,7 @@ import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.SecretManager.InvalidToken;
 import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.Progressable;
 
 /********************************************************
@@ -143,6 +144,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     final int confTime;
     final int ioBufferSize;
     final int bytesPerChecksum;
+    final int checksumType;
     final int writePacketSize;
     final int socketTimeout;
     final int socketCacheCapacity;
@@ -169,6 +171,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
           CommonConfigurationKeysPublic.IO_FILE_BUFFER_SIZE_DEFAULT);
       bytesPerChecksum = conf.getInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY,
           DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_DEFAULT);
+      checksumType = getChecksumType(conf);
       socketTimeout = conf.getInt(DFSConfigKeys.DFS_CLIENT_SOCKET_TIMEOUT_KEY,
           HdfsConstants.READ_TIMEOUT);
       /** dfs.write.packet.size is an internal config variable */
@@ -203,6 +206,21 @@ public class DFSClient implements FSConstants, java.io.Closeable {
               .DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_DEFAULT);
       uMask = FsPermission.getUMask(conf);
     }
+
+    /** @return the checksum type of the files written by the client */
+    private static int getChecksumType(Configuration conf) {
+      String name = conf.get(DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY,
+          DFSConfigKeys.DFS_CHECKSUM_TYPE_DEFAULT);
+      int type = DataChecksum.getChecksumType(name);
+      if (type != DataChecksum.CHECKSUM_CRC32
+          && type != DataChecksum.CHECKSUM_CRC32C) {
+        LOG.warn("Bad value " + name + " for "
+            + DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY + ", using "
+            + DFSConfigKeys.DFS_CHECKSUM_TYPE_DEFAULT);
+        type = DataChecksum.CHECKSUM_CRC32;
+      }
+      return type;
+    }
   }
  
   Conf getConf() {
@@ -38,6 +38,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_STREAM_BUFFER_SIZE_DEFAULT = 4096;
   public static final String  DFS_BYTES_PER_CHECKSUM_KEY = "dfs.bytes-per-checksum";
   public static final int     DFS_BYTES_PER_CHECKSUM_DEFAULT = 512;
+  public static final String  DFS_CHECKSUM_TYPE_KEY = "dfs.checksum.type";
+  public static final String  DFS_CHECKSUM_TYPE_DEFAULT = "CRC32";
   public static final String  DFS_CLIENT_WRITE_PACKET_SIZE_KEY = "dfs.client-write-packet-size";
   public static final int     DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT = 64*1024;
   public static final String  DFS_CLIENT_WRITE_REPLACE_DATANODE_ON_FAILURE_ENABLE_KEY = "dfs.client.block.write.replace-datanode-on-failure.enable";
@@ -204,6 +206,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_NAMENODE_HANDLER_COUNT_DEFAULT = 10;
   public static final String  DFS_NAMENODE_SERVICE_HANDLER_COUNT_KEY = "dfs.namenode.service.handler.count";
   public static final int     DFS_NAMENODE_SERVICE_HANDLER_COUNT_DEFAULT = 10;
+  public static final String  DFS_NAMENODE_READONLY_BATCH_SIZE_KEY = "dfs.namenode.handler.readonly.batch.size";
+  public static final int     DFS_NAMENODE_READONLY_BATCH_SIZE_DEFAULT = 1;
+  public static final String  DFS_NAMENODE_RESPONSE_CACHE_SIZE_KEY = "dfs.namenode.response.cache.size";
+  public static final int     DFS_NAMENODE_RESPONSE_CACHE_SIZE_DEFAULT = 0;
+  public static final String  DFS_NAMENODE_RESPONSE_CACHE_TTL_KEY = "dfs.namenode.response.cache.ttl";
+  public static final long    DFS_NAMENODE_RESPONSE_CACHE_TTL_DEFAULT = 1000;
   public static final String  DFS_SUPPORT_APPEND_KEY = "dfs.support.append";
   public static final boolean DFS_SUPPORT_APPEND_DEFAULT = true;
   public static final String  DFS_HTTPS_ENABLE_KEY = "dfs.https.enable";
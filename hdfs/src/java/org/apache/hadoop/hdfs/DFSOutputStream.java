@@ -35,6 +35,7 @@ import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Checksum;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CreateFlag;
@@ -75,6 +76,7 @@ import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.PureJavaCrc32;
+import org.apache.hadoop.util.PureJavaCrc32C;
 
 
 /****************************************************************
@@ -1190,7 +1192,7 @@ class DFSOutputStream extends FSOutputSummer implements Syncable {
 
   private DFSOutputStream(DFSClient dfsClient, String src, long blockSize, Progressable progress,
       int bytesPerChecksum, short replication) throws IOException {
-    super(new PureJavaCrc32(), bytesPerChecksum, 4);
+    super(newSummer(dfsClient, bytesPerChecksum), bytesPerChecksum, 4);
     this.dfsClient = dfsClient;
     this.src = src;
     this.blockSize = blockSize;
@@ -1208,8 +1210,17 @@ class DFSOutputStream extends FSOutputSummer implements Syncable {
                             "multiple of io.bytes.per.checksum");
                             
     }
-    checksum = DataChecksum.newDataChecksum(DataChecksum.CHECKSUM_CRC32, 
-                                            bytesPerChecksum);
+    checksum = DataChecksum.newDataChecksum(
+        dfsClient.getConf().checksumType, bytesPerChecksum);
+  }
+
+  /** @return the checksum the data written by a client is summed with */
+  private static Checksum newSummer(DFSClient dfsClient,
+      int bytesPerChecksum) {
+    if (dfsClient.getConf().checksumType == DataChecksum.CHECKSUM_CRC32C) {
+      return new PureJavaCrc32C();
+    }
+    return new PureJavaCrc32();
   }
 
   /**
@@ -233,8 +233,14 @@ public class DistributedFileSystem extends FileSystem {
   @Override
   public FSDataInputStream open(Path f, int bufferSize) throws IOException {
     statistics.incrementReadOps(1);
-    return new DFSClient.DFSDataInputStream(
-          dfs.open(getPathName(f), bufferSize, verifyChecksum, statistics));
+    long startTime = System.nanoTime();
+    try {
+      return new DFSClient.DFSDataInputStream(
+            dfs.open(getPathName(f), bufferSize, verifyChecksum, statistics));
+    } finally {
+      statistics.addOperationTime(Statistics.Operation.OPEN,
+          System.nanoTime() - startTime);
+    }
   }
 
   /** This optional operation is not yet supported. */
@@ -252,10 +258,16 @@ public class DistributedFileSystem extends FileSystem {
     boolean overwrite, int bufferSize, short replication, long blockSize,
     Progressable progress) throws IOException {
     statistics.incrementWriteOps(1);
-    return new FSDataOutputStream(dfs.create(getPathName(f), permission,
-        overwrite ? EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE)
-            : EnumSet.of(CreateFlag.CREATE), replication, blockSize, progress,
-        bufferSize), statistics);
+    long startTime = System.nanoTime();
+    try {
+      return new FSDataOutputStream(dfs.create(getPathName(f), permission,
+          overwrite ? EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE)
+              : EnumSet.of(CreateFlag.CREATE), replication, blockSize, progress,
+          bufferSize), statistics);
+    } finally {
+      statistics.addOperationTime(Statistics.Operation.CREATE,
+          System.nanoTime() - startTime);
+    }
   }
   
   @SuppressWarnings("deprecation")
@@ -381,6 +393,16 @@ public class DistributedFileSystem extends FileSystem {
    */
   @Override
   public FileStatus[] listStatus(Path p) throws IOException {
+    long startTime = System.nanoTime();
+    try {
+      return listStatusInternal(p);
+    } finally {
+      statistics.addOperationTime(Statistics.Operation.LIST_STATUS,
+          System.nanoTime() - startTime);
+    }
+  }
+
+  private FileStatus[] listStatusInternal(Path p) throws IOException {
     String src = getPathName(p);
 
     // fetch the first batch of entries in the directory
@@ -751,11 +773,17 @@ public class DistributedFileSystem extends FileSystem {
   @Override
   public FileStatus getFileStatus(Path f) throws IOException {
     statistics.incrementReadOps(1);
-    HdfsFileStatus fi = dfs.getFileInfo(getPathName(f));
-    if (fi != null) {
-      return makeQualified(fi, f);
-    } else {
-      throw new FileNotFoundException("File does not exist: " + f);
+    long startTime = System.nanoTime();
+    try {
+      HdfsFileStatus fi = dfs.getFileInfo(getPathName(f));
+      if (fi != null) {
+        return makeQualified(fi, f);
+      } else {
+        throw new FileNotFoundException("File does not exist: " + f);
+      }
+    } finally {
+      statistics.addOperationTime(Statistics.Operation.GET_FILE_STATUS,
+          System.nanoTime() - startTime);
     }
   }
 
@@ -41,6 +41,8 @@ import org.apache.hadoop.hdfs.server.namenode.NotReplicatedYetException;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.Cacheable;
+import org.apache.hadoop.ipc.ReadOnly;
 import org.apache.hadoop.ipc.VersionedProtocol;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.KerberosInfo;
@@ -98,6 +100,7 @@ public interface ClientProtocol extends VersionedProtocol {
    * @throws UnresolvedLinkException If <code>src</code> contains a symlink
    * @throws IOException If an I/O error occurred
    */
+  @ReadOnly
   @Nullable
   public LocatedBlocks getBlockLocations(String src,
                                          long offset,
@@ -110,6 +113,7 @@ public interface ClientProtocol extends VersionedProtocol {
    * @return a set of server default configuration values
    * @throws IOException
    */
+  @ReadOnly
   public FsServerDefaults getServerDefaults() throws IOException;
 
   /**
@@ -505,6 +509,8 @@ public interface ClientProtocol extends VersionedProtocol {
    * @throws UnresolvedLinkException If <code>src</code> contains a symlink
    * @throws IOException If an I/O error occurred
    */
+  @Cacheable
+  @ReadOnly
   public DirectoryListing getListing(String src,
                                      byte[] startAfter,
                                      boolean needLocation)
@@ -571,6 +577,7 @@ public interface ClientProtocol extends VersionedProtocol {
    * Use public constants like {@link #GET_STATS_CAPACITY_IDX} in place of 
    * actual numbers to index into the array.
    */
+  @ReadOnly
   public long[] getStats() throws IOException;
 
   /**
@@ -589,6 +596,7 @@ public interface ClientProtocol extends VersionedProtocol {
    * @throws IOException
    * @throws UnresolvedLinkException if the path contains a symlink. 
    */
+  @ReadOnly
   public long getPreferredBlockSize(String filename) 
       throws IOException, UnresolvedLinkException;
 
@@ -727,6 +735,8 @@ public interface ClientProtocol extends VersionedProtocol {
    * @throws UnresolvedLinkException if the path contains a symlink. 
    * @throws IOException If an I/O error occurred        
    */
+  @Cacheable
+  @ReadOnly
   @Nullable
   public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
@@ -743,6 +753,8 @@ public interface ClientProtocol extends VersionedProtocol {
    * @throws UnresolvedLinkException if <code>src</code> contains a symlink
    * @throws IOException If an I/O error occurred        
    */
+  @Cacheable
+  @ReadOnly
   public HdfsFileStatus getFileLinkInfo(String src)
       throws AccessControlException, UnresolvedLinkException, IOException;
   
@@ -755,6 +767,8 @@ public interface ClientProtocol extends VersionedProtocol {
    * @throws UnresolvedLinkException if <code>path</code> contains a symlink. 
    * @throws IOException If an I/O error occurred
    */
+  @Cacheable
+  @ReadOnly
   public ContentSummary getContentSummary(String path)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
@@ -852,6 +866,7 @@ public interface ClientProtocol extends VersionedProtocol {
    * @throws FileNotFoundException If <code>path</code> does not exist
    * @throws IOException If an I/O error occurred
    */
+  @ReadOnly
   public String getLinkTarget(String path) throws AccessControlException,
       FileNotFoundException, IOException; 
   
@@ -33,6 +33,7 @@ import java.util.LinkedList;
 import java.util.zip.Checksum;
 
 import org.apache.commons.logging.Log;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSOutputSummer;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
@@ -48,7 +49,6 @@ import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
-import org.apache.hadoop.util.PureJavaCrc32;
 
 /** A class that receives a block and writes to its own disk, meanwhile
  * may copies it to another site. If a throttler is provided,
@@ -60,6 +60,9 @@ class BlockReceiver implements Closeable, FSConstants {
   
   private DataInputStream in = null; // from where data are read
   private DataChecksum checksum; // from where chunks of a block can be read
+  private DataChecksum diskChecksum; // checksum of the replica on disk
+  // true if the data received is summed again with diskChecksum
+  private boolean needsChecksumTranslation;
   private OutputStream out = null; // to block file at local disk
   private OutputStream cout = null; // output stream for cehcksum file
   private DataOutputStream checksumOut = null; // to crc file at local disk
@@ -173,6 +176,8 @@ class BlockReceiver implements Closeable, FSConstants {
       
       final boolean isCreate = isDatanode || isTransfer 
           || stage == BlockConstructionStage.PIPELINE_SETUP_CREATE;
+      this.diskChecksum = isCreate ? checksum : getDiskChecksum();
+      this.needsChecksumTranslation = !diskChecksum.equals(checksum);
       streams = replicaInfo.createStreams(isCreate,
           this.bytesPerChecksum, this.checksumSize);
       if (streams != null) {
@@ -287,39 +292,59 @@ class BlockReceiver implements Closeable, FSConstants {
     }
   }
   
+  /**
+   * Get the checksum of the replica that is appended to or recovered.  Data
+   * received with another CRC type is summed again with the checksum on
+   * disk, so that all the chunks of a replica have the same checksum.
+   */
+  private DataChecksum getDiskChecksum() throws IOException {
+    DataChecksum onDisk;
+    DataInputStream metaIn = new DataInputStream(
+        datanode.data.getMetaDataInputStream(block));
+    try {
+      onDisk = BlockMetadataHeader.readHeader(metaIn).getChecksum();
+    } finally {
+      IOUtils.closeStream(metaIn);
+    }
+    if (onDisk.getChecksumType() != checksum.getChecksumType()
+        && onDisk.getChecksumSize() == checksumSize
+        && onDisk.getBytesPerChecksum() == bytesPerChecksum) {
+      LOG.info("Translating the " + checksum + " of " + block + " from "
+          + inAddr + " to the " + onDisk + " on disk");
+      return onDisk;
+    }
+    return checksum;
+  }
+
   /**
    * Verify multiple CRC chunks. 
+   * @param dataPos the offset in the block of the data verified
+   * @throws ChecksumException at the offset in the block of the first
+   *         chunk not matching its checksum
    */
   private void verifyChunks( byte[] dataBuf, int dataOff, int len, 
-                             byte[] checksumBuf, int checksumOff ) 
-                             throws IOException {
-    DatanodeProtocol nn = datanode.getBPNamenode(block.getBlockPoolId());
-    while (len > 0) {
-      int chunkLen = Math.min(len, bytesPerChecksum);
-      
-      checksum.update(dataBuf, dataOff, chunkLen);
-
-      if (!checksum.compare(checksumBuf, checksumOff)) {
-        if (srcDataNode != null) {
-          try {
-            LOG.info("report corrupt block " + block + " from datanode " +
-                      srcDataNode + " to namenode");
-            LocatedBlock lb = new LocatedBlock(block, 
-                                            new DatanodeInfo[] {srcDataNode});
-            nn.reportBadBlocks(new LocatedBlock[] {lb});
-          } catch (IOException e) {
-            LOG.warn("Failed to report bad block " + block + 
-                      " from datanode " + srcDataNode + " to namenode");
-          }
+                             byte[] checksumBuf, int checksumOff,
+                             long dataPos ) throws IOException {
+    try {
+      checksum.verifyChunkedSums(dataBuf, dataOff, len, checksumBuf,
+          checksumOff, block.toString(), dataPos);
+    } catch (ChecksumException ce) {
+      if (srcDataNode != null) {
+        DatanodeProtocol nn = datanode.getBPNamenode(block.getBlockPoolId());
+        try {
+          LOG.info("report corrupt block " + block + " from datanode " +
+                    srcDataNode + " to namenode");
+          LocatedBlock lb = new LocatedBlock(block, 
+                                          new DatanodeInfo[] {srcDataNode});
+          nn.reportBadBlocks(new LocatedBlock[] {lb});
+        } catch (IOException e) {
+          LOG.warn("Failed to report bad block " + block + 
+                    " from datanode " + srcDataNode + " to namenode");
         }
-        throw new IOException("Unexpected checksum mismatch " + 
-                              "while writing " + block + " from " + inAddr);
       }
-
-      checksum.reset();
-      dataOff += chunkLen;
-      checksumOff += checksumSize;
-      len -= chunkLen;
+      throw new ChecksumException("Unexpected checksum mismatch " + 
+          "while writing " + block + " from " + inAddr + " at offset " +
+          ce.getPos(), ce.getPos());
     }
   }
 
@@ -564,8 +589,14 @@ class BlockReceiver implements Closeable, FSConstants {
        * protocol includes acks and only the last datanode needs to verify 
        * checksum.
        */
-      if (mirrorOut == null || isDatanode) {
-        verifyChunks(pktBuf, dataOff, len, pktBuf, checksumOff);
+      if (mirrorOut == null || isDatanode || needsChecksumTranslation) {
+        verifyChunks(pktBuf, dataOff, len, pktBuf, checksumOff,
+                     firstByteInBlock);
+      }
+      if (needsChecksumTranslation) {
+        // the packet was already sent to the mirror as received
+        diskChecksum.calculateChunkedSums(pktBuf, dataOff, len,
+                                          pktBuf, checksumOff);
       }
 
       byte[] lastChunkChecksum;
@@ -794,7 +825,8 @@ class BlockReceiver implements Closeable, FSConstants {
     }
 
     // compute crc of partial chunk from data read in the block file.
-    partialCrc = new PureJavaCrc32();
+    partialCrc = DataChecksum.newDataChecksum(
+        diskChecksum.getChecksumType(), bytesPerChecksum);
     partialCrc.update(buf, 0, sizePartialChunk);
     LOG.info("Read in partial CRC chunk from disk for block " + block);
 
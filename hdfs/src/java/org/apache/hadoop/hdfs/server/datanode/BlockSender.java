@@ -30,7 +30,6 @@ import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
-import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
@@ -359,23 +358,8 @@ class BlockSender implements java.io.Closeable, FSConstants {
       IOUtils.readFully(blockIn, buf, dataOff, len);
 
       if (verifyChecksum) {
-        int dOff = dataOff;
-        int cOff = checksumOff;
-        int dLeft = len;
-
-        for (int i=0; i<numChunks; i++) {
-          checksum.reset();
-          int dLen = Math.min(dLeft, bytesPerChecksum);
-          checksum.update(buf, dOff, dLen);
-          if (!checksum.compare(buf, cOff)) {
-            long failedPos = offset + len -dLeft;
-            throw new ChecksumException("Checksum failed at " + 
-                                        failedPos, failedPos);
-          }
-          dLeft -= dLen;
-          dOff += dLen;
-          cOff += checksumSize;
-        }
+        checksum.verifyChunkedSums(buf, dataOff, len, buf, checksumOff,
+                                   block.toString(), offset);
       }
       //writing is done below (mainly to handle IOException)
     }
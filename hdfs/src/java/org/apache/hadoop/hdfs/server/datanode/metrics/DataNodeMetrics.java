@@ -27,6 +27,7 @@ import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
 import static org.apache.hadoop.metrics2.impl.MsInfo.*;
@@ -70,6 +71,9 @@ public class DataNodeMetrics {
   @Metric MutableRate heartbeats;
   @Metric MutableRate blockReports;
 
+  @Metric("Read block op percentiles") MutableQuantiles readBlockOp60s;
+  @Metric("Write block op percentiles") MutableQuantiles writeBlockOp60s;
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
   static final Random rng = new Random();
@@ -124,10 +128,12 @@ public class DataNodeMetrics {
 
   public void addReadBlockOp(long latency) {
     readBlockOp.add(latency);
+    readBlockOp60s.add(latency);
   }
 
   public void addWriteBlockOp(long latency) {
     writeBlockOp.add(latency);
+    writeBlockOp60s.add(latency);
   }
 
   public void addReplaceBlockOp(long latency) {
@@ -151,6 +157,8 @@ public class DataNodeMetrics {
   }
 
   public void shutdown() {
+    readBlockOp60s.stop();
+    writeBlockOp60s.stop();
     DefaultMetricsSystem.shutdown();
   }
 
@@ -70,7 +70,8 @@ public class FSEditLog implements NNStorageListener {
   private ArrayList<EditLogOutputStream> editStreams = null;
 
   // a monotonically increasing counter that represents transactionIds.
-  private long txid = 0;
+  // Volatile so that the namesystem can tell whether edits were logged.
+  private volatile long txid = 0;
 
   // stores the last synced transactionId.
   private long synctxid = 0;
@@ -982,6 +983,13 @@ public class FSEditLog implements NNStorageListener {
     return 0;
   }
 
+  /**
+   * Return the txid of the last transaction written, synced or not.
+   */
+  long getLastWrittenTxId() {
+    return txid;
+  }
+
   /**
    * Return the txid of the last synced transaction.
    * For test use only
@@ -449,6 +449,9 @@ public class FSEditLogLoader {
       FSImage.LOG.error(errorMessage);
       throw new IOException(errorMessage, t);
     } finally {
+      if (numEdits > 0) {
+        fsNamesys.namespaceChanged();
+      }
       fsDir.writeUnlock();
       fsNamesys.writeUnlock();
     }
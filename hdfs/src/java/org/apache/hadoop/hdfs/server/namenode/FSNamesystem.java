@@ -49,6 +49,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.management.NotCompliantMBeanException;
@@ -128,6 +129,7 @@ import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.UpgradeCommand;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.ResponseCache;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.metrics2.annotation.Metric;
 import org.apache.hadoop.metrics2.annotation.Metrics;
@@ -340,6 +342,9 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean,
 
   // lock to protect FSNamesystem.
   private ReentrantReadWriteLock fsLock;
+  private volatile ResponseCache responseCache;
+  // the last edit logged when the write lock was taken
+  private long writeLockTxId;
 
   /**
    * FSNamesystem constructor.
@@ -479,12 +484,73 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean,
 
   public void writeLock() {
     this.fsLock.writeLock().lock();
+    if (responseCache != null && fsLock.getWriteHoldCount() == 1) {
+      writeLockTxId = getEditLog().getLastWrittenTxId();
+    }
   }
 
   public void writeUnlock() {
+    // Every namespace change is logged under the write lock. If one was,
+    // drop the responses computed before it.
+    ResponseCache cache = responseCache;
+    if (cache != null && fsLock.getWriteHoldCount() == 1 &&
+        getEditLog().getLastWrittenTxId() != writeLockTxId) {
+      cache.invalidate();
+    }
     this.fsLock.writeLock().unlock();
   }
 
+  /**
+   * Set the cache of RPC responses to invalidate whenever the namesystem
+   * changes.
+   */
+  void setResponseCache(ResponseCache cache) {
+    this.responseCache = cache;
+  }
+
+  ResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  /**
+   * Note that the namespace changed under the write lock without an edit
+   * being logged, e.g. when edits are loaded.
+   */
+  void namespaceChanged() {
+    assert fsLock.isWriteLockedByCurrentThread();
+    writeLockTxId = -1;
+  }
+
+  /**
+   * Release all the read holds of the current thread, e.g. the one of
+   * the batch of read-only RPCs it runs.
+   * @return the number of holds released
+   */
+  private int releaseReadLock() {
+    int holds = this.fsLock.getReadHoldCount();
+    for (int i = 0; i < holds; i++) {
+      readUnlock();
+    }
+    return holds;
+  }
+
+  /**
+   * Take back the read holds released by {@link #releaseReadLock()}.
+   */
+  private void reacquireReadLock(int holds) {
+    for (int i = 0; i < holds; i++) {
+      readLock();
+    }
+  }
+
+  /**
+   * The read lock of the namesystem, for the RPC server to hold while it
+   * runs a batch of read-only calls.
+   */
+  Lock getReadLockForBatching() {
+    return this.fsLock.readLock();
+  }
+
   public boolean hasWriteLock() {
     return this.fsLock.isWriteLockedByCurrentThread();
   }
@@ -931,10 +997,14 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean,
                                                        boolean needBlockToken)
       throws FileNotFoundException, UnresolvedLinkException, IOException {
 
+    int batchReadHolds = 0;
     for (int attempt = 0; attempt < 2; attempt++) {
       if (attempt == 0) { // first attempt is with readlock
         readLock();
       }  else { // second attempt is with  write lock
+        // the read lock cannot be upgraded, so give up the one held by the
+        // batch of read-only calls this call may be part of
+        batchReadHolds = releaseReadLock();
         writeLock(); // writelock is needed to set accesstime
       }
 
@@ -958,7 +1028,13 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean,
               continue;
             }
           }
+          long txId = getEditLog().getLastWrittenTxId();
           dir.setTimes(src, inode, -1, now, false);
+          // A new access time alone does not invalidate the cached
+          // responses, they may show an older one until they expire
+          if (attempt > 0 && writeLockTxId == txId) {
+            writeLockTxId = getEditLog().getLastWrittenTxId();
+          }
         }
         return getBlockLocationsInternal(inode, offset, length, needBlockToken);
       } finally {
@@ -966,6 +1042,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean,
           readUnlock();
         } else {
           writeUnlock();
+          reacquireReadLock(batchReadHolds);
         }
       }
     }
@@ -86,6 +86,7 @@ import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.ipc.ProtocolSignature;
 import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.ResponseCache;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.net.NetUtils;
@@ -424,6 +425,35 @@ public class NameNode implements NamenodeProtocols, FSConstants {
                                 handlerCount, false, conf, 
                                 namesystem.getDelegationTokenSecretManager());
 
+    // let handlers run queued read-only calls under a single read lock
+    int readOnlyBatchSize =
+      conf.getInt(DFSConfigKeys.DFS_NAMENODE_READONLY_BATCH_SIZE_KEY,
+                  DFSConfigKeys.DFS_NAMENODE_READONLY_BATCH_SIZE_DEFAULT);
+    if (readOnlyBatchSize > 1) {
+      this.server.setReadOnlyBatching(namesystem.getReadLockForBatching(),
+                                      readOnlyBatchSize);
+      if (this.serviceRpcServer != null) {
+        this.serviceRpcServer.setReadOnlyBatching(
+            namesystem.getReadLockForBatching(), readOnlyBatchSize);
+      }
+    }
+
+    // answer repeated metadata queries from a cache that the namesystem
+    // invalidates on every change
+    int responseCacheSize =
+      conf.getInt(DFSConfigKeys.DFS_NAMENODE_RESPONSE_CACHE_SIZE_KEY,
+                  DFSConfigKeys.DFS_NAMENODE_RESPONSE_CACHE_SIZE_DEFAULT);
+    if (responseCacheSize > 0) {
+      ResponseCache responseCache = new ResponseCache(responseCacheSize,
+          conf.getLong(DFSConfigKeys.DFS_NAMENODE_RESPONSE_CACHE_TTL_KEY,
+                       DFSConfigKeys.DFS_NAMENODE_RESPONSE_CACHE_TTL_DEFAULT));
+      namesystem.setResponseCache(responseCache);
+      this.server.setResponseCache(responseCache);
+      if (this.serviceRpcServer != null) {
+        this.serviceRpcServer.setResponseCache(responseCache);
+      }
+    }
+
     // set service-level authorization security policy
     if (serviceAuthEnabled =
           conf.getBoolean(
@@ -296,4 +296,43 @@ public class TestFileAppend{
       cluster.shutdown();
     }
   }
+
+  /**
+   * Test that data appended with another checksum type than the one of the
+   * file is summed again by the datanodes with the checksum of the file.
+   */
+  @Test
+  public void testAppendWithOtherChecksumType() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY, "CRC32C");
+    fileContents = AppendTestUtil.initBuffer(AppendTestUtil.FILE_SIZE);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(2).build();
+    FileSystem fs = cluster.getFileSystem();
+    Configuration crc32Conf = new HdfsConfiguration(conf);
+    crc32Conf.set(DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY, "CRC32");
+    FileSystem crc32Fs = FileSystem.newInstance(fs.getUri(), crc32Conf);
+    try {
+      Path file = new Path("/otherChecksumType.dat");
+      // the first part ends in the middle of the first chunk, so that the
+      // append completes that chunk and adds a full one to the same block
+      int mid = 100;
+      FSDataOutputStream stm = AppendTestUtil.createFile(fs, file, 2);
+      stm.write(fileContents, 0, mid);
+      stm.close();
+
+      stm = crc32Fs.append(file);
+      stm.write(fileContents, mid, AppendTestUtil.FILE_SIZE - mid);
+      stm.close();
+
+      AppendTestUtil.checkFullFile(crc32Fs, file, AppendTestUtil.FILE_SIZE,
+          fileContents, "Read with CRC32 client");
+      AppendTestUtil.checkFullFile(fs, file, AppendTestUtil.FILE_SIZE,
+          fileContents, "Read with CRC32C client");
+    } finally {
+      crc32Fs.close();
+      fs.close();
+      cluster.shutdown();
+    }
+  }
 }
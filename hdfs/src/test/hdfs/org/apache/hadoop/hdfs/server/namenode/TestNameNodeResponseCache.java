@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.*;
+import static org.apache.hadoop.test.MetricsAsserts.*;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the namenode response cache never serves a response made stale
+ * by a namespace change.
+ */
+public class TestNameNodeResponseCache {
+  private static final Path DIR = new Path("/cached");
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_RESPONSE_CACHE_SIZE_KEY, 100);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_RESPONSE_CACHE_TTL_KEY, 60000);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private MetricsRecordBuilder getRpcMetrics() {
+    return getMetrics("RpcActivityForPort" + cluster.getNameNodePort());
+  }
+
+  @Test
+  public void testInvalidationOnChange() throws IOException {
+    assertTrue(fs.mkdirs(DIR));
+    assertEquals(0, fs.listStatus(DIR).length);
+    assertEquals(0, fs.listStatus(DIR).length);
+    assertCounterGt("RpcResponseCacheHits", 0L, getRpcMetrics());
+
+    DFSTestUtil.createFile(fs, new Path(DIR, "file"), 1024, (short)1, 0L);
+    assertEquals(1, fs.listStatus(DIR).length);
+    assertEquals(1024, fs.getFileStatus(new Path(DIR, "file")).getLen());
+
+    fs.setPermission(DIR, new FsPermission((short)0700));
+    assertEquals((short)0700, fs.getFileStatus(DIR).getPermission().toShort());
+    assertEquals(1024, fs.getContentSummary(DIR).getLength());
+
+    assertTrue(fs.rename(new Path(DIR, "file"), new Path(DIR, "renamed")));
+    assertFalse(fs.exists(new Path(DIR, "file")));
+    assertEquals(1024, fs.getFileStatus(new Path(DIR, "renamed")).getLen());
+
+    assertTrue(fs.delete(new Path(DIR, "renamed"), false));
+    assertFalse(fs.exists(new Path(DIR, "renamed")));
+    assertEquals(0, fs.listStatus(DIR).length);
+    assertEquals(0, fs.getContentSummary(DIR).getLength());
+  }
+
+  @Test
+  public void testAccessTimeUpdateKeepsCache() throws IOException {
+    Path file = new Path(DIR, "file");
+    DFSTestUtil.createFile(fs, file, 1024, (short)1, 0L);
+    FSNamesystem namesystem = cluster.getNamesystem();
+    assertEquals(1, fs.listStatus(DIR).length);
+    assertTrue(namesystem.getResponseCache().size() > 0);
+
+    // reading the file sets its access time under the write lock, which
+    // must not invalidate the cache
+    DFSTestUtil.readFile(fs, file);
+    assertTrue(namesystem.getResponseCache().size() > 0);
+    assertEquals(1, fs.listStatus(DIR).length);
+    assertCounterGt("RpcResponseCacheHits", 0L, getRpcMetrics());
+
+    // while a namespace change does
+    fs.setPermission(file, new FsPermission((short)0600));
+    assertEquals(0, namesystem.getResponseCache().size());
+  }
+}
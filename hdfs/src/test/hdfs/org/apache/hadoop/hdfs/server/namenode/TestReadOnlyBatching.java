@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.*;
+import static org.apache.hadoop.test.MetricsAsserts.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test running read-only namenode RPCs in batches under the namesystem
+ * read lock.
+ */
+public class TestReadOnlyBatching {
+  private static final Path FILE = new Path("/batched/file");
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_READONLY_BATCH_SIZE_KEY, 8);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HANDLER_COUNT_KEY, 2);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    DFSTestUtil.createFile(cluster.getFileSystem(), FILE, 1024, (short)1, 0L);
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Updating the access time needs the write lock, which a call run in a
+   * batch must be able to get although the batch holds the read lock.
+   */
+  @Test(timeout=60000)
+  public void testAccessTimeUpdateInBatch() throws Exception {
+    FSNamesystem namesystem = cluster.getNamesystem();
+    long atime = namesystem.getFileInfo(FILE.toString(), true)
+        .getAccessTime();
+    Thread.sleep(10);
+    namesystem.getReadLockForBatching().lock();
+    try {
+      assertNotNull(namesystem.getBlockLocations(
+          FILE.toString(), 0, 1024, true, false));
+      assertTrue(namesystem.hasReadLock());
+    } finally {
+      namesystem.getReadLockForBatching().unlock();
+    }
+    assertTrue(atime < namesystem.getFileInfo(FILE.toString(), true)
+        .getAccessTime());
+  }
+
+  /**
+   * Many clients reading the namespace concurrently through few handlers.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentReads() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<Long>> results = new ArrayList<Future<Long>>();
+      for (int i = 0; i < 200; i++) {
+        results.add(executor.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws IOException {
+            FileSystem fs = cluster.getFileSystem();
+            assertEquals(1, fs.listStatus(FILE.getParent()).length);
+            assertEquals(1, fs.getFileBlockLocations(
+                fs.getFileStatus(FILE), 0, 1024).length);
+            return fs.getFileStatus(FILE).getLen();
+          }
+        }));
+      }
+      for (Future<Long> result : results) {
+        assertEquals(1024L, result.get().longValue());
+      }
+      MetricsRecordBuilder rb =
+        getMetrics("RpcActivityForPort" + cluster.getNameNodePort());
+      long batches = getLongCounter("RpcReadOnlyBatches", rb);
+      long batchedCalls = getLongCounter("RpcReadOnlyBatchedCalls", rb);
+      assertTrue("No read-only call was batched", batchedCalls > 0);
+      assertTrue("Every batch held a single call: " + batches + " batches of "
+          + batchedCalls + " calls", batches < batchedCalls);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
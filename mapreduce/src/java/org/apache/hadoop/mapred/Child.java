@@ -29,9 +29,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FSError;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobSubmissionFiles;
 import org.apache.hadoop.mapreduce.TaskType;
 import org.apache.hadoop.mapreduce.security.TokenCache;
 import org.apache.hadoop.security.Credentials;
@@ -182,7 +184,11 @@ class Child {
         TaskLog.syncLogs(logLocation, taskid, isCleanup);
         
         // Create the job-conf and set credentials
-        final JobConf job = new JobConf(task.getJobFile());
+        Path jobFile = new Path(task.getJobFile());
+        Path binaryJobFile = JobSubmissionFiles.getBinaryJobConfPath(jobFile);
+        final JobConf job = new JobConf(
+            new File(binaryJobFile.toUri().getPath()).exists()
+            ? binaryJobFile : jobFile);
         job.setCredentials(defaultConf.getCredentials());
         
         // set the jobTokenFile into task
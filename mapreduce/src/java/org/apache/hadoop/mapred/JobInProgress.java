@@ -420,7 +420,11 @@ public class JobInProgress {
           + this.jobId + ".xml");
 
       jobFile = JobSubmissionFiles.getJobConfPath(jobSubmitDir);
-      fs.copyToLocalFile(jobFile, localJobFile);
+      // Prefer the binary job conf. It is copied to the usual local path,
+      // JobConf tells the formats apart when loading it.
+      Path binaryJobFile = JobSubmissionFiles.getBinaryJobConfPath(jobFile);
+      fs.copyToLocalFile(
+          fs.exists(binaryJobFile) ? binaryJobFile : jobFile, localJobFile);
       conf = new JobConf(localJobFile);
       if (conf.getUser() == null) {
         this.conf.setUser(user);
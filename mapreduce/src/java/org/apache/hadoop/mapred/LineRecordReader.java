@@ -34,6 +34,8 @@ import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.GzipIndex;
 import org.apache.hadoop.io.compress.SplitCompressionInputStream;
 import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.commons.logging.LogFactory;
@@ -94,11 +96,19 @@ public class LineRecordReader implements RecordReader<LongWritable, Text> {
     fileIn = fs.open(file);
     if (isCompressedInput()) {
       decompressor = CodecPool.getDecompressor(codec);
+      SplitCompressionInputStream cIn = null;
       if (codec instanceof SplittableCompressionCodec) {
-        final SplitCompressionInputStream cIn =
-          ((SplittableCompressionCodec)codec).createInputStream(
+        cIn = ((SplittableCompressionCodec)codec).createInputStream(
             fileIn, decompressor, start, end,
             SplittableCompressionCodec.READ_MODE.BYBLOCK);
+      } else if (codec instanceof GzipCodec) {
+        GzipIndex index = GzipIndex.read(fs, file);
+        if (index != null) {
+          cIn = ((GzipCodec)codec).createInputStream(fileIn, decompressor,
+              index, start, end);
+        }
+      }
+      if (cIn != null) {
         in = new LineReader(cIn, job);
         start = cIn.getAdjustedStart();
         end = cIn.getAdjustedEnd();
@@ -375,6 +375,7 @@ class MapTask extends Task {
     MapRunnable<INKEY,INVALUE,OUTKEY,OUTVALUE> runner =
       ReflectionUtils.newInstance(job.getMapRunnerClass(), job);
 
+    freezeConfiguration(job);
     try {
       runner.run(in, new OldOutputCollector(collector, conf), reporter);
       mapPhase.complete();
@@ -635,6 +636,8 @@ class MapTask extends Task {
               mapContext);
 
     input.initialize(split, mapperContext);
+    freezeConfiguration(job);
+    freezeConfiguration(mapperContext.getConfiguration());
     mapper.run(mapperContext);
     mapPhase.complete();
     setPhase(TaskStatus.Phase.SORT);
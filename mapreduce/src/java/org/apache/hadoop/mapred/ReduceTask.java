@@ -423,6 +423,7 @@ public class ReduceTask extends Task {
         }
       };
     
+    freezeConfiguration(job);
     // apply reduce function
     try {
       //increment processed counter only if skipping feature is enabled
@@ -544,6 +545,8 @@ public class ReduceTask extends Task {
                                                committer,
                                                reporter, comparator, keyClass,
                                                valueClass);
+    freezeConfiguration(job);
+    freezeConfiguration(reducerContext.getConfiguration());
     reducer.run(reducerContext);
     output.close(reducerContext);
   }
@@ -1106,6 +1106,17 @@ abstract public class Task implements Writable, Configurable {
     done(umbilical, reporter);
   }
   
+  /**
+   * Freeze a configuration that the user code is about to read, if the job
+   * asks for it with {@link JobContext#TASK_CONF_FREEZE}.
+   * @see Configuration#freeze()
+   */
+  protected static void freezeConfiguration(Configuration conf) {
+    if (conf.getBoolean(JobContext.TASK_CONF_FREEZE, false)) {
+      conf.freeze();
+    }
+  }
+
   protected boolean keepTaskFiles(JobConf conf) {
     return (conf.getKeepTaskFilesPattern() != null || conf
         .getKeepFailedTaskFiles());
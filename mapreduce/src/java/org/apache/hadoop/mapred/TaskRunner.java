@@ -33,6 +33,7 @@ import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapreduce.JobSubmissionFiles;
 import org.apache.hadoop.mapreduce.MRConfig;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.filecache.DistributedCache;
@@ -609,6 +610,14 @@ abstract class TaskRunner extends Thread {
     } finally {
       out.close();
     }
+    // The child loads the binary copy, which is much faster to read
+    out = localFs.create(
+        JobSubmissionFiles.getBinaryJobConfPath(localTaskFile), true);
+    try {
+      conf.writeBinary(out);
+    } finally {
+      out.close();
+    }
   }
 
   /**
@@ -81,6 +81,7 @@ import org.apache.hadoop.mapred.TaskController.TaskControllerTaskPathDeletionCon
 import org.apache.hadoop.mapred.TaskController.TaskControllerJobPathDeletionContext;
 import org.apache.hadoop.mapred.TaskTrackerStatus.TaskTrackerHealthStatus;
 import org.apache.hadoop.mapred.pipes.Submitter;
+import org.apache.hadoop.mapreduce.JobSubmissionFiles;
 import org.apache.hadoop.mapreduce.MRConfig;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import static org.apache.hadoop.mapred.QueueManager.toFullPropertyName;
@@ -1178,7 +1179,9 @@ public class TaskTracker
   }
 
   /**
-   * Download the job configuration file from the FS.
+   * Download the job configuration file from the FS. If the job has a binary
+   * job conf it is downloaded instead, to the same local job.xml path, since
+   * {@link JobConf} tells the two formats apart when it loads the file.
    * 
    * @param t Task whose job file has to be downloaded
    * @param jobId jobid of the task
@@ -1189,6 +1192,11 @@ public class TaskTracker
       throws IOException, InterruptedException {
     final JobConf conf = new JobConf(getJobConf());
     FileSystem userFs = getFS(jobFile, jobId, conf);
+    // Prefer the binary job conf, which is much faster to load
+    Path binaryJobFile = JobSubmissionFiles.getBinaryJobConfPath(jobFile);
+    if (userFs.exists(binaryJobFile)) {
+      jobFile = binaryJobFile;
+    }
     // Get sizes of JobFile
     // sizes are -1 if they are not present.
     FileStatus status = null;
@@ -1204,7 +1212,7 @@ public class TaskTracker
         lDirAlloc.getLocalPathForWrite(getLocalJobConfFile(user, jobId.toString()),
             jobFileSize, fConf);
 
-    // Download job.xml
+    // Download the job conf
     userFs.copyToLocalFile(jobFile, localJobFile);
     return localJobFile;
   }
@@ -3179,9 +3187,15 @@ public class TaskTracker
           String localTaskDir =
             getLocalTaskDir(task.getUser(), task.getJobID().toString(), taskId
                 .toString(), task.isTaskCleanupTask());
+          Path localTaskFile =
+            new Path(localTaskDir + Path.SEPARATOR + TaskTracker.JOBFILE);
           PathDeletionContext[] contexts = buildPathDeletionContexts(
-              localFs, getLocalFiles(defaultJobConf, localTaskDir +
-                         Path.SEPARATOR + TaskTracker.JOBFILE));
+              localFs, getLocalFiles(defaultJobConf, localTaskFile.toString()));
+          directoryCleanupThread.addToQueue(contexts);
+          // and the binary copy that TaskRunner writes next to it
+          contexts = buildPathDeletionContexts(localFs, getLocalFiles(
+              defaultJobConf,
+              JobSubmissionFiles.getBinaryJobConfPath(localTaskFile).toString()));
           directoryCleanupThread.addToQueue(contexts);
         }
       } else {
@@ -50,7 +50,14 @@ public class TextInputFormat extends FileInputFormat<LongWritable, Text>
     if (null == codec) {
       return true;
     }
-    return codec instanceof SplittableCompressionCodec;
+    if (codec instanceof SplittableCompressionCodec) {
+      return true;
+    }
+    try {
+      return GzipIndex.isIndexed(fs, file, codec);
+    } catch (IOException e) {
+      return false;
+    }
   }
 
   public RecordReader<LongWritable, Text> getRecordReader(
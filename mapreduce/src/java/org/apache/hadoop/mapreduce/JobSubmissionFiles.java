@@ -54,6 +54,16 @@ public class JobSubmissionFiles {
   public static Path getJobConfPath(Path jobSubmitDir) {
     return new Path(jobSubmitDir, "job.xml");
   }
+
+  /**
+   * Get the path of the binary job conf, written next to the given job conf
+   * file. Readers prefer it to the XML file when it exists, since it is much
+   * cheaper to load.
+   * @see Configuration#writeBinary(java.io.OutputStream)
+   */
+  public static Path getBinaryJobConfPath(Path jobConfPath) {
+    return jobConfPath.suffix(".bin");
+  }
     
   /**
    * Get the job jar path.
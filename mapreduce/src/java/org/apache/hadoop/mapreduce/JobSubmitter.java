@@ -417,6 +417,15 @@ class JobSubmitter {
     } finally {
       out.close();
     }
+    // Also write it in binary, for the JobTracker and the tasks to load
+    out = FileSystem.create(jtFs,
+        JobSubmissionFiles.getBinaryJobConfPath(jobFile),
+        new FsPermission(JobSubmissionFiles.JOB_FILE_PERMISSION));
+    try {
+      conf.writeBinary(out);
+    } finally {
+      out.close();
+    }
   }
   
 
@@ -158,6 +158,8 @@ public interface MRJobConfig {
 
   public static final String TASK_TIMEOUT = "mapreduce.task.timeout";
 
+  public static final String TASK_CONF_FREEZE = "mapreduce.task.conf.freeze";
+
   public static final String TASK_ID = "mapreduce.task.id";
 
   public static final String TASK_OUTPUT_DIR = "mapreduce.task.output.dir";
@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.mapreduce.lib.input;
 
+import java.io.IOException;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.fs.Path;
@@ -25,6 +27,7 @@ import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.GzipIndex;
 import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -58,7 +61,15 @@ public class TextInputFormat extends FileInputFormat<LongWritable, Text> {
     if (null == codec) {
       return true;
     }
-    return codec instanceof SplittableCompressionCodec;
+    if (codec instanceof SplittableCompressionCodec) {
+      return true;
+    }
+    try {
+      return GzipIndex.isIndexed(file.getFileSystem(context.getConfiguration()),
+          file, codec);
+    } catch (IOException e) {
+      return false;
+    }
   }
 
 }
@@ -328,7 +328,7 @@ class Fetcher<K,V> extends Thread {
                               endTime - startTime, mapOutput);
       // Note successful shuffle
       remaining.remove(mapId);
-      metrics.successFetch();
+      metrics.successFetch(endTime - startTime);
       return true;
     } catch (IOException ioe) {
       ioErrs.increment(1);
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.mapreduce.task.reduce;
 
+import java.util.Map;
+
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.TaskAttemptID;
@@ -24,6 +26,8 @@ import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics2.util.Quantile;
+import org.apache.hadoop.metrics2.util.SampleQuantiles;
 
 class ShuffleClientMetrics implements Updater {
 
@@ -33,6 +37,10 @@ class ShuffleClientMetrics implements Updater {
   private long numBytes = 0;
   private int numThreadsBusy = 0;
   private final int numCopiers;
+  // Fetch times of the current update period
+  private final SampleQuantiles fetchTimes = new SampleQuantiles(
+      new Quantile(0.50, 0.050), new Quantile(0.90, 0.010),
+      new Quantile(0.99, 0.001));
   
   ShuffleClientMetrics(TaskAttemptID reduceId, JobConf jobConf) {
     this.numCopiers = jobConf.getInt(MRJobConfig.SHUFFLE_PARALLEL_COPIES, 5);
@@ -53,8 +61,9 @@ class ShuffleClientMetrics implements Updater {
   public synchronized void failedFetch() {
     ++numFailedFetches;
   }
-  public synchronized void successFetch() {
+  public synchronized void successFetch(long fetchTime) {
     ++numSuccessFetches;
+    fetchTimes.insert(fetchTime);
   }
   public synchronized void threadBusy() {
     ++numThreadsBusy;
@@ -75,6 +84,15 @@ class ShuffleClientMetrics implements Updater {
       } else {
         shuffleMetrics.setMetric("shuffle_fetchers_busy_percent", 0);
       }
+      Map<Quantile, Long> percentiles = fetchTimes.snapshot();
+      if (percentiles != null) {
+        for (Map.Entry<Quantile, Long> e : percentiles.entrySet()) {
+          shuffleMetrics.setMetric("shuffle_fetch_time_"+
+              (int) (100 * e.getKey().quantile) +"th_percentile_ms",
+              e.getValue());
+        }
+      }
+      fetchTimes.clear();
       numBytes = 0;
       numSuccessFetches = 0;
       numFailedFetches = 0;
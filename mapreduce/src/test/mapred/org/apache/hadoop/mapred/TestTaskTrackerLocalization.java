@@ -36,6 +36,7 @@ import org.apache.hadoop.fs.LocalDirAllocator;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.MRConfig;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobSubmissionFiles;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.TaskType;
 import org.apache.hadoop.mapreduce.security.TokenCache;
@@ -618,6 +619,67 @@ public class TestTaskTrackerLocalization extends TestCase {
     checkTaskLocalization();
   }
 
+  /**
+   * Test that a job submitted with a binary job conf is localized from it,
+   * that the child's task conf is written in both formats and that both are
+   * removed when a task in a reused JVM is cleaned up.
+   * 
+   * @throws IOException
+   */
+  public void testBinaryJobConfLocalization()
+      throws Exception {
+    if (!canRun()) {
+      return;
+    }
+    // JobSubmitter writes the binary job conf next to job.xml. Mark it, to
+    // tell which of the two was loaded.
+    Configuration binaryConf = new Configuration(jobConf);
+    binaryConf.set("test.binary.job.conf", "loaded");
+    FileOutputStream out = new FileOutputStream(JobSubmissionFiles
+        .getBinaryJobConfPath(new Path(jobConfFile.getAbsolutePath()))
+        .toString());
+    try {
+      binaryConf.writeBinary(out);
+    } finally {
+      out.close();
+    }
+
+    TaskTracker.RunningJob rjob = tracker.localizeJob(tip);
+    localizedJobConf = rjob.getJobConf();
+    assertEquals("Job conf not localized from the binary job conf",
+        "loaded", localizedJobConf.get("test.binary.job.conf"));
+    // it is stored at the usual job.xml path
+    checkJobLocalization();
+
+    localizedJobConf.setNumTasksToExecutePerJvm(2);
+    initializeTask();
+    assertEquals("loaded", localizedTaskConf.get("test.binary.job.conf"));
+
+    // The child loads the binary copy of the task conf
+    Path localTaskFile = new Path(task.getJobFile());
+    Path binaryTaskFile =
+        JobSubmissionFiles.getBinaryJobConfPath(localTaskFile);
+    assertTrue("Binary task conf file " + binaryTaskFile
+        + " is not created!!", new File(binaryTaskFile.toUri().getPath())
+        .exists());
+    JobConf childConf = new JobConf(binaryTaskFile);
+    assertEquals("loaded", childConf.get("test.binary.job.conf"));
+    assertEquals(localizedTaskConf.get(MRConfig.LOCAL_DIR),
+        childConf.get(MRConfig.LOCAL_DIR));
+
+    // With JVM reuse, task cleanup removes both task conf files
+    InlineCleanupQueue cleanupQueue = new InlineCleanupQueue();
+    tracker.setCleanupThread(cleanupQueue);
+    tip.removeTaskFiles(true, taskId);
+    assertFalse("Task conf file " + localTaskFile + " is not deleted!!",
+        new File(localTaskFile.toUri().getPath()).exists());
+    assertFalse("Binary task conf file " + binaryTaskFile
+        + " is not deleted!!", new File(binaryTaskFile.toUri().getPath())
+        .exists());
+    assertTrue("Some task files are not deleted!! Number of stale paths is "
+        + cleanupQueue.stalePaths.size(), cleanupQueue.stalePaths.size() == 0);
+  }
+
   private void initializeTask() throws IOException {
     tip.setJobConf(localizedJobConf);
 